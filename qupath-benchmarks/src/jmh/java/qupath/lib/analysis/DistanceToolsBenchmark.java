@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.analysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.SyntheticHierarchies;
+
+/**
+ * Measure {@link DistanceTools#centroidToBoundsDistance2D(Collection, Collection, double, double, String)}, 
+ * computing the distance from every detection to the boundary of the closest annotation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16G")
+public class DistanceToolsBenchmark {
+
+	@Param({"10000", "100000", "1000000", "5000000"})
+	private int nObjects;
+
+	private Collection<PathObject> detections;
+	private Collection<PathObject> annotations;
+
+	/**
+	 * Create detections and annotations, without adding them to a hierarchy.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		int imageSize = SyntheticHierarchies.getImageSize(nObjects);
+		annotations = new ArrayList<>(SyntheticHierarchies.createAnnotations(imageSize));
+		detections = new ArrayList<>(SyntheticHierarchies.createDetections(nObjects, imageSize, 100L));
+	}
+
+	@Benchmark
+	public Collection<PathObject> centroidToBoundsDistance2D() {
+		DistanceTools.centroidToBoundsDistance2D(detections, annotations, 1.0, 1.0, "Distance to annotation");
+		return detections;
+	}
+
+}
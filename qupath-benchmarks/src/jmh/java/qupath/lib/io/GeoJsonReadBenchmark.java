@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonElement;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.SyntheticHierarchies;
+
+/**
+ * Compare ways of reading objects from GeoJSON: parsing the entire input into a {@link JsonElement} tree first
+ * (as {@link PathIO#readObjectsFromGeoJSON(java.io.InputStream)} did previously), and streaming features
+ * either sequentially or with parallel conversion.
+ * <p>
+ * Peak memory use is not reported directly, but the allocation rates from the GC profiler give a good indication
+ * of the cost of building the tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16G")
+public class GeoJsonReadBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	private int nObjects;
+
+	private byte[] geoJsonBytes;
+
+	/**
+	 * Export synthetic objects as GeoJSON, so that there is something to read.
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		var hierarchy = SyntheticHierarchies.createHierarchy(nObjects, 100L);
+		var stream = new ByteArrayOutputStream();
+		PathIO.exportObjectsAsGeoJSON(stream, hierarchy.getAllObjects(false), PathIO.GeoJsonExportOptions.FEATURE_COLLECTION);
+		geoJsonBytes = stream.toByteArray();
+	}
+
+	@Benchmark
+	public List<PathObject> readTree() throws IOException {
+		try (var reader = new InputStreamReader(new ByteArrayInputStream(geoJsonBytes), StandardCharsets.UTF_8)) {
+			var element = GsonTools.getInstance().fromJson(reader, JsonElement.class);
+			return GsonTools.parseObjectsFromGeoJSON(element);
+		}
+	}
+
+	@Benchmark
+	public List<PathObject> readStreaming() throws IOException {
+		var list = new ArrayList<PathObject>();
+		PathIO.readObjectsFromGeoJSON(new ByteArrayInputStream(geoJsonBytes), false, list::add);
+		return list;
+	}
+
+	@Benchmark
+	public List<PathObject> readStreamingParallel() throws IOException {
+		var list = new ArrayList<PathObject>();
+		PathIO.readObjectsFromGeoJSON(new ByteArrayInputStream(geoJsonBytes), true, list::add);
+		return list;
+	}
+
+}
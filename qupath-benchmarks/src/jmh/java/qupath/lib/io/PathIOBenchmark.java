@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.SyntheticHierarchies;
+
+/**
+ * Measure reading and writing large hierarchies, using the .qpdata format 
+ * ({@link PathIO#writeImageData(java.io.OutputStream, ImageData)} and 
+ * {@link PathIO#readImageData(java.io.InputStream, ImageData, ImageServer, Class)}) and GeoJSON
+ * ({@link PathIO#exportObjectsAsGeoJSON(java.io.OutputStream, java.util.Collection, PathIO.GeoJsonExportOptions...)} and
+ * {@link PathIO#readObjectsFromGeoJSON(java.io.InputStream)}).
+ * <p>
+ * Data is written to memory rather than disk, so that the timings reflect serialization rather than the file system. 
+ * This limits the largest size, since GeoJSON for several million objects can exceed the maximum size of an array.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16G")
+public class PathIOBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	private int nObjects;
+
+	private ImageServer<BufferedImage> server;
+	private ImageData<BufferedImage> imageData;
+	private List<PathObject> pathObjects;
+
+	private byte[] imageDataBytes;
+	private byte[] geoJsonBytes;
+
+	/**
+	 * Create the image data, and serialize it so that there is something to read.
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		server = new WrappedBufferedImageServer("Benchmark", new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB));
+		imageData = new ImageData<>(server, SyntheticHierarchies.createHierarchy(nObjects, 100L));
+		pathObjects = List.copyOf(imageData.getHierarchy().getAllObjects(false));
+		imageDataBytes = writeImageData().toByteArray();
+		geoJsonBytes = exportGeoJSON().toByteArray();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream writeImageData() throws IOException {
+		var stream = new ByteArrayOutputStream();
+		PathIO.writeImageData(stream, imageData);
+		return stream;
+	}
+
+	@Benchmark
+	public ImageData<BufferedImage> readImageData() throws IOException {
+		return PathIO.readImageData(new ByteArrayInputStream(imageDataBytes), null, server, BufferedImage.class);
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream exportGeoJSON() throws IOException {
+		var stream = new ByteArrayOutputStream();
+		PathIO.exportObjectsAsGeoJSON(stream, pathObjects);
+		return stream;
+	}
+
+	@Benchmark
+	public List<PathObject> readGeoJSON() throws IOException {
+		return PathIO.readObjectsFromGeoJSON(new ByteArrayInputStream(geoJsonBytes));
+	}
+
+}
@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.objects.PathObject;
+
+/**
+ * Compare inserting many detections into a hierarchy containing annotations,
+ * using {@link PathObjectHierarchy#insertPathObjects(java.util.Collection)} and
+ * {@link PathObjectHierarchy#insertPathObjectsInBulk(java.util.Collection)}.
+ * <p>
+ * Each invocation is slow at the largest sizes, so a single shot is timed per iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8G")
+public class HierarchyInsertBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	private int nObjects;
+
+	private PathObjectHierarchy hierarchy;
+	private List<PathObject> detections;
+
+	/**
+	 * Create a new hierarchy containing a grid of annotations, and detections randomly distributed across it.
+	 */
+	@Setup(Level.Invocation)
+	public void setup() {
+		int imageSize = SyntheticHierarchies.getImageSize(nObjects);
+		hierarchy = new PathObjectHierarchy();
+		hierarchy.addObjects(SyntheticHierarchies.createAnnotations(imageSize));
+		detections = SyntheticHierarchies.createDetections(nObjects, imageSize, 100L);
+	}
+
+	@Benchmark
+	public PathObjectHierarchy insertPathObjects() {
+		hierarchy.insertPathObjects(detections);
+		return hierarchy;
+	}
+
+	@Benchmark
+	public PathObjectHierarchy insertPathObjectsInBulk() {
+		hierarchy.insertPathObjectsInBulk(detections);
+		return hierarchy;
+	}
+
+}
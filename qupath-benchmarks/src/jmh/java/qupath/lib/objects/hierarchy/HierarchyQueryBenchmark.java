@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Measure spatial queries of a large, resolved hierarchy, using 
+ * {@link PathObjectHierarchy#getObjectsForRegion(Class, ImageRegion, Collection)} (e.g. for viewer tiles) and
+ * {@link PathObjectHierarchy#getObjectsForROI(Class, ROI)} (e.g. to find detections within an annotation).
+ * <p>
+ * The hierarchy is shared across all invocations, and queries cycle through a fixed set of random regions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16G")
+public class HierarchyQueryBenchmark {
+
+	private static final int N_QUERIES = 1024;
+
+	@Param({"10000", "100000", "1000000", "5000000"})
+	private int nObjects;
+
+	private PathObjectHierarchy hierarchy;
+	private ImageRegion[] regions;
+	private ROI[] rois;
+	private int counter;
+
+	/**
+	 * Create a resolved hierarchy, and the regions and ROIs to query.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		hierarchy = SyntheticHierarchies.createHierarchy(nObjects, 100L);
+		int imageSize = SyntheticHierarchies.getImageSize(nObjects);
+		regions = SyntheticHierarchies.createRegions(N_QUERIES, imageSize, 512, 200L);
+		rois = new ROI[N_QUERIES];
+		var plane = ImagePlane.getDefaultPlane();
+		for (int i = 0; i < N_QUERIES; i++) {
+			var region = regions[i];
+			rois[i] = ROIs.createEllipseROI(region.getX(), region.getY(), region.getWidth(), region.getHeight(), plane);
+		}
+		// Ensure the cache has been built before timing
+		hierarchy.getObjectsForRegion(null, regions[0], null);
+	}
+
+	@Benchmark
+	public Collection<PathObject> getObjectsForRegion() {
+		var region = regions[counter++ % N_QUERIES];
+		return hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null);
+	}
+
+	@Benchmark
+	public Collection<PathObject> getObjectsForROI() {
+		var roi = rois[counter++ % N_QUERIES];
+		return hierarchy.getObjectsForROI(PathDetectionObject.class, roi);
+	}
+
+}
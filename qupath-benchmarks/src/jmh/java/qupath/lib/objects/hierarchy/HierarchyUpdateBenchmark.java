@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * Measure operations that change the structure of a large hierarchy, or require the spatial cache to be rebuilt:
+ * {@link PathObjectHierarchy#addObjects(java.util.Collection)}, {@link PathObjectHierarchy#resolveHierarchy()}
+ * and the first region query after the hierarchy has changed.
+ * <p>
+ * Each invocation is slow at the largest sizes, so a single shot is timed per iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16G")
+public class HierarchyUpdateBenchmark {
+
+	@Param({"10000", "100000", "1000000", "5000000"})
+	private int nObjects;
+
+	// Hierarchy containing only annotations, and detections that can be added to it
+	private PathObjectHierarchy emptyHierarchy;
+	private List<PathObject> detections;
+	
+	// Hierarchy with detections added to the root object, without resolving
+	private PathObjectHierarchy hierarchy;
+	private ImageRegion region;
+
+	/**
+	 * Create hierarchies containing a grid of annotations, one of which also has detections that have been added 
+	 * to the root object without resolving the hierarchy.
+	 */
+	@Setup(Level.Invocation)
+	public void setup() {
+		int imageSize = SyntheticHierarchies.getImageSize(nObjects);
+		emptyHierarchy = new PathObjectHierarchy();
+		emptyHierarchy.addObjects(SyntheticHierarchies.createAnnotations(imageSize));
+		detections = SyntheticHierarchies.createDetections(nObjects, imageSize, 100L);
+		
+		hierarchy = new PathObjectHierarchy();
+		hierarchy.addObjects(SyntheticHierarchies.createAnnotations(imageSize));
+		hierarchy.addObjects(SyntheticHierarchies.createDetections(nObjects, imageSize, 100L));
+		region = ImageRegion.createInstance(0, 0, 1024, 1024, 0, 0);
+	}
+
+	@Benchmark
+	public PathObjectHierarchy addObjects() {
+		emptyHierarchy.addObjects(detections);
+		return emptyHierarchy;
+	}
+
+	@Benchmark
+	public PathObjectHierarchy resolveHierarchy() {
+		hierarchy.resolveHierarchy();
+		return hierarchy;
+	}
+
+	@Benchmark
+	public Collection<PathObject> rebuildTileCache() {
+		// The cache is built lazily for the first query after a structure change
+		return hierarchy.getObjectsForRegion(null, region, null);
+	}
+
+}
@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+/**
+ * Helper methods to create reproducible synthetic hierarchies for benchmarking.
+ * <p>
+ * Hierarchies contain a 10x10 grid of elliptical annotations, and detections randomly distributed
+ * across the image with an average spacing of 20 pixels.
+ * Detections are small octagons with integer coordinates, similar to traced cell boundaries.
+ */
+public final class SyntheticHierarchies {
+
+	/**
+	 * Number of annotations in each row and column of the grid.
+	 */
+	public static final int GRID_SIZE = 10;
+
+	private static final int[] OCTAGON_X = {-2, 2, 4, 4, 2, -2, -4, -4};
+	private static final int[] OCTAGON_Y = {-4, -4, -2, 2, 4, 4, 2, -2};
+
+	private SyntheticHierarchies() {}
+
+	/**
+	 * Get the width and height of a square image that can contain the specified number of detections.
+	 * @param nObjects
+	 * @return
+	 */
+	public static int getImageSize(int nObjects) {
+		return (int)Math.ceil(Math.sqrt(nObjects) * 20);
+	}
+
+	/**
+	 * Create a grid of annotations covering an image.
+	 * @param imageSize
+	 * @return
+	 */
+	public static List<PathObject> createAnnotations(int imageSize) {
+		var plane = ImagePlane.getDefaultPlane();
+		int annotationSize = imageSize / GRID_SIZE;
+		List<PathObject> annotations = new ArrayList<>();
+		for (int y = 0; y < GRID_SIZE; y++) {
+			for (int x = 0; x < GRID_SIZE; x++) {
+				annotations.add(PathObjects.createAnnotationObject(
+						ROIs.createEllipseROI(x * annotationSize, y * annotationSize, annotationSize, annotationSize, plane)));
+			}
+		}
+		return annotations;
+	}
+
+	/**
+	 * Create detections randomly distributed across an image.
+	 * @param nObjects number of detections
+	 * @param imageSize width and height of the image
+	 * @param seed seed for the random number generator, so that the same detections can be recreated
+	 * @return
+	 */
+	public static List<PathObject> createDetections(int nObjects, int imageSize, long seed) {
+		var plane = ImagePlane.getDefaultPlane();
+		var random = new Random(seed);
+		List<PathObject> detections = new ArrayList<>(nObjects);
+		for (int i = 0; i < nObjects; i++) {
+			int x = random.nextInt(imageSize);
+			int y = random.nextInt(imageSize);
+			// Arrays are used directly by the ROI, so must not be reused
+			float[] xPoints = new float[OCTAGON_X.length];
+			float[] yPoints = new float[OCTAGON_Y.length];
+			for (int k = 0; k < xPoints.length; k++) {
+				xPoints[k] = x + OCTAGON_X[k];
+				yPoints[k] = y + OCTAGON_Y[k];
+			}
+			detections.add(PathObjects.createDetectionObject(ROIs.createPolygonROI(xPoints, yPoints, plane)));
+		}
+		return detections;
+	}
+
+	/**
+	 * Create a hierarchy containing annotations and detections, with detections assigned to the
+	 * annotations that contain them.
+	 * @param nObjects number of detections
+	 * @param seed seed for the random number generator
+	 * @return
+	 */
+	public static PathObjectHierarchy createHierarchy(int nObjects, long seed) {
+		int imageSize = getImageSize(nObjects);
+		var hierarchy = new PathObjectHierarchy();
+		hierarchy.addObjects(createAnnotations(imageSize));
+		hierarchy.insertPathObjectsInBulk(createDetections(nObjects, imageSize, seed));
+		return hierarchy;
+	}
+
+	/**
+	 * Create random square regions within an image, e.g. to represent viewer tiles.
+	 * @param n number of regions
+	 * @param imageSize width and height of the image
+	 * @param regionSize width and height of each region
+	 * @param seed seed for the random number generator
+	 * @return
+	 */
+	public static ImageRegion[] createRegions(int n, int imageSize, int regionSize, long seed) {
+		var random = new Random(seed);
+		var regions = new ImageRegion[n];
+		int maxOrigin = Math.max(1, imageSize - regionSize);
+		for (int i = 0; i < n; i++) {
+			regions[i] = ImageRegion.createInstance(
+					random.nextInt(maxOrigin), random.nextInt(maxOrigin), regionSize, regionSize, 0, 0);
+		}
+		return regions;
+	}
+
+}
@@ -2846,6 +2846,49 @@ public class QP {
 		PathIO.exportObjectsAsGeoJSON(new File(path), pathObjects, options);
 	}
 
+	/**
+	 * Export all objects (excluding root object) to an output file in QuPath's binary object format.
+	 * This is much faster to read and write than GeoJSON, and is intended for exchanging large numbers of objects 
+	 * with other software.
+	 * 
+	 * @param path the output file, which should normally have the extension .qpobj
+	 * @param includeMeasurements if true, include object measurements
+	 * @throws IOException
+	 * @see qupath.lib.io.BinaryObjectTable
+	 * @since v0.6.0
+	 */
+	public static void exportAllObjectsToBinary(String path, boolean includeMeasurements) throws IOException {
+		exportObjectsToBinary(getAllObjects(false), path, includeMeasurements);
+	}
+	
+	/**
+	 * Export the selected objects to an output file in QuPath's binary object format.
+	 * 
+	 * @param path the output file, which should normally have the extension .qpobj
+	 * @param includeMeasurements if true, include object measurements
+	 * @throws IOException
+	 * @see qupath.lib.io.BinaryObjectTable
+	 * @since v0.6.0
+	 */
+	public static void exportSelectedObjectsToBinary(String path, boolean includeMeasurements) throws IOException {
+		exportObjectsToBinary(getSelectedObjects(), path, includeMeasurements);
+	}
+	
+	/**
+	 * Export specified objects to an output file in QuPath's binary object format.
+	 * The objects can be imported again with {@link #importObjectsFromFile(String)}.
+	 * 
+	 * @param pathObjects the objects to export
+	 * @param path the output file, which should normally have the extension .qpobj
+	 * @param includeMeasurements if true, include object measurements
+	 * @throws IOException
+	 * @see qupath.lib.io.BinaryObjectTable
+	 * @since v0.6.0
+	 */
+	public static void exportObjectsToBinary(Collection<? extends PathObject> pathObjects, String path, boolean includeMeasurements) throws IOException {
+		PathIO.exportObjectsAsBinary(Paths.get(path), pathObjects, includeMeasurements);
+	}
+
 	/**
 	 * Import all {@link PathObject}s from the given file. <p>
 	 * {@code IllegalArgumentException} is thrown if the file is not compatible. <br>
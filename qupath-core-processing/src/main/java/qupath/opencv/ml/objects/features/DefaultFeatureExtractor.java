@@ -48,8 +48,21 @@ class DefaultFeatureExtractor<T> implements FeatureExtractor<T> {
 	
 	@Override
 	public void extractFeatures(ImageData<T> imageData, Collection<? extends PathObject> pathObjects, FloatBuffer buffer) {
-		for (var pathObject : pathObjects)
-			extractFeatures(pathObject, buffer);
+		if (imageData == null || pathObjects.size() <= 1) {
+			for (var pathObject : pathObjects)
+				extractFeatures(pathObject, buffer);
+			return;
+		}
+		// Read each feature in bulk from the hierarchy's measurement store, and interleave the values in the buffer
+		var store = imageData.getHierarchy().getMeasurementStore();
+		int start = buffer.position();
+		int nFeatures = measurements.size();
+		for (int f = 0; f < nFeatures; f++) {
+			double[] values = store.getValues(measurements.get(f), pathObjects);
+			for (int i = 0; i < values.length; i++)
+				buffer.put(start + i * nFeatures + f, (float)values[i]);
+		}
+		buffer.position(start + pathObjects.size() * nFeatures);
 	}
 	
 	@Override
@@ -44,6 +44,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -150,9 +151,7 @@ public class ContourTracing {
 	 * @throws IOException if there is an error reading the images
 	 */
 	public static List<PathObject> labelsToDetections(Path path, RegionRequest request) throws IOException {
-		var requestImage = readImage(path, request);
-		var image = ContourTracing.extractBand(requestImage.getImage().getRaster(), 0);
-		return ContourTracing.createDetections(image, requestImage.getRequest(), 1, -1);
+		return labelsToObjects(path, request, createNumberedObjectFunction(r -> PathObjects.createDetectionObject(r)));
 	}
 	
 	
@@ -206,13 +205,15 @@ public class ContourTracing {
 	 * @throws IOException if there is an error reading the images
 	 */
 	public static List<PathObject> labelsToAnnotations(Path path, RegionRequest request) throws IOException {
-		var requestImage = readImage(path, request);
-		var image = ContourTracing.extractBand(requestImage.getImage().getRaster(), 0);
-		return ContourTracing.createAnnotations(image, requestImage.getRequest(), 1, -1);
+		return labelsToObjects(path, request, createNumberedObjectFunction(r -> PathObjects.createAnnotationObject(r)));
 	}
 	
 	/**
 	 * Convert a labeled image to objects.
+	 * <p>
+	 * Large images (e.g. TIFF files with more than {@code 8192 x 8192} pixels) are read and traced in tiles, 
+	 * if an {@link ImageServer} can be built for them; see {@link #labelsToObjects(ImageServer, RegionRequest, BiFunction)}.
+	 * 
 	 * @param path path to labeled image file (e.g. PNGs)
 	 * @param request a {@link RegionRequest} representing the region or the full image, used to reposition and rescale ROIs.
 	 *        If not provided, this will be extracted from the filename, if possible.
@@ -221,9 +222,269 @@ public class ContourTracing {
 	 * @throws IOException if there is an error reading the images
 	 */
 	public static List<PathObject> labelsToObjects(Path path, RegionRequest request, BiFunction<ROI, Number, PathObject> creator) throws IOException {
+		var server = buildServerForTiling(path);
+		if (server != null) {
+			try {
+				if (request == null)
+					request = parseRegion(path.getFileName().toString(), server.getWidth(), server.getHeight());
+				// Trace in the space of the labeled image, then transform to the space of the full image
+				AffineTransformation transform = null;
+				ImagePlane plane = ImagePlane.getDefaultPlane();
+				if (request != null) {
+					double downsample = request.getDownsample();
+					transform = AffineTransformation.scaleInstance(downsample, downsample).translate(request.getX(), request.getY());
+					plane = request.getImagePlane();
+				}
+				List<PathObject> pathObjects = new ArrayList<>();
+				labelsToObjectsTiled(server, null, transform, plane, creator, pathObjects::addAll);
+				return pathObjects;
+			} finally {
+				try {
+					server.close();
+				} catch (Exception e) {
+					logger.debug("Error closing server: " + e.getLocalizedMessage(), e);
+				}
+			}
+		}
 		var requestImage = readImage(path, request);
 		var image = ContourTracing.extractBand(requestImage.getImage().getRaster(), 0);
-		return ContourTracing.createObjects(image, request, 1, -1, creator);
+		return ContourTracing.createObjects(image, requestImage.getRequest(), 1, -1, creator);
+	}
+	
+	/**
+	 * Convert a labeled image to objects, reading and tracing the image in tiles.
+	 * <p>
+	 * This is intended for labeled images that are too large to read in one go. 
+	 * Tiles are read on demand and traced in parallel. Contours that cross tile boundaries are stitched together, 
+	 * and all pixels with the same label are combined into a single object.
+	 * 
+	 * @param server server containing integer labels in its first channel
+	 * @param region the region to trace; if null, the full image (at full resolution) is used
+	 * @param creator function used to convert a ROI and numeric label to an object
+	 * @return a list of objects generated from the labels, ordered by label
+	 * @throws IOException if there is an error reading the image
+	 * @since v0.6.0
+	 * @see #labelsToObjects(ImageServer, RegionRequest, BiFunction, Consumer)
+	 */
+	public static List<PathObject> labelsToObjects(ImageServer<BufferedImage> server, RegionRequest region, BiFunction<ROI, Number, PathObject> creator) throws IOException {
+		List<PathObject> pathObjects = new ArrayList<>();
+		labelsToObjects(server, region, creator, pathObjects::addAll);
+		return pathObjects;
+	}
+	
+	/**
+	 * Convert a labeled image to objects, reading and tracing the image in tiles and passing the objects to a 
+	 * consumer in batches as they are created.
+	 * <p>
+	 * This can be used to add objects to a hierarchy without first collecting all of them in a list, 
+	 * e.g. with {@code labelsToObjects(server, null, creator, hierarchy::addObjects)}.
+	 * 
+	 * @param server server containing integer labels in its first channel
+	 * @param region the region to trace; if null, the full image (at full resolution) is used
+	 * @param creator function used to convert a ROI and numeric label to an object
+	 * @param consumer consumer for batches of objects; this is called from one thread at a time, with objects ordered by label
+	 * @throws IOException if there is an error reading the image
+	 * @since v0.6.0
+	 * @see #labelsToObjects(ImageServer, RegionRequest, BiFunction)
+	 */
+	public static void labelsToObjects(ImageServer<BufferedImage> server, RegionRequest region, BiFunction<ROI, Number, PathObject> creator, 
+			Consumer<? super List<PathObject>> consumer) throws IOException {
+		labelsToObjectsTiled(server, region, null, null, creator, consumer);
+	}
+	
+	/**
+	 * Maximum number of pixels in a labeled image file that should be read in one go, rather than in tiles.
+	 */
+	private static final long MAX_PIXELS_UNTILED = 8192L * 8192L;
+	
+	/**
+	 * Number of objects to pass to a consumer at a time.
+	 */
+	private static final int OBJECT_BATCH_SIZE = 1000;
+	
+	/**
+	 * Try to build a server for a labeled image file, if it is too large to be read in one go.
+	 * @param path
+	 * @return a server that can be used to read tiles, or null if the image should be read in one go
+	 */
+	private static ImageServer<BufferedImage> buildServerForTiling(Path path) {
+		// Check the size first, since this is usually much faster than building a server
+		try (var stream = ImageIO.createImageInputStream(path.toFile())) {
+			var readers = stream == null ? null : ImageIO.getImageReaders(stream);
+			if (readers != null && readers.hasNext()) {
+				var reader = readers.next();
+				try {
+					reader.setInput(stream, true, true);
+					if ((long)reader.getWidth(0) * reader.getHeight(0) <= MAX_PIXELS_UNTILED)
+						return null;
+				} finally {
+					reader.dispose();
+				}
+			}
+		} catch (IOException e) {
+			logger.debug("Unable to read image size for {}: {}", path, e.getLocalizedMessage());
+		}
+		ImageServer<BufferedImage> server = null;
+		try {
+			server = ImageServers.buildServer(path.toUri());
+			if ((long)server.getWidth() * server.getHeight() > MAX_PIXELS_UNTILED) {
+				logger.debug("Reading labels from {} in tiles", path);
+				return server;
+			}
+			server.close();
+		} catch (Exception e) {
+			logger.debug("Unable to build server for {}: {}", path, e.getLocalizedMessage());
+		}
+		return null;
+	}
+	
+	/**
+	 * Convert a labeled image to objects by tracing tiles in parallel, then merging geometries with the same label.
+	 * @param server the server containing labels in its first channel
+	 * @param region the region to trace; may be null to use the full image
+	 * @param transform optional transform to apply to the traced geometries
+	 * @param plane the plane for the created ROIs; if null, the plane of the region is used
+	 * @param creator function used to convert a ROI and numeric label to an object
+	 * @param consumer consumer for batches of objects
+	 * @throws IOException
+	 */
+	private static void labelsToObjectsTiled(ImageServer<BufferedImage> server, RegionRequest region, AffineTransformation transform, ImagePlane plane,
+			BiFunction<ROI, Number, PathObject> creator, Consumer<? super List<PathObject>> consumer) throws IOException {
+		
+		if (region == null)
+			region = RegionRequest.createInstance(server, server.getDownsampleForResolution(0));
+		if (plane == null)
+			plane = region.getImagePlane();
+		
+		Collection<TileRequest> tiles = server.getTileRequestManager().getTileRequests(region);
+		if (tiles.isEmpty())
+			return;
+		
+		// If the region downsample doesn't match the tile requests, generate tiles at the correct resolution
+		double downsample = region.getDownsample();
+		if (Math.abs(tiles.iterator().next().getDownsample() - downsample) > 1e-3) {
+			server = ImageServers.pyramidalize(server, downsample);
+			tiles = server.getTileRequestManager().getTileRequests(region);
+		}
+		
+		// Determine the tile boundaries, since only geometries that touch these need to be merged
+		var xBoundsSet = new TreeSet<Integer>();
+		var yBoundsSet = new TreeSet<Integer>();
+		for (var t : tiles) {
+			xBoundsSet.add(t.getImageX());
+			xBoundsSet.add(t.getImageX() + t.getImageWidth());
+			yBoundsSet.add(t.getImageY());
+			yBoundsSet.add(t.getImageY() + t.getImageHeight());
+		}
+		int[] xBounds = xBoundsSet.stream().mapToInt(x -> x).toArray(); 
+		int[] yBounds = yBoundsSet.stream().mapToInt(y -> y).toArray();
+		
+		long startTime = System.currentTimeMillis();
+		var tiledServer = server;
+		var tiledRegion = region;
+		var objectPlane = plane;
+		var pool = Executors.newFixedThreadPool(ThreadTools.getParallelism(), ThreadTools.createThreadFactory("contour-tracing-", true));
+		try {
+			List<List<GeometryWrapper>> wrappers = invokeAll(pool, tiles, t -> traceLabels(tiledServer, t, tiledRegion));
+			Map<Integer, List<GeometryWrapper>> geometryMap = wrappers.stream()
+					.flatMap(p -> p.stream())
+					.collect(Collectors.groupingBy(g -> g.label, TreeMap::new, Collectors.toList()));
+			
+			List<Future<PathObject>> futures = new ArrayList<>();
+			for (var entry : geometryMap.entrySet()) {
+				Integer label = entry.getKey();
+				var list = entry.getValue();
+				futures.add(pool.submit(() -> {
+					var geometry = mergeGeometryWrappers(list, xBounds, yBounds);
+					if (transform != null && !transform.isIdentity())
+						geometry = transform.transform(geometry);
+					return creator.apply(GeometryTools.geometryToROI(geometry, objectPlane), label);
+				}));
+			}
+			
+			// Pass objects on in label order, while later labels are still being merged
+			List<PathObject> batch = new ArrayList<>();
+			for (var future : futures) {
+				var pathObject = future.get();
+				if (pathObject != null)
+					batch.add(pathObject);
+				if (batch.size() >= OBJECT_BATCH_SIZE) {
+					consumer.accept(batch);
+					batch = new ArrayList<>();
+				}
+			}
+			if (!batch.isEmpty())
+				consumer.accept(batch);
+			
+			long endTime = System.currentTimeMillis();
+			logger.debug("Traced {} labels from {} tiles in {} ms", futures.size(), tiles.size(), endTime - startTime);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Trace all the labels within a single tile.
+	 * Pixels outside the region are ignored.
+	 */
+	private static List<GeometryWrapper> traceLabels(ImageServer<BufferedImage> server, TileRequest tile, RegionRequest region) {
+		BufferedImage img;
+		try {
+			img = server.readRegion(tile.getRegionRequest());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (img == null)
+			return Collections.emptyList();
+		var raster = img.getRaster();
+		int w = raster.getWidth();
+		int h = raster.getHeight();
+		var pixels = raster.getSamples(0, 0, w, h, 0, (float[])null);
+		
+		// Tiles may extend beyond the region, so mask out any pixels that shouldn't be traced
+		double downsample = tile.getDownsample();
+		boolean[] colInside = new boolean[w];
+		for (int x = 0; x < w; x++) {
+			double xx = tile.getImageX() + (x + 0.5) * downsample;
+			colInside[x] = xx >= region.getMinX() && xx < region.getMaxX();
+		}
+		boolean[] rowInside = new boolean[h];
+		for (int y = 0; y < h; y++) {
+			double yy = tile.getImageY() + (y + 0.5) * downsample;
+			rowInside[y] = yy >= region.getMinY() && yy < region.getMaxY();
+		}
+		
+		// Find the bounding box for each label, so that we don't need to visit all pixels for every label
+		Map<Integer, Envelope> envelopes = new TreeMap<>();
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int ind = y * w + x;
+				if (!rowInside[y] || !colInside[x]) {
+					pixels[ind] = Float.NaN;
+					continue;
+				}
+				float val = pixels[ind];
+				int label = Math.round(val);
+				if (val != label || label < 1)
+					continue;
+				envelopes.computeIfAbsent(label, k -> new Envelope()).expandToInclude(x, y);
+			}
+		}
+		
+		var image = SimpleImages.createFloatImage(pixels, w, h);
+		var list = new ArrayList<GeometryWrapper>();
+		for (var entry : envelopes.entrySet()) {
+			int label = entry.getKey();
+			var geometry = createTracedGeometry(image, label, label, tile, entry.getValue());
+			if (geometry != null && !geometry.isEmpty())
+				list.add(new GeometryWrapper(geometry, label));
+		}
+		return list;
 	}
 	
 	
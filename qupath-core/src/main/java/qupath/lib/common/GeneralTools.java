@@ -819,6 +819,38 @@ public final class GeneralTools {
 		return total;
 	}
 	
+	/**
+	 * Compute the distance along a Hilbert curve for a point within a square grid.
+	 * <p>
+	 * Points that are close along the curve are also close in 2D, which makes this useful for
+	 * ordering objects so that neighbors in a list tend to be neighbors in an image.
+	 *
+	 * @param x x coordinate, between 0 and gridSize-1
+	 * @param y y coordinate, between 0 and gridSize-1
+	 * @param gridSize the grid size, which must be a power of 2
+	 * @return the distance along the curve, between 0 and gridSize*gridSize-1
+	 * @since v0.6.0
+	 */
+	public static long hilbertIndex(int x, int y, int gridSize) {
+		long d = 0;
+		for (int s = gridSize / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long)s * s * ((3 * rx) ^ ry);
+			// Rotate the quadrant
+			if (ry == 0) {
+				if (rx == 1) {
+					x = gridSize - 1 - x;
+					y = gridSize - 1 - y;
+				}
+				int temp = x;
+				x = y;
+				y = temp;
+			}
+		}
+		return d;
+	}
+	
 	
 	/**
 	 * Generate a name that is distinct from the names in an existing collection, while being based on a provided name.
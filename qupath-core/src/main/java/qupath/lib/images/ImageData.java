@@ -39,6 +39,7 @@ import qupath.lib.common.GeneralTools;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerMetadata;
 import qupath.lib.images.servers.ServerTools;
+import qupath.lib.objects.hierarchy.LazyObjectLoader;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
@@ -498,6 +499,9 @@ public class ImageData<T> implements WorkflowListener, PathObjectHierarchyListen
 
 	@Override
 	public void hierarchyChanged(PathObjectHierarchyEvent event) {
+		// Loading or unloading objects on demand doesn't change the data
+		if (event.getSource() instanceof LazyObjectLoader)
+			return;
 		changes = true;
 	}
 
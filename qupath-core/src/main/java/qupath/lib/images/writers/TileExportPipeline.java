@@ -0,0 +1,536 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.ThreadTools;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.LabeledImageServer;
+import qupath.lib.plugins.SimpleProgressMonitor;
+import qupath.lib.regions.RegionRequest;
+
+/**
+ * Pipeline used by {@link TileExporter} to read, encode and write tiles concurrently.
+ * <p>
+ * Tiles pass through three stages, each with its own thread pool:
+ * <ol>
+ *   <li><b>Read:</b> pixels are requested from the server(s), using a limited number of threads so that
+ *   slow or remote image sources aren't overwhelmed. Where tiles lie on a pyramid level and are close together,
+ *   they are read as a single larger region and then cropped.</li>
+ *   <li><b>Encode:</b> tiles are encoded to bytes in the requested format, using all available processors.</li>
+ *   <li><b>Write:</b> encoded tiles are passed to a {@link TileOutput}.</li>
+ * </ol>
+ * The number of tiles in the pipeline at any time is limited, so that memory use doesn't depend upon
+ * the total number of tiles.
+ * <p>
+ * Errors reading or encoding individual tiles are logged, and the export continues.
+ * Errors writing the output are considered fatal, since they are likely to affect all subsequent tiles.
+ */
+class TileExportPipeline {
+
+	private static final Logger logger = LoggerFactory.getLogger(TileExportPipeline.class);
+
+	/**
+	 * Maximum number of tiles that may be read in a single region request.
+	 */
+	static final int MAX_GROUP_SIZE = 64;
+
+	/**
+	 * Approximate maximum number of bytes required for a region containing multiple tiles.
+	 */
+	private static final long MAX_GROUP_BYTES = 64L * 1024L * 1024L;
+
+	/**
+	 * Maximum width or height of a region containing multiple tiles, in pixels at the export resolution.
+	 */
+	private static final int MAX_GROUP_DIMENSION = 4096;
+
+	/**
+	 * Minimum proportion of a region containing multiple tiles that must be covered by the tiles.
+	 */
+	private static final double MIN_GROUP_COVERAGE = 0.5;
+
+	private static final long STATUS_INTERVAL_NANOS = 10_000_000_000L;
+
+	/**
+	 * A single tile to export.
+	 * @param request the region to read
+	 * @param ensureSize if true, the tile should be cropped or padded to the requested tile size
+	 * @param imageName name of the image file, relative to the output
+	 * @param labelName name of the labeled image file, relative to the output; may be null if no labels are exported
+	 */
+	record TileSpec(RegionRequest request, boolean ensureSize, String imageName, String labelName) {}
+
+	/**
+	 * Tiles that should be read together.
+	 * @param tiles the tiles
+	 * @param union the region containing all tiles, or null if the tiles should be read individually
+	 */
+	record TileGroup(List<TileSpec> tiles, RegionRequest union) {}
+
+	private final ImageServer<BufferedImage> server;
+	private final ImageServer<BufferedImage> serverLabeled;
+	private final int tileWidth, tileHeight;
+	private final List<ImageWriter<BufferedImage>> writers;
+	private final List<ImageWriter<BufferedImage>> writersLabeled;
+	private final int nReaders;
+	private final boolean coalesce;
+	private final SimpleProgressMonitor monitor;
+
+	private final AtomicInteger nCompleted = new AtomicInteger();
+	private final AtomicInteger nFailed = new AtomicInteger();
+	private final AtomicLong nBytes = new AtomicLong();
+	private final AtomicReference<IOException> failure = new AtomicReference<>();
+	private final AtomicLong lastStatusTime = new AtomicLong();
+	private long startTime;
+	private int nTotal;
+	private volatile String status;
+
+	TileExportPipeline(ImageServer<BufferedImage> server, ImageServer<BufferedImage> serverLabeled,
+			int tileWidth, int tileHeight, String ext, String extLabeled,
+			int nReaders, boolean coalesce, SimpleProgressMonitor monitor) throws IOException {
+		this.server = server;
+		this.serverLabeled = serverLabeled;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.nReaders = Math.max(1, nReaders);
+		this.coalesce = coalesce;
+		this.monitor = monitor;
+		// Look up writers once, since this involves a service loader
+		this.writers = getWriters(server, ext);
+		this.writersLabeled = serverLabeled == null ? List.of() : getWriters(serverLabeled, extLabeled);
+	}
+
+	private static List<ImageWriter<BufferedImage>> getWriters(ImageServer<BufferedImage> server, String ext) throws IOException {
+		var writers = ImageWriterTools.getCompatibleWriters(server, ext);
+		if (writers.isEmpty())
+			throw new IOException("Unable to write tiles with extension " + ext + " - no compatible writer found");
+		return writers;
+	}
+
+	/**
+	 * Export the tiles.
+	 * Any tiles for which all files have already been written to the output are skipped.
+	 * @param tiles the tiles to export
+	 * @param output the output to which tiles should be written
+	 * @return true if the export was completed, false if it was cancelled via the progress monitor
+	 * @throws IOException if the output could not be written, or the export was interrupted
+	 */
+	boolean run(List<TileSpec> tiles, TileOutput output) throws IOException {
+		var pending = tiles.stream().filter(t -> !isComplete(t, output)).toList();
+		int nSkipped = tiles.size() - pending.size();
+		if (nSkipped > 0)
+			logger.info("Skipping {} tiles that have already been exported", nSkipped);
+		if (pending.isEmpty())
+			return true;
+
+		var groups = coalesce ? createGroups(pending) : pending.stream().map(t -> new TileGroup(List.of(t), null)).toList();
+		if (groups.size() < pending.size())
+			logger.debug("Reading {} tiles using {} region requests", pending.size(), groups.size());
+
+		int parallelism = ThreadTools.getParallelism();
+		int maxInFlight = Math.max(MAX_GROUP_SIZE, parallelism * 4);
+		int nWriters = output.supportsConcurrentWrites() ? Math.min(4, parallelism) : 1;
+		var inFlight = new Semaphore(maxInFlight);
+		var poolRead = Executors.newFixedThreadPool(nReaders, ThreadTools.createThreadFactory("tile-exporter-read", true));
+		var poolEncode = Executors.newFixedThreadPool(parallelism, ThreadTools.createThreadFactory("tile-exporter-encode", true));
+		var poolWrite = Executors.newFixedThreadPool(nWriters, ThreadTools.createThreadFactory("tile-exporter-write", true));
+
+		nTotal = pending.size();
+		startTime = System.nanoTime();
+		lastStatusTime.set(startTime);
+		status = "Exporting " + nTotal + " tiles";
+		if (monitor != null)
+			monitor.startMonitoring(status, nTotal, true);
+
+		boolean cancelled = false;
+		try {
+			for (var group : groups) {
+				if (failure.get() != null)
+					break;
+				if (monitor != null && monitor.cancelled()) {
+					cancelled = true;
+					break;
+				}
+				inFlight.acquire(group.tiles().size());
+				poolRead.execute(() -> read(group, poolEncode, poolWrite, output, inFlight));
+			}
+			// Wait until all submitted tiles have been written
+			inFlight.acquire(maxInFlight);
+		} catch (InterruptedException e) {
+			logger.error("Tile export interrupted: {}", e.getLocalizedMessage());
+			throw new IOException(e);
+		} finally {
+			poolRead.shutdownNow();
+			poolEncode.shutdownNow();
+			poolWrite.shutdownNow();
+		}
+
+		var summary = createStatus(nCompleted.get());
+		if (failure.get() != null) {
+			if (monitor != null)
+				monitor.pluginCompleted("Tile export failed");
+			throw new IOException("Tile export failed after " + summary, failure.get());
+		}
+		if (cancelled) {
+			logger.warn("Tile export cancelled after {}", summary);
+			if (monitor != null)
+				monitor.pluginCompleted("Tile export cancelled");
+			return false;
+		}
+		logger.info("Tile export completed: {}", summary);
+		int failed = nFailed.get();
+		if (failed > 0)
+			logger.warn("{} tiles could not be exported", failed);
+		if (monitor != null)
+			monitor.pluginCompleted("Exported " + (nTotal - failed) + " tiles");
+		return true;
+	}
+
+	private static boolean isComplete(TileSpec tile, TileOutput output) {
+		return output.contains(tile.imageName()) && (tile.labelName() == null || output.contains(tile.labelName()));
+	}
+
+
+	/**
+	 * Group tiles that can be read from the same region.
+	 * Only tiles that lie fully inside the image and on pixel boundaries of a resolution level are grouped,
+	 * so that cropping the region gives exactly the same pixels as reading each tile individually.
+	 * @param tiles
+	 * @return
+	 */
+	List<TileGroup> createGroups(List<TileSpec> tiles) {
+		int blockSize = calculateBlockSize();
+		List<TileGroup> groups = new ArrayList<>();
+		Map<List<Object>, List<TileSpec>> buckets = new LinkedHashMap<>();
+		for (var tile : tiles) {
+			var request = tile.request();
+			if (!canGroup(tile)) {
+				groups.add(new TileGroup(List.of(tile), null));
+				continue;
+			}
+			int blockSizeFull = (int)(blockSize * request.getDownsample());
+			var key = List.<Object>of(request.getDownsample(), request.getZ(), request.getT(),
+					Math.floorDiv(request.getX(), blockSizeFull), Math.floorDiv(request.getY(), blockSizeFull));
+			buckets.computeIfAbsent(key, k -> new ArrayList<>()).add(tile);
+		}
+		var comparator = Comparator.comparingInt((TileSpec t) -> t.request().getY()).thenComparingInt(t -> t.request().getX());
+		for (var bucket : buckets.values()) {
+			bucket.sort(comparator);
+			for (int i = 0; i < bucket.size(); i += MAX_GROUP_SIZE)
+				addGroup(bucket.subList(i, Math.min(bucket.size(), i + MAX_GROUP_SIZE)), groups);
+		}
+		return groups;
+	}
+
+	private void addGroup(List<TileSpec> tiles, List<TileGroup> groups) {
+		if (tiles.size() == 1) {
+			groups.add(new TileGroup(List.copyOf(tiles), null));
+			return;
+		}
+		int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+		double area = 0;
+		for (var tile : tiles) {
+			var r = tile.request();
+			x1 = Math.min(x1, r.getMinX());
+			y1 = Math.min(y1, r.getMinY());
+			x2 = Math.max(x2, r.getMaxX());
+			y2 = Math.max(y2, r.getMaxY());
+			area += (double)r.getWidth() * r.getHeight();
+		}
+		// Don't read large regions that are mostly empty - read the tiles individually instead
+		if (area < (double)(x2 - x1) * (y2 - y1) * MIN_GROUP_COVERAGE) {
+			for (var tile : tiles)
+				groups.add(new TileGroup(List.of(tile), null));
+			return;
+		}
+		var first = tiles.get(0).request();
+		var union = RegionRequest.createInstance(first.getPath(), first.getDownsample(),
+				x1, y1, x2 - x1, y2 - y1, first.getZ(), first.getT());
+		groups.add(new TileGroup(List.copyOf(tiles), union));
+	}
+
+	private boolean canGroup(TileSpec tile) {
+		if (!tile.ensureSize())
+			return false;
+		var request = tile.request();
+		if (request.getX() < 0 || request.getY() < 0 || request.getMaxX() > server.getWidth() || request.getMaxY() > server.getHeight())
+			return false;
+		double downsample = request.getDownsample();
+		if (downsample < 1 || downsample != Math.rint(downsample) || !isResolutionLevel(server, downsample))
+			return false;
+		int d = (int)downsample;
+		return request.getX() % d == 0 && request.getY() % d == 0 &&
+				request.getWidth() == tileWidth * d && request.getHeight() == tileHeight * d;
+	}
+
+	private static boolean isResolutionLevel(ImageServer<?> server, double downsample) {
+		for (double d : server.getPreferredDownsamples()) {
+			if (d == downsample)
+				return true;
+		}
+		return false;
+	}
+
+	private boolean canReadGroup(ImageServer<BufferedImage> server, TileGroup group) {
+		if (group.union() == null)
+			return false;
+		// Labeled images are rendered for each region, and so aren't guaranteed to be identical when cropped
+		if (server == serverLabeled)
+			return !(server instanceof LabeledImageServer) && isResolutionLevel(server, group.union().getDownsample());
+		return true;
+	}
+
+	/**
+	 * Calculate the maximum width and height of a region containing multiple tiles, at the export resolution.
+	 */
+	private int calculateBlockSize() {
+		long bytesPerPixel = getBytesPerPixel(server);
+		if (serverLabeled != null)
+			bytesPerPixel = Math.max(bytesPerPixel, getBytesPerPixel(serverLabeled));
+		int blockSize = (int)Math.sqrt(MAX_GROUP_BYTES / (double)bytesPerPixel);
+		return Math.max(Math.max(tileWidth, tileHeight), Math.min(blockSize, MAX_GROUP_DIMENSION));
+	}
+
+	private static long getBytesPerPixel(ImageServer<?> server) {
+		return Math.max(1, (long)server.nChannels() * server.getPixelType().getBytesPerPixel());
+	}
+
+
+	/**
+	 * Mutable state for a tile as it passes through the pipeline.
+	 */
+	private static class TileWork {
+
+		private final TileSpec tile;
+		private BufferedImage image, labels;
+		private byte[] imageBytes, labelBytes;
+		private boolean failed = false;
+
+		private TileWork(TileSpec tile) {
+			this.tile = tile;
+		}
+
+	}
+
+	private void read(TileGroup group, ExecutorService poolEncode, ExecutorService poolWrite, TileOutput output, Semaphore inFlight) {
+		var work = group.tiles().stream().map(TileWork::new).toList();
+		try {
+			readTiles(server, group, work, false);
+			if (serverLabeled != null)
+				readTiles(serverLabeled, group, work, true);
+		} catch (Throwable e) {
+			logger.error("Error reading tiles: " + e.getLocalizedMessage(), e);
+			for (var w : work)
+				w.failed = true;
+		}
+		for (var w : work) {
+			try {
+				poolEncode.execute(() -> encode(w, poolWrite, output, inFlight));
+			} catch (RejectedExecutionException e) {
+				complete(w, false, inFlight);
+			}
+		}
+	}
+
+	private void readTiles(ImageServer<BufferedImage> server, TileGroup group, List<TileWork> work, boolean isLabels) {
+		BufferedImage imgGroup = null;
+		if (canReadGroup(server, group)) {
+			try {
+				imgGroup = server.readRegion(group.union().updatePath(server.getPath()));
+			} catch (Exception e) {
+				logger.debug("Unable to read {}, will read tiles individually: {}", group.union(), e.getLocalizedMessage());
+			}
+		}
+		var writers = isLabels ? writersLabeled : this.writers;
+		for (var w : work) {
+			if (Thread.currentThread().isInterrupted())
+				w.failed = true;
+			if (w.failed)
+				continue;
+			var request = w.tile.request().updatePath(server.getPath());
+			try {
+				BufferedImage img = imgGroup == null ? null : cropFromGroup(imgGroup, group.union(), request);
+				byte[] bytes = null;
+				if (img == null) {
+					if (w.tile.ensureSize())
+						img = TileExporter.readFixedSizeRegion(server, request, tileWidth, tileHeight);
+					else {
+						// Write directly from the server, so that metadata can be retained where possible
+						bytes = encode(server, request, writers, isLabels ? w.tile.labelName() : w.tile.imageName());
+					}
+				}
+				if (isLabels) {
+					w.labels = img;
+					w.labelBytes = bytes;
+				} else {
+					w.image = img;
+					w.imageBytes = bytes;
+				}
+			} catch (Exception e) {
+				logger.error("Error reading tile " + request + ": " + e.getLocalizedMessage(), e);
+				w.failed = true;
+			}
+		}
+	}
+
+	/**
+	 * Crop a tile from an image read for a larger region.
+	 * @return the cropped tile, or null if the tile could not be cropped with the expected size
+	 */
+	private BufferedImage cropFromGroup(BufferedImage img, RegionRequest union, RegionRequest request) {
+		double downsample = union.getDownsample();
+		if (img.getWidth() != (int)Math.round(union.getWidth() / downsample) || img.getHeight() != (int)Math.round(union.getHeight() / downsample))
+			return null;
+		int x = (int)Math.round((request.getX() - union.getX()) / downsample);
+		int y = (int)Math.round((request.getY() - union.getY()) / downsample);
+		if (x < 0 || y < 0 || x + tileWidth > img.getWidth() || y + tileHeight > img.getHeight())
+			return null;
+		return crop(img, x, y, tileWidth, tileHeight);
+	}
+
+	/**
+	 * Copy a rectangle from an image, so that the full image doesn't need to be retained.
+	 */
+	static BufferedImage crop(BufferedImage img, int x, int y, int width, int height) {
+		var raster = img.getRaster().createCompatibleWritableRaster(width, height);
+		raster.setRect(-x, -y, img.getRaster());
+		return new BufferedImage(img.getColorModel(), raster, img.isAlphaPremultiplied(), null);
+	}
+
+	private void encode(TileWork w, ExecutorService poolWrite, TileOutput output, Semaphore inFlight) {
+		if (!w.failed) {
+			try {
+				if (w.image != null)
+					w.imageBytes = encode(w.image, writers, w.tile.imageName());
+				if (w.labels != null)
+					w.labelBytes = encode(w.labels, writersLabeled, w.tile.labelName());
+			} catch (Exception e) {
+				logger.error("Error writing tile: " + e.getLocalizedMessage(), e);
+				w.failed = true;
+			}
+			w.image = null;
+			w.labels = null;
+		}
+		if (w.failed) {
+			complete(w, false, inFlight);
+			return;
+		}
+		try {
+			poolWrite.execute(() -> write(w, output, inFlight));
+		} catch (RejectedExecutionException e) {
+			complete(w, false, inFlight);
+		}
+	}
+
+	private static byte[] encode(BufferedImage img, List<ImageWriter<BufferedImage>> writers, String name) throws IOException {
+		for (var writer : writers) {
+			try {
+				var stream = new ByteArrayOutputStream();
+				writer.writeImage(img, stream);
+				return stream.toByteArray();
+			} catch (Exception e) {
+				logger.warn("Unable to write image", e);
+			}
+		}
+		throw new IOException("Unable to write " + name + "!  No compatible writer found.");
+	}
+
+	private static byte[] encode(ImageServer<BufferedImage> server, RegionRequest request, List<ImageWriter<BufferedImage>> writers, String name) throws IOException {
+		for (var writer : writers) {
+			try {
+				var stream = new ByteArrayOutputStream();
+				writer.writeImage(server, request, stream);
+				return stream.toByteArray();
+			} catch (Exception e) {
+				logger.warn("Unable to write image", e);
+			}
+		}
+		throw new IOException("Unable to write " + name + "!  No compatible writer found.");
+	}
+
+	private void write(TileWork w, TileOutput output, Semaphore inFlight) {
+		boolean success = false;
+		try {
+			if (failure.get() == null) {
+				output.write(w.tile.imageName(), w.imageBytes);
+				long bytes = w.imageBytes.length;
+				if (w.labelBytes != null) {
+					output.write(w.tile.labelName(), w.labelBytes);
+					bytes += w.labelBytes.length;
+				}
+				nBytes.addAndGet(bytes);
+				success = true;
+			}
+		} catch (IOException e) {
+			if (failure.compareAndSet(null, e))
+				logger.error("Error writing tiles: " + e.getLocalizedMessage(), e);
+		} finally {
+			w.imageBytes = null;
+			w.labelBytes = null;
+			complete(w, success, inFlight);
+		}
+	}
+
+	private void complete(TileWork w, boolean success, Semaphore inFlight) {
+		if (!success)
+			nFailed.incrementAndGet();
+		int n = nCompleted.incrementAndGet();
+		inFlight.release();
+		// Update the status periodically, since this can be logged
+		long now = System.nanoTime();
+		long last = lastStatusTime.get();
+		if (now - last >= STATUS_INTERVAL_NANOS && lastStatusTime.compareAndSet(last, now)) {
+			status = "Exported " + createStatus(n);
+			if (monitor == null)
+				logger.info(status);
+		}
+		if (monitor != null)
+			monitor.updateProgress(1, status, null);
+	}
+
+	private String createStatus(int n) {
+		double seconds = Math.max(1e-3, (System.nanoTime() - startTime) / 1e9);
+		return String.format(Locale.US, "%d/%d tiles in %.1f s (%.1f tiles/s, %.1f MB/s)",
+				n, nTotal, seconds, n / seconds, nBytes.get() / 1024.0 / 1024.0 / seconds);
+	}
+
+}
@@ -23,7 +23,6 @@ package qupath.lib.images.writers;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
-import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -37,8 +36,6 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -53,11 +50,13 @@ import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.LabeledImageServer;
 import qupath.lib.images.servers.ImageServerMetadata.ChannelType;
 import qupath.lib.images.servers.TransformedServerBuilder;
+import qupath.lib.images.writers.TileExportPipeline.TileSpec;
 import qupath.lib.io.GsonTools;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectTools;
 import qupath.lib.objects.classes.PathClass;
+import qupath.lib.plugins.SimpleProgressMonitor;
 import qupath.lib.regions.ImageRegion;
 import qupath.lib.regions.Padding;
 import qupath.lib.regions.RegionRequest;
@@ -104,6 +103,11 @@ public class TileExporter  {
 
 	private ImageServer<BufferedImage> serverLabeled;
 
+	private int maxConcurrentReads = -1;
+	private boolean coalesceReads = true;
+	private boolean resume = false;
+	private SimpleProgressMonitor monitor;
+
 	/**
 	 * Create a builder to export tiles.
 	 * @param imageData
@@ -451,6 +455,60 @@ public class TileExporter  {
 		return this;
 	}
 	
+	/**
+	 * Specify the maximum number of tiles that may be read concurrently.
+	 * This can be reduced to avoid overwhelming slow or remote image sources; encoding and writing tiles 
+	 * is unaffected, and always uses all available processors.
+	 * @param maxConcurrentReads the maximum number of concurrent reads; if &lt;= 0, the default parallelism is used
+	 * @return this exporter
+	 * @since v0.6.0
+	 */
+	public TileExporter maxConcurrentReads(int maxConcurrentReads) {
+		this.maxConcurrentReads = maxConcurrentReads;
+		return this;
+	}
+	
+	/**
+	 * Optionally read neighboring tiles as a single larger region, and then crop the tiles.
+	 * This can greatly reduce the number of requests made to the server when tiles are small or overlapping.
+	 * <p>
+	 * Tiles are only combined if they are full tiles at a resolution level of the image, so that the pixels
+	 * are identical to those that would be read individually. This is true by default.
+	 * @param coalesceReads
+	 * @return this exporter
+	 * @since v0.6.0
+	 */
+	public TileExporter coalesceReads(boolean coalesceReads) {
+		this.coalesceReads = coalesceReads;
+		return this;
+	}
+	
+	/**
+	 * Optionally resume a previous export that was interrupted or cancelled.
+	 * If true, tiles that were already written to the same output are skipped.
+	 * Default is false, in which case existing files are overwritten.
+	 * @param resume
+	 * @return this exporter
+	 * @since v0.6.0
+	 * @see #writeTiles(String)
+	 */
+	public TileExporter resume(boolean resume) {
+		this.resume = resume;
+		return this;
+	}
+	
+	/**
+	 * Set a progress monitor to report the export progress and throughput.
+	 * The monitor may also be used to cancel the export, which can then be continued using {@link #resume(boolean)}.
+	 * @param monitor
+	 * @return this exporter
+	 * @since v0.6.0
+	 */
+	public TileExporter progressMonitor(SimpleProgressMonitor monitor) {
+		this.monitor = monitor;
+		return this;
+	}
+	
 	
 	/**
 	 * Create region requests, along with information about whether we have a partial tile (which should not be resized/padded) or not.
@@ -557,20 +615,37 @@ public class TileExporter  {
 	
 
 	/**
-	 * Export the image tiles to the specified directory.
-	 * @param dirOutput full path to the export directory
+	 * Export the image tiles to the specified directory, or to a single archive.
+	 * <p>
+	 * If the output path ends with {@code .zip} or {@code .tar} (and isn't an existing directory), 
+	 * the tiles are written to an archive at that path, which is created or replaced.
+	 * Otherwise the path must be an existing directory.
+	 * <p>
+	 * If the export is interrupted or cancelled, it can be continued by calling this method again with
+	 * {@link #resume(boolean)} set to true. Archives remain incomplete (with the extension {@code .partial}) until
+	 * the export has finished.
+	 * 
+	 * @param dirOutput full path to the export directory or archive
 	 * @throws IOException if an error occurs during export
 	 */
 	public void writeTiles(String dirOutput) throws IOException {
 
-		if (!new File(dirOutput).isDirectory())
-			throw new IOException("Output directory " + dirOutput + " does not exist!");
-		
-		// Make sure we have any required subdirectories
-		if (imageSubDir != null)
-			new File(dirOutput, imageSubDir).mkdirs();
-		if (labelSubDir != null)
-			new File(dirOutput, labelSubDir).mkdirs();
+		var pathOutput = Paths.get(dirOutput);
+		boolean isArchive = TileOutput.isArchive(pathOutput);
+		if (isArchive) {
+			var dirParent = pathOutput.toAbsolutePath().getParent();
+			if (dirParent == null || !Files.isDirectory(dirParent))
+				throw new IOException("Output directory " + dirParent + " does not exist!");
+		} else {
+			if (!Files.isDirectory(pathOutput))
+				throw new IOException("Output directory " + dirOutput + " does not exist!");
+			
+			// Make sure we have any required subdirectories
+			if (imageSubDir != null)
+				Files.createDirectories(pathOutput.resolve(imageSubDir));
+			if (labelSubDir != null)
+				Files.createDirectories(pathOutput.resolve(labelSubDir));
+		}
 
 		if (serverLabeled != null) {
 			if (extLabeled == null)
@@ -587,8 +662,6 @@ public class TileExporter  {
 		if (requests.size() > 1)
 			logger.info("Exporting {} tiles", requests.size());
 
-		var pool = Executors.newFixedThreadPool(ThreadTools.getParallelism(), ThreadTools.createThreadFactory("tile-exporter", true));
-
 		String imageName = GeneralTools.stripInvalidFilenameChars(
 				GeneralTools.stripExtension(server.getMetadata().getName())
 				);
@@ -617,6 +690,7 @@ public class TileExporter  {
 		
 		// Maintain a record of what we exported
 		List<TileExportEntry> exportImages = new ArrayList<>();
+		List<TileSpec> tiles = new ArrayList<>();
 
 		for (var r : requests) {
 			
@@ -627,12 +701,8 @@ public class TileExporter  {
 			String exportImageName = baseName + ext;
 			if (imageSubDir != null)
 				exportImageName = Paths.get(imageSubDir, exportImageName).toString();
-			String pathImageOutput = Paths.get(dirOutput, exportImageName).toAbsolutePath().toString();
-			
-			ExportTask taskImage = new ExportTask(server, r.request, pathImageOutput, tileWidth, tileHeight, ensureSize);
 
 			String exportLabelName = null;
-			ExportTask taskLabels = null;
 			if (serverLabeled != null) {
 				String labelName = baseName;
 				if ((labelSubDir == null || labelSubDir.equals(imageSubDir)) && labelId == null && ext.equals(extLabeled)) {
@@ -642,67 +712,58 @@ public class TileExporter  {
 				exportLabelName = labelName + extLabeled;
 				if (labelSubDir != null)
 					exportLabelName = Paths.get(labelSubDir, exportLabelName).toString();
-				String pathLabelsOutput = Paths.get(dirOutput, exportLabelName).toAbsolutePath().toString();
-
-				taskLabels = new ExportTask(serverLabeled, r.request.updatePath(serverLabeled.getPath()),
-						pathLabelsOutput, tileWidth, tileHeight, ensureSize);
 			}
 			exportImages.add(new TileExportEntry(
 					r.request.updatePath(imagePathName),
 //					pixelSize,
 					exportImageName,
 					exportLabelName));
-
-			if (taskImage != null)
-				pool.submit(taskImage);
-			if (taskLabels != null) {
-				pool.submit(taskLabels);
-			}
+			tiles.add(new TileSpec(r.request, ensureSize, exportImageName, exportLabelName));
 		}
 		
-		// Write JSON, if we need to
-		if (exportJson) {
-			var gson = GsonTools.getInstance(true)
-					.newBuilder()
-					.disableHtmlEscaping() // Required to support = in filenames
-					.create();
-			var data = new TileExportData(dirOutput, exportImages);
-			if (serverLabeled instanceof LabeledImageServer) {
-				var labels = ((LabeledImageServer) serverLabeled).getLabels();
-				var boundaryLabels = ((LabeledImageServer) serverLabeled).getBoundaryLabels();
-				List<TileExportLabel> labelList = new ArrayList<>();
-				Set<PathClass> existingLabels = new HashSet<>();
-				for (var entry : labels.entrySet()) {
-					var pathClass = entry.getKey();
-					var label = new TileExportLabel(pathClass.toString(), entry.getValue(), boundaryLabels.getOrDefault(pathClass, null));
-					labelList.add(label);
-				}
-				for (var entry : boundaryLabels.entrySet()) {
-					var pathClass = entry.getKey();
-					if (!existingLabels.contains(pathClass)) {
-						var label = new TileExportLabel(pathClass.toString(), null, boundaryLabels.getOrDefault(pathClass, null));
+		int nReaders = maxConcurrentReads > 0 ? maxConcurrentReads : ThreadTools.getParallelism();
+		var pipeline = new TileExportPipeline(server, serverLabeled, tileWidth, tileHeight, ext, extLabeled,
+				nReaders, coalesceReads, monitor);
+
+		try (var output = TileOutput.create(pathOutput, resume)) {
+			if (!pipeline.run(tiles, output)) {
+				logger.warn("Tile export to {} is incomplete - export again with resume(true) to continue", dirOutput);
+				return;
+			}
+			
+			// Write JSON, if we need to
+			if (exportJson) {
+				var gson = GsonTools.getInstance(true)
+						.newBuilder()
+						.disableHtmlEscaping() // Required to support = in filenames
+						.create();
+				var data = new TileExportData(dirOutput, exportImages);
+				if (serverLabeled instanceof LabeledImageServer) {
+					var labels = ((LabeledImageServer) serverLabeled).getLabels();
+					var boundaryLabels = ((LabeledImageServer) serverLabeled).getBoundaryLabels();
+					List<TileExportLabel> labelList = new ArrayList<>();
+					Set<PathClass> existingLabels = new HashSet<>();
+					for (var entry : labels.entrySet()) {
+						var pathClass = entry.getKey();
+						var label = new TileExportLabel(pathClass.toString(), entry.getValue(), boundaryLabels.getOrDefault(pathClass, null));
 						labelList.add(label);
 					}
+					for (var entry : boundaryLabels.entrySet()) {
+						var pathClass = entry.getKey();
+						if (!existingLabels.contains(pathClass)) {
+							var label = new TileExportLabel(pathClass.toString(), null, boundaryLabels.getOrDefault(pathClass, null));
+							labelList.add(label);
+						}
+					}
+					data.labels = labelList;
 				}
-				data.labels = labelList;
-			}
-			var pathJson = Paths.get(dirOutput, imageName + "-tiles.json");
-			if (Files.exists(pathJson)) {
-				logger.warn("Overwriting existing JSON file {}", pathJson);
-			}
-			try (var writer = Files.newBufferedWriter(pathJson, StandardCharsets.UTF_8)) {
-				gson.toJson(data, writer);
+				var jsonName = imageName + "-tiles.json";
+				if (!isArchive && !resume && Files.exists(pathOutput.resolve(jsonName))) {
+					logger.warn("Overwriting existing JSON file {}", pathOutput.resolve(jsonName));
+				}
+				output.write(jsonName, gson.toJson(data).getBytes(StandardCharsets.UTF_8));
 			}
-		}
-
-		pool.shutdown();
-		try {
-			pool.awaitTermination(24, TimeUnit.HOURS);
-		} catch (InterruptedException e) {
-			pool.shutdownNow();
-			logger.error("Tile export interrupted: {}", e.getLocalizedMessage());
-			logger.error("", e);
-			throw new IOException(e);
+			output.finish();
 		}
 	}
 	
@@ -756,48 +817,6 @@ public class TileExporter  {
 	
 
 
-	static class ExportTask implements Runnable {
-
-		private ImageServer<BufferedImage> server;
-		private RegionRequest request;
-		private String path;
-		private int tileWidth, tileHeight;
-		private boolean ensureSize;
-
-		private ExportTask(ImageServer<BufferedImage> server, RegionRequest request, String path, int tileWidth, int tileHeight, boolean ensureSize) {
-			this.server = server;
-			this.request = request;
-			this.path = path;
-			this.tileWidth = tileWidth;
-			this.tileHeight = tileHeight;
-			this.ensureSize = ensureSize;
-		}
-
-		@Override
-		public void run() {
-			try {
-				if (Thread.currentThread().isInterrupted()) {
-					logger.debug("Interrupted! Will not write image to {}", path);
-					return;
-				}
-				
-				if (ensureSize) {
-					// Updated for v0.3.0 to ensure the image size is correct
-					// TODO: This has disadvantages, in that it loses channel names & region info
-					// (e.g. if saving as an ImageJ TIFF)
-					var img = readFixedSizeRegion(server, request, tileWidth, tileHeight);
-					ImageWriterTools.writeImage(img, path);
-				} else {
-					ImageWriterTools.writeImageRegion(server, request, path);
-				}
-			} catch (Exception e) {
-				logger.error("Error writing tile: " + e.getLocalizedMessage(), e);
-			}
-		}
-
-	}
-	
-	
 //	private static BufferedImage fixSize(BufferedImage img, int tileWidth, int tileHeight) {
 //		if (tileWidth <= img.getWidth() && tileHeight <= img.getHeight()) {
 //			int xStart = (img.getWidth() - tileWidth) / 2;
@@ -846,7 +865,7 @@ public class TileExporter  {
 		return img;
 	}
 	
-	private static BufferedImage readFixedSizeRegion(ImageServer<BufferedImage> server, RegionRequest request, int width, int height) throws IOException {
+	static BufferedImage readFixedSizeRegion(ImageServer<BufferedImage> server, RegionRequest request, int width, int height) throws IOException {
 		
 		BufferedImage img;
 		double xProp = 0, yProp = 0;
@@ -0,0 +1,543 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Destination for the files written by a {@link TileExporter}.
+ * <p>
+ * Files can be written to a directory, or to a single zip or tar archive.
+ * In each case, an export that is interrupted can be resumed: files in a directory are written to a temporary
+ * file and then moved, so that any file that exists is complete, while archives are written to a file
+ * with the extension {@code .partial} that is only renamed when the export has finished.
+ * Complete entries in a partial archive are retained when the export is resumed.
+ */
+abstract class TileOutput implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(TileOutput.class);
+
+	/**
+	 * Create an output for a path.
+	 * @param path the output directory, or a file with the extension .zip or .tar to write an archive
+	 * @param resume if true, identify existing files so that they can be skipped
+	 * @return
+	 * @throws IOException
+	 */
+	static TileOutput create(Path path, boolean resume) throws IOException {
+		String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+		if (!Files.isDirectory(path)) {
+			if (name.endsWith(".zip"))
+				return new ZipOutput(path, resume);
+			if (name.endsWith(".tar"))
+				return new TarOutput(path, resume);
+		}
+		if (!Files.isDirectory(path))
+			throw new IOException("Output directory " + path + " does not exist!");
+		return new DirectoryOutput(path, resume);
+	}
+
+	/**
+	 * Check whether an archive output is requested for a path, rather than a directory.
+	 * @param path
+	 * @return
+	 */
+	static boolean isArchive(Path path) {
+		String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+		return !Files.isDirectory(path) && (name.endsWith(".zip") || name.endsWith(".tar"));
+	}
+
+	/**
+	 * Query if a complete file with the given name was already written by a previous export.
+	 * This always returns false if the output wasn't created to resume an export.
+	 * @param name the file name, relative to the output directory
+	 * @return
+	 */
+	abstract boolean contains(String name);
+
+	/**
+	 * Write a file.
+	 * @param name the file name, relative to the output directory
+	 * @param bytes the file contents
+	 * @throws IOException
+	 */
+	abstract void write(String name, byte[] bytes) throws IOException;
+
+	/**
+	 * Query whether {@link #write(String, byte[])} may be called from multiple threads concurrently.
+	 * If not, calls must still be thread-safe, but there is no benefit in using more than one thread.
+	 * @return
+	 */
+	abstract boolean supportsConcurrentWrites();
+
+	/**
+	 * Complete the export successfully.
+	 * If this isn't called before {@link #close()}, any archive is left in a state where the export can be resumed.
+	 * @throws IOException
+	 */
+	abstract void finish() throws IOException;
+
+	static void moveReplacing(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Convert a file name to the form used within archives.
+	 */
+	private static String toEntryName(String name) {
+		return name.replace('\\', '/');
+	}
+
+
+	static class DirectoryOutput extends TileOutput {
+
+		private final Path dir;
+		private final boolean resume;
+
+		private DirectoryOutput(Path dir, boolean resume) {
+			this.dir = dir;
+			this.resume = resume;
+		}
+
+		@Override
+		boolean contains(String name) {
+			return resume && Files.isRegularFile(dir.resolve(name));
+		}
+
+		@Override
+		void write(String name, byte[] bytes) throws IOException {
+			var path = dir.resolve(name);
+			var parent = path.getParent();
+			if (parent != null && !Files.isDirectory(parent))
+				Files.createDirectories(parent);
+			var pathTemp = path.resolveSibling(path.getFileName() + ".tmp");
+			Files.write(pathTemp, bytes);
+			moveReplacing(pathTemp, path);
+		}
+
+		@Override
+		boolean supportsConcurrentWrites() {
+			return true;
+		}
+
+		@Override
+		void finish() {}
+
+		@Override
+		public void close() {}
+
+	}
+
+
+	/**
+	 * Write entries to a zip file.
+	 * Since entries can't be appended to an existing zip file, resuming an export requires that the complete
+	 * entries are copied to a new file.
+	 */
+	static class ZipOutput extends TileOutput {
+
+		private final Path path;
+		private final Path pathPartial;
+		private final Path pathTarget;
+		private final Set<String> existing = new HashSet<>();
+		private final Set<String> written = new HashSet<>();
+		private final ZipOutputStream stream;
+		private boolean finished = false;
+
+		private ZipOutput(Path path, boolean resume) throws IOException {
+			this.path = path;
+			this.pathPartial = path.resolveSibling(path.getFileName() + ".partial");
+			Path source = null;
+			if (resume) {
+				if (Files.exists(pathPartial))
+					source = pathPartial;
+				else if (Files.exists(path))
+					source = path;
+			}
+			this.pathTarget = source == null ? pathPartial : path.resolveSibling(path.getFileName() + ".resume");
+			this.stream = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(pathTarget), 1024 * 1024));
+			if (source != null) {
+				try {
+					copyEntries(source);
+				} catch (IOException e) {
+					stream.close();
+					throw e;
+				}
+			}
+		}
+
+		private void copyEntries(Path source) throws IOException {
+			try (var input = new ZipInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+				ZipEntry entry;
+				while ((entry = input.getNextEntry()) != null) {
+					var bytes = input.readAllBytes();
+					if (!written.add(entry.getName()))
+						continue;
+					writeEntry(entry.getName(), bytes);
+					existing.add(entry.getName());
+				}
+			} catch (IOException e) {
+				// Expected if the previous export was interrupted while writing an entry
+				logger.debug("Stopped reading entries from {}: {}", source, e.getLocalizedMessage());
+			}
+			logger.info("Resuming export with {} existing entries from {}", existing.size(), source);
+		}
+
+		@Override
+		boolean contains(String name) {
+			return existing.contains(toEntryName(name));
+		}
+
+		@Override
+		synchronized void write(String name, byte[] bytes) throws IOException {
+			name = toEntryName(name);
+			// Zip files can't contain duplicate entries
+			if (!written.add(name)) {
+				logger.warn("Skipping duplicate entry {}", name);
+				return;
+			}
+			writeEntry(name, bytes);
+		}
+
+		private void writeEntry(String name, byte[] bytes) throws IOException {
+			var entry = new ZipEntry(name);
+			var lower = name.toLowerCase(Locale.ROOT);
+			// Don't try to compress images that are already compressed
+			if (lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+				var crc = new CRC32();
+				crc.update(bytes);
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(bytes.length);
+				entry.setCompressedSize(bytes.length);
+				entry.setCrc(crc.getValue());
+			}
+			stream.putNextEntry(entry);
+			stream.write(bytes);
+			stream.closeEntry();
+		}
+
+		@Override
+		boolean supportsConcurrentWrites() {
+			return false;
+		}
+
+		@Override
+		synchronized void finish() throws IOException {
+			stream.close();
+			moveReplacing(pathTarget, path);
+			if (!pathTarget.equals(pathPartial))
+				Files.deleteIfExists(pathPartial);
+			finished = true;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (!finished)
+				stream.close();
+		}
+
+	}
+
+
+	/**
+	 * Write entries to a tar file, using pax extended headers for long file names.
+	 * Entries can be appended to an existing tar file, so resuming an export only requires that any incomplete
+	 * entry at the end of the file is removed.
+	 */
+	static class TarOutput extends TileOutput {
+
+		private static final int BLOCK_SIZE = 512;
+
+		private final Path path;
+		private final Path pathPartial;
+		private final Set<String> existing = new HashSet<>();
+		private final FileChannel channel;
+		private final OutputStream stream;
+		private boolean finished = false;
+
+		private TarOutput(Path path, boolean resume) throws IOException {
+			this.path = path;
+			this.pathPartial = path.resolveSibling(path.getFileName() + ".partial");
+			if (resume && !Files.exists(pathPartial) && Files.exists(path))
+				moveReplacing(path, pathPartial);
+			if (resume && Files.exists(pathPartial)) {
+				channel = FileChannel.open(pathPartial, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				long end = scanEntries(channel, existing);
+				channel.truncate(end);
+				channel.position(end);
+				logger.info("Resuming export with {} existing entries from {}", existing.size(), pathPartial);
+			} else {
+				channel = FileChannel.open(pathPartial, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			}
+			stream = new BufferedOutputStream(Channels.newOutputStream(channel), 1024 * 1024);
+		}
+
+		/**
+		 * Read the names of all complete entries in a tar file.
+		 * @param channel
+		 * @param names set to which the entry names should be added
+		 * @return the position immediately after the last complete entry
+		 * @throws IOException
+		 */
+		static long scanEntries(FileChannel channel, Set<String> names) throws IOException {
+			long size = channel.size();
+			long pos = 0;
+			long validEnd = 0;
+			String paxPath = null;
+			var header = ByteBuffer.allocate(BLOCK_SIZE);
+			while (pos + BLOCK_SIZE <= size) {
+				header.clear();
+				readFully(channel, header, pos);
+				var bytes = header.array();
+				if (isZeros(bytes) || !checksumMatches(bytes))
+					break;
+				long entrySize = parseOctal(bytes, 124, 12);
+				long dataEnd = pos + BLOCK_SIZE + align(entrySize);
+				if (entrySize < 0 || dataEnd > size)
+					break;
+				if (bytes[156] == 'x') {
+					var data = ByteBuffer.allocate((int)entrySize);
+					readFully(channel, data, pos + BLOCK_SIZE);
+					paxPath = parsePaxPath(data.array());
+				} else {
+					names.add(paxPath == null ? parseName(bytes) : paxPath);
+					paxPath = null;
+					validEnd = dataEnd;
+				}
+				pos = dataEnd;
+			}
+			return validEnd;
+		}
+
+		private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+			while (buffer.hasRemaining()) {
+				int n = channel.read(buffer, position);
+				if (n < 0)
+					throw new IOException("Unexpected end of tar file");
+				position += n;
+			}
+		}
+
+		private static boolean isZeros(byte[] bytes) {
+			for (byte b : bytes) {
+				if (b != 0)
+					return false;
+			}
+			return true;
+		}
+
+		private static boolean checksumMatches(byte[] header) {
+			return parseOctal(header, 148, 8) == computeChecksum(header);
+		}
+
+		private static long computeChecksum(byte[] header) {
+			long sum = 0;
+			for (int i = 0; i < BLOCK_SIZE; i++)
+				sum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xFF);
+			return sum;
+		}
+
+		private static long parseOctal(byte[] bytes, int offset, int length) {
+			long value = 0;
+			boolean started = false;
+			for (int i = offset; i < offset + length; i++) {
+				byte b = bytes[i];
+				if (b == 0 || (b == ' ' && started))
+					break;
+				if (b == ' ')
+					continue;
+				if (b < '0' || b > '7')
+					return -1;
+				value = value * 8 + (b - '0');
+				started = true;
+			}
+			return value;
+		}
+
+		private static String parseString(byte[] bytes, int offset, int length) {
+			int end = offset;
+			while (end < offset + length && bytes[end] != 0)
+				end++;
+			return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+		}
+
+		private static String parseName(byte[] header) {
+			String name = parseString(header, 0, 100);
+			String prefix = parseString(header, 345, 155);
+			return prefix.isEmpty() ? name : prefix + "/" + name;
+		}
+
+		private static String parsePaxPath(byte[] data) {
+			// Records have the form "<length> <key>=<value>\n"
+			int pos = 0;
+			while (pos < data.length) {
+				int space = pos;
+				while (space < data.length && data[space] != ' ')
+					space++;
+				if (space >= data.length)
+					break;
+				int length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+				if (length <= 0 || pos + length > data.length)
+					break;
+				var record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+				if (record.startsWith("path="))
+					return record.substring(5);
+				pos += length;
+			}
+			return null;
+		}
+
+		private static long align(long n) {
+			return (n + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+		}
+
+		@Override
+		boolean contains(String name) {
+			return existing.contains(toEntryName(name));
+		}
+
+		@Override
+		synchronized void write(String name, byte[] bytes) throws IOException {
+			name = toEntryName(name);
+			var nameBytes = name.getBytes(StandardCharsets.UTF_8);
+			String headerName = name;
+			if (nameBytes.length > 100 || nameBytes.length != name.length()) {
+				// Use a pax extended header to store the full name
+				headerName = truncateName(name);
+				var record = createPaxRecord("path", name);
+				writeEntry(createHeader("PaxHeaders/" + headerName, record.length, (byte)'x'), record);
+			}
+			writeEntry(createHeader(headerName, bytes.length, (byte)'0'), bytes);
+		}
+
+		private void writeEntry(byte[] header, byte[] bytes) throws IOException {
+			stream.write(header);
+			stream.write(bytes);
+			int padding = (int)(align(bytes.length) - bytes.length);
+			if (padding > 0)
+				stream.write(new byte[padding]);
+		}
+
+		private static String truncateName(String name) {
+			// Keep only ASCII characters, and retain the end of the name (including the extension)
+			var sb = new StringBuilder();
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				sb.append(c < 128 ? c : '_');
+			}
+			if (sb.length() > 80)
+				sb.delete(0, sb.length() - 80);
+			return sb.toString();
+		}
+
+		private static byte[] createPaxRecord(String key, String value) {
+			// The length includes the digits used to encode the length itself
+			int length = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+			int total = length + Integer.toString(length).length();
+			if (Integer.toString(total).length() != Integer.toString(length).length())
+				total++;
+			return (total + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+		}
+
+		private static byte[] createHeader(String name, long size, byte type) {
+			var header = new byte[BLOCK_SIZE];
+			putString(header, 0, 100, name);
+			putOctal(header, 100, 8, 0644);
+			putOctal(header, 108, 8, 0);
+			putOctal(header, 116, 8, 0);
+			putOctal(header, 124, 12, size);
+			putOctal(header, 136, 12, System.currentTimeMillis() / 1000L);
+			header[156] = type;
+			putString(header, 257, 6, "ustar");
+			putString(header, 263, 2, "00");
+			long checksum = computeChecksum(header);
+			putOctal(header, 148, 7, checksum);
+			header[155] = ' ';
+			return header;
+		}
+
+		private static void putString(byte[] header, int offset, int length, String value) {
+			var bytes = value.getBytes(StandardCharsets.UTF_8);
+			System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+		}
+
+		/**
+		 * Write an octal value, padded with zeros and terminated with a null character.
+		 */
+		private static void putOctal(byte[] header, int offset, int length, long value) {
+			var s = Long.toOctalString(value);
+			int nDigits = length - 1;
+			s = "0".repeat(Math.max(0, nDigits - s.length())) + s;
+			putString(header, offset, nDigits, s);
+			header[offset + nDigits] = 0;
+		}
+
+		@Override
+		boolean supportsConcurrentWrites() {
+			return false;
+		}
+
+		@Override
+		synchronized void finish() throws IOException {
+			// End of archive is marked by two empty blocks
+			stream.write(new byte[BLOCK_SIZE * 2]);
+			stream.close();
+			moveReplacing(pathPartial, path);
+			finished = true;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (!finished)
+				stream.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,628 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementList.MeasurementListType;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.GeometryTools;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * A read-only, columnar table of objects stored in QuPath's binary object format (.qpobj).
+ * <p>
+ * The format is intended for exchanging large numbers of objects with other software (e.g. Python)
+ * without the cost of parsing or writing GeoJSON.
+ * All values are little-endian, and the data for each column is a plain array aligned to 8 bytes,
+ * so that it can be used directly (e.g. with {@code numpy.frombuffer} or {@code pyarrow.Array.from_buffers})
+ * without copying.
+ * <p>
+ * A file is laid out as follows:
+ * <pre>
+ *   bytes 0-5    magic "QPOBJ\0"
+ *   bytes 6-7    uint16 format version (currently 1)
+ *   bytes 8-11   int32 length of the header, in bytes
+ *   bytes 12-15  reserved (0)
+ *   header       UTF-8 JSON, padded with spaces to a multiple of 8 bytes
+ *   columns      the data for each column, each starting at an offset that is a multiple of 8
+ * </pre>
+ * The JSON header contains
+ * <ul>
+ *   <li>{@code count}: the number of objects</li>
+ *   <li>{@code classes}: the dictionary of classification names (as returned by {@link PathClass#toString()})</li>
+ *   <li>{@code measurements}: the names of all measurements</li>
+ *   <li>{@code columns}: an array describing each column, with its {@code name}, {@code type}
+ *       ({@code uint8}, {@code int32}, {@code int64} or {@code float64}),
+ *       {@code offset} (in bytes from the start of the file) and {@code length} (number of elements)</li>
+ * </ul>
+ * The columns are
+ * <ul>
+ *   <li>{@code kind} (uint8): 1 annotation, 2 detection, 3 tile, 4 cell, 5 TMA core</li>
+ *   <li>{@code id} (uint8): 16 bytes per object, the big-endian bytes of the object's UUID</li>
+ *   <li>{@code class} (int32): index into the classes dictionary, or -1 if the object is unclassified</li>
+ *   <li>{@code color} (int32): packed RGB color of the object, if the color flag is set</li>
+ *   <li>{@code flags} (uint8): bit 0 if the object has a color, bit 1 if it is locked, bit 2 for a missing TMA core</li>
+ *   <li>{@code name_offsets} (int64) and {@code name_data} (uint8): the object names as UTF-8 strings,
+ *       where the name for object {@code i} is given by the bytes between {@code name_offsets[i]} and
+ *       {@code name_offsets[i+1]}; a null name is stored as an empty string</li>
+ *   <li>{@code z}, {@code t} (int32): the image plane of the ROI</li>
+ *   <li>{@code roi_type}, {@code roi_part_offsets}, {@code roi_ring_offsets}, {@code roi_coord_offsets},
+ *       {@code roi_coords}: the ROI (see below)</li>
+ *   <li>{@code nucleus_type}, {@code nucleus_part_offsets}, ... (optional): the nucleus ROI for cells</li>
+ *   <li>{@code measurements} (float64, optional): all measurement values in column-major order,
+ *       so that the values for measurement {@code j} are found from {@code j*count} to {@code (j+1)*count};
+ *       missing values are NaN</li>
+ *   <li>{@code metadata_offsets} and {@code metadata_data} (optional): object metadata as UTF-8 JSON objects,
+ *       using the same layout as the names</li>
+ * </ul>
+ * ROIs are stored using nested offsets, following the layout used by GeoArrow for multipolygons.
+ * Each object has a range of parts (given by {@code roi_part_offsets}), each part has a range of rings
+ * (given by {@code roi_ring_offsets}) and each ring has a range of coordinates
+ * (given by {@code roi_coord_offsets}), where {@code roi_coords} contains interleaved x,y values.
+ * The ROI type is one of
+ * <ul>
+ *   <li>0: no ROI</li>
+ *   <li>1: rectangle, stored as a closed polygon</li>
+ *   <li>2: ellipse, stored as a closed polygon giving its bounding box</li>
+ *   <li>3: line, with two coordinates</li>
+ *   <li>4: polygon, with a single closed ring</li>
+ *   <li>5: polyline, with a single ring that is not closed</li>
+ *   <li>6: points, with all points in a single ring</li>
+ *   <li>7: any other area, stored as polygons with one exterior ring followed by any holes</li>
+ *   <li>8: any other line, stored as one line string per part</li>
+ * </ul>
+ * <p>
+ * When a table is opened from a file, each column is memory-mapped rather than read into memory.
+ * Columns can be accessed directly with {@link #getColumn(String)} and {@link #getMeasurementValues(String)},
+ * while objects are only created when requested.
+ *
+ * @since v0.6.0
+ * @see PathIO#exportObjectsAsBinary(Path, java.util.Collection, boolean)
+ */
+public final class BinaryObjectTable {
+
+	static final byte[] MAGIC = "QPOBJ\0".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 1;
+	static final int PREAMBLE_LENGTH = 16;
+
+	static final byte ROI_NONE = 0;
+	static final byte ROI_RECTANGLE = 1;
+	static final byte ROI_ELLIPSE = 2;
+	static final byte ROI_LINE = 3;
+	static final byte ROI_POLYGON = 4;
+	static final byte ROI_POLYLINE = 5;
+	static final byte ROI_POINTS = 6;
+	static final byte ROI_GEOMETRY_AREA = 7;
+	static final byte ROI_GEOMETRY_LINE = 8;
+
+	static final int FLAG_COLOR = 1;
+	static final int FLAG_LOCKED = 1 << 1;
+	static final int FLAG_MISSING = 1 << 2;
+
+	/**
+	 * Header describing the contents of a table, written as JSON.
+	 */
+	record Header(int version, int count, List<String> classes, List<String> measurements, List<Column> columns) {}
+
+	/**
+	 * Description of a single column.
+	 * @param name the column name
+	 * @param type the data type, using numpy's names
+	 * @param offset offset of the first byte, from the start of the file
+	 * @param length number of elements
+	 */
+	record Column(String name, String type, long offset, long length) {
+
+		int bytesPerElement() {
+			return switch (type) {
+				case "uint8" -> 1;
+				case "int32" -> 4;
+				case "int64", "float64" -> 8;
+				default -> throw new JsonParseException("Unknown column type " + type);
+			};
+		}
+
+		long byteLength() {
+			return length * bytesPerElement();
+		}
+
+	}
+
+	private final Header header;
+	private final Map<String, ByteBuffer> columns;
+
+	private final PathClass[] classes;
+	private final ByteBuffer kind;
+	private final ByteBuffer ids;
+	private final IntBuffer classIndex;
+	private final IntBuffer color;
+	private final ByteBuffer flags;
+	private final StringColumn names;
+	private final StringColumn metadata;
+	private final IntBuffer z;
+	private final IntBuffer t;
+	private final GeometryColumns roi;
+	private final GeometryColumns nucleus;
+	private final DoubleBuffer measurements;
+
+	private BinaryObjectTable(Header header, Map<String, ByteBuffer> columns) throws IOException {
+		this.header = header;
+		this.columns = Collections.unmodifiableMap(columns);
+		int n = header.count();
+		this.classes = header.classes() == null ? new PathClass[0] :
+			header.classes().stream().map(PathClass::fromString).toArray(PathClass[]::new);
+		this.kind = requireColumn("kind", n);
+		// IDs are stored as the big-endian bytes of the UUID
+		this.ids = requireColumn("id", n * 16L).order(ByteOrder.BIG_ENDIAN);
+		this.classIndex = requireColumn("class", n).asIntBuffer();
+		this.color = requireColumn("color", n).asIntBuffer();
+		this.flags = requireColumn("flags", n);
+		this.names = StringColumn.create(this, "name");
+		this.metadata = StringColumn.create(this, "metadata");
+		this.z = requireColumn("z", n).asIntBuffer();
+		this.t = requireColumn("t", n).asIntBuffer();
+		this.roi = GeometryColumns.create(this, "roi");
+		this.nucleus = GeometryColumns.create(this, "nucleus");
+		var measurementColumn = getColumn("measurements");
+		this.measurements = measurementColumn == null ? null : measurementColumn.asDoubleBuffer();
+		if (measurements != null && measurements.limit() != (long)n * getMeasurementNames().size())
+			throw new IOException("Unexpected number of measurement values " + measurements.limit());
+	}
+
+	/**
+	 * Open a table from a file, memory-mapping the columns.
+	 * The file remains mapped for as long as the table (or any column obtained from it) is reachable.
+	 * @param path the file to open
+	 * @return the table
+	 * @throws IOException if the file can't be read, or isn't in the expected format
+	 */
+	public static BinaryObjectTable open(Path path) throws IOException {
+		// Files within other file systems (e.g. zip files) generally can't be mapped
+		if (path.getFileSystem() != FileSystems.getDefault())
+			return wrap(ByteBuffer.wrap(Files.readAllBytes(path)));
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			var preamble = ByteBuffer.allocate(PREAMBLE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, preamble, 0);
+			int headerLength = readPreamble(preamble.flip());
+			long size = channel.size();
+			if (PREAMBLE_LENGTH + (long)headerLength > size)
+				throw new IOException("Not a QuPath object file - header is truncated");
+			var headerBytes = ByteBuffer.allocate(headerLength);
+			readFully(channel, headerBytes, PREAMBLE_LENGTH);
+			var header = parseHeader(headerBytes.array());
+			Map<String, ByteBuffer> columns = new LinkedHashMap<>();
+			for (var column : header.columns()) {
+				checkBounds(column, size);
+				var buffer = channel.map(FileChannel.MapMode.READ_ONLY, column.offset(), column.byteLength());
+				columns.put(column.name(), buffer.order(ByteOrder.LITTLE_ENDIAN));
+			}
+			return new BinaryObjectTable(header, columns);
+		}
+	}
+
+	/**
+	 * Create a table from a buffer containing the full contents of a .qpobj file.
+	 * Columns are slices of the buffer, so the buffer should not be modified while the table is in use.
+	 * @param buffer the buffer, starting at its current position
+	 * @return the table
+	 * @throws IOException if the buffer isn't in the expected format
+	 */
+	public static BinaryObjectTable wrap(ByteBuffer buffer) throws IOException {
+		var data = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (data.limit() < PREAMBLE_LENGTH)
+			throw new IOException("Not a QuPath object file - too short");
+		int headerLength = readPreamble(data.slice(0, PREAMBLE_LENGTH).order(ByteOrder.LITTLE_ENDIAN));
+		if (data.limit() < PREAMBLE_LENGTH + headerLength)
+			throw new IOException("Not a QuPath object file - header is truncated");
+		var headerBytes = new byte[headerLength];
+		data.get(PREAMBLE_LENGTH, headerBytes);
+		var header = parseHeader(headerBytes);
+		Map<String, ByteBuffer> columns = new LinkedHashMap<>();
+		for (var column : header.columns()) {
+			checkBounds(column, data.limit());
+			var slice = data.slice((int)column.offset(), (int)column.byteLength());
+			columns.put(column.name(), slice.order(ByteOrder.LITTLE_ENDIAN));
+		}
+		return new BinaryObjectTable(header, columns);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0)
+				throw new IOException("Not a QuPath object file - unexpected end of file");
+			position += n;
+		}
+	}
+
+	private static int readPreamble(ByteBuffer buffer) throws IOException {
+		var magic = new byte[MAGIC.length];
+		buffer.get(0, magic);
+		if (!Arrays.equals(magic, MAGIC))
+			throw new IOException("Not a QuPath object file - invalid magic number");
+		int version = Short.toUnsignedInt(buffer.getShort(6));
+		if (version > VERSION)
+			throw new IOException("Unsupported QuPath object file version " + version);
+		int headerLength = buffer.getInt(8);
+		if (headerLength < 0)
+			throw new IOException("Invalid header length " + headerLength);
+		return headerLength;
+	}
+
+	private static Header parseHeader(byte[] bytes) throws IOException {
+		try {
+			var header = GsonTools.getInstance().fromJson(new String(bytes, StandardCharsets.UTF_8).strip(), Header.class);
+			if (header == null || header.columns() == null)
+				throw new IOException("Missing column descriptions");
+			for (var column : header.columns())
+				column.bytesPerElement();
+			return header;
+		} catch (JsonParseException e) {
+			throw new IOException("Unable to parse header: " + e.getLocalizedMessage(), e);
+		}
+	}
+
+	private static void checkBounds(Column column, long size) throws IOException {
+		long length = column.byteLength();
+		if (column.offset() < PREAMBLE_LENGTH || length < 0 || column.offset() + length > size)
+			throw new IOException("Column " + column.name() + " lies outside the file");
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Column " + column.name() + " is too large (" + length + " bytes)");
+	}
+
+	private ByteBuffer requireColumn(String name, long expectedLength) throws IOException {
+		var buffer = columns.get(name);
+		if (buffer == null)
+			throw new IOException("Missing column " + name);
+		var column = getColumnInfo(name);
+		if (column.length() != expectedLength)
+			throw new IOException("Column " + name + " has length " + column.length() + ", but expected " + expectedLength);
+		return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private Column getColumnInfo(String name) {
+		for (var column : header.columns()) {
+			if (name.equals(column.name()))
+				return column;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the number of objects in the table.
+	 * @return
+	 */
+	public int size() {
+		return header.count();
+	}
+
+	/**
+	 * Get the names of the classifications, in the order used by the {@code class} column.
+	 * @return
+	 */
+	public List<String> getClassNames() {
+		return header.classes() == null ? Collections.emptyList() : Collections.unmodifiableList(header.classes());
+	}
+
+	/**
+	 * Get the names of all the measurements in the table.
+	 * @return
+	 */
+	public List<String> getMeasurementNames() {
+		return header.measurements() == null ? Collections.emptyList() : Collections.unmodifiableList(header.measurements());
+	}
+
+	/**
+	 * Get the names of all the columns in the table.
+	 * @return
+	 */
+	public Set<String> getColumnNames() {
+		return columns.keySet();
+	}
+
+	/**
+	 * Get the raw data for a column, without copying.
+	 * @param name the column name
+	 * @return a read-only little-endian buffer containing the data for the column, or null if the column isn't found
+	 */
+	public ByteBuffer getColumn(String name) {
+		var buffer = columns.get(name);
+		return buffer == null ? null : buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Get the values of a measurement for all objects, without copying.
+	 * @param name the measurement name
+	 * @return a read-only buffer containing one value per object (NaN if the object doesn't have the measurement),
+	 *         or null if the measurement isn't found
+	 */
+	public DoubleBuffer getMeasurementValues(String name) {
+		int ind = getMeasurementNames().indexOf(name);
+		if (ind < 0 || measurements == null)
+			return null;
+		int n = size();
+		return measurements.slice(ind * n, n).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Create all the objects in the table.
+	 * Objects are created in parallel, but returned in the order they are stored.
+	 * @return a list of objects
+	 */
+	public List<PathObject> getPathObjects() {
+		return IntStream.range(0, size())
+				.parallel()
+				.mapToObj(this::getPathObject)
+				.toList();
+	}
+
+	/**
+	 * Create the object stored at a specified row.
+	 * @param ind the row index
+	 * @return a new object
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 * @throws IllegalArgumentException if the row doesn't contain a valid object
+	 */
+	public PathObject getPathObject(int ind) throws IndexOutOfBoundsException, IllegalArgumentException {
+		var plane = ImagePlane.getPlane(z.get(ind), t.get(ind));
+		var roiObject = roi.getROI(ind, plane);
+		int flag = flags.get(ind);
+		int classInd = classIndex.get(ind);
+		var pathClass = classInd < 0 ? null : classes[classInd];
+
+		byte k = kind.get(ind);
+		PathObject pathObject;
+		switch (k) {
+		case ObjectChunkCodec.KIND_ANNOTATION:
+			pathObject = PathObjects.createAnnotationObject(roiObject, pathClass, createMeasurementList(ind, MeasurementListType.GENERAL));
+			break;
+		case ObjectChunkCodec.KIND_DETECTION:
+			pathObject = PathObjects.createDetectionObject(roiObject, pathClass, createMeasurementList(ind, MeasurementListType.FLOAT));
+			break;
+		case ObjectChunkCodec.KIND_TILE:
+			pathObject = PathObjects.createTileObject(roiObject, pathClass, createMeasurementList(ind, MeasurementListType.FLOAT));
+			break;
+		case ObjectChunkCodec.KIND_CELL:
+			var nucleusROI = nucleus == null ? null : nucleus.getROI(ind, plane);
+			pathObject = PathObjects.createCellObject(roiObject, nucleusROI, pathClass, createMeasurementList(ind, MeasurementListType.FLOAT));
+			break;
+		case ObjectChunkCodec.KIND_TMA_CORE:
+			var core = new TMACoreObject();
+			core.setROI(roiObject);
+			core.setMissing((flag & FLAG_MISSING) != 0);
+			var list = createMeasurementList(ind, MeasurementListType.GENERAL);
+			if (list != null)
+				core.getMeasurementList().putAll(list);
+			pathObject = core;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown object kind " + k + " at row " + ind);
+		}
+
+		int idInd = ind * 16;
+		pathObject.setID(new UUID(ids.getLong(idInd), ids.getLong(idInd + 8)));
+		// Color must be set after the classification, since setting a classification resets the color
+		if ((flag & FLAG_COLOR) != 0)
+			pathObject.setColor(color.get(ind));
+		if ((flag & FLAG_LOCKED) != 0)
+			pathObject.setLocked(true);
+		var name = names == null ? null : names.get(ind);
+		if (name != null && !name.isEmpty())
+			pathObject.setName(name);
+		var metadataJson = metadata == null ? null : metadata.get(ind);
+		if (metadataJson != null && !metadataJson.isEmpty()) {
+			Map<String, String> map = GsonTools.getInstance().fromJson(metadataJson, new TypeToken<Map<String, String>>() {}.getType());
+			pathObject.getMetadata().putAll(map);
+		}
+		return pathObject;
+	}
+
+	private MeasurementList createMeasurementList(int ind, MeasurementListType type) {
+		if (measurements == null)
+			return null;
+		var measurementNames = getMeasurementNames();
+		int n = size();
+		MeasurementList list = null;
+		for (int i = 0; i < measurementNames.size(); i++) {
+			double val = measurements.get(i * n + ind);
+			if (Double.isNaN(val))
+				continue;
+			if (list == null)
+				list = MeasurementListFactory.createMeasurementList(measurementNames.size(), type);
+			list.put(measurementNames.get(i), val);
+		}
+		if (list != null)
+			list.close();
+		return list;
+	}
+
+
+	/**
+	 * Variable-length UTF-8 strings, stored as offsets and data.
+	 */
+	private record StringColumn(LongBuffer offsets, ByteBuffer data) {
+
+		private static StringColumn create(BinaryObjectTable table, String prefix) throws IOException {
+			if (table.getColumn(prefix + "_offsets") == null)
+				return null;
+			var offsets = table.requireColumn(prefix + "_offsets", table.size() + 1L).asLongBuffer();
+			var data = table.columns.get(prefix + "_data");
+			if (data == null)
+				throw new IOException("Missing column " + prefix + "_data");
+			return new StringColumn(offsets, data);
+		}
+
+		private String get(int ind) {
+			int start = (int)offsets.get(ind);
+			int end = (int)offsets.get(ind + 1);
+			if (end == start)
+				return null;
+			var bytes = new byte[end - start];
+			data.get(start, bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+	}
+
+
+	/**
+	 * ROIs stored as types, nested offsets and coordinates.
+	 */
+	private record GeometryColumns(ByteBuffer types, LongBuffer partOffsets, LongBuffer ringOffsets, LongBuffer coordOffsets, DoubleBuffer coords) {
+
+		private static GeometryColumns create(BinaryObjectTable table, String prefix) throws IOException {
+			if (table.getColumn(prefix + "_type") == null)
+				return null;
+			int n = table.size();
+			var types = table.requireColumn(prefix + "_type", n);
+			var partOffsets = table.requireColumn(prefix + "_part_offsets", n + 1L).asLongBuffer();
+			long nParts = partOffsets.get(n);
+			var ringOffsets = table.requireColumn(prefix + "_ring_offsets", nParts + 1).asLongBuffer();
+			long nRings = ringOffsets.get((int)nParts);
+			var coordOffsets = table.requireColumn(prefix + "_coord_offsets", nRings + 1).asLongBuffer();
+			long nCoords = coordOffsets.get((int)nRings);
+			var coords = table.requireColumn(prefix + "_coords", nCoords * 2).asDoubleBuffer();
+			return new GeometryColumns(types, partOffsets, ringOffsets, coordOffsets, coords);
+		}
+
+		private ROI getROI(int ind, ImagePlane plane) {
+			byte type = types.get(ind);
+			if (type == ROI_NONE)
+				return null;
+			int firstPart = (int)partOffsets.get(ind);
+			int lastPart = (int)partOffsets.get(ind + 1);
+			if (type == ROI_GEOMETRY_AREA || type == ROI_GEOMETRY_LINE) {
+				var factory = GeometryTools.getDefaultFactory();
+				if (type == ROI_GEOMETRY_AREA) {
+					var polygons = new Polygon[lastPart - firstPart];
+					for (int p = firstPart; p < lastPart; p++) {
+						int firstRing = (int)ringOffsets.get(p);
+						int lastRing = (int)ringOffsets.get(p + 1);
+						var shell = factory.createLinearRing(getCoordinates(firstRing));
+						var holes = new LinearRing[lastRing - firstRing - 1];
+						for (int r = 0; r < holes.length; r++)
+							holes[r] = factory.createLinearRing(getCoordinates(firstRing + r + 1));
+						polygons[p - firstPart] = factory.createPolygon(shell, holes);
+					}
+					var geometry = polygons.length == 1 ? polygons[0] : factory.createMultiPolygon(polygons);
+					return GeometryTools.geometryToROI(geometry, plane);
+				} else {
+					var lines = new LineString[lastPart - firstPart];
+					for (int p = firstPart; p < lastPart; p++)
+						lines[p - firstPart] = factory.createLineString(getCoordinates((int)ringOffsets.get(p)));
+					var geometry = lines.length == 1 ? lines[0] : factory.createMultiLineString(lines);
+					return GeometryTools.geometryToROI(geometry, plane);
+				}
+			}
+			if (lastPart - firstPart != 1)
+				throw new IllegalArgumentException("Expected a single part for ROI type " + type + " at row " + ind);
+			int ring = (int)ringOffsets.get(firstPart);
+			int start = (int)coordOffsets.get(ring);
+			int n = (int)coordOffsets.get(ring + 1) - start;
+			if (type == ROI_POLYGON && n > 1 && getX(start) == getX(start + n - 1) && getY(start) == getY(start + n - 1))
+				n--;
+			var x = new double[n];
+			var y = new double[n];
+			for (int i = 0; i < n; i++) {
+				x[i] = getX(start + i);
+				y[i] = getY(start + i);
+			}
+			switch (type) {
+			case ROI_RECTANGLE:
+			case ROI_ELLIPSE:
+				double minX = Arrays.stream(x).min().orElse(0);
+				double minY = Arrays.stream(y).min().orElse(0);
+				double width = Arrays.stream(x).max().orElse(0) - minX;
+				double height = Arrays.stream(y).max().orElse(0) - minY;
+				if (type == ROI_RECTANGLE)
+					return ROIs.createRectangleROI(minX, minY, width, height, plane);
+				return ROIs.createEllipseROI(minX, minY, width, height, plane);
+			case ROI_LINE:
+				if (n != 2)
+					throw new IllegalArgumentException("Expected 2 coordinates for a line, but found " + n + " at row " + ind);
+				return ROIs.createLineROI(x[0], y[0], x[1], y[1], plane);
+			case ROI_POLYGON:
+				return ROIs.createPolygonROI(x, y, plane);
+			case ROI_POLYLINE:
+				return ROIs.createPolylineROI(x, y, plane);
+			case ROI_POINTS:
+				return ROIs.createPointsROI(x, y, plane);
+			default:
+				throw new IllegalArgumentException("Unknown ROI type " + type + " at row " + ind);
+			}
+		}
+
+		private Coordinate[] getCoordinates(int ring) {
+			int start = (int)coordOffsets.get(ring);
+			int end = (int)coordOffsets.get(ring + 1);
+			var coordinates = new Coordinate[end - start];
+			for (int i = start; i < end; i++)
+				coordinates[i - start] = new Coordinate(getX(i), getY(i));
+			return coordinates;
+		}
+
+		private double getX(int coord) {
+			return coords.get(coord * 2);
+		}
+
+		private double getY(int coord) {
+			return coords.get(coord * 2 + 1);
+		}
+
+	}
+
+}
@@ -0,0 +1,505 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.util.LineStringExtracter;
+import org.locationtech.jts.geom.util.PolygonExtracter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.io.BinaryObjectTable.Column;
+import qupath.lib.io.BinaryObjectTable.Header;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathTileObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.roi.EllipseROI;
+import qupath.lib.roi.LineROI;
+import qupath.lib.roi.PolygonROI;
+import qupath.lib.roi.PolylineROI;
+import qupath.lib.roi.RectangleROI;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Write objects in the binary object format described in {@link BinaryObjectTable}.
+ */
+final class BinaryObjectWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(BinaryObjectWriter.class);
+
+	private BinaryObjectWriter() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Write objects to a channel.
+	 * Root objects, and objects of any unsupported type, are skipped.
+	 * Child objects are not written unless they are included in the collection.
+	 *
+	 * @param channel the channel to write to; this is not closed
+	 * @param pathObjects the objects to write
+	 * @param includeMeasurements if true, include object measurements
+	 * @throws IOException
+	 */
+	static void write(WritableByteChannel channel, Collection<? extends PathObject> pathObjects, boolean includeMeasurements) throws IOException {
+		var list = new ArrayList<PathObject>(pathObjects.size());
+		for (var pathObject : pathObjects) {
+			if (getKind(pathObject) < 0)
+				logger.debug("Skipping unsupported object {}", pathObject);
+			else
+				list.add(pathObject);
+		}
+		if (list.size() < pathObjects.size())
+			logger.warn("{} object(s) can't be written in binary format and will be skipped", pathObjects.size() - list.size());
+
+		int n = list.size();
+		var kinds = new byte[n];
+		var ids = ByteBuffer.allocate(n * 16);
+		var classIndex = new int[n];
+		var colors = new int[n];
+		var flags = new byte[n];
+		var z = new int[n];
+		var t = new int[n];
+		var names = new StringColumnBuilder(n);
+		var metadata = new StringColumnBuilder(n);
+		var roi = new GeometryBuilder(n);
+		var nucleus = new GeometryBuilder(n);
+		Map<PathClass, Integer> classMap = new LinkedHashMap<>();
+		boolean hasNames = false;
+		boolean hasNucleus = false;
+		boolean hasMetadata = false;
+
+		for (int i = 0; i < n; i++) {
+			var pathObject = list.get(i);
+			kinds[i] = getKind(pathObject);
+			var id = pathObject.getID();
+			ids.putLong(id.getMostSignificantBits());
+			ids.putLong(id.getLeastSignificantBits());
+
+			var pathClass = pathObject.getPathClass();
+			if (pathClass == null || pathClass == PathClass.NULL_CLASS)
+				classIndex[i] = -1;
+			else
+				classIndex[i] = classMap.computeIfAbsent(pathClass, p -> classMap.size());
+
+			int flag = 0;
+			var color = pathObject.getColor();
+			if (color != null) {
+				colors[i] = color;
+				flag |= BinaryObjectTable.FLAG_COLOR;
+			}
+			if (pathObject.isLocked())
+				flag |= BinaryObjectTable.FLAG_LOCKED;
+			if (pathObject instanceof TMACoreObject core && core.isMissing())
+				flag |= BinaryObjectTable.FLAG_MISSING;
+			flags[i] = (byte)flag;
+
+			var pathROI = pathObject.getROI();
+			if (pathROI != null) {
+				z[i] = pathROI.getZ();
+				t[i] = pathROI.getT();
+			}
+			roi.add(i, pathROI);
+			var nucleusROI = pathObject instanceof PathCellObject cell ? cell.getNucleusROI() : null;
+			nucleus.add(i, nucleusROI);
+			hasNucleus = hasNucleus || nucleusROI != null;
+
+			var name = pathObject.getName();
+			hasNames = hasNames || name != null;
+			names.add(name);
+
+			var map = pathObject.getMetadata();
+			if (map.isEmpty()) {
+				metadata.add(null);
+			} else {
+				hasMetadata = true;
+				metadata.add(GsonTools.getInstance().toJson(new LinkedHashMap<>(map)));
+			}
+		}
+
+		List<String> measurementNames = new ArrayList<>();
+		double[] measurements = null;
+		if (includeMeasurements) {
+			Map<String, Integer> measurementMap = new LinkedHashMap<>();
+			for (var pathObject : list) {
+				if (pathObject.hasMeasurements()) {
+					for (var name : pathObject.getMeasurementList().getMeasurementNames())
+						measurementMap.putIfAbsent(name, measurementMap.size());
+				}
+			}
+			measurementNames.addAll(measurementMap.keySet());
+			if (!measurementNames.isEmpty()) {
+				// Store in column-major order, so that each measurement is contiguous
+				measurements = new double[n * measurementNames.size()];
+				Arrays.fill(measurements, Double.NaN);
+				for (int i = 0; i < n; i++) {
+					var pathObject = list.get(i);
+					if (!pathObject.hasMeasurements())
+						continue;
+					var measurementList = pathObject.getMeasurementList();
+					var listNames = measurementList.getMeasurementNames();
+					for (int m = 0; m < listNames.size(); m++) {
+						int col = measurementMap.get(listNames.get(m));
+						measurements[col * n + i] = measurementList.getMeasurementValue(m);
+					}
+				}
+			}
+		}
+
+		var columns = new ColumnWriter();
+		columns.add("kind", "uint8", n, ByteBuffer.wrap(kinds));
+		columns.add("id", "uint8", n * 16L, ids.flip());
+		columns.add("class", "int32", n, toBuffer(classIndex));
+		columns.add("color", "int32", n, toBuffer(colors));
+		columns.add("flags", "uint8", n, ByteBuffer.wrap(flags));
+		if (hasNames)
+			names.addColumns(columns, "name");
+		columns.add("z", "int32", n, toBuffer(z));
+		columns.add("t", "int32", n, toBuffer(t));
+		roi.addColumns(columns, "roi");
+		if (hasNucleus)
+			nucleus.addColumns(columns, "nucleus");
+		if (measurements != null)
+			columns.add("measurements", "float64", measurements.length, toBuffer(measurements));
+		if (hasMetadata)
+			metadata.addColumns(columns, "metadata");
+
+		var classNames = classMap.keySet().stream().map(PathClass::toString).toList();
+		columns.write(channel, n, classNames, measurementNames);
+	}
+
+	/**
+	 * Get the kind of object, as used in the {@code kind} column, or -1 if the object is not supported.
+	 * @param pathObject
+	 * @return
+	 */
+	private static byte getKind(PathObject pathObject) {
+		if (pathObject == null || pathObject.isRootObject() || pathObject.getROI() == null)
+			return -1;
+		if (pathObject instanceof PathCellObject)
+			return ObjectChunkCodec.KIND_CELL;
+		if (pathObject instanceof PathTileObject)
+			return ObjectChunkCodec.KIND_TILE;
+		if (pathObject.isDetection())
+			return ObjectChunkCodec.KIND_DETECTION;
+		if (pathObject instanceof TMACoreObject)
+			return ObjectChunkCodec.KIND_TMA_CORE;
+		if (pathObject.isAnnotation())
+			return ObjectChunkCodec.KIND_ANNOTATION;
+		return -1;
+	}
+
+	private static ByteBuffer allocate(long nBytes) throws IOException {
+		if (nBytes > Integer.MAX_VALUE)
+			throw new IOException("Column is too large (" + nBytes + " bytes)");
+		return ByteBuffer.allocate((int)nBytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static ByteBuffer toBuffer(int[] values) throws IOException {
+		var buffer = allocate(values.length * 4L);
+		buffer.asIntBuffer().put(values);
+		return buffer;
+	}
+
+	private static ByteBuffer toBuffer(long[] values, int n) throws IOException {
+		var buffer = allocate(n * 8L);
+		buffer.asLongBuffer().put(values, 0, n);
+		return buffer;
+	}
+
+	private static ByteBuffer toBuffer(double[] values) throws IOException {
+		var buffer = allocate(values.length * 8L);
+		buffer.asDoubleBuffer().put(values);
+		return buffer;
+	}
+
+
+	/**
+	 * Collect columns, then write them along with a header describing their positions.
+	 */
+	private static class ColumnWriter {
+
+		private final List<String> names = new ArrayList<>();
+		private final List<String> types = new ArrayList<>();
+		private final List<Long> lengths = new ArrayList<>();
+		private final List<ByteBuffer> buffers = new ArrayList<>();
+
+		private void add(String name, String type, long length, ByteBuffer buffer) {
+			names.add(name);
+			types.add(type);
+			lengths.add(length);
+			buffers.add(buffer);
+		}
+
+		private void write(WritableByteChannel channel, int count, List<String> classNames, List<String> measurementNames) throws IOException {
+			// The header contains the absolute column offsets, which depend upon the header length -
+			// so we need to repeat until the length is stable (which should happen very quickly, since it can only grow)
+			long dataStart = BinaryObjectTable.PREAMBLE_LENGTH;
+			byte[] headerBytes;
+			while (true) {
+				var columns = new ArrayList<Column>();
+				long offset = dataStart;
+				for (int i = 0; i < names.size(); i++) {
+					columns.add(new Column(names.get(i), types.get(i), offset, lengths.get(i)));
+					offset = align(offset + buffers.get(i).remaining());
+				}
+				var header = new Header(BinaryObjectTable.VERSION, count, classNames, measurementNames, columns);
+				headerBytes = GsonTools.getInstance().toJson(header).getBytes(StandardCharsets.UTF_8);
+				long newStart = BinaryObjectTable.PREAMBLE_LENGTH + align(headerBytes.length);
+				if (newStart == dataStart)
+					break;
+				dataStart = newStart;
+			}
+
+			var preamble = ByteBuffer.allocate(BinaryObjectTable.PREAMBLE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			preamble.put(BinaryObjectTable.MAGIC);
+			preamble.putShort((short)BinaryObjectTable.VERSION);
+			preamble.putInt((int)(dataStart - BinaryObjectTable.PREAMBLE_LENGTH));
+			preamble.putInt(0);
+			writeFully(channel, preamble.flip());
+
+			var paddedHeader = new byte[(int)(dataStart - BinaryObjectTable.PREAMBLE_LENGTH)];
+			Arrays.fill(paddedHeader, (byte)' ');
+			System.arraycopy(headerBytes, 0, paddedHeader, 0, headerBytes.length);
+			writeFully(channel, ByteBuffer.wrap(paddedHeader));
+
+			var padding = new byte[8];
+			for (var buffer : buffers) {
+				int n = buffer.remaining();
+				writeFully(channel, buffer);
+				int nPadding = (int)(align(n) - n);
+				if (nPadding > 0)
+					writeFully(channel, ByteBuffer.wrap(padding, 0, nPadding));
+			}
+		}
+
+		private static long align(long n) {
+			return (n + 7) & ~7L;
+		}
+
+		private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+
+	}
+
+
+	/**
+	 * Variable-length UTF-8 strings, stored as offsets and data.
+	 */
+	private static class StringColumnBuilder {
+
+		private final long[] offsets;
+		private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		private int n;
+
+		private StringColumnBuilder(int n) {
+			this.offsets = new long[n + 1];
+		}
+
+		private void add(String value) {
+			if (value != null)
+				data.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+			offsets[++n] = data.size();
+		}
+
+		private void addColumns(ColumnWriter columns, String prefix) throws IOException {
+			columns.add(prefix + "_offsets", "int64", offsets.length, toBuffer(offsets, offsets.length));
+			columns.add(prefix + "_data", "uint8", data.size(), ByteBuffer.wrap(data.toByteArray()));
+		}
+
+	}
+
+
+	/**
+	 * ROIs stored as types, nested offsets and interleaved coordinates.
+	 */
+	private static class GeometryBuilder {
+
+		private final byte[] types;
+		private final long[] partOffsets;
+
+		private long[] ringOffsets = new long[1024];
+		private int nParts;
+
+		private long[] coordOffsets = new long[1024];
+		private int nRings;
+
+		private double[] coords = new double[8192];
+		private int nCoords;
+
+		private GeometryBuilder(int n) {
+			this.types = new byte[n];
+			this.partOffsets = new long[n + 1];
+		}
+
+		private void add(int ind, ROI roi) {
+			types[ind] = getType(roi);
+			switch (types[ind]) {
+			case BinaryObjectTable.ROI_NONE:
+				break;
+			case BinaryObjectTable.ROI_RECTANGLE:
+			case BinaryObjectTable.ROI_ELLIPSE:
+				double x1 = roi.getBoundsX();
+				double y1 = roi.getBoundsY();
+				double x2 = x1 + roi.getBoundsWidth();
+				double y2 = y1 + roi.getBoundsHeight();
+				startPart();
+				addRing(x1, y1, x2, y1, x2, y2, x1, y2, x1, y1);
+				break;
+			case BinaryObjectTable.ROI_LINE:
+				var line = (LineROI)roi;
+				startPart();
+				addRing(line.getX1(), line.getY1(), line.getX2(), line.getY2());
+				break;
+			case BinaryObjectTable.ROI_POLYGON:
+			case BinaryObjectTable.ROI_POLYLINE:
+			case BinaryObjectTable.ROI_POINTS:
+				var points = roi.getAllPoints();
+				boolean close = types[ind] == BinaryObjectTable.ROI_POLYGON && !points.isEmpty();
+				int n = points.size();
+				ensureCoordCapacity(n + 1);
+				for (var p : points) {
+					coords[nCoords++] = p.getX();
+					coords[nCoords++] = p.getY();
+				}
+				if (close) {
+					coords[nCoords++] = points.get(0).getX();
+					coords[nCoords++] = points.get(0).getY();
+				}
+				startPart();
+				endRing();
+				break;
+			case BinaryObjectTable.ROI_GEOMETRY_AREA:
+				for (var geom : PolygonExtracter.getPolygons(roi.getGeometry())) {
+					var polygon = (Polygon)geom;
+					if (polygon.isEmpty())
+						continue;
+					startPart();
+					addRing(polygon.getExteriorRing().getCoordinateSequence());
+					for (int i = 0; i < polygon.getNumInteriorRing(); i++)
+						addRing(polygon.getInteriorRingN(i).getCoordinateSequence());
+				}
+				break;
+			case BinaryObjectTable.ROI_GEOMETRY_LINE:
+				for (var geom : LineStringExtracter.getLines(roi.getGeometry())) {
+					var lineString = (LineString)geom;
+					if (lineString.isEmpty())
+						continue;
+					startPart();
+					addRing(lineString.getCoordinateSequence());
+				}
+				break;
+			}
+			partOffsets[ind + 1] = nParts;
+		}
+
+		private static byte getType(ROI roi) {
+			if (roi == null)
+				return BinaryObjectTable.ROI_NONE;
+			var cls = roi.getClass();
+			if (cls == RectangleROI.class)
+				return BinaryObjectTable.ROI_RECTANGLE;
+			if (cls == EllipseROI.class)
+				return BinaryObjectTable.ROI_ELLIPSE;
+			if (cls == LineROI.class)
+				return BinaryObjectTable.ROI_LINE;
+			if (cls == PolygonROI.class)
+				return BinaryObjectTable.ROI_POLYGON;
+			if (cls == PolylineROI.class)
+				return BinaryObjectTable.ROI_POLYLINE;
+			if (roi.isPoint())
+				return BinaryObjectTable.ROI_POINTS;
+			if (roi.isLine())
+				return BinaryObjectTable.ROI_GEOMETRY_LINE;
+			return BinaryObjectTable.ROI_GEOMETRY_AREA;
+		}
+
+		private void startPart() {
+			if (nParts + 2 > ringOffsets.length)
+				ringOffsets = Arrays.copyOf(ringOffsets, ringOffsets.length * 2);
+			nParts++;
+			ringOffsets[nParts] = nRings;
+		}
+
+		private void addRing(double... xy) {
+			ensureCoordCapacity(xy.length / 2);
+			System.arraycopy(xy, 0, coords, nCoords, xy.length);
+			nCoords += xy.length;
+			endRing();
+		}
+
+		private void addRing(CoordinateSequence sequence) {
+			int n = sequence.size();
+			ensureCoordCapacity(n);
+			for (int i = 0; i < n; i++) {
+				coords[nCoords++] = sequence.getX(i);
+				coords[nCoords++] = sequence.getY(i);
+			}
+			endRing();
+		}
+
+		/**
+		 * Complete a ring containing all the coordinates added since the last ring, and add it to the current part.
+		 */
+		private void endRing() {
+			if (nRings + 2 > coordOffsets.length)
+				coordOffsets = Arrays.copyOf(coordOffsets, coordOffsets.length * 2);
+			nRings++;
+			coordOffsets[nRings] = nCoords / 2;
+			ringOffsets[nParts] = nRings;
+		}
+
+		private void ensureCoordCapacity(int nPoints) {
+			if (nCoords + nPoints * 2 > coords.length)
+				coords = Arrays.copyOf(coords, Math.max(nCoords + nPoints * 2, coords.length * 2));
+		}
+
+		private void addColumns(ColumnWriter columns, String prefix) throws IOException {
+			columns.add(prefix + "_type", "uint8", types.length, ByteBuffer.wrap(types));
+			columns.add(prefix + "_part_offsets", "int64", partOffsets.length, toBuffer(partOffsets, partOffsets.length));
+			columns.add(prefix + "_ring_offsets", "int64", nParts + 1L, toBuffer(ringOffsets, nParts + 1));
+			columns.add(prefix + "_coord_offsets", "int64", nRings + 1L, toBuffer(coordOffsets, nRings + 1));
+			columns.add(prefix + "_coords", "float64", nCoords, toBuffer(Arrays.copyOf(coords, nCoords)));
+		}
+
+	}
+
+}
@@ -0,0 +1,234 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import qupath.lib.io.QuPathTypeAdapters.PathObjectTypeAdapter;
+import qupath.lib.objects.PathObject;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Read objects from GeoJSON one feature at a time, without first reading the entire input into memory.
+ * <p>
+ * The input is handled in the same way as {@link GsonTools#parseObjectsFromGeoJSON(JsonElement)}:
+ * it may be a FeatureCollection, Feature, Geometry or an array of any of these.
+ * The features of a FeatureCollection are streamed; anything else is small enough to be read into a
+ * JsonElement and parsed as before.
+ * <p>
+ * Optionally, features can be converted to objects in parallel.
+ * Features are still read sequentially, but are converted in chunks using the common pool.
+ * Objects are always passed to the consumer in the order they appear in the input, from the calling thread.
+ */
+class GeoJsonObjectReader {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private final Gson gson;
+	private final JsonReader in;
+	private final Consumer<? super PathObject> consumer;
+
+	private final boolean parallel;
+	private final int maxPending;
+	private final Deque<CompletableFuture<List<PathObject>>> pending = new ArrayDeque<>();
+	private List<JsonObject> chunk;
+
+	private GeoJsonObjectReader(Reader reader, boolean parallel, Consumer<? super PathObject> consumer) {
+		this.gson = GsonTools.getInstance();
+		this.in = gson.newJsonReader(reader);
+		this.parallel = parallel;
+		this.consumer = consumer;
+		this.maxPending = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+	}
+
+	/**
+	 * Read objects from GeoJSON.
+	 * @param reader the reader providing the JSON
+	 * @param parallel if true, convert features to objects in parallel
+	 * @param consumer consumer to accept each object as it is read
+	 * @throws IOException
+	 */
+	static void read(Reader reader, boolean parallel, Consumer<? super PathObject> consumer) throws IOException {
+		new GeoJsonObjectReader(reader, parallel, consumer).read();
+	}
+
+	private void read() throws IOException {
+		try {
+			in.peek();
+		} catch (EOFException e) {
+			// Empty input
+			return;
+		}
+		readValue();
+		flush();
+		while (!pending.isEmpty())
+			acceptAll(pending.removeFirst());
+	}
+
+	private void readValue() throws IOException {
+		switch (in.peek()) {
+		case BEGIN_ARRAY:
+			in.beginArray();
+			while (in.hasNext())
+				readValue();
+			in.endArray();
+			break;
+		case BEGIN_OBJECT:
+			readObject();
+			break;
+		default:
+			in.skipValue();
+		}
+	}
+
+	/**
+	 * Read an object, streaming its features if it is a FeatureCollection.
+	 * Because members can be in any order, we may only know the type after reading the features;
+	 * in that case, we assume that anything with a 'features' array is a FeatureCollection.
+	 * <p>
+	 * Similarly, geometries are decoded directly from the stream if we already know the object is a Feature 
+	 * (which is usually the case, since the type is generally written first).
+	 */
+	private void readObject() throws IOException {
+		var obj = new JsonObject();
+		boolean hasFeatures = false;
+		ROI roi = null;
+		ROI roiNucleus = null;
+		in.beginObject();
+		while (in.hasNext()) {
+			String name = in.nextName();
+			if ("features".equals(name) && in.peek() == JsonToken.BEGIN_ARRAY && isFeatureCollection(obj)) {
+				hasFeatures = true;
+				in.beginArray();
+				while (in.hasNext())
+					readFeature();
+				in.endArray();
+			} else if ("geometry".equals(name) && !parallel && isFeature(obj)) {
+				roi = ROITypeAdapters.ROI_ADAPTER_INSTANCE.read(in);
+			} else if ("nucleusGeometry".equals(name) && !parallel && isFeature(obj)) {
+				roiNucleus = ROITypeAdapters.ROI_ADAPTER_INSTANCE.read(in);
+			} else {
+				obj.add(name, gson.fromJson(in, JsonElement.class));
+			}
+		}
+		in.endObject();
+		if (hasFeatures)
+			return;
+		if (isFeature(obj)) {
+			if (parallel)
+				addToChunk(obj);
+			else
+				accept(PathObjectTypeAdapter.INSTANCE.parseObject(obj, roi, roiNucleus));
+		} else {
+			flush();
+			for (var pathObject : GsonTools.parseObjectsFromGeoJSON(obj))
+				accept(pathObject);
+		}
+	}
+
+	private static boolean isFeature(JsonObject obj) {
+		return hasType(obj, "Feature");
+	}
+
+	private static boolean isFeatureCollection(JsonObject obj) {
+		return !obj.has("type") || hasType(obj, "FeatureCollection");
+	}
+
+	private static boolean hasType(JsonObject obj, String type) {
+		var element = obj.get("type");
+		return element != null && element.isJsonPrimitive() && type.equals(element.getAsString());
+	}
+
+	private void readFeature() throws IOException {
+		if (!parallel) {
+			accept(PathObjectTypeAdapter.INSTANCE.read(in));
+			return;
+		}
+		var element = gson.fromJson(in, JsonElement.class);
+		addToChunk(element != null && element.isJsonObject() ? element.getAsJsonObject() : null);
+	}
+
+	private void addToChunk(JsonObject feature) {
+		if (chunk == null)
+			chunk = new ArrayList<>(CHUNK_SIZE);
+		chunk.add(feature);
+		if (chunk.size() >= CHUNK_SIZE)
+			flush();
+	}
+
+	/**
+	 * Submit any features that have been read for conversion, waiting for earlier chunks if too many are pending.
+	 */
+	private void flush() {
+		if (chunk == null || chunk.isEmpty())
+			return;
+		var features = chunk;
+		chunk = null;
+		pending.addLast(CompletableFuture.supplyAsync(() -> parseFeatures(features)));
+		while (pending.size() > maxPending)
+			acceptAll(pending.removeFirst());
+	}
+
+	private static List<PathObject> parseFeatures(List<JsonObject> features) {
+		var list = new ArrayList<PathObject>(features.size());
+		for (var feature : features)
+			list.add(feature == null ? null : PathObjectTypeAdapter.INSTANCE.parseObject(feature));
+		return list;
+	}
+
+	private void acceptAll(CompletableFuture<List<PathObject>> future) {
+		List<PathObject> pathObjects;
+		try {
+			pathObjects = future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException ex)
+				throw ex;
+			if (e.getCause() instanceof Error err)
+				throw err;
+			throw e;
+		}
+		for (var pathObject : pathObjects)
+			accept(pathObject);
+	}
+
+	private void accept(PathObject pathObject) {
+		if (pathObject != null)
+			consumer.accept(pathObject);
+	}
+
+}
@@ -0,0 +1,224 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import qupath.lib.io.PathIO.GeoJsonExportOptions;
+import qupath.lib.io.QuPathTypeAdapters.PathObjectTypeAdapter;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathRootObject;
+
+/**
+ * Write objects as GeoJSON, serializing features in parallel.
+ * <p>
+ * The output is the same as using {@link GsonTools} to serialize the objects (or a {@link FeatureCollection}).
+ * Features are converted to JSON in chunks using the common pool, and each chunk is written to the output stream
+ * in order from the calling thread - so the entire JSON never needs to be held in memory.
+ * <p>
+ * Optionally, the output can be compressed with gzip. Each chunk is then compressed in parallel as a separate
+ * gzip member; the concatenated members form a valid gzip file.
+ * <p>
+ * Pretty-printed JSON is written sequentially, since the indentation depends upon the entire document.
+ */
+class GeoJsonObjectWriter {
+
+	private static final int CHUNK_SIZE = 512;
+
+	private final Gson gson;
+	private final boolean featureCollection;
+	private final boolean excludeMeasurements;
+	private final boolean prettyPrint;
+	private final boolean gzip;
+
+	private GeoJsonObjectWriter(Collection<GeoJsonExportOptions> options, boolean gzip) {
+		this.featureCollection = options.contains(GeoJsonExportOptions.FEATURE_COLLECTION);
+		this.excludeMeasurements = options.contains(GeoJsonExportOptions.EXCLUDE_MEASUREMENTS);
+		this.prettyPrint = options.contains(GeoJsonExportOptions.PRETTY_JSON);
+		this.gson = GsonTools.getInstance(prettyPrint);
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Write objects as GeoJSON.
+	 * @param stream the output stream; this is flushed but not closed
+	 * @param pathObjects the objects to write
+	 * @param options export options
+	 * @param gzip if true, compress the output using gzip
+	 * @throws IOException
+	 */
+	static void write(OutputStream stream, Collection<? extends PathObject> pathObjects, Collection<GeoJsonExportOptions> options, boolean gzip) throws IOException {
+		var writer = new GeoJsonObjectWriter(options, gzip);
+		if (writer.prettyPrint)
+			writer.writeSequential(stream, pathObjects);
+		else
+			writer.writeParallel(stream, pathObjects);
+	}
+
+	private void writeSequential(OutputStream stream, Collection<? extends PathObject> pathObjects) throws IOException {
+		var gzipStream = gzip ? new GZIPOutputStream(stream) : null;
+		var writer = new OutputStreamWriter(gzip ? gzipStream : stream, StandardCharsets.UTF_8);
+		var out = gson.newJsonWriter(writer);
+		if (featureCollection) {
+			out.beginObject();
+			out.name("type");
+			out.value("FeatureCollection");
+			out.name("features");
+		}
+		if (featureCollection || pathObjects.size() != 1)
+			out.beginArray();
+		for (var pathObject : pathObjects)
+			writeObject(out, pathObject);
+		if (featureCollection || pathObjects.size() != 1)
+			out.endArray();
+		if (featureCollection)
+			out.endObject();
+		out.flush();
+		if (gzipStream != null)
+			gzipStream.finish();
+		stream.flush();
+	}
+
+	private void writeParallel(OutputStream stream, Collection<? extends PathObject> pathObjects) throws IOException {
+		List<? extends PathObject> list = pathObjects instanceof List<? extends PathObject> l ? l : new ArrayList<>(pathObjects);
+		String prefix, suffix;
+		if (featureCollection) {
+			prefix = "{\"type\":\"FeatureCollection\",\"features\":[";
+			suffix = "]}";
+		} else if (list.size() == 1) {
+			prefix = "";
+			suffix = "";
+		} else {
+			prefix = "[";
+			suffix = "]";
+		}
+
+		int n = list.size();
+		int nChunks = Math.max(1, (n + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		if (nChunks == 1) {
+			stream.write(writeChunk(list, prefix, suffix));
+			stream.flush();
+			return;
+		}
+
+		int maxPending = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+		Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+		for (int i = 0; i < nChunks; i++) {
+			var chunk = list.subList(i * CHUNK_SIZE, Math.min(n, (i + 1) * CHUNK_SIZE));
+			String before = i == 0 ? prefix : ",";
+			String after = i == nChunks - 1 ? suffix : "";
+			pending.addLast(CompletableFuture.supplyAsync(() -> writeChunk(chunk, before, after)));
+			while (pending.size() > maxPending)
+				stream.write(join(pending.removeFirst()));
+		}
+		while (!pending.isEmpty())
+			stream.write(join(pending.removeFirst()));
+		stream.flush();
+	}
+
+	/**
+	 * Serialize a chunk of objects, encoded as UTF-8 (and optionally compressed).
+	 * The objects are written as the contents of a JSON array, so that the writer inserts the separators for us;
+	 * the brackets are then replaced by the specified prefix and suffix.
+	 */
+	private byte[] writeChunk(List<? extends PathObject> pathObjects, String prefix, String suffix) {
+		try {
+			var writer = new StringWriter(pathObjects.size() * 512 + prefix.length() + suffix.length());
+			writer.write(prefix);
+			int start = writer.getBuffer().length();
+			var out = gson.newJsonWriter(writer);
+			out.beginArray();
+			for (var pathObject : pathObjects)
+				writeObject(out, pathObject);
+			out.endArray();
+			out.flush();
+			// Remove the array brackets
+			var buffer = writer.getBuffer();
+			buffer.deleteCharAt(buffer.length() - 1);
+			buffer.deleteCharAt(start);
+			buffer.append(suffix);
+			var bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+			if (!gzip)
+				return bytes;
+			var bytesCompressed = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+			try (var gzipStream = new GZIPOutputStream(bytesCompressed)) {
+				gzipStream.write(bytes);
+			}
+			return bytesCompressed.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeObject(JsonWriter out, PathObject pathObject) throws IOException {
+		if (pathObject == null)
+			out.nullValue();
+		else
+			getAdapter(pathObject).write(out, pathObject);
+	}
+
+	/**
+	 * Get the adapter for an object.
+	 * This matches the behavior of Gson, which serializes a root object along with its descendants -
+	 * unless it is part of a FeatureCollection.
+	 */
+	private PathObjectTypeAdapter getAdapter(PathObject pathObject) {
+		if (excludeMeasurements)
+			return PathObjectTypeAdapter.INSTANCE_NO_MEASUREMENTS;
+		if (!featureCollection && pathObject instanceof PathRootObject)
+			return PathObjectTypeAdapter.INSTANCE_HIERARCHY;
+		return PathObjectTypeAdapter.INSTANCE;
+	}
+
+	private static byte[] join(CompletableFuture<byte[]> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException ex)
+				throw ex.getCause();
+			if (e.getCause() instanceof RuntimeException ex)
+				throw ex;
+			if (e.getCause() instanceof Error err)
+				throw err;
+			throw e;
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import qupath.lib.io.ImageDataChunks.ChunkInfo;
+import qupath.lib.io.ObjectChunkCodec.DecodedChunk;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.LazyObjectLoader;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * Load the detections in a chunked .qpdata file on demand, with one page for each DETECTIONS chunk.
+ * <p>
+ * Pages are checked for changes by encoding their objects again, and comparing the result with what was read
+ * from the file.
+ *
+ * @see ImageDataChunkReader#readLazily(Path)
+ */
+class ImageDataChunkLoader implements LazyObjectLoader {
+
+	private final Path path;
+	private final long size;
+	private final FileTime lastModified;
+	private final PathObject[] rows;
+	private final List<ChunkInfo> chunks;
+
+	/**
+	 * Constructor.
+	 * @param path the data file
+	 * @param rows the objects read from the HIERARCHY chunk, which may be parents of the detections
+	 * @param chunks the DETECTIONS chunks
+	 * @throws IOException
+	 */
+	ImageDataChunkLoader(Path path, PathObject[] rows, List<ChunkInfo> chunks) throws IOException {
+		this.path = path;
+		this.size = Files.size(path);
+		this.lastModified = Files.getLastModifiedTime(path);
+		this.rows = rows;
+		this.chunks = List.copyOf(chunks);
+	}
+
+	@Override
+	public int getPageCount() {
+		return chunks.size();
+	}
+
+	@Override
+	public int getPageSize(int page) {
+		return chunks.get(page).tile().nObjects();
+	}
+
+	@Override
+	public boolean intersects(int page, ImageRegion region) {
+		return chunks.get(page).tile().intersects(region);
+	}
+
+	@Override
+	public LoadedPage loadPage(int page) throws IOException {
+		var chunk = chunks.get(page);
+		byte[] stored = new byte[chunk.storedLength()];
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// The file could have been overwritten since it was opened, in which case the index is no longer valid
+			if (channel.size() != size || !lastModified.equals(Files.getLastModifiedTime(path)))
+				throw new IOException("Data file " + path + " has changed since it was opened");
+			var buffer = ByteBuffer.wrap(stored);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, chunk.payloadOffset() + buffer.position()) < 0)
+					throw new EOFException("Unexpected end of data file");
+			}
+		}
+		var payload = ImageDataChunks.decompress(chunk, stored);
+		byte[] digest = digest(payload.array());
+		var decoded = ObjectChunkCodec.decode(payload, null, true);
+		return new ChunkPage(decoded, digest);
+	}
+
+	private static byte[] digest(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			// All Java implementations are required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	private class ChunkPage implements LoadedPage {
+
+		private final DecodedChunk decoded;
+		private final byte[] digest;
+		private final Map<PathObject, List<PathObject>> objects = new LinkedHashMap<>();
+
+		private ChunkPage(DecodedChunk decoded, byte[] digest) throws IOException {
+			this.decoded = decoded;
+			this.digest = digest;
+			var parents = decoded.parents();
+			for (int i = 0; i < parents.length; i++) {
+				int parent = parents[i];
+				// Other objects have already been added to their parents within the chunk
+				if (parent >= 0)
+					continue;
+				int row = -parent - 2;
+				if (row < 0 || row >= rows.length)
+					throw new IOException("Missing parent for detection " + decoded.objects()[i]);
+				objects.computeIfAbsent(rows[row], p -> new ArrayList<>()).add(decoded.objects()[i]);
+			}
+		}
+
+		@Override
+		public Map<PathObject, List<PathObject>> getObjects() {
+			return objects;
+		}
+
+		@Override
+		public boolean isUnchanged() {
+			var pathObjects = decoded.objects();
+			var parents = decoded.parents();
+			try {
+				var encoder = new ObjectChunkCodec.Encoder();
+				for (int i = 0; i < pathObjects.length; i++) {
+					if (parents[i] >= 0)
+						continue;
+					if (pathObjects[i].getParent() != rows[-parents[i] - 2])
+						return false;
+					encoder.addWithDescendants(pathObjects[i], parents[i], decoded.positions()[i],
+							p -> Arrays.asList(p.getChildObjectsAsArray()));
+				}
+				return Arrays.equals(digest, digest(encoder.toByteArray()));
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,425 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.color.ColorDeconvolutionStains;
+import qupath.lib.images.ImageData.ImageType;
+import qupath.lib.io.ImageDataChunks.ChunkInfo;
+import qupath.lib.io.ObjectChunkCodec.DecodedChunk;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.hierarchy.DefaultTMAGrid;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.plugins.workflow.Workflow;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * Read image data in the chunked .qpdata format.
+ * <p>
+ * When reading from a file, the index at the end is used to read only the chunks that are needed.
+ * Chunks containing detections are then read and decoded in parallel.
+ * When reading from a stream, chunks are read sequentially - although detections are still decoded in parallel.
+ *
+ * @see ImageDataChunks
+ */
+class ImageDataChunkReader {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageDataChunkReader.class);
+
+	/**
+	 * The contents of a data file.
+	 * Any of these may be null if they weren't requested, or weren't present in the file.
+	 * @param serverJson
+	 * @param imageType
+	 * @param stains
+	 * @param workflow
+	 * @param hierarchy
+	 * @param properties
+	 */
+	record Contents(String serverJson, ImageType imageType, ColorDeconvolutionStains stains, Workflow workflow,
+			PathObjectHierarchy hierarchy, Map<String, Object> properties) {}
+
+	private final boolean metadataOnly;
+	private final boolean includeDetections;
+	private final ImageRegion region;
+	// DETECTIONS chunks to be loaded on demand, or null if detections should be read immediately
+	private final List<ChunkInfo> lazyChunks;
+
+	private final int maxPending = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+	private final Deque<CompletableFuture<DecodedChunk>> pending = new ArrayDeque<>();
+
+	private String serverJson;
+	private ImageType imageType;
+	private ColorDeconvolutionStains stains;
+	private Workflow workflow;
+	private Map<String, Object> properties;
+	private HierarchyAssembler assembler;
+
+	private ImageDataChunkReader(boolean metadataOnly, boolean includeDetections, ImageRegion region, boolean lazy) {
+		this.metadataOnly = metadataOnly;
+		this.includeDetections = includeDetections;
+		this.region = region;
+		this.lazyChunks = lazy ? new ArrayList<>() : null;
+	}
+
+	/**
+	 * Read the contents of a file.
+	 * @param path the file
+	 * @param includeDetections if false, skip all detections (and their descendants)
+	 * @param region if not null, only include detections that intersect the region
+	 * @return
+	 * @throws IOException
+	 */
+	static Contents read(Path path, boolean includeDetections, ImageRegion region) throws IOException {
+		return new ImageDataChunkReader(false, includeDetections, region, false).read(path);
+	}
+
+	/**
+	 * Read the contents of a file, deferring reading detections until they are needed.
+	 * <p>
+	 * If possible, the hierarchy will have a {@link ImageDataChunkLoader} to read the detections on demand.
+	 * Otherwise (e.g. because the file doesn't have a valid index) all detections are read immediately.
+	 * @param path the file
+	 * @return
+	 * @throws IOException
+	 */
+	static Contents readLazily(Path path) throws IOException {
+		return new ImageDataChunkReader(false, false, null, true).read(path);
+	}
+
+	/**
+	 * Read the contents of a stream.
+	 * @param stream the stream, positioned at the start of the data
+	 * @param includeDetections if false, skip all detections (and their descendants)
+	 * @param region if not null, only include detections that intersect the region
+	 * @return
+	 * @throws IOException
+	 */
+	static Contents read(InputStream stream, boolean includeDetections, ImageRegion region) throws IOException {
+		return new ImageDataChunkReader(false, includeDetections, region, false).read(stream);
+	}
+
+	/**
+	 * Read only the JSON representation of the server from a stream.
+	 * @param stream
+	 * @return
+	 * @throws IOException
+	 */
+	static String readServerJson(InputStream stream) throws IOException {
+		return new ImageDataChunkReader(true, false, null, false).read(stream).serverJson();
+	}
+
+	private Contents read(Path path) throws IOException {
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			var index = readIndex(channel);
+			if (index == null) {
+				logger.warn("Unable to read index from {} - will try to read chunks sequentially", path);
+			} else {
+				for (var chunk : index) {
+					if (chunk.type() != ImageDataChunks.TYPE_DETECTIONS)
+						handleChunk(chunk, readFully(channel, chunk.payloadOffset(), chunk.storedLength()).array());
+					else if (lazyChunks != null)
+						lazyChunks.add(chunk);
+					else if (isRequired(chunk))
+						submit(CompletableFuture.supplyAsync(() -> decodeDetections(chunk, readStored(channel, chunk))));
+				}
+				var contents = createContents();
+				if (lazyChunks != null && !lazyChunks.isEmpty() && contents.hierarchy() != null)
+					contents.hierarchy().setLazyObjectLoader(new ImageDataChunkLoader(path, assembler.objects, lazyChunks));
+				return contents;
+			}
+		}
+		// Without an index, we need to read everything
+		var reader = lazyChunks == null ? this : new ImageDataChunkReader(false, true, null, false);
+		try (var stream = new BufferedInputStream(Files.newInputStream(path))) {
+			return reader.read(stream);
+		}
+	}
+
+	private Contents read(InputStream stream) throws IOException {
+		var in = new DataInputStream(stream);
+		if (in.readInt() != ImageDataChunks.MAGIC)
+			throw new IOException("Input is not a chunked QuPath data file");
+		checkVersion(in.readInt());
+		ChunkInfo chunk;
+		while ((chunk = ImageDataChunks.readChunkHeader(in, -1)) != null) {
+			if (chunk.type() == ImageDataChunks.TYPE_INDEX)
+				break;
+			if (!isRequired(chunk)) {
+				in.skipNBytes(chunk.storedLength());
+				continue;
+			}
+			var stored = in.readNBytes(chunk.storedLength());
+			if (stored.length != chunk.storedLength())
+				throw new EOFException("Unexpected end of data file");
+			if (chunk.type() == ImageDataChunks.TYPE_DETECTIONS) {
+				var info = chunk;
+				submit(CompletableFuture.supplyAsync(() -> decodeDetections(info, stored)));
+			} else
+				handleChunk(chunk, stored);
+			if (metadataOnly && serverJson != null)
+				break;
+		}
+		return createContents();
+	}
+
+	private static void checkVersion(int version) throws IOException {
+		if (version > ImageDataChunks.VERSION)
+			throw new IOException("Unsupported data file format version " + version + " (latest supported version is " + ImageDataChunks.VERSION + ")");
+	}
+
+	/**
+	 * Read the index using the offset stored at the end of the file.
+	 * @return the index, or null if the file does not end with a valid index (e.g. because it is incomplete)
+	 */
+	private static List<ChunkInfo> readIndex(FileChannel channel) throws IOException {
+		long size = channel.size();
+		var header = readFully(channel, 0, 8);
+		if (header.getInt() != ImageDataChunks.MAGIC)
+			throw new IOException("File is not a chunked QuPath data file");
+		checkVersion(header.getInt());
+		if (size < 8 + 12)
+			return null;
+		var trailer = readFully(channel, size - 12, 12);
+		long indexOffset = trailer.getLong();
+		if (trailer.getInt() != ImageDataChunks.MAGIC_END || indexOffset < 8 || indexOffset > size - 12 - 10)
+			return null;
+		var indexHeader = readFully(channel, indexOffset, 10);
+		if (indexHeader.get() != ImageDataChunks.TYPE_INDEX)
+			return null;
+		indexHeader.get();
+		indexHeader.getInt();
+		int length = indexHeader.getInt();
+		return ImageDataChunks.parseIndex(readFully(channel, indexOffset + 10, length).array());
+	}
+
+	private static byte[] readStored(FileChannel channel, ChunkInfo chunk) {
+		try {
+			return readFully(channel, chunk.payloadOffset(), chunk.storedLength()).array();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long offset, int length) throws IOException {
+		var buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, offset + buffer.position());
+			if (n < 0)
+				throw new EOFException("Unexpected end of data file");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private boolean isRequired(ChunkInfo chunk) {
+		switch (chunk.type()) {
+		case ImageDataChunks.TYPE_METADATA:
+			return true;
+		case ImageDataChunks.TYPE_WORKFLOW:
+		case ImageDataChunks.TYPE_HIERARCHY:
+			return !metadataOnly;
+		case ImageDataChunks.TYPE_DETECTIONS:
+			return !metadataOnly && includeDetections && chunk.tile().intersects(region);
+		default:
+			// Unknown chunk types may be added in later versions
+			return false;
+		}
+	}
+
+	private void handleChunk(ChunkInfo chunk, byte[] stored) throws IOException {
+		if (!isRequired(chunk))
+			return;
+		var buffer = ImageDataChunks.decompress(chunk, stored);
+		switch (chunk.type()) {
+		case ImageDataChunks.TYPE_METADATA:
+			readMetadata(buffer);
+			break;
+		case ImageDataChunks.TYPE_WORKFLOW:
+			var obj = ImageDataChunks.deserialize(buffer.array());
+			if (obj instanceof Workflow w)
+				workflow = w;
+			break;
+		case ImageDataChunks.TYPE_HIERARCHY:
+			assembler = new HierarchyAssembler(buffer, region);
+			break;
+		default:
+			break;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readMetadata(ByteBuffer buffer) throws IOException {
+		serverJson = ImageDataChunks.readString(buffer);
+		String typeName = ImageDataChunks.readString(buffer);
+		if (typeName != null) {
+			try {
+				imageType = ImageType.valueOf(typeName);
+			} catch (IllegalArgumentException e) {
+				logger.warn("Unknown image type {}", typeName);
+			}
+		}
+		if (metadataOnly)
+			return;
+		if (ImageDataChunks.deserialize(ImageDataChunks.readBytes(buffer)) instanceof ColorDeconvolutionStains s)
+			stains = s;
+		if (ImageDataChunks.deserialize(ImageDataChunks.readBytes(buffer)) instanceof Map<?, ?> map)
+			properties = (Map<String, Object>)map;
+	}
+
+	private static DecodedChunk decodeDetections(ChunkInfo chunk, byte[] stored) {
+		try {
+			return ObjectChunkCodec.decode(ImageDataChunks.decompress(chunk, stored), null, true);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void submit(CompletableFuture<DecodedChunk> future) throws IOException {
+		pending.addLast(future);
+		while (pending.size() > maxPending)
+			addDetections(ImageDataChunks.join(pending.removeFirst()));
+	}
+
+	private void addDetections(DecodedChunk chunk) throws IOException {
+		if (assembler == null)
+			throw new IOException("Detections found before object hierarchy in data file");
+		assembler.addDetections(chunk);
+	}
+
+	private Contents createContents() throws IOException {
+		while (!pending.isEmpty())
+			addDetections(ImageDataChunks.join(pending.removeFirst()));
+		var hierarchy = assembler == null ? null : assembler.build();
+		return new Contents(serverJson, imageType, stains, workflow, hierarchy, properties);
+	}
+
+
+	/**
+	 * Helper class to rebuild the hierarchy from the HIERARCHY and DETECTIONS chunks.
+	 * <p>
+	 * Objects from different chunks may be interleaved in the same child list, so each object in the HIERARCHY chunk
+	 * has an array of slots for its children. These are filled as chunks are decoded, and the children are only added
+	 * to their parents once all chunks have been read.
+	 */
+	private static class HierarchyAssembler {
+
+		private final PathObjectHierarchy hierarchy = new PathObjectHierarchy();
+		private final ImageRegion region;
+		private final PathObject[] objects;
+		private final PathObject[][] slots;
+		private final int gridWidth;
+		private final int[] coreRows;
+
+		private HierarchyAssembler(ByteBuffer buffer, ImageRegion region) throws IOException {
+			this.region = region;
+			var decoded = ObjectChunkCodec.decode(buffer, hierarchy.getRootObject(), false);
+			objects = decoded.objects();
+			slots = new PathObject[objects.length][];
+			var store = hierarchy.getMeasurementStore();
+			for (int i = 0; i < objects.length; i++) {
+				if (decoded.nChildren()[i] > 0)
+					slots[i] = new PathObject[decoded.nChildren()[i]];
+				if (objects[i].isDetection())
+					objects[i].moveMeasurementsToStore(store);
+			}
+			for (int i = 0; i < objects.length; i++) {
+				int parent = decoded.parents()[i];
+				if (parent >= 0)
+					place(parent, decoded.positions()[i], objects[i]);
+			}
+			gridWidth = buffer.getInt();
+			coreRows = new int[buffer.getInt()];
+			for (int i = 0; i < coreRows.length; i++)
+				coreRows[i] = buffer.getInt();
+		}
+
+		private void addDetections(DecodedChunk chunk) throws IOException {
+			var objects = chunk.objects();
+			var parents = chunk.parents();
+			var store = hierarchy.getMeasurementStore();
+			for (int i = 0; i < objects.length; i++) {
+				objects[i].moveMeasurementsToStore(store);
+				int parent = parents[i];
+				// Other objects have already been added to their parents within the chunk
+				if (parent >= 0)
+					continue;
+				if (parent == -1)
+					throw new IOException("Missing parent for detection " + objects[i]);
+				if (region == null || ImageDataChunks.intersects(region, objects[i].getROI()))
+					place(-parent - 2, chunk.positions()[i], objects[i]);
+			}
+		}
+
+		private void place(int parent, int position, PathObject pathObject) throws IOException {
+			if (parent >= slots.length || slots[parent] == null || position < 0 || position >= slots[parent].length || slots[parent][position] != null)
+				throw new IOException("Invalid position for object " + pathObject);
+			slots[parent][position] = pathObject;
+		}
+
+		private PathObjectHierarchy build() {
+			for (int i = 0; i < objects.length; i++) {
+				var children = slots[i];
+				if (children == null)
+					continue;
+				var list = new ArrayList<PathObject>(children.length);
+				for (var child : children) {
+					if (child != null)
+						list.add(child);
+				}
+				if (!list.isEmpty())
+					objects[i].addChildObjects(list);
+			}
+			if (gridWidth > 0 && coreRows.length > 0) {
+				var cores = new ArrayList<TMACoreObject>(coreRows.length);
+				for (int row : coreRows)
+					cores.add((TMACoreObject)objects[row]);
+				hierarchy.setTMAGrid(DefaultTMAGrid.create(cores, gridWidth));
+			}
+			return hierarchy;
+		}
+
+	}
+
+}
@@ -0,0 +1,392 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.color.ColorDeconvolutionStains;
+import qupath.lib.images.ImageData.ImageType;
+import qupath.lib.io.ImageDataChunks.ChunkInfo;
+import qupath.lib.io.ImageDataChunks.EncodedChunk;
+import qupath.lib.io.ImageDataChunks.TileInfo;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.PathObjectHierarchySnapshot;
+import qupath.lib.plugins.workflow.Workflow;
+
+/**
+ * Write image data in the chunked .qpdata format.
+ * <p>
+ * Detections are grouped into tiles according to their centroids, and each tile is encoded and compressed
+ * in parallel using the common pool. Chunks are always written in the same order from the calling thread.
+ * <p>
+ * When writing incrementally, DETECTIONS chunks from a previously-written file can be copied instead of encoded
+ * again, provided that they contain exactly the same objects in the same structure and none of their tiles have
+ * been marked as dirty.
+ *
+ * @see ImageDataChunks
+ */
+class ImageDataChunkWriter {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageDataChunkWriter.class);
+
+	private final DataOutputStream out;
+	private final List<ChunkInfo> chunks = new ArrayList<>();
+	private long position = 0;
+
+	private PathObjectHierarchySnapshot snapshot;
+	private final Map<TMACoreObject, Integer> coreRows = new IdentityHashMap<>();
+	private final Map<TileKey, List<DetectionRef>> tiles = new TreeMap<>();
+
+	private final PreviousChunks previous;
+	private final Predicate<TileKey> isDirty;
+	private final Map<Long, ChunkInfo> detectionChunks = new HashMap<>();
+	private int nCopied = 0;
+	private long bytesCopied = 0;
+
+	private ImageDataChunkWriter(OutputStream stream, PreviousChunks previous, Predicate<TileKey> isDirty) {
+		this.out = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+		this.previous = previous;
+		this.isDirty = isDirty;
+	}
+
+	/**
+	 * Write image data.
+	 * @param stream the output stream; this is flushed but not closed
+	 * @param serverJson JSON representation of the server
+	 * @param imageType
+	 * @param stains
+	 * @param workflow
+	 * @param hierarchy
+	 * @param properties serializable image properties
+	 * @throws IOException
+	 */
+	static void write(OutputStream stream, String serverJson, ImageType imageType, ColorDeconvolutionStains stains,
+			Workflow workflow, PathObjectHierarchy hierarchy, Map<String, Object> properties) throws IOException {
+		write(stream, serverJson, imageType, stains, workflow, hierarchy, properties, null, k -> true);
+	}
+
+	/**
+	 * Write image data, copying DETECTIONS chunks from a previously-written file wherever possible.
+	 * @param stream the output stream; this is flushed but not closed
+	 * @param serverJson JSON representation of the server
+	 * @param imageType
+	 * @param stains
+	 * @param workflow
+	 * @param hierarchy
+	 * @param properties serializable image properties
+	 * @param previous chunks written previously, or null if all chunks should be encoded
+	 * @param isDirty predicate to identify tiles containing detections that may have changed since the previous write
+	 * @return a summary of the chunks that were written
+	 * @throws IOException
+	 */
+	static WriteSummary write(OutputStream stream, String serverJson, ImageType imageType, ColorDeconvolutionStains stains,
+			Workflow workflow, PathObjectHierarchy hierarchy, Map<String, Object> properties,
+			PreviousChunks previous, Predicate<TileKey> isDirty) throws IOException {
+		var writer = new ImageDataChunkWriter(stream, previous, isDirty);
+		writer.writeAll(serverJson, imageType, stains, workflow, hierarchy, properties);
+		return new WriteSummary(writer.position, writer.chunks.size(), writer.nCopied, writer.bytesCopied,
+				Map.copyOf(writer.detectionChunks));
+	}
+
+	private void writeAll(String serverJson, ImageType imageType, ColorDeconvolutionStains stains,
+			Workflow workflow, PathObjectHierarchy hierarchy, Map<String, Object> properties) throws IOException {
+		out.writeInt(ImageDataChunks.MAGIC);
+		out.writeInt(ImageDataChunks.VERSION);
+		position = 8;
+
+		writeChunk(ImageDataChunks.compress(ImageDataChunks.TYPE_METADATA,
+				createMetadata(serverJson, imageType, stains, properties), null));
+		writeChunk(ImageDataChunks.compress(ImageDataChunks.TYPE_WORKFLOW,
+				ImageDataChunks.serialize(workflow), null));
+
+		snapshot = hierarchy.snapshot();
+		writeChunk(ImageDataChunks.compress(ImageDataChunks.TYPE_HIERARCHY, createHierarchy(), null));
+		writeDetections();
+
+		long indexOffset = position;
+		var index = ImageDataChunks.createIndex(chunks);
+		ImageDataChunks.writeChunkHeader(out,
+				new ChunkInfo(ImageDataChunks.TYPE_INDEX, indexOffset, (byte)0, index.length, index.length, null));
+		out.write(index);
+		out.writeLong(indexOffset);
+		out.writeInt(ImageDataChunks.MAGIC_END);
+		out.flush();
+		position += ImageDataChunks.headerLength(ImageDataChunks.TYPE_INDEX) + index.length + 12;
+	}
+
+	private ChunkInfo writeChunk(EncodedChunk chunk) throws IOException {
+		var info = chunk.info();
+		info = new ChunkInfo(info.type(), position, info.flags(), info.length(), info.storedLength(), info.tile());
+		ImageDataChunks.writeChunkHeader(out, info);
+		out.write(chunk.stored());
+		position += ImageDataChunks.headerLength(info.type()) + chunk.stored().length;
+		chunks.add(info);
+		return info;
+	}
+
+	private static byte[] createMetadata(String serverJson, ImageType imageType, ColorDeconvolutionStains stains, Map<String, Object> properties) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		ImageDataChunks.writeString(out, serverJson);
+		ImageDataChunks.writeString(out, imageType == null ? null : imageType.name());
+		ImageDataChunks.writeBytes(out, ImageDataChunks.serialize(stains));
+		ImageDataChunks.writeBytes(out, ImageDataChunks.serialize(properties));
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Encode all objects that aren't inside a detection, along with the TMA grid.
+	 * Detections are assigned to tiles to be written later.
+	 */
+	private byte[] createHierarchy() throws IOException {
+		var encoder = new ObjectChunkCodec.Encoder();
+		addToHierarchy(encoder, snapshot.getRootObject(), -1, 0);
+
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		out.write(encoder.toByteArray());
+
+		var tmaGrid = snapshot.getTMAGrid();
+		var cores = tmaGrid == null ? List.<TMACoreObject>of() : tmaGrid.getTMACoreList();
+		if (cores.stream().allMatch(coreRows::containsKey)) {
+			out.writeInt(tmaGrid == null ? -1 : tmaGrid.getGridWidth());
+			out.writeInt(cores.size());
+			for (var core : cores)
+				out.writeInt(coreRows.get(core));
+		} else {
+			logger.warn("Unable to locate all TMA cores - TMA grid will not be saved");
+			out.writeInt(-1);
+			out.writeInt(0);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private void addToHierarchy(ObjectChunkCodec.Encoder encoder, PathObject pathObject, int parent, int position) throws IOException {
+		var children = snapshot.getChildObjects(pathObject);
+		int row = encoder.size();
+		if (encoder.add(pathObject, parent, position, children.size()) == ObjectChunkCodec.KIND_SERIALIZED)
+			return;
+		if (pathObject instanceof TMACoreObject core)
+			coreRows.put(core, row);
+		for (int i = 0; i < children.size(); i++) {
+			var child = children.get(i);
+			if (child.isDetection())
+				tiles.computeIfAbsent(TileKey.create(child), k -> new ArrayList<>()).add(new DetectionRef(child, row, i));
+			else
+				addToHierarchy(encoder, child, row, i);
+		}
+	}
+
+	/**
+	 * Encode and compress the detections for each tile in parallel, writing the chunks in order.
+	 * Unchanged chunks are copied from the previous file instead, if possible.
+	 */
+	private void writeDetections() throws IOException {
+		try (var channel = openPrevious()) {
+			int maxPending = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+			Deque<PendingChunk> pending = new ArrayDeque<>();
+			for (var entry : tiles.entrySet()) {
+				var key = entry.getKey();
+				var detections = entry.getValue();
+				boolean dirty = channel == null || isDirty.test(key);
+				for (int i = 0; i < detections.size(); i += ImageDataChunks.MAX_DETECTIONS_PER_CHUNK) {
+					var list = detections.subList(i, Math.min(detections.size(), i + ImageDataChunks.MAX_DETECTIONS_PER_CHUNK));
+					long fingerprint = fingerprint(key, list);
+					var previousInfo = dirty ? null : previous.chunks().get(fingerprint);
+					if (previousInfo != null)
+						pending.addLast(new PendingChunk(fingerprint, CompletableFuture.completedFuture(readPrevious(channel, previousInfo))));
+					else
+						pending.addLast(new PendingChunk(fingerprint, CompletableFuture.supplyAsync(() -> encodeDetections(key, list))));
+					while (pending.size() > maxPending)
+						writePending(pending.removeFirst());
+				}
+			}
+			while (!pending.isEmpty())
+				writePending(pending.removeFirst());
+		}
+	}
+
+	private void writePending(PendingChunk pending) throws IOException {
+		var info = writeChunk(ImageDataChunks.join(pending.chunk()));
+		detectionChunks.put(pending.fingerprint(), info);
+	}
+
+	/**
+	 * Open the previous file to copy chunks, if it exists and hasn't been changed since it was written.
+	 * @return a channel to read the previous file, or null if chunks can't be copied from it
+	 */
+	private FileChannel openPrevious() {
+		if (previous == null || previous.chunks().isEmpty())
+			return null;
+		try {
+			var channel = FileChannel.open(previous.path(), StandardOpenOption.READ);
+			if (channel.size() == previous.size() && previous.lastModified().equals(Files.getLastModifiedTime(previous.path())))
+				return channel;
+			logger.debug("{} has changed since it was written - all chunks will be encoded", previous.path());
+			channel.close();
+		} catch (IOException e) {
+			logger.debug("Unable to open {} to copy chunks: {}", previous.path(), e.getMessage());
+		}
+		return null;
+	}
+
+	private EncodedChunk readPrevious(FileChannel channel, ChunkInfo info) throws IOException {
+		byte[] stored = new byte[info.storedLength()];
+		var buffer = ByteBuffer.wrap(stored);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, info.payloadOffset() + buffer.position()) < 0)
+				throw new EOFException("Unexpected end of " + previous.path());
+		}
+		nCopied++;
+		bytesCopied += stored.length;
+		return new EncodedChunk(info, stored);
+	}
+
+	/**
+	 * Compute a fingerprint for the detections in a chunk, which changes whenever the objects in the chunk 
+	 * or their structure change.
+	 * This relies on object identity, so changes to the objects themselves are identified separately as dirty tiles.
+	 */
+	private long fingerprint(TileKey key, List<DetectionRef> detections) {
+		long hash = mix(key.hashCode(), detections.size());
+		for (var ref : detections) {
+			hash = mix(hash, ref.parentRow());
+			hash = mix(hash, ref.position());
+			hash = fingerprint(hash, ref.pathObject());
+		}
+		return hash;
+	}
+
+	private long fingerprint(long hash, PathObject pathObject) {
+		var children = snapshot.getChildObjects(pathObject);
+		hash = mix(hash, System.identityHashCode(pathObject));
+		hash = mix(hash, children.size());
+		for (var child : children)
+			hash = fingerprint(hash, child);
+		return hash;
+	}
+
+	private static long mix(long hash, long value) {
+		hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 29);
+	}
+
+	private EncodedChunk encodeDetections(TileKey key, List<DetectionRef> detections) {
+		try {
+			var encoder = new ObjectChunkCodec.Encoder();
+			for (var ref : detections)
+				encoder.addWithDescendants(ref.pathObject(), -ref.parentRow() - 2, ref.position(), snapshot::getChildObjects);
+			var bounds = encoder.getBounds();
+			var tile = new TileInfo(key.z(), key.t(), bounds[0], bounds[1], bounds[2], bounds[3], encoder.size());
+			return ImageDataChunks.compress(ImageDataChunks.TYPE_DETECTIONS, encoder.toByteArray(), tile);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * A detection to be written in a DETECTIONS chunk.
+	 * @param pathObject the detection
+	 * @param parentRow the index of its parent in the HIERARCHY chunk
+	 * @param position the position of the detection in its parent's child list
+	 */
+	private record DetectionRef(PathObject pathObject, int parentRow, int position) {}
+
+	private record PendingChunk(long fingerprint, CompletableFuture<EncodedChunk> chunk) {}
+
+	/**
+	 * The DETECTIONS chunks written to a file, which may be copied when the file is written again.
+	 * @param path the file
+	 * @param size the size of the file after writing
+	 * @param lastModified the last modified time of the file after writing
+	 * @param chunks the chunks, mapped from their fingerprints
+	 */
+	record PreviousChunks(Path path, long size, FileTime lastModified, Map<Long, ChunkInfo> chunks) {}
+
+	/**
+	 * Summary of a write operation.
+	 * @param bytesWritten total number of bytes written
+	 * @param nChunks total number of chunks written
+	 * @param nCopied number of DETECTIONS chunks copied from the previous file
+	 * @param bytesCopied number of bytes copied from the previous file (excluding chunk headers)
+	 * @param detectionChunks the DETECTIONS chunks written, mapped from their fingerprints
+	 */
+	record WriteSummary(long bytesWritten, int nChunks, int nCopied, long bytesCopied, Map<Long, ChunkInfo> detectionChunks) {}
+
+	/**
+	 * Tile used to group detections, ordered by plane and then row-by-row.
+	 */
+	record TileKey(int z, int t, int y, int x) implements Comparable<TileKey> {
+
+		private static final Comparator<TileKey> COMPARATOR = Comparator.comparingInt(TileKey::z)
+				.thenComparingInt(TileKey::t)
+				.thenComparingInt(TileKey::y)
+				.thenComparingInt(TileKey::x);
+
+		static TileKey create(PathObject pathObject) {
+			var roi = pathObject.getROI();
+			if (roi == null)
+				return new TileKey(0, 0, 0, 0);
+			int x = (int)Math.floor(roi.getCentroidX() / ImageDataChunks.TILE_SIZE);
+			int y = (int)Math.floor(roi.getCentroidY() / ImageDataChunks.TILE_SIZE);
+			return new TileKey(roi.getZ(), roi.getT(), y, x);
+		}
+
+		@Override
+		public int compareTo(TileKey o) {
+			return COMPARATOR.compare(this, o);
+		}
+
+	}
+
+}
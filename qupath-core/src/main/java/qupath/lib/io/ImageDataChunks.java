@@ -0,0 +1,459 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Constants and helper methods for the chunked .qpdata format.
+ * <p>
+ * This replaces Java serialization of the entire {@link qupath.lib.objects.hierarchy.PathObjectHierarchy}
+ * with a sequence of independent chunks, which can be compressed, decoded in parallel, and (when reading from a file)
+ * skipped entirely if they aren't needed.
+ * <p>
+ * The layout is
+ * <pre>
+ *   int     MAGIC
+ *   int     VERSION
+ *   chunk*  METADATA, WORKFLOW, HIERARCHY, DETECTIONS...
+ *   chunk   INDEX
+ *   long    offset of the INDEX chunk
+ *   int     MAGIC_END
+ * </pre>
+ * Each chunk has a header
+ * <pre>
+ *   byte    type
+ *   byte    flags (currently only whether the payload is compressed)
+ *   int     length of the uncompressed payload
+ *   int     length of the stored payload
+ *   [tile]  for DETECTIONS chunks only: int z, int t, double minX, minY, maxX, maxY, int nObjects
+ * </pre>
+ * followed by the payload, which is compressed using {@link Deflater#BEST_SPEED} if that makes it smaller.
+ * <p>
+ * The tile information is stored outside the payload, so that chunks can be selected by region without
+ * needing to decompress them.
+ * The INDEX chunk repeats all the chunk headers along with their offsets, so that a reader with random access
+ * can go directly to the chunks it needs.
+ * <p>
+ * All values are big-endian, as written by {@link DataOutputStream}.
+ * The layout of object chunks is described in {@link ObjectChunkCodec}.
+ */
+final class ImageDataChunks {
+
+	/**
+	 * Bytes 'QPDT' at the start of the file.
+	 * This is distinct from the magic number for Java serialization (0xACED), which starts legacy .qpdata files.
+	 */
+	static final int MAGIC = 0x51504454;
+
+	/**
+	 * Bytes 'QEND' at the end of the file.
+	 */
+	static final int MAGIC_END = 0x51454E44;
+
+	/**
+	 * Current version of the chunked format.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Server, image type, stains and properties.
+	 */
+	static final byte TYPE_METADATA = 1;
+
+	/**
+	 * Command history.
+	 */
+	static final byte TYPE_WORKFLOW = 2;
+
+	/**
+	 * The root object and all other objects that aren't inside a detection, along with the TMA grid.
+	 */
+	static final byte TYPE_HIERARCHY = 3;
+
+	/**
+	 * Detections (along with any descendants) that are located within a single spatial tile.
+	 */
+	static final byte TYPE_DETECTIONS = 4;
+
+	/**
+	 * Index of all other chunks.
+	 */
+	static final byte TYPE_INDEX = 5;
+
+	static final byte FLAG_COMPRESSED = 1;
+
+	/**
+	 * Width and height of the tiles used to group detections, in pixels.
+	 */
+	static final int TILE_SIZE = 2048;
+
+	/**
+	 * Maximum number of detections (not counting descendants) to write in a single chunk.
+	 * Tiles with more detections than this are split into several chunks.
+	 */
+	static final int MAX_DETECTIONS_PER_CHUNK = 8192;
+
+	/**
+	 * Chunks smaller than this aren't compressed.
+	 */
+	private static final int MIN_COMPRESS_LENGTH = 256;
+
+	private ImageDataChunks() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Information about a single chunk.
+	 * @param type the chunk type
+	 * @param offset offset of the chunk header within the file, or -1 if unknown
+	 * @param flags chunk flags
+	 * @param length length of the uncompressed payload
+	 * @param storedLength length of the payload as stored
+	 * @param tile the tile for a DETECTIONS chunk, or null
+	 */
+	record ChunkInfo(byte type, long offset, byte flags, int length, int storedLength, TileInfo tile) {
+
+		boolean isCompressed() {
+			return (flags & FLAG_COMPRESSED) != 0;
+		}
+
+		/**
+		 * Offset of the payload within the file.
+		 * @return
+		 */
+		long payloadOffset() {
+			return offset + headerLength(type);
+		}
+
+	}
+
+	/**
+	 * Location of the detections within a DETECTIONS chunk.
+	 * @param z
+	 * @param t
+	 * @param minX minimum x coordinate of all the ROIs in the chunk
+	 * @param minY minimum y coordinate of all the ROIs in the chunk
+	 * @param maxX maximum x coordinate of all the ROIs in the chunk
+	 * @param maxY maximum y coordinate of all the ROIs in the chunk
+	 * @param nObjects number of objects in the chunk, including descendants
+	 */
+	record TileInfo(int z, int t, double minX, double minY, double maxX, double maxY, int nObjects) {
+
+		/**
+		 * Check if any of the ROIs in the chunk might overlap a region.
+		 * @param region
+		 * @return
+		 */
+		boolean intersects(ImageRegion region) {
+			if (region == null)
+				return true;
+			// Chunks without ROIs can't be located, so always need to be included
+			if (Double.isNaN(minX))
+				return true;
+			return ImageDataChunks.intersects(region, z, t, minX, minY, maxX, maxY);
+		}
+
+	}
+
+	/**
+	 * Check if a region intersects the bounding box of a ROI, including touching its boundary.
+	 * This differs from {@link ImageRegion#intersects(double, double, double, double)} by also accepting empty boxes
+	 * (e.g. for a single point).
+	 * A negative z or t for the region is treated as matching all planes, and a null ROI is treated as intersecting.
+	 */
+	static boolean intersects(ImageRegion region, ROI roi) {
+		if (roi == null)
+			return true;
+		return intersects(region, roi.getZ(), roi.getT(), roi.getBoundsX(), roi.getBoundsY(),
+				roi.getBoundsX() + roi.getBoundsWidth(), roi.getBoundsY() + roi.getBoundsHeight());
+	}
+
+	static boolean intersects(ImageRegion region, int z, int t, double minX, double minY, double maxX, double maxY) {
+		return (region.getZ() < 0 || region.getZ() == z) && (region.getT() < 0 || region.getT() == t) &&
+				minX <= region.getMaxX() && maxX >= region.getMinX() &&
+				minY <= region.getMaxY() && maxY >= region.getMinY();
+	}
+
+	static int headerLength(byte type) {
+		return type == TYPE_DETECTIONS ? 10 + 8 + 32 + 4 : 10;
+	}
+
+	static void writeChunkHeader(DataOutputStream out, ChunkInfo info) throws IOException {
+		out.writeByte(info.type());
+		out.writeByte(info.flags());
+		out.writeInt(info.length());
+		out.writeInt(info.storedLength());
+		if (info.type() == TYPE_DETECTIONS) {
+			var tile = info.tile();
+			out.writeInt(tile.z());
+			out.writeInt(tile.t());
+			out.writeDouble(tile.minX());
+			out.writeDouble(tile.minY());
+			out.writeDouble(tile.maxX());
+			out.writeDouble(tile.maxY());
+			out.writeInt(tile.nObjects());
+		}
+	}
+
+	/**
+	 * Read a chunk header.
+	 * @param in
+	 * @param offset the offset of the chunk in the file, if known (otherwise -1)
+	 * @return the chunk info, or null if the end of the stream has been reached
+	 * @throws IOException
+	 */
+	static ChunkInfo readChunkHeader(DataInputStream in, long offset) throws IOException {
+		int type = in.read();
+		if (type < 0)
+			return null;
+		byte flags = in.readByte();
+		int length = in.readInt();
+		int storedLength = in.readInt();
+		TileInfo tile = null;
+		if (type == TYPE_DETECTIONS) {
+			tile = new TileInfo(in.readInt(), in.readInt(),
+					in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readInt());
+		}
+		return new ChunkInfo((byte)type, offset, flags, length, storedLength, tile);
+	}
+
+	/**
+	 * Write the INDEX chunk, which contains the headers and offsets of all other chunks.
+	 * This is never compressed.
+	 * @param chunks
+	 * @return
+	 * @throws IOException
+	 */
+	static byte[] createIndex(List<ChunkInfo> chunks) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		out.writeInt(chunks.size());
+		for (var chunk : chunks) {
+			out.writeLong(chunk.offset());
+			writeChunkHeader(out, chunk);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static List<ChunkInfo> parseIndex(byte[] bytes) throws IOException {
+		var in = new DataInputStream(new ByteArrayInputStream(bytes));
+		int n = in.readInt();
+		List<ChunkInfo> chunks = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			long offset = in.readLong();
+			chunks.add(readChunkHeader(in, offset));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Check if a stream contains data in the chunked format, by peeking at the first 4 bytes.
+	 * @param stream a stream that supports mark and reset
+	 * @return
+	 * @throws IOException
+	 */
+	static boolean isChunked(InputStream stream) throws IOException {
+		if (!stream.markSupported())
+			throw new IllegalArgumentException("Stream must support mark and reset");
+		stream.mark(4);
+		try {
+			int magic = 0;
+			for (int i = 0; i < 4; i++) {
+				int b = stream.read();
+				if (b < 0)
+					return false;
+				magic = (magic << 8) | b;
+			}
+			return magic == MAGIC;
+		} finally {
+			stream.reset();
+		}
+	}
+
+	/**
+	 * Compress a payload, if doing so makes it smaller.
+	 * @param type chunk type
+	 * @param payload the uncompressed payload
+	 * @param tile tile info for DETECTIONS chunks
+	 * @return the chunk info (with unknown offset) and the bytes to store
+	 */
+	static EncodedChunk compress(byte type, byte[] payload, TileInfo tile) {
+		if (payload.length >= MIN_COMPRESS_LENGTH) {
+			var deflater = new Deflater(Deflater.BEST_SPEED);
+			try {
+				deflater.setInput(payload);
+				deflater.finish();
+				var output = new ByteArrayOutputStream(Math.max(64, payload.length / 4));
+				var buffer = new byte[16384];
+				while (!deflater.finished()) {
+					int n = deflater.deflate(buffer);
+					output.write(buffer, 0, n);
+					if (output.size() >= payload.length)
+						break;
+				}
+				if (deflater.finished() && output.size() < payload.length) {
+					var stored = output.toByteArray();
+					return new EncodedChunk(new ChunkInfo(type, -1, FLAG_COMPRESSED, payload.length, stored.length, tile), stored);
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+		return new EncodedChunk(new ChunkInfo(type, -1, (byte)0, payload.length, payload.length, tile), payload);
+	}
+
+	/**
+	 * Get the uncompressed payload for a chunk.
+	 * @param info
+	 * @param stored
+	 * @return
+	 * @throws IOException if the payload can't be decompressed
+	 */
+	static ByteBuffer decompress(ChunkInfo info, byte[] stored) throws IOException {
+		if (!info.isCompressed())
+			return ByteBuffer.wrap(stored);
+		var inflater = new Inflater();
+		try {
+			inflater.setInput(stored);
+			var output = new byte[info.length()];
+			int n = 0;
+			while (n < output.length && !inflater.finished()) {
+				int count = inflater.inflate(output, n, output.length - n);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new EOFException("Unexpected end of compressed chunk");
+				n += count;
+			}
+			return ByteBuffer.wrap(output);
+		} catch (DataFormatException e) {
+			throw new IOException("Unable to decompress chunk", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * A chunk ready to be written.
+	 * @param info
+	 * @param stored
+	 */
+	record EncodedChunk(ChunkInfo info, byte[] stored) {}
+
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		var bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer buffer) {
+		int n = buffer.getInt();
+		if (n < 0)
+			return null;
+		var s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), n, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + n);
+		return s;
+	}
+
+	static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Get the result of a future, rethrowing the cause of any exception where possible.
+	 */
+	static <T> T join(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException ex)
+				throw ex.getCause();
+			if (e.getCause() instanceof RuntimeException ex)
+				throw ex;
+			if (e.getCause() instanceof Error err)
+				throw err;
+			throw e;
+		}
+	}
+
+	static byte[] readBytes(ByteBuffer buffer) {
+		var bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Write an object using Java serialization.
+	 * This is used for small objects that don't have a more specific representation, and to support custom subclasses.
+	 * @param obj
+	 * @return
+	 * @throws IOException
+	 */
+	static byte[] serialize(Object obj) throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		try (var out = new ObjectOutputStream(bytes)) {
+			out.writeObject(obj);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Read an object using Java serialization, with the same restrictions on classes as {@link PathIO#createObjectInputStream(InputStream)}.
+	 * @param bytes
+	 * @return
+	 * @throws IOException
+	 */
+	static Object deserialize(byte[] bytes) throws IOException {
+		try (var in = PathIO.createObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,270 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.io.ImageDataChunkWriter.PreviousChunks;
+import qupath.lib.io.ImageDataChunkWriter.TileKey;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.LazyObjectLoader;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
+
+/**
+ * Write an {@link ImageData} to the same file repeatedly, only encoding the detections that have changed
+ * since the last write.
+ * <p>
+ * The writer listens for hierarchy events to identify the tiles containing changed detections.
+ * Detections in other tiles are copied from the previous file, without being encoded or compressed again.
+ * Note that changes made to objects without firing a hierarchy event may therefore not be written.
+ * <p>
+ * Files are always written in the chunked format. Each write goes to a temporary file, which is synced to disk
+ * and then moved to replace the previous file - so the file is either fully updated, or not updated at all.
+ * <p>
+ * This is intended for autosaving, and so is safe to use from a background thread while the image data is being
+ * edited. Any changes made during a write will be included in the next write.
+ *
+ * @since v0.6.0
+ */
+public class IncrementalImageDataWriter implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(IncrementalImageDataWriter.class);
+
+	private final ImageData<?> imageData;
+
+	private final PathObjectHierarchyListener hierarchyListener = this::hierarchyChanged;
+	private final PropertyChangeListener propertyListener = this::propertyChanged;
+
+	// Changes since the last write, guarded by the lock
+	private final Object lock = new Object();
+	private Set<TileKey> dirtyTiles = new HashSet<>();
+	private boolean allDirty = true;
+	private long changeCount = 0;
+	private long writtenChangeCount = 0;
+
+	private PreviousChunks previous;
+
+	/**
+	 * Create a writer for the specified image data.
+	 * The image data is assumed to be unchanged when the writer is created; {@link #close()} should be called
+	 * when the writer is no longer needed, so that it stops listening for changes.
+	 * @param imageData
+	 */
+	public IncrementalImageDataWriter(ImageData<?> imageData) {
+		this.imageData = imageData;
+		imageData.getHierarchy().addListener(hierarchyListener);
+		imageData.addPropertyChangeListener(propertyListener);
+	}
+
+	/**
+	 * Get the image data written by this writer.
+	 * @return
+	 */
+	public ImageData<?> getImageData() {
+		return imageData;
+	}
+
+	/**
+	 * Query whether any changes have been made since the last successful write, or since the writer was created.
+	 * @return
+	 */
+	public boolean hasChanges() {
+		synchronized (lock) {
+			return changeCount != writtenChangeCount;
+		}
+	}
+
+	/**
+	 * Write the image data to a file, copying unchanged detections from the file if it was previously written
+	 * by this writer (and hasn't been modified since).
+	 * <p>
+	 * If no changes were made to the image data while writing, the image data will be marked as unchanged.
+	 *
+	 * @param path the file to write
+	 * @return a summary of the write
+	 * @throws IOException if the file could not be written; in this case, any existing file is left unchanged
+	 */
+	public synchronized WriteResult write(Path path) throws IOException {
+		long startTime = System.nanoTime();
+
+		// Objects loaded on demand are read from the existing file, so must be loaded before it is replaced
+		try {
+			imageData.getHierarchy().loadAllObjects();
+		} catch (UncheckedIOException e) {
+			throw new IOException("Unable to load all objects for writing", e.getCause());
+		}
+
+		Predicate<TileKey> isDirty;
+		long count;
+		synchronized (lock) {
+			count = changeCount;
+			if (allDirty) {
+				isDirty = k -> true;
+			} else {
+				var tiles = dirtyTiles;
+				isDirty = tiles::contains;
+			}
+			dirtyTiles = new HashSet<>();
+			allDirty = false;
+		}
+
+		var pathTemp = path.resolveSibling(path.getFileName() + ".tmp");
+		var previousChunks = previous != null && previous.path().equals(path) ? previous : null;
+		ImageDataChunkWriter.WriteSummary summary;
+		try {
+			try (var channel = FileChannel.open(pathTemp, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				summary = PathIO.writeImageDataChunked(Channels.newOutputStream(channel), imageData, previousChunks, isDirty);
+				channel.force(true);
+			}
+			moveAtomically(pathTemp, path);
+		} catch (IOException | RuntimeException e) {
+			// We don't know what was written, so everything needs to be written next time
+			synchronized (lock) {
+				allDirty = true;
+			}
+			previous = null;
+			Files.deleteIfExists(pathTemp);
+			throw e;
+		}
+		syncDirectory(path.toAbsolutePath().getParent());
+		previous = new PreviousChunks(path, Files.size(path), Files.getLastModifiedTime(path), summary.detectionChunks());
+
+		synchronized (lock) {
+			writtenChangeCount = count;
+			imageData.setLastSavedPath(path.toString(), count == changeCount);
+		}
+
+		var result = new WriteResult(path, summary.bytesWritten(), summary.bytesCopied(),
+				summary.nChunks(), summary.nCopied(), Duration.ofNanos(System.nanoTime() - startTime));
+		logger.debug("Image data written to {} in {} ms ({} bytes, {}/{} chunks copied)",
+				path, result.duration().toMillis(), result.bytesWritten(), result.chunksCopied(), result.chunksWritten());
+		return result;
+	}
+
+	private static void moveAtomically(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			logger.debug("Atomic move not supported for {}", target);
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Try to sync a directory, so that a file that was moved into it isn't lost if the system crashes.
+	 * This isn't supported on all platforms (e.g. Windows), and failure isn't considered an error.
+	 */
+	private static void syncDirectory(Path dir) {
+		if (dir == null)
+			return;
+		try (var channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			logger.trace("Unable to sync directory {}: {}", dir, e.getMessage());
+		}
+	}
+
+	private void hierarchyChanged(PathObjectHierarchyEvent event) {
+		// Loading or unloading objects on demand doesn't change the data
+		if (event.getSource() instanceof LazyObjectLoader)
+			return;
+		synchronized (lock) {
+			changeCount++;
+			if (allDirty)
+				return;
+			if (event.isStructureChangeEvent() && !event.hasStructureChangeDetails()) {
+				// Anything below the base may have changed
+				var base = event.getStructureChangeBase();
+				if (base != null && base.isDetection())
+					markDirty(base);
+				else
+					allDirty = true;
+				return;
+			}
+			// Changes in structure are identified when writing, but new objects need to be encoded anyway
+			for (var pathObject : event.getAddedObjects())
+				markDirty(pathObject);
+			for (var pathObject : event.getChangedObjects())
+				markDirty(pathObject);
+		}
+	}
+
+	private void propertyChanged(PropertyChangeEvent event) {
+		// Image properties aren't part of any DETECTIONS chunk, so we only need to record that a change was made
+		synchronized (lock) {
+			changeCount++;
+		}
+	}
+
+	/**
+	 * Mark the tile containing a detection as dirty.
+	 * Detections are grouped with their top-level detection ancestor, so it is this tile that changes.
+	 */
+	private void markDirty(PathObject pathObject) {
+		var top = pathObject;
+		while (top.getParent() != null && top.getParent().isDetection())
+			top = top.getParent();
+		if (top.isDetection())
+			dirtyTiles.add(TileKey.create(top));
+	}
+
+	/**
+	 * Stop listening for changes to the image data.
+	 */
+	@Override
+	public void close() {
+		imageData.getHierarchy().removeListener(hierarchyListener);
+		imageData.removePropertyChangeListener(propertyListener);
+	}
+
+	/**
+	 * Summary of a single write.
+	 * @param path the file that was written
+	 * @param bytesWritten the size of the file
+	 * @param bytesCopied the number of bytes that were copied from the previous file, rather than encoded
+	 * @param chunksWritten the number of chunks in the file (excluding the index)
+	 * @param chunksCopied the number of chunks that were copied from the previous file
+	 * @param duration the time taken to write the file, including syncing it to disk
+	 */
+	public record WriteResult(Path path, long bytesWritten, long bytesCopied, int chunksWritten, int chunksCopied, Duration duration) {}
+
+}
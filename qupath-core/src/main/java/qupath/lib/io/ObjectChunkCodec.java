@@ -0,0 +1,785 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementList.MeasurementListType;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.PathROIObject;
+import qupath.lib.objects.PathRootObject;
+import qupath.lib.objects.PathTileObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.EllipseROI;
+import qupath.lib.roi.LineROI;
+import qupath.lib.roi.PointsROI;
+import qupath.lib.roi.PolygonROI;
+import qupath.lib.roi.PolylineROI;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.RectangleROI;
+import qupath.lib.roi.interfaces.ROI;
+
+/**
+ * Encode and decode chunks of objects for the chunked .qpdata format.
+ * <p>
+ * A chunk stores a flat table of objects in pre-order, so that parents always come before their children.
+ * Each object refers to its parent either by its index within the same chunk, or by its index within the
+ * HIERARCHY chunk (for detections that are stored separately in DETECTIONS chunks).
+ * <p>
+ * The payload is organized into sections, so that the bulk of the data can be read without parsing each value:
+ * <pre>
+ *   int       number of objects
+ *   classes   int count, then for each: int parent index (or -1), String name, boolean hasColor, int color
+ *   floats    int count, then values (polygon and polyline vertices)
+ *   doubles   int count, then values (points, and parameters for rectangles, ellipses and lines)
+ *   measurements  int count, then for each distinct set of names:
+ *                 byte type, int nNames, names, int nObjects, then values in column-major order
+ *   objects   one row per object
+ * </pre>
+ * Each row contains the object kind, parent index, position within its parent's child list, number of children
+ * and ID, followed by a flags byte indicating which optional properties are present.
+ * ROIs are written as a type and plane, with their coordinates taken from the float or double section.
+ * <p>
+ * Objects or ROIs that can't be represented in this way (e.g. from custom subclasses) are written using
+ * Java serialization, so that nothing is lost.
+ */
+final class ObjectChunkCodec {
+
+	static final byte KIND_ROOT = 0;
+	static final byte KIND_ANNOTATION = 1;
+	static final byte KIND_DETECTION = 2;
+	static final byte KIND_TILE = 3;
+	static final byte KIND_CELL = 4;
+	static final byte KIND_TMA_CORE = 5;
+	/**
+	 * An object (along with all its descendants) written using Java serialization.
+	 */
+	static final byte KIND_SERIALIZED = 6;
+
+	private static final byte ROI_NONE = 0;
+	private static final byte ROI_RECTANGLE = 1;
+	private static final byte ROI_ELLIPSE = 2;
+	private static final byte ROI_LINE = 3;
+	private static final byte ROI_POLYGON = 4;
+	private static final byte ROI_POLYLINE = 5;
+	private static final byte ROI_POINTS = 6;
+	private static final byte ROI_SERIALIZED = 7;
+
+	private static final int FLAG_NAME = 1;
+	private static final int FLAG_COLOR = 1 << 1;
+	private static final int FLAG_LOCKED = 1 << 2;
+	private static final int FLAG_MISSING = 1 << 3;
+	private static final int FLAG_CLASS = 1 << 4;
+	private static final int FLAG_PROBABILITY = 1 << 5;
+	private static final int FLAG_METADATA = 1 << 6;
+	private static final int FLAG_NUCLEUS = 1 << 7;
+
+	private static final byte MEASUREMENTS_FLOAT = 0;
+	private static final byte MEASUREMENTS_DOUBLE = 1;
+
+	private ObjectChunkCodec() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Get the kind of row that will be used to store an object.
+	 * @param pathObject
+	 * @return
+	 */
+	static byte getKind(PathObject pathObject) {
+		var cls = pathObject.getClass();
+		if (cls == PathRootObject.class)
+			return KIND_ROOT;
+		if (pathObject.getROI() == null)
+			return KIND_SERIALIZED;
+		if (cls == PathAnnotationObject.class)
+			return KIND_ANNOTATION;
+		if (cls == TMACoreObject.class)
+			return KIND_TMA_CORE;
+		// Metadata can't be set for detections through the public API, so we need to serialize them
+		if (!pathObject.getMetadata().isEmpty())
+			return KIND_SERIALIZED;
+		if (cls == PathDetectionObject.class)
+			return KIND_DETECTION;
+		if (cls == PathTileObject.class)
+			return KIND_TILE;
+		if (cls == PathCellObject.class)
+			return KIND_CELL;
+		return KIND_SERIALIZED;
+	}
+
+
+	/**
+	 * Encoder for a single chunk.
+	 * Objects should be added in pre-order.
+	 */
+	static class Encoder {
+
+		private final ByteArrayOutputStream rowBytes = new ByteArrayOutputStream(8192);
+		private final DataOutputStream rows = new DataOutputStream(rowBytes);
+		private int nRows;
+
+		private final Map<PathClass, Integer> classMap = new HashMap<>();
+		private final List<PathClass> classes = new ArrayList<>();
+
+		private float[] floats = new float[1024];
+		private int nFloats;
+
+		private double[] doubles = new double[256];
+		private int nDoubles;
+
+		private final Map<List<String>, MeasurementSchema> schemaMap = new HashMap<>();
+		private final List<MeasurementSchema> schemas = new ArrayList<>();
+		private MeasurementSchema lastSchema;
+
+		private double minX = Double.POSITIVE_INFINITY;
+		private double minY = Double.POSITIVE_INFINITY;
+		private double maxX = Double.NEGATIVE_INFINITY;
+		private double maxY = Double.NEGATIVE_INFINITY;
+
+		/**
+		 * Add an object to the chunk.
+		 * Child objects are not added automatically, unless the object needs to be serialized.
+		 *
+		 * @param pathObject the object to add
+		 * @param parent index of the parent (see class description)
+		 * @param position position of the object in its parent's child list
+		 * @param nChildren number of child objects
+		 * @return the kind of row written; if this is {@link ObjectChunkCodec#KIND_SERIALIZED} then child objects have
+		 *         been included and should not be added separately
+		 * @throws IOException
+		 */
+		byte add(PathObject pathObject, int parent, int position, int nChildren) throws IOException {
+			byte kind = getKind(pathObject);
+			nRows++;
+			rows.writeByte(kind);
+			rows.writeInt(parent);
+			rows.writeInt(position);
+			if (kind == KIND_SERIALIZED) {
+				rows.writeInt(0);
+				ImageDataChunks.writeBytes(rows, ImageDataChunks.serialize(pathObject));
+				var roi = pathObject.getROI();
+				if (roi != null)
+					updateBounds(roi);
+				return kind;
+			}
+			rows.writeInt(nChildren);
+			var id = pathObject.getID();
+			rows.writeLong(id.getMostSignificantBits());
+			rows.writeLong(id.getLeastSignificantBits());
+
+			String name = pathObject.getName();
+			Integer color = pathObject.getColor();
+			PathClass pathClass = kind == KIND_ROOT ? null : pathObject.getPathClass();
+			double probability = pathObject.getClassProbability();
+			Map<String, String> metadata = pathObject.getMetadata();
+			ROI nucleus = pathObject instanceof PathCellObject cell ? cell.getNucleusROI() : null;
+
+			int flags = 0;
+			if (name != null)
+				flags |= FLAG_NAME;
+			if (color != null)
+				flags |= FLAG_COLOR;
+			if (pathObject instanceof PathROIObject && pathObject.isLocked())
+				flags |= FLAG_LOCKED;
+			if (pathObject instanceof TMACoreObject core && core.isMissing())
+				flags |= FLAG_MISSING;
+			if (pathClass != null && pathClass != PathClass.NULL_CLASS)
+				flags |= FLAG_CLASS;
+			if (!Double.isNaN(probability))
+				flags |= FLAG_PROBABILITY;
+			if (!metadata.isEmpty())
+				flags |= FLAG_METADATA;
+			if (nucleus != null)
+				flags |= FLAG_NUCLEUS;
+			rows.writeByte(flags);
+
+			if (name != null)
+				ImageDataChunks.writeString(rows, name);
+			if (color != null)
+				rows.writeInt(color);
+			if ((flags & FLAG_CLASS) != 0)
+				rows.writeInt(getClassIndex(pathClass));
+			if (!Double.isNaN(probability))
+				rows.writeDouble(probability);
+			if (!metadata.isEmpty()) {
+				// Copy to avoid concurrent modification changing the size
+				var map = new LinkedHashMap<>(metadata);
+				rows.writeInt(map.size());
+				for (var entry : map.entrySet()) {
+					ImageDataChunks.writeString(rows, entry.getKey());
+					ImageDataChunks.writeString(rows, entry.getValue());
+				}
+			}
+			if (kind != KIND_ROOT)
+				writeROI(pathObject.getROI());
+			if (nucleus != null)
+				writeROI(nucleus);
+			rows.writeInt(addMeasurements(pathObject));
+			return kind;
+		}
+
+		/**
+		 * Add an object to the chunk, followed by all its descendants (in pre-order).
+		 *
+		 * @param pathObject the object to add
+		 * @param parent index of the parent (see class description)
+		 * @param position position of the object in its parent's child list
+		 * @param childFunction function to get the child objects of any object
+		 * @throws IOException
+		 */
+		void addWithDescendants(PathObject pathObject, int parent, int position, Function<PathObject, List<PathObject>> childFunction) throws IOException {
+			var children = childFunction.apply(pathObject);
+			int row = nRows;
+			if (add(pathObject, parent, position, children.size()) == KIND_SERIALIZED)
+				return;
+			for (int i = 0; i < children.size(); i++)
+				addWithDescendants(children.get(i), row, i, childFunction);
+		}
+
+		private int getClassIndex(PathClass pathClass) {
+			var ind = classMap.get(pathClass);
+			if (ind != null)
+				return ind;
+			var parent = pathClass.getParentClass();
+			if (parent != null)
+				getClassIndex(parent);
+			int index = classes.size();
+			classes.add(pathClass);
+			classMap.put(pathClass, index);
+			return index;
+		}
+
+		private void writeROI(ROI roi) throws IOException {
+			if (roi == null) {
+				rows.writeByte(ROI_NONE);
+				return;
+			}
+			updateBounds(roi);
+			var cls = roi.getClass();
+			if (cls == RectangleROI.class || cls == EllipseROI.class) {
+				writeROIHeader(cls == RectangleROI.class ? ROI_RECTANGLE : ROI_ELLIPSE, roi);
+				addDoubles(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight());
+			} else if (cls == LineROI.class) {
+				var line = (LineROI)roi;
+				writeROIHeader(ROI_LINE, roi);
+				addDoubles(line.getX1(), line.getY1(), line.getX2(), line.getY2());
+			} else if (cls == PolygonROI.class) {
+				var polygon = (PolygonROI)roi;
+				int n = polygon.getNumPoints();
+				writeROIHeader(ROI_POLYGON, roi);
+				rows.writeInt(n);
+				ensureFloatCapacity(n * 2);
+				for (int i = 0; i < n; i++)
+					floats[nFloats + i] = (float)polygon.getVertexX(i);
+				nFloats += n;
+				for (int i = 0; i < n; i++)
+					floats[nFloats + i] = (float)polygon.getVertexY(i);
+				nFloats += n;
+			} else if (cls == PolylineROI.class || cls == PointsROI.class) {
+				var points = roi.getAllPoints();
+				int n = points.size();
+				writeROIHeader(cls == PolylineROI.class ? ROI_POLYLINE : ROI_POINTS, roi);
+				rows.writeInt(n);
+				if (cls == PolylineROI.class) {
+					// Polylines store their vertices as floats anyway
+					ensureFloatCapacity(n * 2);
+					for (int i = 0; i < n; i++) {
+						var p = points.get(i);
+						floats[nFloats + i] = (float)p.getX();
+						floats[nFloats + n + i] = (float)p.getY();
+					}
+					nFloats += n * 2;
+				} else {
+					ensureDoubleCapacity(n * 2);
+					for (int i = 0; i < n; i++) {
+						var p = points.get(i);
+						doubles[nDoubles + i] = p.getX();
+						doubles[nDoubles + n + i] = p.getY();
+					}
+					nDoubles += n * 2;
+				}
+			} else {
+				rows.writeByte(ROI_SERIALIZED);
+				ImageDataChunks.writeBytes(rows, ImageDataChunks.serialize(roi));
+			}
+		}
+
+		private void writeROIHeader(byte type, ROI roi) throws IOException {
+			rows.writeByte(type);
+			rows.writeInt(roi.getC());
+			rows.writeInt(roi.getZ());
+			rows.writeInt(roi.getT());
+		}
+
+		private void updateBounds(ROI roi) {
+			if (roi.isEmpty() && roi.getNumPoints() == 0)
+				return;
+			minX = Math.min(minX, roi.getBoundsX());
+			minY = Math.min(minY, roi.getBoundsY());
+			maxX = Math.max(maxX, roi.getBoundsX() + roi.getBoundsWidth());
+			maxY = Math.max(maxY, roi.getBoundsY() + roi.getBoundsHeight());
+		}
+
+		private void addDoubles(double v1, double v2, double v3, double v4) {
+			ensureDoubleCapacity(4);
+			doubles[nDoubles++] = v1;
+			doubles[nDoubles++] = v2;
+			doubles[nDoubles++] = v3;
+			doubles[nDoubles++] = v4;
+		}
+
+		private void ensureFloatCapacity(int n) {
+			if (nFloats + n > floats.length)
+				floats = Arrays.copyOf(floats, Math.max(nFloats + n, floats.length * 2));
+		}
+
+		private void ensureDoubleCapacity(int n) {
+			if (nDoubles + n > doubles.length)
+				doubles = Arrays.copyOf(doubles, Math.max(nDoubles + n, doubles.length * 2));
+		}
+
+		private int addMeasurements(PathObject pathObject) {
+			if (!pathObject.hasMeasurements())
+				return -1;
+			var list = pathObject.getMeasurementList();
+			var names = list.getMeasurementNames();
+			if (names.isEmpty())
+				return -1;
+			var schema = lastSchema;
+			if (schema == null || !schema.names.equals(names)) {
+				schema = schemaMap.get(names);
+				if (schema == null) {
+					schema = new MeasurementSchema(schemas.size(), new ArrayList<>(names));
+					schemas.add(schema);
+					schemaMap.put(schema.names, schema);
+				}
+				lastSchema = schema;
+			}
+			schema.add(list);
+			return schema.index;
+		}
+
+		/**
+		 * Get the bounds of all the ROIs added so far, as {minX, minY, maxX, maxY}.
+		 * These are NaN if no ROIs have been added.
+		 * @return
+		 */
+		double[] getBounds() {
+			if (minX > maxX)
+				return new double[] {Double.NaN, Double.NaN, Double.NaN, Double.NaN};
+			return new double[] {minX, minY, maxX, maxY};
+		}
+
+		/**
+		 * Get the number of objects added (not counting the descendants of serialized objects).
+		 * @return
+		 */
+		int size() {
+			return nRows;
+		}
+
+		/**
+		 * Get the encoded payload.
+		 * @return
+		 * @throws IOException
+		 */
+		byte[] toByteArray() throws IOException {
+			rows.flush();
+			var bytes = new ByteArrayOutputStream(rowBytes.size() + nFloats * 4 + nDoubles * 8 + 1024);
+			var out = new DataOutputStream(bytes);
+			out.writeInt(nRows);
+
+			out.writeInt(classes.size());
+			for (var pathClass : classes) {
+				var parent = pathClass.getParentClass();
+				out.writeInt(parent == null ? -1 : classMap.get(parent));
+				ImageDataChunks.writeString(out, pathClass.getName());
+				var color = pathClass.getColor();
+				out.writeBoolean(color != null);
+				out.writeInt(color == null ? 0 : color);
+			}
+
+			out.writeInt(nFloats);
+			var buffer = ByteBuffer.allocate(nFloats * 4);
+			buffer.asFloatBuffer().put(floats, 0, nFloats);
+			out.write(buffer.array());
+
+			out.writeInt(nDoubles);
+			buffer = ByteBuffer.allocate(nDoubles * 8);
+			buffer.asDoubleBuffer().put(doubles, 0, nDoubles);
+			out.write(buffer.array());
+
+			out.writeInt(schemas.size());
+			for (var schema : schemas)
+				schema.write(out);
+
+			out.write(rowBytes.toByteArray());
+			out.flush();
+			return bytes.toByteArray();
+		}
+
+	}
+
+
+	/**
+	 * Measurements for all objects in a chunk that share the same measurement names.
+	 */
+	private static class MeasurementSchema {
+
+		private final int index;
+		private final List<String> names;
+		private double[] values = new double[256];
+		private int nObjects;
+		private boolean allFloat = true;
+
+		private MeasurementSchema(int index, List<String> names) {
+			this.index = index;
+			this.names = names;
+		}
+
+		private void add(MeasurementList list) {
+			int n = names.size();
+			int start = nObjects * n;
+			if (start + n > values.length)
+				values = Arrays.copyOf(values, Math.max(start + n, values.length * 2));
+			// Request all values at once, since lookup by index may be slow (e.g. for lists backed by a columnar store)
+			double[] listValues = list.values();
+			for (int i = 0; i < n; i++) {
+				double val = listValues[i];
+				values[start + i] = val;
+				if (allFloat && (double)(float)val != val && !Double.isNaN(val))
+					allFloat = false;
+			}
+			nObjects++;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeByte(allFloat ? MEASUREMENTS_FLOAT : MEASUREMENTS_DOUBLE);
+			int n = names.size();
+			out.writeInt(n);
+			for (var name : names)
+				ImageDataChunks.writeString(out, name);
+			out.writeInt(nObjects);
+			// Write values column by column, since these tend to compress better
+			var buffer = ByteBuffer.allocate(nObjects * n * (allFloat ? 4 : 8));
+			for (int c = 0; c < n; c++) {
+				for (int r = 0; r < nObjects; r++) {
+					double val = values[r * n + c];
+					if (allFloat)
+						buffer.putFloat((float)val);
+					else
+						buffer.putDouble(val);
+				}
+			}
+			out.write(buffer.array());
+		}
+
+	}
+
+
+	/**
+	 * The result of decoding a chunk.
+	 * @param objects the objects, in pre-order
+	 * @param parents the parent index for each object
+	 * @param positions the position of each object within its parent's child list
+	 * @param nChildren the number of child objects for each object (0 for objects that were serialized)
+	 */
+	record DecodedChunk(PathObject[] objects, int[] parents, int[] positions, int[] nChildren) {}
+
+
+	/**
+	 * Decode a chunk.
+	 * @param buffer the payload
+	 * @param root the object to use for any row of kind {@link #KIND_ROOT}, or null if a new root object should be created
+	 * @param linkChildren if true, add objects to the child lists of any parents within the same chunk
+	 * @return
+	 * @throws IOException
+	 */
+	static DecodedChunk decode(ByteBuffer buffer, PathObject root, boolean linkChildren) throws IOException {
+		return new Decoder(buffer, root).decode(linkChildren);
+	}
+
+
+	private static class Decoder {
+
+		private final ByteBuffer buffer;
+		private final PathObject root;
+
+		private PathClass[] classes;
+
+		private float[] floats;
+		private int floatInd;
+
+		private double[] doubles;
+		private int doubleInd;
+
+		private List<String>[] schemaNames;
+		private double[][] schemaValues;
+		private boolean[] schemaFloat;
+		private int[] schemaInd;
+
+		private Decoder(ByteBuffer buffer, PathObject root) {
+			this.buffer = buffer;
+			this.root = root;
+		}
+
+		private DecodedChunk decode(boolean linkChildren) throws IOException {
+			int n = buffer.getInt();
+			readClasses();
+			readCoordinates();
+			readMeasurements();
+
+			var objects = new PathObject[n];
+			var parents = new int[n];
+			var positions = new int[n];
+			var nChildren = new int[n];
+			for (int i = 0; i < n; i++) {
+				byte kind = buffer.get();
+				parents[i] = buffer.getInt();
+				positions[i] = buffer.getInt();
+				nChildren[i] = buffer.getInt();
+				if (kind == KIND_SERIALIZED) {
+					var obj = ImageDataChunks.deserialize(ImageDataChunks.readBytes(buffer));
+					if (obj instanceof PathObject pathObject)
+						objects[i] = pathObject;
+					else
+						throw new IOException("Expected a PathObject but found " + obj);
+				} else
+					objects[i] = readObject(kind);
+				int parent = parents[i];
+				if (linkChildren && parent >= 0) {
+					if (parent >= i)
+						throw new IOException("Invalid parent index " + parent + " for object " + i);
+					objects[parent].addChildObject(objects[i]);
+				}
+			}
+			return new DecodedChunk(objects, parents, positions, nChildren);
+		}
+
+		private void readClasses() {
+			int n = buffer.getInt();
+			classes = new PathClass[n];
+			for (int i = 0; i < n; i++) {
+				int parent = buffer.getInt();
+				String name = ImageDataChunks.readString(buffer);
+				boolean hasColor = buffer.get() != 0;
+				int color = buffer.getInt();
+				classes[i] = PathClass.getInstance(parent < 0 ? null : classes[parent], name, hasColor ? color : null);
+			}
+		}
+
+		private void readCoordinates() {
+			int n = buffer.getInt();
+			floats = new float[n];
+			buffer.asFloatBuffer().get(floats);
+			buffer.position(buffer.position() + n * 4);
+
+			n = buffer.getInt();
+			doubles = new double[n];
+			buffer.asDoubleBuffer().get(doubles);
+			buffer.position(buffer.position() + n * 8);
+		}
+
+		@SuppressWarnings("unchecked")
+		private void readMeasurements() {
+			int n = buffer.getInt();
+			schemaNames = new List[n];
+			schemaValues = new double[n][];
+			schemaFloat = new boolean[n];
+			schemaInd = new int[n];
+			for (int s = 0; s < n; s++) {
+				boolean isFloat = buffer.get() == MEASUREMENTS_FLOAT;
+				int nNames = buffer.getInt();
+				var names = new ArrayList<String>(nNames);
+				for (int i = 0; i < nNames; i++)
+					names.add(ImageDataChunks.readString(buffer));
+				int nObjects = buffer.getInt();
+				var values = new double[nObjects * nNames];
+				for (int c = 0; c < nNames; c++) {
+					for (int r = 0; r < nObjects; r++)
+						values[r * nNames + c] = isFloat ? buffer.getFloat() : buffer.getDouble();
+				}
+				schemaNames[s] = names;
+				schemaValues[s] = values;
+				schemaFloat[s] = isFloat;
+			}
+		}
+
+		private PathObject readObject(byte kind) throws IOException {
+			var id = new UUID(buffer.getLong(), buffer.getLong());
+			int flags = buffer.get() & 0xFF;
+			String name = (flags & FLAG_NAME) != 0 ? ImageDataChunks.readString(buffer) : null;
+			Integer color = (flags & FLAG_COLOR) != 0 ? buffer.getInt() : null;
+			PathClass pathClass = (flags & FLAG_CLASS) != 0 ? classes[buffer.getInt()] : null;
+			double probability = (flags & FLAG_PROBABILITY) != 0 ? buffer.getDouble() : Double.NaN;
+			Map<String, String> metadata = null;
+			if ((flags & FLAG_METADATA) != 0) {
+				int n = buffer.getInt();
+				metadata = new LinkedHashMap<>();
+				for (int i = 0; i < n; i++)
+					metadata.put(ImageDataChunks.readString(buffer), ImageDataChunks.readString(buffer));
+			}
+			ROI roi = kind == KIND_ROOT ? null : readROI();
+			ROI nucleus = (flags & FLAG_NUCLEUS) != 0 ? readROI() : null;
+			int schema = buffer.getInt();
+
+			PathObject pathObject;
+			switch (kind) {
+			case KIND_ROOT:
+				pathObject = root == null ? new PathRootObject() : root;
+				addMeasurements(pathObject.getMeasurementList(), schema);
+				break;
+			case KIND_ANNOTATION:
+				pathObject = PathObjects.createAnnotationObject(roi, pathClass, createMeasurementList(schema, MeasurementListType.GENERAL));
+				break;
+			case KIND_DETECTION:
+				pathObject = PathObjects.createDetectionObject(roi, pathClass, createDetectionMeasurementList(schema));
+				break;
+			case KIND_TILE:
+				pathObject = PathObjects.createTileObject(roi, pathClass, createDetectionMeasurementList(schema));
+				break;
+			case KIND_CELL:
+				pathObject = PathObjects.createCellObject(roi, nucleus, pathClass, createDetectionMeasurementList(schema));
+				break;
+			case KIND_TMA_CORE:
+				var core = new TMACoreObject();
+				core.setROI(roi);
+				core.setMissing((flags & FLAG_MISSING) != 0);
+				addMeasurements(core.getMeasurementList(), schema);
+				pathObject = core;
+				break;
+			default:
+				throw new IOException("Unknown object kind " + kind);
+			}
+			pathObject.setID(id);
+			if (pathClass != null || !Double.isNaN(probability))
+				pathObject.setPathClass(pathClass, probability);
+			// Color must be set after the classification, since setting a classification resets the color
+			if (color != null)
+				pathObject.setColor(color);
+			if (name != null)
+				pathObject.setName(name);
+			if ((flags & FLAG_LOCKED) != 0)
+				pathObject.setLocked(true);
+			if (metadata != null)
+				pathObject.getMetadata().putAll(metadata);
+			return pathObject;
+		}
+
+		private MeasurementList createDetectionMeasurementList(int schema) {
+			if (schema < 0)
+				return null;
+			return createMeasurementList(schema, schemaFloat[schema] ? MeasurementListType.FLOAT : MeasurementListType.DOUBLE);
+		}
+
+		private MeasurementList createMeasurementList(int schema, MeasurementListType type) {
+			if (schema < 0)
+				return null;
+			var list = MeasurementListFactory.createMeasurementList(schemaNames[schema].size(), type);
+			addMeasurements(list, schema);
+			return list;
+		}
+
+		private void addMeasurements(MeasurementList list, int schema) {
+			if (schema < 0)
+				return;
+			var names = schemaNames[schema];
+			var values = schemaValues[schema];
+			int n = names.size();
+			int start = schemaInd[schema]++ * n;
+			for (int i = 0; i < n; i++)
+				list.put(names.get(i), values[start + i]);
+			list.close();
+		}
+
+		private ROI readROI() throws IOException {
+			byte type = buffer.get();
+			if (type == ROI_NONE)
+				return null;
+			if (type == ROI_SERIALIZED) {
+				var obj = ImageDataChunks.deserialize(ImageDataChunks.readBytes(buffer));
+				if (obj instanceof ROI roi)
+					return roi;
+				throw new IOException("Expected a ROI but found " + obj);
+			}
+			var plane = ImagePlane.getPlaneWithChannel(buffer.getInt(), buffer.getInt(), buffer.getInt());
+			switch (type) {
+			case ROI_RECTANGLE:
+				return ROIs.createRectangleROI(nextDouble(), nextDouble(), nextDouble(), nextDouble(), plane);
+			case ROI_ELLIPSE:
+				return ROIs.createEllipseROI(nextDouble(), nextDouble(), nextDouble(), nextDouble(), plane);
+			case ROI_LINE:
+				return ROIs.createLineROI(nextDouble(), nextDouble(), nextDouble(), nextDouble(), plane);
+			case ROI_POLYGON:
+				int n = buffer.getInt();
+				var xf = Arrays.copyOfRange(floats, floatInd, floatInd + n);
+				var yf = Arrays.copyOfRange(floats, floatInd + n, floatInd + n * 2);
+				floatInd += n * 2;
+				return ROIs.createPolygonROI(xf, yf, plane);
+			case ROI_POLYLINE:
+				n = buffer.getInt();
+				var x = new double[n];
+				var y = new double[n];
+				for (int i = 0; i < n; i++) {
+					x[i] = floats[floatInd + i];
+					y[i] = floats[floatInd + n + i];
+				}
+				floatInd += n * 2;
+				return ROIs.createPolylineROI(x, y, plane);
+			case ROI_POINTS:
+				n = buffer.getInt();
+				x = Arrays.copyOfRange(doubles, doubleInd, doubleInd + n);
+				y = Arrays.copyOfRange(doubles, doubleInd + n, doubleInd + n * 2);
+				doubleInd += n * 2;
+				return ROIs.createPointsROI(x, y, plane);
+			default:
+				throw new IOException("Unknown ROI type " + type);
+			}
+		}
+
+		private double nextDouble() {
+			return doubles[doubleInd++];
+		}
+
+	}
+
+}
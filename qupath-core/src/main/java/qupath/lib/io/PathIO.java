@@ -23,10 +23,8 @@
 
 package qupath.lib.io;
 
-import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.lib.color.ColorDeconvolutionStains;
@@ -37,9 +35,9 @@ import qupath.lib.images.servers.ImageServerBuilder.DefaultImageServerBuilder;
 import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
 import qupath.lib.images.servers.ImageServerProvider;
 import qupath.lib.objects.PathObject;
-import qupath.lib.objects.PathObjectTools;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.plugins.workflow.Workflow;
+import qupath.lib.regions.ImageRegion;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -57,14 +55,18 @@ import java.io.ObjectInputFilter.Status;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -78,9 +80,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -122,6 +125,85 @@ public class PathIO {
 	
 	private static int requestedDataFileVersion = DATA_FILE_VERSION - 1;
 	
+	/**
+	 * Formats that can be used when writing .qpdata files.
+	 * Files in any of these formats can be read, regardless of which is selected for writing.
+	 * @since v0.6.0
+	 * @see #setDataFileFormat(DataFileFormat)
+	 */
+	public static enum DataFileFormat {
+		/**
+		 * Legacy format, which uses Java serialization for the entire {@link ImageData}.
+		 * This can be read by earlier versions of QuPath, but must always be read in full and sequentially.
+		 */
+		SERIALIZED,
+		/**
+		 * Versioned format made up of independent, compressed chunks.
+		 * Objects are grouped into tiles, so that detections can be read in parallel - or skipped entirely if 
+		 * only annotations or a specific region are needed.
+		 * This cannot be read by QuPath versions prior to v0.6.0.
+		 */
+		CHUNKED
+	}
+	
+	private static DataFileFormat dataFileFormat = DataFileFormat.CHUNKED;
+	
+	/**
+	 * Get the format used when writing .qpdata files.
+	 * @return
+	 * @since v0.6.0
+	 * @see #setDataFileFormat(DataFileFormat)
+	 */
+	public static DataFileFormat getDataFileFormat() {
+		return dataFileFormat;
+	}
+	
+	/**
+	 * Set the format used when writing .qpdata files.
+	 * The default is {@link DataFileFormat#CHUNKED}; {@link DataFileFormat#SERIALIZED} may be used if files need to be 
+	 * opened with earlier versions of QuPath.
+	 * @param format
+	 * @since v0.6.0
+	 * @throws IllegalArgumentException if the format is null
+	 */
+	public static void setDataFileFormat(DataFileFormat format) throws IllegalArgumentException {
+		if (format == null)
+			throw new IllegalArgumentException("Data file format must not be null");
+		dataFileFormat = format;
+	}
+	
+	private static boolean lazyDetectionLoading = false;
+	
+	/**
+	 * Query whether detections are loaded on demand when reading {@link ImageData} from a file.
+	 * @return
+	 * @since v0.6.0
+	 * @see #setLazyDetectionLoading(boolean)
+	 */
+	public static boolean isLazyDetectionLoading() {
+		return lazyDetectionLoading;
+	}
+	
+	/**
+	 * Request that detections are loaded on demand when reading {@link ImageData} from a file.
+	 * <p>
+	 * If true, annotations and TMA cores are read immediately but detections are only read when a region containing 
+	 * them is requested from the hierarchy (e.g. when they are painted), and may be released again if memory is low.
+	 * This can make opening images with very large numbers of detections much faster.
+	 * Only files written with {@link DataFileFormat#CHUNKED} can be read lazily, and only when reading from a file 
+	 * rather than a stream.
+	 * <p>
+	 * Note that the data file should not be modified while the {@link ImageData} is open, except by saving the 
+	 * same {@link ImageData} (which always loads all objects first).
+	 * 
+	 * @param lazy
+	 * @since v0.6.0
+	 * @see PathObjectHierarchy#setLazyObjectLoader(qupath.lib.objects.hierarchy.LazyObjectLoader)
+	 */
+	public static void setLazyDetectionLoading(boolean lazy) {
+		lazyDetectionLoading = lazy;
+	}
+	
 	/**
 	 * Get the requested version for .qpdata files.
 	 * 
@@ -181,8 +263,11 @@ public class PathIO {
 	@Deprecated
 	public static String readSerializedServerPath(final File file) throws FileNotFoundException, IOException, ClassNotFoundException {
 		String serverPath = null;
-		try (FileInputStream fileIn = new FileInputStream(file)) {
-			ObjectInputStream inStream = createObjectInputStream(new BufferedInputStream(fileIn));
+		try (var stream = new BufferedInputStream(new FileInputStream(file))) {
+			// Chunked data files only store JSON for the server
+			if (ImageDataChunks.isChunked(stream))
+				return null;
+			ObjectInputStream inStream = createObjectInputStream(stream);
 			
 			// Check the first line, then read the server path if it is valid
 			String firstLine = inStream.readUTF();
@@ -203,8 +288,14 @@ public class PathIO {
 	 * @since 0.3
 	 */
 	public static <T> ServerBuilder<T> extractServerBuilder(Path file) throws IOException {
-		try (InputStream fileIn = Files.newInputStream(file)) {
-			ObjectInputStream inStream = createObjectInputStream(new BufferedInputStream(fileIn));
+		try (InputStream fileIn = new BufferedInputStream(Files.newInputStream(file))) {
+			if (ImageDataChunks.isChunked(fileIn)) {
+				String json = ImageDataChunkReader.readServerJson(fileIn);
+				if (json == null)
+					throw new IOException(file + " does not contain a server");
+				return extractServerBuilder(json, true);
+			}
+			ObjectInputStream inStream = createObjectInputStream(fileIn);
 			
 			// Check the first line, then read the server path if it is valid
 			String firstLine = inStream.readUTF();
@@ -290,22 +381,54 @@ public class PathIO {
 	
 	
 	
-	private static <T> ImageData<T> readImageDataSerialized(final Path path, ImageData<T> imageData, ImageServer<T> server, Class<T> cls) throws FileNotFoundException, IOException {
+	private static <T> ImageData<T> readImageDataFromFile(final Path path, ImageData<T> imageData, ImageServer<T> server, Class<T> cls) throws FileNotFoundException, IOException {
 		if (path == null)
 			return null;
 		logger.info("Reading data from {}...", path.getFileName().toString());
-		try (InputStream stream = Files.newInputStream(path)) {
-			imageData = readImageDataSerialized(stream, imageData, server, cls);	
-			// Set the last saved path (actually the path from which this was opened)
-			if (imageData != null)
-				imageData.setLastSavedPath(path.toAbsolutePath().toString(), true);
-			return imageData;
-//		} catch (IOException e) {
-//			logger.error("Error reading ImageData from file", e);
-//			return null;
+		if (isChunkedDataFile(path)) {
+			var contents = lazyDetectionLoading ? ImageDataChunkReader.readLazily(path) : ImageDataChunkReader.read(path, true, null);
+			imageData = readImageDataChunked(contents, imageData, server);
+		} else {
+			try (InputStream stream = Files.newInputStream(path)) {
+				imageData = readImageDataSerialized(stream, imageData, server, cls);	
+	//		} catch (IOException e) {
+	//			logger.error("Error reading ImageData from file", e);
+	//			return null;
+			}
+		}
+		// Set the last saved path (actually the path from which this was opened)
+		if (imageData != null)
+			imageData.setLastSavedPath(path.toAbsolutePath().toString(), true);
+		return imageData;
+	}
+	
+	/**
+	 * Check whether a file uses the chunked data file format, rather than Java serialization.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	private static boolean isChunkedDataFile(final Path path) throws IOException {
+		try (var stream = new BufferedInputStream(Files.newInputStream(path), 16)) {
+			return ImageDataChunks.isChunked(stream);
 		}
 	}
 	
+	private static <T> ImageData<T> readImageDataChunked(final ImageDataChunkReader.Contents contents, ImageData<T> imageData, ImageServer<T> server) throws IOException {
+		long startTime = System.currentTimeMillis();
+		if (contents.serverJson() == null)
+			throw new IOException("Data file does not contain a server");
+		if (contents.hierarchy() == null)
+			throw new IOException("Data file does not contain an object hierarchy");
+		// Don't log warnings if we are provided with a server
+		ServerBuilder<T> serverBuilder = extractServerBuilder(contents.serverJson(), server == null);
+		imageData = updateImageData(imageData, server, serverBuilder, contents.hierarchy(), contents.imageType(),
+				contents.stains(), contents.workflow(), contents.properties());
+		long endTime = System.currentTimeMillis();
+		logger.debug(String.format("Hierarchy with %d object(s) read in %.2f seconds", imageData.getHierarchy().nObjects(), (endTime - startTime)/1000.));
+		return imageData;
+	}
+	
 	@SuppressWarnings("unchecked")
 	private static <T> ImageData<T> readImageDataSerialized(final InputStream stream, ImageData<T> imageData, ImageServer<T> server, Class<T> cls) throws IOException {
 		
@@ -391,46 +514,7 @@ public class PathIO {
 				}
 			}
 
-			// Create an entirely new ImageData if necessary
-			var existingBuilder = imageData == null || imageData.getServer() == null ? null : imageData.getServer().getBuilder();
-			if (imageData == null || !Objects.equals(serverBuilder, existingBuilder)) {
-				// Create a new server if we need to
-				if (server == null) {
-					try {
-						server = serverBuilder.build();
-					} catch (Exception e) {
-						logger.error(e.getLocalizedMessage());
-					};
-					if (server == null) {
-						logger.error("Warning: Unable to build server with " + serverBuilder);
-						//							throw new RuntimeException("Warning: Unable to create server for path " + serverPath);
-					}
-				}
-				// TODO: Make this less clumsy... but for now we need to ensure we have a fully-initialized hierarchy (which deserialization alone doesn't achieve)
-				PathObjectHierarchy hierarchy2 = new PathObjectHierarchy();
-				hierarchy2.setHierarchy(hierarchy);
-				hierarchy = hierarchy2;
-
-				imageData = new ImageData<>(server, hierarchy, imageType);
-			} else {
-				if (imageType != null)
-					imageData.setImageType(imageType);
-				// Set the new hierarchy
-				if (hierarchy != null)
-					imageData.getHierarchy().setHierarchy(hierarchy);
-			}
-			// Set the other properties we have just read
-			if (workflow != null) {
-				imageData.getHistoryWorkflow().clear();
-				imageData.getHistoryWorkflow().addSteps(workflow.getSteps());
-			}
-			if (stains != null) {
-				imageData.setColorDeconvolutionStains(stains);
-			}
-			if (propertyMap != null) {
-				for (Entry<String, Object> entry : propertyMap.entrySet())
-					imageData.setProperty(entry.getKey(), entry.getValue());
-			}
+			imageData = updateImageData(imageData, server, serverBuilder, hierarchy, imageType, stains, workflow, propertyMap);
 
 			long endTime = System.currentTimeMillis();
 
@@ -438,7 +522,7 @@ public class PathIO {
 			//					logger.error(String.format("%s does not contain a valid QUPath object hierarchy!", file.getAbsolutePath()));
 			//					return null;
 			//				}
-			logger.debug(String.format("Hierarchy with %d object(s) read in %.2f seconds", hierarchy.nObjects(), (endTime - startTime)/1000.));
+			logger.debug(String.format("Hierarchy with %d object(s) read in %.2f seconds", imageData.getHierarchy().nObjects(), (endTime - startTime)/1000.));
 
 		} catch (ClassNotFoundException e1) {
 			logger.warn("Class not found reading image data", e1);
@@ -450,6 +534,55 @@ public class PathIO {
 	}
 	
 	
+	/**
+	 * Update an existing ImageData with values read from a data file, or create a new ImageData if required.
+	 */
+	private static <T> ImageData<T> updateImageData(ImageData<T> imageData, ImageServer<T> server, ServerBuilder<T> serverBuilder,
+			PathObjectHierarchy hierarchy, ImageData.ImageType imageType, ColorDeconvolutionStains stains, Workflow workflow, Map<String, Object> propertyMap) {
+		// Create an entirely new ImageData if necessary
+		var existingBuilder = imageData == null || imageData.getServer() == null ? null : imageData.getServer().getBuilder();
+		if (imageData == null || !Objects.equals(serverBuilder, existingBuilder)) {
+			// Create a new server if we need to
+			if (server == null) {
+				try {
+					server = serverBuilder.build();
+				} catch (Exception e) {
+					logger.error(e.getLocalizedMessage());
+				};
+				if (server == null) {
+					logger.error("Warning: Unable to build server with " + serverBuilder);
+					//							throw new RuntimeException("Warning: Unable to create server for path " + serverPath);
+				}
+			}
+			// TODO: Make this less clumsy... but for now we need to ensure we have a fully-initialized hierarchy (which deserialization alone doesn't achieve)
+			PathObjectHierarchy hierarchy2 = new PathObjectHierarchy();
+			hierarchy2.setHierarchy(hierarchy);
+			hierarchy = hierarchy2;
+
+			imageData = new ImageData<>(server, hierarchy, imageType);
+		} else {
+			if (imageType != null)
+				imageData.setImageType(imageType);
+			// Set the new hierarchy
+			if (hierarchy != null)
+				imageData.getHierarchy().setHierarchy(hierarchy);
+		}
+		// Set the other properties we have just read
+		if (workflow != null) {
+			imageData.getHistoryWorkflow().clear();
+			imageData.getHistoryWorkflow().addSteps(workflow.getSteps());
+		}
+		if (stains != null) {
+			imageData.setColorDeconvolutionStains(stains);
+		}
+		if (propertyMap != null) {
+			for (Entry<String, Object> entry : propertyMap.entrySet())
+				imageData.setProperty(entry.getKey(), entry.getValue());
+		}
+		return imageData;
+	}
+	
+	
 //	/**
 //	 * Test if a specified file can be identified as a zip file.
 //	 * 
@@ -484,7 +617,10 @@ public class PathIO {
 	 * @throws IOException
 	 */
 	public static <T> ImageData<T> readImageData(final InputStream stream, ImageData<T> imageData, ImageServer<T> server, Class<T> cls) throws IOException {
-		return readImageDataSerialized(stream, imageData, server, cls);
+		var input = stream.markSupported() ? stream : new BufferedInputStream(stream);
+		if (ImageDataChunks.isChunked(input))
+			return readImageDataChunked(ImageDataChunkReader.read(input, true, null), imageData, server);
+		return readImageDataSerialized(input, imageData, server, cls);
 	}
 
 	
@@ -519,7 +655,7 @@ public class PathIO {
 	 * @throws IOException 
 	 */
 	public static <T> ImageData<T> readImageData(final Path path, ImageData<T> imageData, ImageServer<T> server, Class<T> cls) throws IOException {
-		return readImageDataSerialized(path, imageData, server, cls);
+		return readImageDataFromFile(path, imageData, server, cls);
 	}
 
 	/**
@@ -543,6 +679,9 @@ public class PathIO {
 	 * @throws IOException 
 	 */
 	public static void writeImageData(final File file, final ImageData<?> imageData) throws FileNotFoundException, IOException {
+		// Objects may need to be read from the existing file before it is moved
+		loadAllObjects(imageData);
+		
 		File backup = null;
 		
 		// Backup any existing file... just in case of disaster
@@ -554,7 +693,7 @@ public class PathIO {
 		
 		// Write the data
 		try (var stream = new FileOutputStream(file)) {
-			writeImageDataSerialized(stream, imageData);
+			writeImageData(stream, imageData);
 			
 			// Remember the saved path
 			imageData.setLastSavedPath(file.getAbsolutePath(), true);
@@ -573,7 +712,68 @@ public class PathIO {
 	 * @throws IOException
 	 */
 	public static void writeImageData(final OutputStream stream, final ImageData<?> imageData) throws IOException {
-		writeImageDataSerialized(stream, imageData);
+		loadAllObjects(imageData);
+		if (dataFileFormat == DataFileFormat.SERIALIZED)
+			writeImageDataSerialized(stream, imageData);
+		else
+			writeImageDataChunked(stream, imageData);
+	}
+	
+	/**
+	 * Ensure any objects that are loaded on demand have been read, so that the image data can be written in full.
+	 */
+	private static void loadAllObjects(final ImageData<?> imageData) throws IOException {
+		try {
+			imageData.getHierarchy().loadAllObjects();
+		} catch (UncheckedIOException e) {
+			throw new IOException("Unable to load all objects for writing", e.getCause());
+		}
+	}
+	
+	private static void writeImageDataChunked(final OutputStream stream, final ImageData<?> imageData) throws IOException {
+		try (stream) {
+			long startTime = System.currentTimeMillis();
+			PathObjectHierarchy hierarchy = imageData.getHierarchy();
+			logger.info(String.format("Writing object hierarchy with %d object(s)...", hierarchy.nObjects()));
+			writeImageDataChunked(stream, imageData, null, k -> true);
+			long endTime = System.currentTimeMillis();
+			logger.info(String.format("Image data written in %.2f seconds", (endTime - startTime)/1000.));
+		}
+	}
+	
+	/**
+	 * Write image data in the chunked format, copying unchanged chunks from a previous file where possible.
+	 * The stream is flushed but not closed.
+	 */
+	static ImageDataChunkWriter.WriteSummary writeImageDataChunked(final OutputStream stream, final ImageData<?> imageData,
+			ImageDataChunkWriter.PreviousChunks previous, Predicate<ImageDataChunkWriter.TileKey> isDirty) throws IOException {
+		return ImageDataChunkWriter.write(stream, createServerJson(imageData), imageData.getImageType(),
+				imageData.getColorDeconvolutionStains(), imageData.getHistoryWorkflow(),
+				imageData.getHierarchy(), getSerializableProperties(imageData), previous, isDirty);
+	}
+	
+	/**
+	 * Create a JSON object including the QuPath version and {@link ServerBuilder}.
+	 * Note that the builder may be null, in which case the server cannot be recreated.
+	 */
+	private static String createServerJson(final ImageData<?> imageData) {
+		var server = imageData.getServer();
+		var builder = server.getBuilder();
+		if (builder == null)
+			logger.warn("Server {} does not provide a builder - it will not be possible to recover the ImageServer from this data file", server);
+		var wrapper = ServerBuilderWrapper.create(builder, server.getPath());
+		return GsonTools.getInstance().toJson(wrapper);
+	}
+	
+	private static Map<String, Object> getSerializableProperties(final ImageData<?> imageData) {
+		Map<String, Object> map = new HashMap<>();
+		for (Entry<String, Object> entry : imageData.getProperties().entrySet()) {
+			if (serializableObject(entry.getValue()))
+				map.put(entry.getKey(), entry.getValue());
+			else
+				logger.warn("Property not serializable and will not be saved!  Key: " + entry.getKey() + ", Value: " + entry.getValue());
+		}
+		return map;
 	}
 	
 
@@ -588,7 +788,6 @@ public class PathIO {
 			outStream.writeUTF("Data file version " + DATA_FILE_VERSION);
 			
 			// Try to write a backwards-compatible image path
-			var server = imageData.getServer();
 //			var uris = server.getURIs();
 //			String path;
 //			if (uris.size() == 1) {
@@ -603,13 +802,7 @@ public class PathIO {
 //			outStream.writeObject("Image path: " + path);
 			
 			// Write JSON object including QuPath version and ServerBuilder
-			// Note that the builder may be null, in which case the server cannot be recreated
-			var builder = server.getBuilder();
-			if (builder == null)
-				logger.warn("Server {} does not provide a builder - it will not be possible to recover the ImageServer from this data file", server);
-			var wrapper = ServerBuilderWrapper.create(builder, server.getPath());
-			String json = GsonTools.getInstance().toJson(wrapper);
-			outStream.writeObject(json);
+			outStream.writeObject(createServerJson(imageData));
 			
 			// Write the current locale
 			outStream.writeObject(Locale.getDefault(Category.FORMAT));
@@ -625,15 +818,7 @@ public class PathIO {
 			outStream.writeObject(hierarchy);
 			
 			// Write any remaining (serializable) properties
-			Map<String, Object> map = new HashMap<>();
-			for (Entry<String, Object> entry : imageData.getProperties().entrySet()) {
-				if (serializableObject(entry.getValue()))
-					map.put(entry.getKey(), entry.getValue());
-				else
-					logger.warn("Property not serializable and will not be saved!  Key: " + entry.getKey() + ", Value: " + entry.getValue());
-			}
-			if (map != null)
-				outStream.writeObject(map);
+			outStream.writeObject(getSerializableProperties(imageData));
 			
 			// Write EOF marker
 			outStream.writeObject("EOF");
@@ -664,13 +849,91 @@ public class PathIO {
 	 * @throws FileNotFoundException 
 	 */
 	public static PathObjectHierarchy readHierarchy(final Path path) throws FileNotFoundException, IOException {
+		return readHierarchy(path, true, null);
+	}
+	
+	/**
+	 * Read a hierarchy from a .qpdata file, omitting all detections (along with any objects nested inside them).
+	 * <p>
+	 * This is much faster than {@link #readHierarchy(Path)} for files written using {@link DataFileFormat#CHUNKED}, 
+	 * since the detections don't need to be read at all.
+	 * For other files, the full hierarchy is read and detections are then removed.
+	 * 
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 * @since v0.6.0
+	 */
+	public static PathObjectHierarchy readHierarchyWithoutDetections(final Path path) throws IOException {
+		return readHierarchy(path, false, null);
+	}
+	
+	/**
+	 * Read a hierarchy from a .qpdata file, including only the detections with bounding boxes that intersect 
+	 * a specified region.
+	 * All other objects are included, regardless of their location.
+	 * <p>
+	 * This is much faster than {@link #readHierarchy(Path)} for files written using {@link DataFileFormat#CHUNKED}, 
+	 * since only the parts of the file containing detections within the region need to be read.
+	 * For other files, the full hierarchy is read and detections are then removed.
+	 * 
+	 * @param path
+	 * @param region
+	 * @return
+	 * @throws IOException
+	 * @since v0.6.0
+	 */
+	public static PathObjectHierarchy readHierarchyForRegion(final Path path, final ImageRegion region) throws IOException {
+		Objects.requireNonNull(region, "Region must not be null");
+		return readHierarchy(path, true, region);
+	}
+	
+	private static PathObjectHierarchy readHierarchy(final Path path, boolean includeDetections, ImageRegion region) throws IOException {
 		logger.info("Reading hierarchy from {}...", path.getFileName().toString());
-		try (var stream = Files.newInputStream(path)) {
-			var hierarchy = readHierarchy(stream);			
-			if (hierarchy == null)
-				logger.error("Unable to find object hierarchy in " + path);
-			return hierarchy;
+		PathObjectHierarchy hierarchy;
+		if (isChunkedDataFile(path)) {
+			hierarchy = createHierarchy(ImageDataChunkReader.read(path, includeDetections, region).hierarchy());
+		} else {
+			try (var stream = Files.newInputStream(path)) {
+				hierarchy = readHierarchy(stream);
+			}
+			if (hierarchy != null && (!includeDetections || region != null)) {
+				removeDetections(hierarchy.getRootObject(), includeDetections ? region : null);
+				hierarchy = createHierarchy(hierarchy);
+			}
 		}
+		if (hierarchy == null)
+			logger.error("Unable to find object hierarchy in " + path);
+		return hierarchy;
+	}
+	
+	/**
+	 * Remove detections from the descendants of an object, optionally retaining those that intersect a region.
+	 * @param parent
+	 * @param region the region for detections to retain, or null if all detections should be removed
+	 */
+	private static void removeDetections(PathObject parent, ImageRegion region) {
+		List<PathObject> toRemove = new ArrayList<>();
+		for (var child : parent.getChildObjectsAsArray()) {
+			if (child.isDetection()) {
+				if (region == null || !ImageDataChunks.intersects(region, child.getROI()))
+					toRemove.add(child);
+			} else
+				removeDetections(child, region);
+		}
+		if (!toRemove.isEmpty())
+			parent.removeChildObjects(toRemove);
+	}
+	
+	/**
+	 * Create a fully-initialized hierarchy, with the same objects as a hierarchy that has been read from a file.
+	 */
+	private static PathObjectHierarchy createHierarchy(PathObjectHierarchy hierarchy) {
+		if (hierarchy == null)
+			return null;
+		var hierarchy2 = new PathObjectHierarchy();
+		hierarchy2.setHierarchy(hierarchy);
+		return hierarchy2;
 	}
 	
 	/**
@@ -682,10 +945,14 @@ public class PathIO {
 	 */
 	public static PathObjectHierarchy readHierarchy(final InputStream fileIn) throws IOException {
 
+		var input = fileIn.markSupported() ? fileIn : new BufferedInputStream(fileIn);
+		if (ImageDataChunks.isChunked(input))
+			return createHierarchy(ImageDataChunkReader.read(input, true, null).hierarchy());
+
 		Locale locale = Locale.getDefault(Category.FORMAT);
 		boolean localeChanged = false;
 
-		try (ObjectInputStream inStream = createObjectInputStream(new BufferedInputStream(fileIn))) {
+		try (ObjectInputStream inStream = createObjectInputStream(input)) {
 			
 			if (!inStream.readUTF().startsWith("Data file version")) {
 				logger.error("Input stream is not from a valid QuPath data file!");
@@ -744,6 +1011,7 @@ public class PathIO {
 	 * <ul>
 	 * <li>GeoJSON, with extension .geojson or .json</li>
 	 * <li>QuPath data file, with extension .qpdata</li>
+	 * <li>QuPath binary object file, with extension .qpobj (see {@link BinaryObjectTable})</li>
 	 * <li>A zip file containing one or more entries containing GeoJSON or QuPath serialized data</li>
 	 * </ul>
 	 * Note that this is subject to change, with support for other files possibly being added in the future.
@@ -778,6 +1046,8 @@ public class PathIO {
 			}
 		}
 		
+		if (name.endsWith(EXT_BINARY))
+			return readObjectsFromBinary(path);
 		
 		try (var stream = new BufferedInputStream(Files.newInputStream(path))) {
 			InputStream stream2;
@@ -794,6 +1064,9 @@ public class PathIO {
 			if (name.endsWith(EXT_DATA)) {
 				return new ArrayList<>(readHierarchy(stream2).getRootObject().getChildObjects());	
 			}
+			if (name.endsWith(EXT_BINARY)) {
+				return BinaryObjectTable.wrap(ByteBuffer.wrap(stream2.readAllBytes())).getPathObjects();
+			}
 		}
 			
 		logger.debug("Unable to read objects from {}", path.toString());
@@ -803,7 +1076,7 @@ public class PathIO {
 	/**
 	 * Read a list of {@link PathObject} from an input stream.
 	 * <p>
-	 * This will attempt to handle different GeoJSON representations by first deserializing to a JSON element.
+	 * This will attempt to handle different GeoJSON representations.
 	 * <p>
 	 * If the element is a JSON object, its "type" property is checked and handled as follows
 	 * <ul>
@@ -813,18 +1086,66 @@ public class PathIO {
 	 *  <li>anything else: the element is skipped, since a PathObject cannot be read from it
 	 * </ul>
 	 * If the element is a JSON array, its individual elements are handled as above.
+	 * <p>
+	 * Features are read one at a time from the stream, so that the full JSON does not need to be held in memory.
 	 * 
 	 * @param stream the input stream containing JSON data to read
 	 * @return a list containing any PathObjects that could be parsed from the stream
 	 * @throws IOException
 	 * @throws JsonSyntaxException 
 	 * @throws JsonParseException 
+	 * @see #readObjectsFromGeoJSON(InputStream, boolean, Consumer)
 	 */
 	public static List<PathObject> readObjectsFromGeoJSON(InputStream stream) throws IOException, JsonSyntaxException, JsonParseException {
-		var gson = GsonTools.getInstance();
+		List<PathObject> pathObjects = new ArrayList<>();
+		readObjectsFromGeoJSON(stream, false, pathObjects::add);
+		return pathObjects;
+	}
+	
+	/**
+	 * Read {@link PathObject}s from an input stream containing GeoJSON, passing each object to a consumer 
+	 * as soon as it has been read.
+	 * <p>
+	 * This supports the same GeoJSON representations as {@link #readObjectsFromGeoJSON(InputStream)}, but 
+	 * makes it possible to process very large files (e.g. containing millions of cells) without needing to 
+	 * hold all the objects in memory at once.
+	 * <p>
+	 * If {@code parallel} is true, features are still read sequentially but are converted to objects in parallel.
+	 * This can be considerably faster for large files, at the cost of some extra memory to hold the features 
+	 * that are waiting to be converted.
+	 * In either case, objects are passed to the consumer from the calling thread, in the order they occur in the stream.
+	 * 
+	 * @param stream the input stream containing JSON data to read
+	 * @param parallel if true, convert features to objects in parallel
+	 * @param consumer consumer to accept each object
+	 * @throws IOException
+	 * @throws JsonSyntaxException 
+	 * @throws JsonParseException 
+	 * @since v0.6.0
+	 */
+	public static void readObjectsFromGeoJSON(InputStream stream, boolean parallel, Consumer<? super PathObject> consumer) throws IOException, JsonSyntaxException, JsonParseException {
 		try (var reader = new InputStreamReader(new BufferedInputStream(stream), StandardCharsets.UTF_8)) {
-			var element = gson.fromJson(reader, JsonElement.class);
-			return GsonTools.parseObjectsFromGeoJSON(element);
+			GeoJsonObjectReader.read(reader, parallel, consumer);
+		}
+	}
+	
+	/**
+	 * Read a list of {@link PathObject} from a file in QuPath's binary object format.
+	 * <p>
+	 * The file is memory-mapped, and objects are created in parallel.
+	 * To access the columns directly without creating objects, use {@link BinaryObjectTable#open(Path)}.
+	 * 
+	 * @param path the file to read
+	 * @return a list containing the objects in the file
+	 * @throws IOException if the file can't be read, or isn't in the expected format
+	 * @see #exportObjectsAsBinary(Path, Collection, boolean)
+	 * @since v0.6.0
+	 */
+	public static List<PathObject> readObjectsFromBinary(Path path) throws IOException {
+		try {
+			return BinaryObjectTable.open(path).getPathObjects();
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unable to read objects from " + path + ": " + e.getLocalizedMessage(), e);
 		}
 	}
 	
@@ -834,6 +1155,7 @@ public class PathIO {
 	private static String EXT_JSON = ".json";
 	private static String EXT_GEOJSON = ".geojson";
 	private static String EXT_DATA = ".qpdata";
+	private static String EXT_BINARY = ".qpobj";
 	
 	/**
 	 * Get a list of known file extensions that may contain objects, optionally including compressed files.
@@ -844,9 +1166,9 @@ public class PathIO {
 	 */
 	public static List<String> getObjectFileExtensions(boolean includeCompressed) {
 		if (includeCompressed)
-			return Arrays.asList(EXT_JSON, EXT_GEOJSON, EXT_DATA, EXT_ZIP, EXT_GZIP);
+			return Arrays.asList(EXT_JSON, EXT_GEOJSON, EXT_DATA, EXT_BINARY, EXT_ZIP, EXT_GZIP);
 		else
-			return Arrays.asList(EXT_JSON, EXT_GEOJSON, EXT_DATA);
+			return Arrays.asList(EXT_JSON, EXT_GEOJSON, EXT_DATA, EXT_BINARY);
 	}
 	
 	/**
@@ -908,8 +1230,8 @@ public class PathIO {
 				zos.closeEntry();
 			}
 		} else if (name.toLowerCase().endsWith(".gz")) {
-			try (var gzos = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
-				exportObjectsAsGeoJSON(gzos, pathObjects, options);
+			try (var stream = new BufferedOutputStream(Files.newOutputStream(path))) {
+				GeoJsonObjectWriter.write(stream, pathObjects, Arrays.asList(options), true);
 			}
 		} else {
 			try (var stream = Files.newOutputStream(path)) {
@@ -920,29 +1242,52 @@ public class PathIO {
 
 	/**
 	 * Export a collection of objects as a GeoJSON "FeatureCollection" to an output stream.
+	 * <p>
+	 * Since v0.6.0, objects are serialized in parallel (unless pretty-printing is requested), and written to the 
+	 * stream in chunks, so that the full JSON is never held in memory.
 	 * @param stream
 	 * @param pathObjects
 	 * @param options
 	 * @throws IOException
 	 */
 	public static void exportObjectsAsGeoJSON(OutputStream stream, Collection<? extends PathObject> pathObjects, GeoJsonExportOptions... options) throws IOException {
-		Collection<GeoJsonExportOptions> optionList = Arrays.asList(options);
-		
-		// If exclude measurements, 'transform' each PathObject to get rid of measurements
-		if (optionList.contains(GeoJsonExportOptions.EXCLUDE_MEASUREMENTS))
-			pathObjects = pathObjects.stream().map(e -> PathObjectTools.transformObject(e, null, false)).toList();
-		
-		var writer = new OutputStreamWriter(new BufferedOutputStream(stream), StandardCharsets.UTF_8);
-		var gson = GsonTools.getInstance(optionList.contains(GeoJsonExportOptions.PRETTY_JSON));
-		
-		if (optionList.contains(GeoJsonExportOptions.FEATURE_COLLECTION))
-			gson.toJson(FeatureCollection.wrap(pathObjects), writer);
-		else if (pathObjects.size() == 1) {
-			gson.toJson(pathObjects.iterator().next(), writer);
-		} else {
-			gson.toJson(pathObjects, new TypeToken<List<PathObject>>() {}.getType(), writer);				
+		GeoJsonObjectWriter.write(stream, pathObjects, Arrays.asList(options), false);
+	}
+
+	/**
+	 * Export a collection of objects to a file in QuPath's binary object format.
+	 * <p>
+	 * This is a compact, columnar format that is much faster to read and write than GeoJSON, 
+	 * and is intended for exchanging large numbers of objects with other software.
+	 * See {@link BinaryObjectTable} for a description of the format.
+	 * Child objects are only written if they are included in the collection.
+	 * 
+	 * @param path the file to write, which should normally have the extension .qpobj
+	 * @param pathObjects the objects to write
+	 * @param includeMeasurements if true, include object measurements
+	 * @throws IOException
+	 * @see #readObjectsFromBinary(Path)
+	 * @since v0.6.0
+	 */
+	public static void exportObjectsAsBinary(Path path, Collection<? extends PathObject> pathObjects, boolean includeMeasurements) throws IOException {
+		try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			BinaryObjectWriter.write(channel, pathObjects, includeMeasurements);
 		}
-		writer.flush();
+	}
+
+	/**
+	 * Export a collection of objects to an output stream in QuPath's binary object format.
+	 * The stream is not closed.
+	 * 
+	 * @param stream the stream to write to
+	 * @param pathObjects the objects to write
+	 * @param includeMeasurements if true, include object measurements
+	 * @throws IOException
+	 * @see #exportObjectsAsBinary(Path, Collection, boolean)
+	 * @since v0.6.0
+	 */
+	public static void exportObjectsAsBinary(OutputStream stream, Collection<? extends PathObject> pathObjects, boolean includeMeasurements) throws IOException {
+		BinaryObjectWriter.write(Channels.newChannel(stream), pathObjects, includeMeasurements);
 	}
 	
 	
@@ -237,41 +237,28 @@ class QuPathTypeAdapters {
 		public FeatureCollection read(JsonReader in) throws IOException {
 			List<PathObject> list = new ArrayList<>();
 			
-			JsonArray array = null;
+			// Stream the features, so that we don't need to hold the JSON for all features in memory
 			var token = in.peek();
 			if (token == JsonToken.BEGIN_ARRAY) {
-				array = gson.fromJson(in, JsonArray.class);
+				readFeatures(in, list);
 			} else {
-				JsonObject obj = gson.fromJson(in, JsonObject.class);
-				if (obj.has("features") && obj.get("features").isJsonArray()) {
-					array = obj.get("features").getAsJsonArray();
-				}
-			}
-			
-			if (array != null) {
-				for (JsonElement element : array) {
-					list.add(PathObjectTypeAdapter.INSTANCE.fromJsonTree(element));
+				in.beginObject();
+				while (in.hasNext()) {
+					if ("features".equals(in.nextName()) && in.peek() == JsonToken.BEGIN_ARRAY)
+						readFeatures(in, list);
+					else
+						in.skipValue();
 				}
+				in.endObject();
 			}
 			return FeatureCollection.wrap(list);
-			
-//			in.beginObject();
-//			
-//			String name = in.nextName(); // type
-//			String value = in.nextString();
-//			
-//			in.nextName();
-//			in.beginArray();
-//			List<PathObject> list = new ArrayList<>();
-//			while (in.hasNext()) {
-//				PathObject pathObject = PathObjectTypeAdapter.INSTANCE.read(in);
-//				list.add(pathObject);
-//			}
-//			in.endArray();
-//
-//			in.endObject();
-
-//			return list;
+		}
+		
+		private static void readFeatures(JsonReader in, List<PathObject> list) throws IOException {
+			in.beginArray();
+			while (in.hasNext())
+				list.add(PathObjectTypeAdapter.INSTANCE.read(in));
+			in.endArray();
 		}
 		
 	}
@@ -291,6 +278,11 @@ class QuPathTypeAdapters {
 		 */
 		static PathObjectTypeAdapter INSTANCE_HIERARCHY = new PathObjectTypeAdapter(true);
 		
+		/**
+		 * Get an instance that serializes a 'flat' object, without measurements or metadata
+		 */
+		static PathObjectTypeAdapter INSTANCE_NO_MEASUREMENTS = new PathObjectTypeAdapter(false, true);
+		
 		/**
 		 * In v0.2 we unwisely stored object type in an "id" property.
 		 */
@@ -317,8 +309,15 @@ class QuPathTypeAdapters {
 		
 		private boolean doHierarchy = false;
 		
+		private boolean excludeMeasurements = false;
+		
 		private PathObjectTypeAdapter(boolean doHierarchy) {
+			this(doHierarchy, false);
+		}
+		
+		private PathObjectTypeAdapter(boolean doHierarchy, boolean excludeMeasurements) {
 			this.doHierarchy = doHierarchy;
+			this.excludeMeasurements = excludeMeasurements;
 		}
 		
 
@@ -396,7 +395,9 @@ class QuPathTypeAdapters {
 			}
 			
 			MeasurementList measurements = value.getMeasurementList();
-			if (flattenProperties) {
+			if (excludeMeasurements) {
+				// Skip measurements and metadata, rather than needing to copy the object without them
+			} else if (flattenProperties) {
 				// Flattening properties probably not a good idea!
 				
 				// Add measurements
@@ -446,7 +447,7 @@ class QuPathTypeAdapters {
 			}
 			
 			// Write metadata (new in v0.5.0)
-			var metadata = value.getMetadata();
+			var metadata = excludeMeasurements ? Collections.<String, String>emptyMap() : value.getMetadata();
 			if (!metadata.isEmpty()) {
 				out.name("metadata");
 				gson.toJson(metadata, Map.class, out);
@@ -457,16 +458,77 @@ class QuPathTypeAdapters {
 			out.endObject(); // PathObject/Feature
 		}
 	
+		/**
+		 * Read an object from a stream.
+		 * Geometries are decoded directly from the stream, since these usually account for most of the data; 
+		 * properties are read as a (comparatively small) JsonObject.
+		 */
 		@Override
 		public PathObject read(JsonReader in) throws IOException {
-			
-			JsonObject obj = gson.fromJson(in, JsonObject.class);
-			
-			return parseObject(obj);
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			JsonElement id = null;
+			ROI roi = null;
+			ROI roiNucleus = null;
+			JsonObject properties = null;
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "id":
+					id = gson.fromJson(in, JsonElement.class);
+					break;
+				case "geometry":
+					roi = ROITypeAdapters.ROI_ADAPTER_INSTANCE.read(in);
+					break;
+				case "nucleusGeometry":
+					roiNucleus = ROITypeAdapters.ROI_ADAPTER_INSTANCE.read(in);
+					break;
+				case "properties":
+					var element = gson.fromJson(in, JsonElement.class);
+					if (element != null && element.isJsonObject())
+						properties = element.getAsJsonObject();
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return createObject(id, roi, roiNucleus, properties);
 		}
 			
-			
-		private PathObject parseObject(JsonObject obj) {
+		/**
+		 * Parse an object from a JsonObject (e.g. a feature that has already been read).
+		 * @param obj
+		 * @return
+		 */
+		PathObject parseObject(JsonObject obj) {
+			return parseObject(obj, null, null);
+		}
+		
+		/**
+		 * Parse an object from a JsonObject, where the geometries may already have been read separately.
+		 * @param obj
+		 * @param roi the ROI, used only if the JsonObject does not contain a geometry
+		 * @param roiNucleus the nucleus ROI, used only if the JsonObject does not contain a nucleus geometry
+		 * @return
+		 */
+		PathObject parseObject(JsonObject obj, ROI roi, ROI roiNucleus) {
+			JsonElement id = obj.get("id");
+			if (obj.has("geometry")) {
+				roi = ROITypeAdapters.ROI_ADAPTER_INSTANCE.fromJsonTree(obj.get("geometry"));
+			}
+			if (obj.has("nucleusGeometry")) {
+				roiNucleus = ROITypeAdapters.ROI_ADAPTER_INSTANCE.fromJsonTree(obj.get("nucleusGeometry"));
+			}
+			JsonObject properties = null;
+			if (obj.has("properties"))
+				properties = obj.get("properties").getAsJsonObject();
+			return createObject(id, roi, roiNucleus, properties);
+		}
+		
+		private PathObject createObject(JsonElement idElement, ROI roi, ROI roiNucleus, JsonObject properties) {
 						
 			// Object type (annotation, detection etc.)
 			String type = "unknown";
@@ -474,8 +536,8 @@ class QuPathTypeAdapters {
 			// Get an ID
 			String id = null;
 			UUID uuid = null;
-			if (obj.has("id")) {
-				id = obj.get("id").getAsString();
+			if (idElement != null && !idElement.isJsonNull()) {
+				id = idElement.getAsString();
 				// In v0.2, we (unwisely...) stored the type in an ID
 				if (LEGACY_TYPE_IDS.contains(id))
 					type = id;
@@ -490,8 +552,6 @@ class QuPathTypeAdapters {
 				}
 			}
 			
-			ROI roi = ROITypeAdapters.ROI_ADAPTER_INSTANCE.fromJsonTree(obj.get("geometry"));
-			
 			PathClass pathClass = null;
 			
 			boolean isMissing = false;
@@ -503,8 +563,7 @@ class QuPathTypeAdapters {
 			MeasurementList measurementList = null;
 			JsonObject metadata = null;
 			
-			if (obj.has("properties")) {
-				JsonObject properties = obj.get("properties").getAsJsonObject();
+			if (properties != null) {
 				if (properties.has("name")) {
 					name = properties.get("name").getAsString();
 				}
@@ -558,11 +617,6 @@ class QuPathTypeAdapters {
 					}
 				}
 			}
-			ROI roiNucleus = null;
-			if (obj.has("nucleusGeometry")) {
-				roiNucleus = ROITypeAdapters.ROI_ADAPTER_INSTANCE.fromJsonTree(obj.get("nucleusGeometry"));
-			}
-			
 			PathObject pathObject = null;
 			switch (type) {
 			case ("PathTileObject"):
@@ -22,7 +22,10 @@
 package qupath.lib.io;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 
@@ -39,12 +42,9 @@ import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
 
 import qupath.lib.common.GeneralTools;
@@ -65,10 +65,6 @@ class ROITypeAdapters {
 	static ROITypeAdapter ROI_ADAPTER_INSTANCE = new ROITypeAdapter();
 	static GeometryTypeAdapter GEOMETRY_ADAPTER_INSTANCE = new GeometryTypeAdapter();
 	
-	private static Gson gson = new GsonBuilder()
-			.setLenient()
-			.create();
-	
 	static class ROITypeAdapter extends TypeAdapter<ROI> {
 		
 		private int numDecimalPlaces = 2;
@@ -104,22 +100,22 @@ class ROITypeAdapters {
 	
 		@Override
 		public ROI read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
 			
-			JsonObject obj = gson.fromJson(in, JsonObject.class);
-			
-			Geometry geometry = parseGeometry(obj, new GeometryFactory());
+			// Read the geometry directly from the stream, without creating a JsonObject
+			var geometryReader = new GeometryReader(new GeometryFactory());
+			var geometry = geometryReader.read(in);
 			
 			if (geometry == null)
 				return null;
 			
-			ImagePlane plane;
-			if (obj.has("plane"))
-				plane = ImagePlaneTypeAdapter.INSTANCE.fromJsonTree(obj.get("plane"));
-			else
-				plane = ImagePlane.getDefaultPlane();
+			ImagePlane plane = geometryReader.plane == null ? ImagePlane.getDefaultPlane() : geometryReader.plane;
 			
 			// If we have an ellipse, correct that here
-			if (obj.has("isEllipse") && obj.get("isEllipse").getAsBoolean()) {
+			if (geometryReader.isEllipse) {
 				var envelope = geometry.getEnvelopeInternal();
 				return ROIs.createEllipseROI(
 						envelope.getMinX(),
@@ -149,120 +145,180 @@ class ROITypeAdapters {
 
 		@Override
 		public Geometry read(JsonReader in) throws IOException {
-			JsonObject obj = gson.fromJson(in, JsonObject.class);
-			return parseGeometry(obj, new GeometryFactory());
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			return new GeometryReader(new GeometryFactory()).read(in);
 		}
 		
 	}
 	
 	
-	
-	static Geometry parseGeometry(JsonObject obj, GeometryFactory factory) {
-		if (!obj.has("type"))
-			return null;
-		
-		String type = obj.get("type").getAsString();
-		JsonArray coordinates = null;
-		if (obj.has("coordinates"))
-			coordinates = obj.getAsJsonArray("coordinates").getAsJsonArray();
-			
-		switch (type) {
-		case "Point":
-			return parsePoint(coordinates, factory);
-		case "MultiPoint":
-			return parseMultiPoint(coordinates, factory);
-		case "LineString":
-			return parseLineString(coordinates, factory);
-		case "MultiLineString":
-			return parseMultiLineString(coordinates, factory);
-		case "Polygon":
-			return parsePolygon(coordinates, factory);
-		case "MultiPolygon":
-			return parseMultiPolygon(coordinates, factory);
-		case "GeometryCollection":
-			return parseGeometryCollection(obj, factory);
-		}
-		throw new IllegalArgumentException("No Geometry type found for object " + obj);
-	}
-
 	/**
-	 * Parse a coordinate from a JsonArray. No error checking is performed. Supports either two elements (x,y) or three (x,y,z).
-	 * @param array
-	 * @return
+	 * Helper class to read a GeoJSON geometry directly from a stream.
+	 * <p>
+	 * Coordinates are decoded directly into arrays. This avoids creating a JsonArray and JsonPrimitive for every 
+	 * vertex, which otherwise dominates the memory required to read large numbers of objects.
+	 * <p>
+	 * Since the GeoJSON members may be in any order, the coordinates are read before the geometry type is known: 
+	 * each array of positions becomes a {@code Coordinate[]}, and deeper levels of nesting become lists.
+	 * Foreign members used by QuPath for ROIs (the plane and whether the ROI is an ellipse) are retained.
 	 */
-	static Coordinate parseCoordinate(JsonArray array) {
-		double x = array.get(0).getAsDouble();
-		double y = array.get(1).getAsDouble();
-		if (array.size() == 2)
-			return new Coordinate(x, y);
-		else {
-			double z = array.get(2).getAsDouble();
-			return new Coordinate(x, y, z);
+	static class GeometryReader {
+		
+		private final GeometryFactory factory;
+		
+		private String type;
+		private Object coordinates;
+		private List<Geometry> geometries;
+		
+		private ImagePlane plane;
+		private boolean isEllipse = false;
+		
+		GeometryReader(GeometryFactory factory) {
+			this.factory = factory;
 		}
-	}
-
-	static Coordinate[] parseCoordinateArray(JsonArray array) {
-		Coordinate[] coordinates = new Coordinate[array.size()];
-		for (int i = 0; i < array.size(); i++) {
-			coordinates[i]  = parseCoordinate(array.get(i).getAsJsonArray());
+		
+		Geometry read(JsonReader in) throws IOException {
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					continue;
+				}
+				switch (name) {
+				case "type":
+					type = in.nextString();
+					break;
+				case "coordinates":
+					coordinates = readCoordinates(in);
+					break;
+				case "geometries":
+					geometries = new ArrayList<>();
+					in.beginArray();
+					while (in.hasNext())
+						geometries.add(new GeometryReader(factory).read(in));
+					in.endArray();
+					break;
+				case "plane":
+					plane = ImagePlaneTypeAdapter.INSTANCE.read(in);
+					break;
+				case "isEllipse":
+					if (in.peek() == JsonToken.STRING)
+						isEllipse = Boolean.parseBoolean(in.nextString());
+					else
+						isEllipse = in.nextBoolean();
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			return createGeometry();
 		}
-		return coordinates;
-	}
-
-	static Point parsePoint(JsonArray coord, GeometryFactory factory) {
-		return factory.createPoint(parseCoordinate(coord));
-	}
-
-	static MultiPoint parseMultiPoint(JsonArray coords, GeometryFactory factory) {
-		return factory.createMultiPointFromCoords(parseCoordinateArray(coords));
-	}
-
-	static LineString parseLineString(JsonArray coords, GeometryFactory factory) {
-		return factory.createLineString(parseCoordinateArray(coords));
-	}
-
-	static MultiLineString parseMultiLineString(JsonArray coords, GeometryFactory factory) {
-		LineString[] lineStrings = new LineString[coords.size()];
-		for (int i = 0; i < coords.size(); i++) {
-			JsonArray array = coords.get(i).getAsJsonArray();
-			lineStrings[i] = factory.createLineString(parseCoordinateArray(array));
+		
+		private Geometry createGeometry() {
+			if (type == null)
+				return null;
+			switch (type) {
+			case "Point":
+				return factory.createPoint((Coordinate)coordinates);
+			case "MultiPoint":
+				return factory.createMultiPointFromCoords(toCoordinateArray(coordinates));
+			case "LineString":
+				return factory.createLineString(toCoordinateArray(coordinates));
+			case "MultiLineString":
+				var lines = toList(coordinates);
+				var lineStrings = new LineString[lines.size()];
+				for (int i = 0; i < lineStrings.length; i++)
+					lineStrings[i] = factory.createLineString(toCoordinateArray(lines.get(i)));
+				return factory.createMultiLineString(lineStrings);
+			case "Polygon":
+				return createPolygon(coordinates);
+			case "MultiPolygon":
+				var polygonCoords = toList(coordinates);
+				var polygons = new Polygon[polygonCoords.size()];
+				for (int i = 0; i < polygons.length; i++)
+					polygons[i] = createPolygon(polygonCoords.get(i));
+				return factory.createMultiPolygon(polygons);
+			case "GeometryCollection":
+				var list = geometries == null ? List.<Geometry>of() : geometries;
+				return new GeometryCollection(list.toArray(Geometry[]::new), factory);
+			}
+			throw new IllegalArgumentException("No Geometry type found for type " + type);
 		}
-		return factory.createMultiLineString(lineStrings);
-	}
-
-	static Polygon parsePolygon(JsonArray coords, GeometryFactory factory) {
-		int n = coords.size();
-		if (n == 0)
-			return factory.createPolygon();
-		JsonArray array = coords.get(0).getAsJsonArray();
-		LinearRing shell = factory.createLinearRing(parseCoordinateArray(array));
-		if (n == 1)
-			return factory.createPolygon(shell);
-		LinearRing[] holes = new LinearRing[n-1];
-		for (int i = 1; i < n; i++) {
-			array = coords.get(i).getAsJsonArray();
-			holes[i-1] = factory.createLinearRing(parseCoordinateArray(array));
+		
+		private Polygon createPolygon(Object coords) {
+			var rings = toList(coords);
+			int n = rings.size();
+			if (n == 0)
+				return factory.createPolygon();
+			LinearRing shell = factory.createLinearRing(toCoordinateArray(rings.get(0)));
+			if (n == 1)
+				return factory.createPolygon(shell);
+			LinearRing[] holes = new LinearRing[n-1];
+			for (int i = 1; i < n; i++) {
+				holes[i-1] = factory.createLinearRing(toCoordinateArray(rings.get(i)));
+			}
+			return factory.createPolygon(shell, holes);
 		}
-		return factory.createPolygon(shell, holes);
-	}
-
-	static MultiPolygon parseMultiPolygon(JsonArray coords, GeometryFactory factory) {
-		int n = coords.size();
-		Polygon[]  polygons = new Polygon[n];
-		for (int i = 0; i < n; i++) {
-			polygons[i] = parsePolygon(coords.get(i).getAsJsonArray(), factory);
+		
+		/**
+		 * Read a coordinates array of any depth.
+		 * Returns a Coordinate for a single position, a Coordinate[] for an array of positions, 
+		 * or a List for deeper nesting.
+		 */
+		private static Object readCoordinates(JsonReader in) throws IOException {
+			in.beginArray();
+			var token = in.peek();
+			if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+				double x = in.nextDouble();
+				double y = in.nextDouble();
+				Coordinate coord;
+				if (in.hasNext())
+					coord = new Coordinate(x, y, in.nextDouble());
+				else
+					coord = new Coordinate(x, y);
+				while (in.hasNext())
+					in.skipValue();
+				in.endArray();
+				return coord;
+			}
+			List<Object> list = new ArrayList<>();
+			boolean allCoordinates = true;
+			while (in.hasNext()) {
+				var item = readCoordinates(in);
+				allCoordinates = allCoordinates && item instanceof Coordinate;
+				list.add(item);
+			}
+			in.endArray();
+			if (allCoordinates && !list.isEmpty())
+				return list.toArray(Coordinate[]::new);
+			return list;
 		}
-		return factory.createMultiPolygon(polygons);
-	}
-
-	static GeometryCollection parseGeometryCollection(JsonObject obj, GeometryFactory factory) {
-		JsonArray array = obj.get("geometries").getAsJsonArray();
-		List<Geometry> geometries = new ArrayList<>();
-		for (int i = 0; i < array.size(); i++)
-			geometries.add(parseGeometry(array.get(i).getAsJsonObject(), factory));
-		return new GeometryCollection(geometries.toArray(Geometry[]::new), factory);
+		
+		private static Coordinate[] toCoordinateArray(Object coords) {
+			if (coords instanceof Coordinate[] array)
+				return array;
+			// Empty array
+			return new Coordinate[0];
+		}
+		
+		@SuppressWarnings("unchecked")
+		private static List<Object> toList(Object coords) {
+			if (coords instanceof List<?> list)
+				return (List<Object>)list;
+			if (coords instanceof Coordinate[] array)
+				return Arrays.asList((Object[])array);
+			return List.of();
+		}
+		
 	}
-
+	
+	
+	
 	/**
 	 * Write a Geometry as GeoJSON. Note that this does <i>not</i> call beginObject() and endObject() 
 	 * so as to provide an opportunity to add additional fields. Rather it only writes the key 
@@ -372,8 +428,72 @@ class ROITypeAdapters {
 	}
 
 	static String coordinateToString(double x, double y, int nDecimals) {
-		return "[" + GeneralTools.formatNumber(Locale.US, x, nDecimals) + ", "
-				+ GeneralTools.formatNumber(Locale.US, y, nDecimals) + "]";		
+		var sb = new StringBuilder(24);
+		sb.append('[');
+		appendNumber(sb, x, nDecimals);
+		sb.append(", ");
+		appendNumber(sb, y, nDecimals);
+		sb.append(']');
+		return sb.toString();
 	}
-	
+
+	private static final long[] POW10 = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L};
+
+	// Largest scaled value for which the fast path can safely be used, along with how close it may be to a tie
+	private static final double MAX_FAST_SCALED = 1e9;
+	private static final double TIE_TOLERANCE = 1e-6;
+
+	/**
+	 * Append a number with a maximum number of decimal places, giving the same result as
+	 * {@link GeneralTools#formatNumber(Locale, double, int)} with {@link Locale#US}.
+	 * <p>
+	 * This is used for every coordinate written as GeoJSON, and so needs to be fast and (unlike a shared
+	 * {@link java.text.NumberFormat}) safe to call from multiple threads.
+	 * Values are rounded half-even based on their exact binary value, with trailing zeros removed.
+	 * The result is computed using long arithmetic, falling back to {@link BigDecimal} if the value is
+	 * very large or too close to a tie for the scaled double to be trusted.
+	 *
+	 * @param sb
+	 * @param value
+	 * @param nDecimals
+	 */
+	static void appendNumber(StringBuilder sb, double value, int nDecimals) {
+		if (!Double.isFinite(value) || nDecimals < 0 || nDecimals >= POW10.length) {
+			sb.append(GeneralTools.formatNumber(Locale.US, value, nDecimals));
+			return;
+		}
+		// Note that the sign bit is needed to handle -0.0 (formatted as '-0')
+		boolean negative = Double.doubleToRawLongBits(value) < 0;
+		long scale = POW10[nDecimals];
+		double scaled = Math.abs(value) * scale;
+		if (scaled < MAX_FAST_SCALED) {
+			double floor = Math.floor(scaled);
+			double diff = scaled - floor - 0.5;
+			if (Math.abs(diff) > TIE_TOLERANCE) {
+				long rounded = (long)floor + (diff > 0 ? 1 : 0);
+				if (negative)
+					sb.append('-');
+				sb.append(rounded / scale);
+				long fraction = rounded % scale;
+				if (fraction != 0) {
+					int nDigits = nDecimals;
+					while (fraction % 10 == 0) {
+						fraction /= 10;
+						nDigits--;
+					}
+					sb.append('.');
+					for (long p = POW10[nDigits - 1]; p > fraction; p /= 10)
+						sb.append('0');
+					sb.append(fraction);
+				}
+				return;
+			}
+		}
+		var bd = new BigDecimal(value).setScale(nDecimals, RoundingMode.HALF_EVEN);
+		if (bd.signum() == 0)
+			sb.append(negative ? "-0" : "0");
+		else
+			sb.append(bd.stripTrailingZeros().toPlainString());
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,652 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import qupath.lib.measurements.MeasurementList.MeasurementListType;
+import qupath.lib.objects.PathObject;
+
+/**
+ * A columnar store for the measurements of many objects.
+ * <p>
+ * Each measurement name is stored as a single primitive column, and each measurement list created by the store
+ * is a lightweight view onto one row. This avoids needing a separate array (and list of names) for every object,
+ * which can substantially reduce memory use and garbage collection when there are millions of detections with
+ * many measurements each. It also means that all the values for a measurement can be read in bulk,
+ * without boxing, using {@link #getValues(String, Collection)}.
+ * <p>
+ * Rows are reused when a measurement list is no longer reachable.
+ * Measurement lists created by the store are serialized as regular float or double measurement lists,
+ * and so are no longer backed by the store after deserialization.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @since v0.6.0
+ * @see qupath.lib.objects.hierarchy.PathObjectHierarchy#getMeasurementStore()
+ */
+public final class ColumnarMeasurementStore {
+
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	private static final int MIN_CAPACITY = 1024;
+
+	// NaN values with a non-standard payload are used to mark missing values,
+	// so that a row can be distinguished from one that contains an explicit NaN without needing more storage.
+	// Values that are put in the store are always converted to the canonical NaN if necessary.
+	private static final int MISSING_FLOAT_BITS = 0x7fc0dead;
+	private static final float MISSING_FLOAT = Float.intBitsToFloat(MISSING_FLOAT_BITS);
+	private static final long MISSING_DOUBLE_BITS = 0x7ff8deaddeaddeadL;
+	private static final double MISSING_DOUBLE = Double.longBitsToDouble(MISSING_DOUBLE_BITS);
+
+	private final MeasurementListType type;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Map<String, Column> columns = new HashMap<>();
+	private volatile List<String> names = Collections.emptyList();
+
+	private int capacity = 0;
+	private int nRows = 0;
+	private int[] freeRows = new int[16];
+	private int nFreeRows = 0;
+
+	/**
+	 * Create a new store using float columns.
+	 * This is generally preferred for detections, where the extra precision of doubles is rarely needed.
+	 */
+	public ColumnarMeasurementStore() {
+		this(MeasurementListType.FLOAT);
+	}
+
+	/**
+	 * Create a new store using columns of the specified type.
+	 * @param type the column type; must be either {@link MeasurementListType#FLOAT} or {@link MeasurementListType#DOUBLE}
+	 * @throws IllegalArgumentException if the type is not supported
+	 */
+	public ColumnarMeasurementStore(MeasurementListType type) {
+		if (type != MeasurementListType.FLOAT && type != MeasurementListType.DOUBLE)
+			throw new IllegalArgumentException("Columnar measurement store requires FLOAT or DOUBLE type, not " + type);
+		this.type = type;
+	}
+
+	/**
+	 * Get the type of the columns in this store.
+	 * @return
+	 */
+	public MeasurementListType getType() {
+		return type;
+	}
+
+	/**
+	 * Create a new (empty) measurement list, backed by a row of this store.
+	 * The row is released automatically when the list is no longer reachable.
+	 * @return
+	 */
+	public MeasurementList createMeasurementList() {
+		int row;
+		lock.writeLock().lock();
+		try {
+			if (nFreeRows > 0) {
+				row = freeRows[--nFreeRows];
+			} else {
+				row = nRows++;
+				ensureCapacity(nRows);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		var list = new ColumnarMeasurementList(this, row);
+		CLEANER.register(list, new RowReleaser(this, row));
+		return list;
+	}
+
+	/**
+	 * Create a measurement list backed by a row of this store, containing the same measurements as an existing list.
+	 * <p>
+	 * This is only possible if no information would be lost, i.e. the list must not support dynamic measurements,
+	 * and must not contain double values if this store uses float columns.
+	 * <p>
+	 * Note that the measurement names of the new list are ordered according to the columns of the store,
+	 * which may differ from their order in the original list.
+	 * @param list the list to copy
+	 * @return a new list backed by this store, or null if the list cannot be stored
+	 * @see #canStore(MeasurementList)
+	 */
+	public MeasurementList createMeasurementList(MeasurementList list) {
+		if (!canStore(list))
+			return null;
+		var copy = (ColumnarMeasurementList)createMeasurementList();
+		putAll(copy.row, list.getMeasurementNames(), list.values());
+		return copy;
+	}
+
+	/**
+	 * Query whether the values of a measurement list could be stored in this store without any loss of information.
+	 * @param list
+	 * @return true if the list is a float or double list (or a list backed by a compatible store),
+	 *         and its type is supported by the columns of this store
+	 */
+	public boolean canStore(MeasurementList list) {
+		if (list instanceof NumericMeasurementList.FloatList)
+			return true;
+		if (list instanceof NumericMeasurementList.DoubleList)
+			return type == MeasurementListType.DOUBLE;
+		if (list instanceof ColumnarMeasurementList columnar)
+			return type == MeasurementListType.DOUBLE || columnar.store.type == MeasurementListType.FLOAT;
+		return false;
+	}
+
+	/**
+	 * Query whether a measurement list is backed by this store.
+	 * @param list
+	 * @return true if the list was created by this store, false otherwise
+	 */
+	public boolean contains(MeasurementList list) {
+		return list instanceof ColumnarMeasurementList columnar && columnar.store == this;
+	}
+
+	/**
+	 * Get the names of all measurements in the store, in the order in which they were first added.
+	 * Note that individual measurement lists may not contain all of these measurements.
+	 * @return an unmodifiable list of names
+	 */
+	public List<String> getMeasurementNames() {
+		return names;
+	}
+
+	/**
+	 * Get the number of rows currently in use, i.e. the number of reachable measurement lists
+	 * backed by this store.
+	 * @return
+	 */
+	public int getRowCount() {
+		lock.readLock().lock();
+		try {
+			return nRows - nFreeRows;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the values of a measurement for a collection of objects, in the iteration order of the collection.
+	 * <p>
+	 * Values are read directly from the store for objects whose measurement list is backed by it,
+	 * and from the measurement list otherwise.
+	 * Missing values are returned as {@code Double.NaN}.
+	 * Values that are being written concurrently by other threads may or may not be visible.
+	 * @param name the measurement name
+	 * @param pathObjects the objects whose values should be returned
+	 * @return an array of measurement values, with one entry per object
+	 */
+	public double[] getValues(String name, Collection<? extends PathObject> pathObjects) {
+		double[] values = new double[pathObjects.size()];
+		int[] rows = new int[values.length];
+		int i = 0;
+		for (var pathObject : pathObjects) {
+			var list = pathObject.getMeasurementList();
+			if (list instanceof ColumnarMeasurementList columnar && columnar.store == this) {
+				rows[i] = columnar.row;
+			} else {
+				rows[i] = -1;
+				values[i] = list.get(name);
+			}
+			i++;
+		}
+		lock.readLock().lock();
+		try {
+			var column = columns.get(name);
+			for (i = 0; i < rows.length; i++) {
+				int row = rows[i];
+				if (row < 0)
+					continue;
+				double val = column == null ? MISSING_DOUBLE : column.get(row);
+				values[i] = isMissing(val) ? Double.NaN : val;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return values;
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity <= capacity)
+			return;
+		int newCapacity = Math.max(MIN_CAPACITY, capacity);
+		while (newCapacity < minCapacity)
+			newCapacity = newCapacity + (newCapacity >> 1);
+		for (var column : columns.values())
+			column.resize(newCapacity);
+		capacity = newCapacity;
+	}
+
+	private Column createColumn() {
+		if (type == MeasurementListType.DOUBLE)
+			return new DoubleColumn(capacity);
+		else
+			return new FloatColumn(capacity);
+	}
+
+	private void releaseRow(int row) {
+		lock.writeLock().lock();
+		try {
+			for (var column : columns.values())
+				column.clear(row);
+			if (nFreeRows == freeRows.length)
+				freeRows = Arrays.copyOf(freeRows, nFreeRows * 2);
+			freeRows[nFreeRows++] = row;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private double get(int row, String name) {
+		lock.readLock().lock();
+		try {
+			var column = columns.get(name);
+			return column == null ? MISSING_DOUBLE : column.get(row);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void put(int row, String name, double value) {
+		if (Double.isNaN(value))
+			value = Double.NaN;
+		// Setting a value in an existing column only requires the read lock,
+		// since each row is only ever written by a single (synchronized) list
+		lock.readLock().lock();
+		try {
+			var column = columns.get(name);
+			if (column != null) {
+				column.set(row, value);
+				return;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		lock.writeLock().lock();
+		try {
+			var column = columns.get(name);
+			if (column == null) {
+				column = createColumn();
+				columns.put(name, column);
+				var newNames = new ArrayList<>(names);
+				newNames.add(name);
+				names = Collections.unmodifiableList(newNames);
+			}
+			column.set(row, value);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Set multiple values in a row, creating any columns that are needed.
+	 */
+	private void putAll(int row, List<String> names, double[] values) {
+		lock.readLock().lock();
+		try {
+			int i = 0;
+			for (var name : names) {
+				var column = columns.get(name);
+				if (column == null)
+					break;
+				double value = values[i];
+				column.set(row, Double.isNaN(value) ? Double.NaN : value);
+				i++;
+			}
+			if (i == names.size())
+				return;
+		} finally {
+			lock.readLock().unlock();
+		}
+		// At least one new column is needed
+		for (int i = 0; i < names.size(); i++)
+			put(row, names.get(i), values[i]);
+	}
+
+	private void remove(int row, String... names) {
+		lock.readLock().lock();
+		try {
+			for (var name : names) {
+				var column = columns.get(name);
+				if (column != null)
+					column.clear(row);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void clear(int row) {
+		lock.readLock().lock();
+		try {
+			for (var column : columns.values())
+				column.clear(row);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the names of all the measurements present in a row.
+	 * @param row
+	 * @return
+	 */
+	private List<String> getNames(int row) {
+		lock.readLock().lock();
+		try {
+			var allNames = names;
+			List<String> rowNames = null;
+			int i = 0;
+			for (var name : allNames) {
+				if (isMissing(columns.get(name).get(row))) {
+					if (rowNames == null)
+						rowNames = new ArrayList<>(allNames.subList(0, i));
+				} else if (rowNames != null) {
+					rowNames.add(name);
+				}
+				i++;
+			}
+			// Return the shared list if possible, to reduce memory and speed up comparisons
+			return rowNames == null ? allNames : Collections.unmodifiableList(rowNames);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the values of all the measurements present in a row, in the same order as {@link #getNames(int)}.
+	 * @param row
+	 * @return
+	 */
+	private double[] getValues(int row) {
+		lock.readLock().lock();
+		try {
+			var allNames = names;
+			double[] values = new double[allNames.size()];
+			int n = 0;
+			for (var name : allNames) {
+				double val = columns.get(name).get(row);
+				if (!isMissing(val))
+					values[n++] = val;
+			}
+			return n == values.length ? values : Arrays.copyOf(values, n);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static boolean isMissing(double value) {
+		return Double.doubleToRawLongBits(value) == MISSING_DOUBLE_BITS;
+	}
+
+
+	private abstract static class Column {
+
+		abstract double get(int row);
+
+		abstract void set(int row, double value);
+
+		abstract void clear(int row);
+
+		abstract void resize(int capacity);
+
+	}
+
+	private static class FloatColumn extends Column {
+
+		private float[] values;
+
+		FloatColumn(int capacity) {
+			values = new float[capacity];
+			Arrays.fill(values, MISSING_FLOAT);
+		}
+
+		@Override
+		double get(int row) {
+			float val = values[row];
+			return Float.floatToRawIntBits(val) == MISSING_FLOAT_BITS ? MISSING_DOUBLE : val;
+		}
+
+		@Override
+		void set(int row, double value) {
+			values[row] = Double.isNaN(value) ? Float.NaN : (float)value;
+		}
+
+		@Override
+		void clear(int row) {
+			values[row] = MISSING_FLOAT;
+		}
+
+		@Override
+		void resize(int capacity) {
+			int n = values.length;
+			values = Arrays.copyOf(values, capacity);
+			Arrays.fill(values, n, capacity, MISSING_FLOAT);
+		}
+
+	}
+
+	private static class DoubleColumn extends Column {
+
+		private double[] values;
+
+		DoubleColumn(int capacity) {
+			values = new double[capacity];
+			Arrays.fill(values, MISSING_DOUBLE);
+		}
+
+		@Override
+		double get(int row) {
+			return values[row];
+		}
+
+		@Override
+		void set(int row, double value) {
+			values[row] = value;
+		}
+
+		@Override
+		void clear(int row) {
+			values[row] = MISSING_DOUBLE;
+		}
+
+		@Override
+		void resize(int capacity) {
+			int n = values.length;
+			values = Arrays.copyOf(values, capacity);
+			Arrays.fill(values, n, capacity, MISSING_DOUBLE);
+		}
+
+	}
+
+
+	/**
+	 * Release a row when its measurement list is no longer reachable.
+	 * This must not hold a reference to the list itself.
+	 */
+	private static class RowReleaser implements Runnable {
+
+		private final ColumnarMeasurementStore store;
+		private final int row;
+
+		RowReleaser(ColumnarMeasurementStore store, int row) {
+			this.store = store;
+			this.row = row;
+		}
+
+		@Override
+		public void run() {
+			store.releaseRow(row);
+		}
+
+	}
+
+
+	/**
+	 * A measurement list that is a view onto a single row of a {@link ColumnarMeasurementStore}.
+	 */
+	private static class ColumnarMeasurementList implements MeasurementList {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient ColumnarMeasurementStore store;
+		private final transient int row;
+
+		private transient Map<String, Number> mapView;
+
+		ColumnarMeasurementList(ColumnarMeasurementStore store, int row) {
+			this.store = store;
+			this.row = row;
+		}
+
+		@Override
+		public synchronized Measurement putMeasurement(Measurement measurement) {
+			if (measurement.isDynamic())
+				throw new UnsupportedOperationException("This MeasurementList does not support dynamic measurements");
+			put(measurement.getName(), measurement.getValue());
+			return null;
+		}
+
+		@Override
+		public synchronized void put(String name, double value) {
+			store.put(row, name, value);
+		}
+
+		@Override
+		public synchronized List<String> getMeasurementNames() {
+			return store.getNames(row);
+		}
+
+		@Override
+		public synchronized String getMeasurementName(int ind) {
+			return getMeasurementNames().get(ind);
+		}
+
+		@Override
+		public synchronized double getMeasurementValue(int ind) {
+			var names = getMeasurementNames();
+			if (ind >= 0 && ind < names.size())
+				return get(names.get(ind));
+			return Double.NaN;
+		}
+
+		@Override
+		public synchronized double[] values() {
+			return store.getValues(row);
+		}
+
+		@Override
+		public synchronized double get(String name) {
+			double val = store.get(row, name);
+			return isMissing(val) ? Double.NaN : val;
+		}
+
+		@Override
+		public synchronized boolean containsKey(String name) {
+			return !isMissing(store.get(row, name));
+		}
+
+		@Override
+		public synchronized boolean isEmpty() {
+			return size() == 0;
+		}
+
+		@Override
+		public synchronized int size() {
+			return getMeasurementNames().size();
+		}
+
+		@Override
+		public boolean supportsDynamicMeasurements() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// Storage is managed by the store, so nothing to do
+		}
+
+		@Override
+		public synchronized void removeMeasurements(String... measurementNames) {
+			store.remove(row, measurementNames);
+		}
+
+		@Override
+		public synchronized void clear() {
+			store.clear(row);
+		}
+
+		@Override
+		public Map<String, Number> asMap() {
+			if (mapView == null) {
+				synchronized (this) {
+					if (mapView == null)
+						mapView = Collections.synchronizedMap(new MeasurementsMap(this));
+				}
+			}
+			return mapView;
+		}
+
+		/**
+		 * Serialize as a standalone list, since the store itself isn't serialized.
+		 * @return
+		 */
+		private synchronized Object writeReplace() {
+			var names = getMeasurementNames();
+			var list = MeasurementListFactory.createMeasurementList(names.size(), store.getType());
+			for (var name : names)
+				list.put(name, get(name));
+			list.close();
+			return list;
+		}
+
+		@Override
+		public synchronized String toString() {
+			StringBuilder sb = new StringBuilder();
+			var names = getMeasurementNames();
+			int n = names.size();
+			sb.append("[");
+			for (int i = 0; i < n; i++) {
+				sb.append(names.get(i)).append(": ").append(get(names.get(i)));
+				if (i < n - 1)
+					sb.append(", ");
+			}
+			sb.append("]");
+			return sb.toString();
+		}
+
+	}
+
+}
@@ -44,6 +44,7 @@ import org.slf4j.LoggerFactory;
 import qupath.lib.common.ColorTools;
 import qupath.lib.common.LogTools;
 import qupath.lib.io.PathIO;
+import qupath.lib.measurements.ColumnarMeasurementStore;
 import qupath.lib.measurements.MeasurementList;
 import qupath.lib.measurements.MeasurementListFactory;
 import qupath.lib.objects.classes.PathClass;
@@ -209,6 +210,32 @@ public abstract class PathObject implements Externalizable {
 		return measurementsMap;
 	}
 	
+	/**
+	 * Move the measurements of this object into a columnar store, so that its measurement list becomes a view
+	 * onto one row of the store.
+	 * <p>
+	 * This does nothing if the object has no measurement list, if the list is already backed by the store,
+	 * or if the list cannot be stored without losing information (e.g. because it supports dynamic measurements).
+	 * <p>
+	 * Note that any measurement list (or map) previously returned for this object is detached from the object
+	 * after its measurements have been moved, and so should not be modified.
+	 * 
+	 * @param store the store that should hold the measurements
+	 * @return true if the measurements were moved, false otherwise
+	 * @since v0.6.0
+	 * @see PathObjectHierarchy#getMeasurementStore()
+	 */
+	public synchronized boolean moveMeasurementsToStore(ColumnarMeasurementStore store) {
+		if (measurements == null || store.contains(measurements))
+			return false;
+		var list = store.createMeasurementList(measurements);
+		if (list == null)
+			return false;
+		measurements = list;
+		measurementsMap = null;
+		return true;
+	}
+	
 	/**
 	 * Create a new MeasurementList of the preferred type for this object.
 	 * <p>
@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * A concurrent cache for geometry-related objects derived from ROIs or geometries, used by {@link PathObjectTileCache}.
+ * <p>
+ * Keys are weakly referenced (and compared by identity), while the total size of the cache is bounded using an
+ * estimate of the memory required by each entry. This means that very large geometries can't pin
+ * a large amount of memory indefinitely, even if their keys remain reachable.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+class GeometryCache<K, V> {
+
+	private final String name;
+	private final long maxBytes;
+	private final ToLongBiFunction<K, V> sizeEstimator;
+	private final Cache<K, V> cache;
+
+	/**
+	 * Constructor.
+	 * @param name name of the cache, used for reporting statistics
+	 * @param maxBytes approximate maximum number of bytes for all cached values
+	 * @param sizeEstimator function to estimate the size of a value in bytes
+	 */
+	GeometryCache(String name, long maxBytes, ToLongBiFunction<K, V> sizeEstimator) {
+		this.name = name;
+		this.maxBytes = maxBytes;
+		this.sizeEstimator = sizeEstimator;
+		// Guava uses integer weights, so we use KB
+		this.cache = CacheBuilder.newBuilder()
+				.weakKeys()
+				.maximumWeight(Math.max(1, maxBytes / 1024))
+				.weigher((K k, V v) -> (int)Math.min(Integer.MAX_VALUE, sizeEstimator.applyAsLong(k, v) / 1024))
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Get a cached value, or null if the key is not in the cache.
+	 * @param key
+	 * @return
+	 */
+	V getIfPresent(K key) {
+		return cache.getIfPresent(key);
+	}
+
+	/**
+	 * Get a cached value, computing it if necessary.
+	 * If the value is requested by multiple threads at the same time, it is only computed once.
+	 * @param key
+	 * @param fun
+	 * @return
+	 */
+	V get(K key, Function<? super K, ? extends V> fun) {
+		try {
+			return cache.get(key, () -> fun.apply(key));
+		} catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+			if (e.getCause() instanceof RuntimeException ex)
+				throw ex;
+			if (e.getCause() instanceof Error err)
+				throw err;
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Add a value to the cache.
+	 * @param key
+	 * @param value
+	 */
+	void put(K key, V value) {
+		cache.put(key, value);
+	}
+
+	/**
+	 * Remove all values from the cache.
+	 */
+	void clear() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Get a snapshot of the cache statistics.
+	 * Note that this needs to iterate through all entries to estimate the current size.
+	 * @return
+	 */
+	GeometryCacheStatistics getStatistics() {
+		long bytes = 0;
+		long count = 0;
+		for (var entry : cache.asMap().entrySet()) {
+			bytes += sizeEstimator.applyAsLong(entry.getKey(), entry.getValue());
+			count++;
+		}
+		var stats = cache.stats();
+		return new GeometryCacheStatistics(name, count, bytes, maxBytes,
+				stats.hitCount(), stats.missCount(), stats.evictionCount());
+	}
+
+}
@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+/**
+ * Immutable snapshot of the statistics for one of the caches used to speed up spatial queries
+ * within a {@link PathObjectHierarchy}, e.g. for geometries or point locators.
+ * <p>
+ * Sizes are estimates, based upon the number of vertices.
+ *
+ * @since v0.6.0
+ * @see PathObjectHierarchy#getGeometryCacheStatistics()
+ */
+public final class GeometryCacheStatistics {
+
+	private final String name;
+	private final long entryCount;
+	private final long estimatedBytes;
+	private final long maxBytes;
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+
+	GeometryCacheStatistics(String name, long entryCount, long estimatedBytes, long maxBytes,
+			long hitCount, long missCount, long evictionCount) {
+		this.name = name;
+		this.entryCount = entryCount;
+		this.estimatedBytes = estimatedBytes;
+		this.maxBytes = maxBytes;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+	}
+
+	/**
+	 * Get the name of the cache.
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the number of entries currently in the cache.
+	 * @return
+	 */
+	public long getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Get the estimated number of bytes required by all entries currently in the cache.
+	 * @return
+	 */
+	public long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	/**
+	 * Get the approximate maximum number of bytes that may be used by the cache before entries are evicted.
+	 * @return
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Get the number of requests that found an entry in the cache.
+	 * @return
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Get the number of requests that did not find an entry in the cache.
+	 * @return
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Get the number of entries evicted, either because the cache was full or because their keys were garbage collected.
+	 * @return
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public String toString() {
+		return "GeometryCacheStatistics [name=" + name + ", entries=" + entryCount
+				+ ", estimatedBytes=" + estimatedBytes + ", maxBytes=" + maxBytes
+				+ ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "]";
+	}
+
+}
@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
+
+/**
+ * Deliver events for a {@link PathObjectHierarchy} to its listeners, and record statistics about them.
+ * <p>
+ * Listeners are either notified immediately on the thread that fired the event, or via an executor. 
+ * In the latter case, events that are fired while a previous notification is pending are coalesced 
+ * (see {@link PathObjectHierarchyEvent#createCoalescedEvent(PathObjectHierarchyEvent, PathObjectHierarchyEvent)}), 
+ * so that a burst of changes results in a single notification.
+ */
+class HierarchyEventDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(HierarchyEventDispatcher.class);
+
+	// Log listeners that take longer than this to respond
+	private static final long SLOW_LISTENER_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final List<PathObjectHierarchyListener> listeners = new CopyOnWriteArrayList<>();
+
+	private final LongAdder eventCount = new LongAdder();
+	private final LongAdder deliveryCount = new LongAdder();
+	private final LongAdder coalescedCount = new LongAdder();
+	private final LongAdder listenerNanos = new LongAdder();
+	private final LongAccumulator maxListenerNanos = new LongAccumulator(Math::max, 0L);
+	private volatile long firstEventNanos = -1;
+
+	/**
+	 * Add a listener that is notified on the thread that fires the event.
+	 * @param listener
+	 */
+	void addListener(PathObjectHierarchyListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Add a listener that is notified using the specified executor.
+	 * @param listener
+	 * @param executor
+	 */
+	void addListener(PathObjectHierarchyListener listener, Executor executor) {
+		listeners.add(new CoalescingListener(listener, executor));
+	}
+
+	/**
+	 * Remove the first occurrence of a listener, however it was added.
+	 * @param listener
+	 */
+	void removeListener(PathObjectHierarchyListener listener) {
+		for (var l : listeners) {
+			if (l == listener || (l instanceof CoalescingListener coalescing && coalescing.listener == listener)) {
+				listeners.remove(l);
+				return;
+			}
+		}
+	}
+
+	void fireEvent(PathObjectHierarchyEvent event) {
+		if (firstEventNanos < 0)
+			firstEventNanos = System.nanoTime();
+		eventCount.increment();
+		for (var listener : listeners) {
+			if (listener instanceof CoalescingListener coalescing)
+				coalescing.enqueue(event);
+			else
+				deliver(listener, event);
+		}
+	}
+
+	private void deliver(PathObjectHierarchyListener listener, PathObjectHierarchyEvent event) {
+		long start = System.nanoTime();
+		try {
+			listener.hierarchyChanged(event);
+		} finally {
+			long duration = System.nanoTime() - start;
+			deliveryCount.increment();
+			listenerNanos.add(duration);
+			maxListenerNanos.accumulate(duration);
+			if (duration > SLOW_LISTENER_NANOS)
+				logger.debug("Hierarchy listener {} took {} ms to respond to {}", listener, TimeUnit.NANOSECONDS.toMillis(duration), event);
+		}
+	}
+
+	HierarchyEventStatistics getStatistics() {
+		long nEvents = eventCount.sum();
+		long nDeliveries = deliveryCount.sum();
+		long first = firstEventNanos;
+		double seconds = first < 0 ? 0 : (System.nanoTime() - first) / 1e9;
+		double eventsPerSecond = seconds > 0 ? nEvents / seconds : 0;
+		double meanMillis = nDeliveries == 0 ? 0 : listenerNanos.sum() / 1e6 / nDeliveries;
+		return new HierarchyEventStatistics(nEvents, nDeliveries, coalescedCount.sum(),
+				eventsPerSecond, meanMillis, maxListenerNanos.get() / 1e6);
+	}
+
+
+	/**
+	 * Wrapper for a listener that should be notified using an executor, coalescing any events that are 
+	 * fired before the listener can be notified.
+	 * Notifications are never made concurrently for the same listener, even if the executor is multithreaded.
+	 */
+	private class CoalescingListener implements PathObjectHierarchyListener {
+
+		private final PathObjectHierarchyListener listener;
+		private final Executor executor;
+
+		private PathObjectHierarchyEvent pending;
+		private boolean scheduled = false;
+
+		CoalescingListener(PathObjectHierarchyListener listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
+		}
+
+		void enqueue(PathObjectHierarchyEvent event) {
+			synchronized (this) {
+				if (pending == null) {
+					pending = event;
+				} else {
+					pending = PathObjectHierarchyEvent.createCoalescedEvent(pending, event);
+					coalescedCount.increment();
+				}
+				if (scheduled)
+					return;
+				scheduled = true;
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			try {
+				executor.execute(this::deliverPending);
+			} catch (RejectedExecutionException e) {
+				logger.warn("Unable to notify hierarchy listener {}: {}", listener, e.getLocalizedMessage());
+				synchronized (this) {
+					pending = null;
+					scheduled = false;
+				}
+			}
+		}
+
+		/**
+		 * Deliver the pending event, then reschedule if another event arrived in the meantime.
+		 * Rescheduling (rather than looping) avoids monopolizing a shared thread, such as a UI thread.
+		 */
+		private void deliverPending() {
+			PathObjectHierarchyEvent event;
+			synchronized (this) {
+				event = pending;
+				pending = null;
+			}
+			try {
+				if (event != null)
+					deliver(listener, event);
+			} catch (RuntimeException e) {
+				logger.error("Error notifying hierarchy listener: " + e.getLocalizedMessage(), e);
+			} finally {
+				boolean reschedule;
+				synchronized (this) {
+					reschedule = pending != null;
+					if (!reschedule)
+						scheduled = false;
+				}
+				if (reschedule)
+					schedule();
+			}
+		}
+
+		@Override
+		public void hierarchyChanged(PathObjectHierarchyEvent event) {
+			enqueue(event);
+		}
+
+		@Override
+		public String toString() {
+			return listener.toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+/**
+ * Immutable snapshot of statistics about the events fired by a {@link PathObjectHierarchy}, 
+ * and the time taken by listeners to respond to them.
+ *
+ * @since v0.6.0
+ * @see PathObjectHierarchy#getEventStatistics()
+ */
+public final class HierarchyEventStatistics {
+
+	private final long eventCount;
+	private final long deliveryCount;
+	private final long coalescedCount;
+	private final double eventsPerSecond;
+	private final double meanListenerMillis;
+	private final double maxListenerMillis;
+
+	HierarchyEventStatistics(long eventCount, long deliveryCount, long coalescedCount,
+			double eventsPerSecond, double meanListenerMillis, double maxListenerMillis) {
+		this.eventCount = eventCount;
+		this.deliveryCount = deliveryCount;
+		this.coalescedCount = coalescedCount;
+		this.eventsPerSecond = eventsPerSecond;
+		this.meanListenerMillis = meanListenerMillis;
+		this.maxListenerMillis = maxListenerMillis;
+	}
+
+	/**
+	 * Get the total number of events fired by the hierarchy.
+	 * @return
+	 */
+	public long getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * Get the total number of times a listener was notified of an event.
+	 * @return
+	 */
+	public long getDeliveryCount() {
+		return deliveryCount;
+	}
+
+	/**
+	 * Get the number of events that were merged with other events before being delivered to 
+	 * a listener added with an executor, rather than being delivered separately.
+	 * @return
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * Get the average number of events fired per second, since the first event.
+	 * @return
+	 */
+	public double getEventsPerSecond() {
+		return eventsPerSecond;
+	}
+
+	/**
+	 * Get the mean time taken for a listener to handle an event, in milliseconds.
+	 * @return
+	 */
+	public double getMeanListenerMillis() {
+		return meanListenerMillis;
+	}
+
+	/**
+	 * Get the maximum time taken for a listener to handle an event, in milliseconds.
+	 * @return
+	 */
+	public double getMaxListenerMillis() {
+		return maxListenerMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "HierarchyEventStatistics [events=" + eventCount + ", deliveries=" + deliveryCount
+				+ ", coalesced=" + coalescedCount + ", eventsPerSecond=" + eventsPerSecond
+				+ ", meanListenerMillis=" + meanListenerMillis + ", maxListenerMillis=" + maxListenerMillis + "]";
+	}
+
+}
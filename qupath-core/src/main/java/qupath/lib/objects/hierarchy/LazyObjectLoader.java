@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * A source of objects that are added to a {@link PathObjectHierarchy} on demand, rather than all at once.
+ * <p>
+ * This makes it possible to open a hierarchy containing very large numbers of detections quickly.
+ * The objects are divided into pages according to their location, and a page is only loaded when a region
+ * that it intersects is requested from the hierarchy.
+ * Pages that have not changed since they were loaded may be unloaded again when memory is needed, because
+ * they can be reloaded later.
+ * <p>
+ * The parent of each top-level object in a page must already be in the hierarchy when the loader is set,
+ * and must not itself belong to any page.
+ * Hierarchy events fired when pages are loaded or unloaded use the loader as their source.
+ *
+ * @since v0.6.0
+ * @see PathObjectHierarchy#setLazyObjectLoader(LazyObjectLoader)
+ */
+public interface LazyObjectLoader {
+
+	/**
+	 * Get the number of pages that may be loaded.
+	 * @return
+	 */
+	int getPageCount();
+
+	/**
+	 * Get the number of objects in a page, including all descendants of its top-level objects.
+	 * @param page index of the page
+	 * @return
+	 */
+	int getPageSize(int page);
+
+	/**
+	 * Query whether a page may contain objects that intersect a region.
+	 * @param page index of the page
+	 * @param region the region
+	 * @return true if the page should be loaded when objects are requested for the region
+	 */
+	boolean intersects(int page, ImageRegion region);
+
+	/**
+	 * Load the objects for a page.
+	 * A new set of objects should be created each time this is called.
+	 * @param page index of the page
+	 * @return the loaded page
+	 * @throws IOException if the objects could not be read
+	 */
+	LoadedPage loadPage(int page) throws IOException;
+
+
+	/**
+	 * The objects loaded for a single page.
+	 */
+	interface LoadedPage {
+
+		/**
+		 * Get the top-level objects in the page, grouped according to the parent to which they should be added.
+		 * @return
+		 */
+		Map<PathObject, List<PathObject>> getObjects();
+
+		/**
+		 * Query whether the objects are unchanged since they were loaded, and so could be safely reloaded
+		 * instead of being kept in memory.
+		 * <p>
+		 * This should only return true if the objects (and their descendants) would be recreated exactly by
+		 * {@link LazyObjectLoader#loadPage(int)}.
+		 * @return
+		 */
+		boolean isUnchanged();
+
+	}
+
+}
@@ -0,0 +1,244 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.hierarchy.LazyObjectLoader.LoadedPage;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * Helper class to add and remove pages of objects from a {@link LazyObjectLoader}, as they are needed by a hierarchy.
+ * <p>
+ * Pages are decoded in parallel without holding the hierarchy lock, and then added to the hierarchy together.
+ * Once more objects are loaded than the memory available suggests, or the garbage collector reports memory pressure,
+ * the least recently used pages are unloaded again - provided that they haven't been changed.
+ * <p>
+ * All state is guarded by the hierarchy lock.
+ */
+class LazyObjectPager {
+
+	private static final Logger logger = LoggerFactory.getLogger(LazyObjectPager.class);
+
+	/**
+	 * Default maximum number of objects to keep loaded, assuming around 8 KB per object (including its ROI,
+	 * measurements and spatial cache entries).
+	 */
+	private static final long DEFAULT_MAX_LOADED = Math.max(100_000L, Runtime.getRuntime().maxMemory() / 8192);
+
+	private PathObjectHierarchy hierarchy;
+	private final LazyObjectLoader loader;
+	private final long maxLoaded;
+
+	private final LoadedPage[] pages;
+	private final boolean[] failed;
+	// Indices of loaded pages, in order of access (least recently used first)
+	private final Map<Integer, Boolean> recent = new LinkedHashMap<>(16, 0.75f, true);
+	private long nLoaded = 0;
+	private int nPagesLoaded = 0;
+
+	// Cleared by the garbage collector when memory is low
+	private SoftReference<Object> memoryCanary = new SoftReference<>(new Object());
+
+	LazyObjectPager(PathObjectHierarchy hierarchy, LazyObjectLoader loader) {
+		this(hierarchy, loader, DEFAULT_MAX_LOADED);
+	}
+
+	LazyObjectPager(PathObjectHierarchy hierarchy, LazyObjectLoader loader, long maxLoaded) {
+		this.hierarchy = hierarchy;
+		this.loader = loader;
+		this.maxLoaded = maxLoaded;
+		int n = loader.getPageCount();
+		this.pages = new LoadedPage[n];
+		this.failed = new boolean[n];
+	}
+
+	LazyObjectLoader getLoader() {
+		return loader;
+	}
+
+	/**
+	 * Transfer the pager to another hierarchy (e.g. via {@link PathObjectHierarchy#setHierarchy(PathObjectHierarchy)}).
+	 */
+	void setHierarchy(PathObjectHierarchy hierarchy) {
+		synchronized (this.hierarchy) {
+			this.hierarchy = hierarchy;
+		}
+	}
+
+	/**
+	 * Ensure that all pages intersecting a region have been added to the hierarchy.
+	 * @param region the region, or null if all pages should be loaded
+	 * @return true if all pages are now loaded, false otherwise
+	 * @throws UncheckedIOException if loading all pages was requested, but a page could not be read
+	 */
+	boolean ensureLoaded(ImageRegion region) throws UncheckedIOException {
+		List<Integer> required = new ArrayList<>();
+		synchronized (hierarchy) {
+			for (int i = 0; i < pages.length; i++) {
+				if (region != null && !loader.intersects(i, region))
+					continue;
+				if (pages[i] != null)
+					recent.get(i);
+				else if (region == null || !failed[i])
+					required.add(i);
+			}
+		}
+		if (!required.isEmpty()) {
+			// Read pages in parallel, unless the caller holds the lock - since then pool threads might be waiting for it
+			boolean parallel = !Thread.holdsLock(hierarchy);
+			var futures = required.stream()
+					.map(i -> parallel ? CompletableFuture.supplyAsync(() -> loadPage(i)) : loadPageNow(i))
+					.toList();
+			var loaded = new LinkedHashMap<Integer, LoadedPage>();
+			List<Integer> failedPages = new ArrayList<>();
+			IOException exception = null;
+			for (int i = 0; i < futures.size(); i++) {
+				int ind = required.get(i);
+				try {
+					loaded.put(ind, futures.get(i).join());
+				} catch (CompletionException e) {
+					var cause = e.getCause() instanceof UncheckedIOException io ? io.getCause() : e.getCause();
+					logger.error("Unable to load objects for page {}: {}", ind, cause.getMessage(), cause);
+					failedPages.add(ind);
+					if (exception == null)
+						exception = cause instanceof IOException io ? io : new IOException(cause);
+				}
+			}
+			synchronized (hierarchy) {
+				// Don't keep retrying failed pages for each region request (but do if all pages are needed)
+				for (int ind : failedPages)
+					failed[ind] = true;
+				addPages(loaded);
+				unloadIfNeeded(loaded.keySet());
+			}
+			if (exception != null && region == null)
+				throw new UncheckedIOException(exception);
+		}
+		synchronized (hierarchy) {
+			return nPagesLoaded == pages.length;
+		}
+	}
+
+	private CompletableFuture<LoadedPage> loadPageNow(int ind) {
+		try {
+			return CompletableFuture.completedFuture(loadPage(ind));
+		} catch (Exception e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private LoadedPage loadPage(int ind) {
+		try {
+			return loader.loadPage(ind);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void addPages(Map<Integer, LoadedPage> loaded) {
+		List<PathObject> added = new ArrayList<>();
+		for (var entry : loaded.entrySet()) {
+			int ind = entry.getKey();
+			// Another thread may have loaded the page while we were reading it
+			if (pages[ind] != null)
+				continue;
+			var page = entry.getValue();
+			for (var parentEntry : page.getObjects().entrySet()) {
+				var parent = parentEntry.getKey();
+				// Objects can't be added if their parent has been removed from the hierarchy
+				if (!parent.isRootObject() && parent.getParent() == null) {
+					logger.debug("Parent {} no longer in hierarchy - {} objects will be skipped", parent, parentEntry.getValue().size());
+					continue;
+				}
+				parent.addChildObjects(parentEntry.getValue());
+				for (var pathObject : parentEntry.getValue())
+					hierarchy.storeMeasurements(pathObject);
+				added.addAll(parentEntry.getValue());
+			}
+			pages[ind] = page;
+			failed[ind] = false;
+			recent.put(ind, Boolean.TRUE);
+			nLoaded += loader.getPageSize(ind);
+			nPagesLoaded++;
+		}
+		if (!added.isEmpty())
+			hierarchy.firePagedObjectsChangedEvent(loader, added, List.of());
+	}
+
+	/**
+	 * Unload the least recently used pages if too many objects are loaded, or memory is running low.
+	 * @param keep pages that should not be unloaded, because they have just been requested
+	 */
+	private void unloadIfNeeded(Set<Integer> keep) {
+		boolean lowMemory = memoryCanary.get() == null;
+		long target = lowMemory ? Math.min(nLoaded / 2, maxLoaded) : maxLoaded;
+		if (nLoaded <= target)
+			return;
+		if (lowMemory) {
+			logger.debug("Memory is low - attempting to unload objects");
+			memoryCanary = new SoftReference<>(new Object());
+		}
+		List<PathObject> removed = new ArrayList<>();
+		var selectionModel = hierarchy.getSelectionModel();
+		Iterator<Integer> iter = recent.keySet().iterator();
+		while (nLoaded > target && iter.hasNext()) {
+			int ind = iter.next();
+			if (keep.contains(ind))
+				continue;
+			var page = pages[ind];
+			var objects = page.getObjects();
+			boolean canUnload = objects.values().stream()
+					.flatMap(List::stream)
+					.noneMatch(selectionModel::isSelected) && page.isUnchanged();
+			if (!canUnload)
+				continue;
+			for (var entry : objects.entrySet()) {
+				entry.getKey().removeChildObjects(entry.getValue());
+				removed.addAll(entry.getValue());
+			}
+			iter.remove();
+			pages[ind] = null;
+			nLoaded -= loader.getPageSize(ind);
+			nPagesLoaded--;
+		}
+		if (!removed.isEmpty()) {
+			logger.debug("Unloaded {} objects ({} remain loaded)", removed.size(), nLoaded);
+			hierarchy.firePagedObjectsChangedEvent(loader, List.of(), removed);
+		}
+	}
+
+}
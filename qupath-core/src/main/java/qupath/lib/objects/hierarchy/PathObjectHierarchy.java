@@ -24,24 +24,32 @@
 package qupath.lib.objects.hierarchy;
 
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import qupath.lib.common.GeneralTools;
 import qupath.lib.common.LogTools;
+import qupath.lib.measurements.ColumnarMeasurementStore;
 import qupath.lib.objects.DefaultPathObjectComparator;
 import qupath.lib.objects.PathAnnotationObject;
 import qupath.lib.objects.PathCellObject;
@@ -96,6 +104,11 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	static boolean useTileCentroidsForInsideTest = true;
+	
+	/**
+	 * Size of the tiles used to partition objects when finding their parents in parallel.
+	 */
+	private static final int RESOLVE_TILE_SIZE = 2048;
 
 	
 	
@@ -103,10 +116,23 @@ public final class PathObjectHierarchy implements Serializable {
 	private PathObject rootObject = new PathRootObject();
 	
 	private transient PathObjectSelectionModel selectionModel = new PathObjectSelectionModel();
-	private transient List<PathObjectHierarchyListener> listeners = new ArrayList<>();
+	private transient HierarchyEventDispatcher eventDispatcher = new HierarchyEventDispatcher();
 
 	// Cache enabling faster access of objects according to location
 	private transient PathObjectTileCache tileCache = new PathObjectTileCache(this);
+	
+	// Object counts, updated as objects are added and removed (null if they need to be recounted)
+	private transient ObjectCounts counts = new ObjectCounts();
+	// Snapshot of the counts, so they can be requested without locking (null if the counts have changed)
+	private transient volatile PathObjectHierarchyStatistics statistics;
+	// Snapshot of the structure, so it can be reused by readers until the hierarchy changes (null if not yet requested)
+	private transient volatile PathObjectHierarchySnapshot snapshot;
+	
+	// Columnar store for detection measurements, created on demand
+	private transient volatile ColumnarMeasurementStore measurementStore;
+	
+	// Pager for objects that are loaded on demand (null if all objects are loaded)
+	private transient volatile LazyObjectPager pager;
 
 	/**
 	 * Default constructor, creates an empty hierarchy.
@@ -122,7 +148,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	public synchronized boolean isEmpty() {
-		return (tmaGrid == null || tmaGrid.nCores() == 0) && !rootObject.hasChildObjects();// && featureMaps.isEmpty();
+		return (tmaGrid == null || tmaGrid.nCores() == 0) && !rootObject.hasChildObjects() && pager == null;// && featureMaps.isEmpty();
 	}
 	
 	/**
@@ -131,9 +157,28 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @since v0.4.0; replaced {@link #addPathObjectListener(PathObjectHierarchyListener)}
 	 */
 	public void addListener(PathObjectHierarchyListener listener) {
-		synchronized(listeners) {
-			listeners.add(listener);
-		}
+		eventDispatcher.addListener(listener);
+	}
+	
+	/**
+	 * Add a hierarchy change listener that is notified using the specified executor, 
+	 * rather than on the thread that fired the event.
+	 * <p>
+	 * This means that the listener isn't called while the hierarchy is locked, and slow listeners don't delay 
+	 * changes to the hierarchy. It also means that any events fired before the listener is notified are 
+	 * combined into a single event, so that a burst of changes only requires a single response.
+	 * The listener is never notified concurrently, even if the executor is multithreaded.
+	 * <p>
+	 * This is particularly useful for user interface components, which can use an executor that runs on 
+	 * the UI thread (e.g. {@code Platform::runLater} for JavaFX).
+	 * 
+	 * @param listener the listener to notify
+	 * @param executor the executor to use for notifications
+	 * @since v0.6.0
+	 * @see PathObjectHierarchyEvent#createCoalescedEvent(PathObjectHierarchyEvent, PathObjectHierarchyEvent)
+	 */
+	public void addListener(PathObjectHierarchyListener listener, Executor executor) {
+		eventDispatcher.addListener(listener, executor);
 	}
 	
 	/**
@@ -153,9 +198,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @since v0.4.0; replaced {@link #removePathObjectListener(PathObjectHierarchyListener)}
 	 */
 	public void removeListener(PathObjectHierarchyListener listener) {
-		synchronized(listeners) {
-			listeners.remove(listener);
-		}
+		eventDispatcher.removeListener(listener);
 	}
 
 	/**
@@ -216,13 +259,14 @@ public final class PathObjectHierarchy implements Serializable {
 	public synchronized void setTMAGrid(TMAGrid tmaGrid) {
 		if (this.tmaGrid == tmaGrid)
 			return;
+		loadAllObjects();
 		if (this.tmaGrid != null) {
 			removeObjects(new ArrayList<>(this.tmaGrid.getTMACoreList()), false);
 		}
 		this.tmaGrid = tmaGrid;
 		if (tmaGrid != null)
 			addObjects(tmaGrid.getTMACoreList());
-		fireHierarchyChangedEvent(getRootObject());
+		fireStructureChangedEvent(getRootObject(), getRootObject());
 	}
 	
 
@@ -255,6 +299,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return true if the hierarchy changed as a result of this call, false otherwise
 	 */
 	public synchronized boolean insertPathObject(PathObject pathObject, boolean fireChangeEvents) {
+		loadObjectsBeforeChange(Collections.singletonList(pathObject));
 		return insertPathObject(getRootObject(), pathObject, fireChangeEvents, !fireChangeEvents);
 	}
 	
@@ -266,6 +311,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return true if the hierarchy changed as a result of this call, false otherwise
 	 */
 	public synchronized boolean insertPathObjects(Collection<? extends PathObject> pathObjects) {
+		loadObjectsBeforeChange(pathObjects);
 		var selectedObjects =  new ArrayList<>(pathObjects);
 		int nObjects = selectedObjects.size();
 		selectedObjects.removeIf(p -> p.isTMACore());
@@ -285,36 +331,241 @@ public final class PathObjectHierarchy implements Serializable {
 //			insertPathObject(pathObject, selectedObjects.size() == 1);
 		}
 		if (!singleObject)
-			fireHierarchyChangedEvent(this);
+			fireStructureChangedEvent(this, getRootObject());
 		return true;
 	}
 	
 	/**
 	 * Attempt to resolve the parent-child relationships between all objects within the hierarchy.
+	 * <p>
+	 * The parent of each annotation and detection is found in parallel, and then all changes are applied together 
+	 * with a single hierarchy event.
+	 * Detections that are children of other detections are not moved.
 	 */
 	public synchronized void resolveHierarchy() {
+		loadAllObjects();
 		List<? extends PathObject> tmaCores = tmaGrid == null ? Collections.emptyList() : tmaGrid.getTMACoreList();
 		var annotations = getAnnotationObjects();
 		if (annotations.isEmpty() && tmaCores.isEmpty()) {
 			logger.debug("resolveHierarchy() called with no annotations or TMA cores!");
 			return;
 		}
-		var detections = getDetectionObjects();
-		if (annotations.size() > 1 && detections.size() > 1000) {
-			logger.warn("Resolving hierarchy that contains {} annotations and {} detections - this may be slow!",
-					annotations.size(), detections.size());
-		} else if (annotations.size() > 100) {
-			logger.warn("Resolving hierarchy with {} annotations - this may be slow!", annotations.size());
+		long startTime = System.currentTimeMillis();
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (var annotation : annotations) {
+			if (annotation.hasROI())
+				pathObjects.add(annotation);
+		}
+		for (var detection : getDetectionObjects()) {
+			var parent = detection.getParent();
+			if (detection.hasROI() && (parent == null || !parent.isDetection()))
+				pathObjects.add(detection);
 		}
-		if (!tmaCores.isEmpty()) {
-			// Need to remove annotations first (they will be re-inserted later) so we can resolve detections if needed
-			if (!annotations.isEmpty())
-				removeObjects(annotations, true);
-			var remainingDetections = detections.stream().filter(p -> p.getParent() == rootObject).toList();
-			if (!remainingDetections.isEmpty())
-				insertPathObjects(remainingDetections);
+		var parents = findParents(pathObjects);
+		
+		// Apply all the changes in one go
+		Map<PathObject, List<PathObject>> changes = new LinkedHashMap<>();
+		for (int i = 0; i < pathObjects.size(); i++) {
+			var pathObject = pathObjects.get(i);
+			var parent = parents.get(i);
+			if (pathObject.getParent() != parent)
+				changes.computeIfAbsent(parent, p -> new ArrayList<>()).add(pathObject);
+		}
+		if (changes.isEmpty()) {
+			logger.debug("resolveHierarchy() made no changes");
+			return;
 		}
-		insertPathObjects(annotations);
+		int nChanges = 0;
+		for (var entry : changes.entrySet()) {
+			entry.getKey().addChildObjects(entry.getValue());
+			nChanges += entry.getValue().size();
+		}
+		long endTime = System.currentTimeMillis();
+		logger.debug("Hierarchy resolved for {} objects in {} ms ({} changes)", pathObjects.size(), endTime - startTime, nChanges);
+		fireStructureChangedEvent(this, getRootObject());
+	}
+	
+	/**
+	 * Find the parents of objects, according to the rules used by {@link #insertPathObject(PathObject, PathObject, boolean, boolean)}.
+	 * <p>
+	 * Objects are partitioned into tiles according to their centroids, so that the spatial cache needs to be queried only once 
+	 * for each tile. The tiles are then processed in parallel, using the cached locators and prepared geometries 
+	 * for containment tests.
+	 * This does not change the hierarchy.
+	 * 
+	 * @param pathObjects the objects; these may or may not already be in the hierarchy
+	 * @return a list of parents, one for each object
+	 */
+	private List<PathObject> findParents(List<PathObject> pathObjects) {
+		Map<List<Integer>, List<Integer>> tiles = new HashMap<>();
+		for (int i = 0; i < pathObjects.size(); i++) {
+			var roi = pathObjects.get(i).getROI();
+			var key = List.of(roi.getZ(), roi.getT(),
+					(int)Math.floor(roi.getCentroidX() / RESOLVE_TILE_SIZE),
+					(int)Math.floor(roi.getCentroidY() / RESOLVE_TILE_SIZE));
+			tiles.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+		}
+		var parents = new PathObject[pathObjects.size()];
+		tiles.values().parallelStream().forEach(indices -> {
+			// Find the potential parents for all objects in the tile
+			double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+			for (int i : indices) {
+				var roi = pathObjects.get(i).getROI();
+				minX = Math.min(minX, roi.getBoundsX());
+				minY = Math.min(minY, roi.getBoundsY());
+				maxX = Math.max(maxX, roi.getBoundsX() + roi.getBoundsWidth());
+				maxY = Math.max(maxY, roi.getBoundsY() + roi.getBoundsHeight());
+			}
+			var firstROI = pathObjects.get(indices.get(0)).getROI();
+			int x = (int)Math.floor(minX);
+			int y = (int)Math.floor(minY);
+			var region = ImageRegion.createInstance(x, y, (int)Math.ceil(maxX) - x + 1, (int)Math.ceil(maxY) - y + 1, 
+					firstROI.getZ(), firstROI.getT());
+			Collection<PathObject> tempSet = new HashSet<>();
+			tileCache.getObjectsForRegion(PathAnnotationObject.class, region, tempSet, true);
+			if (tmaGrid != null)
+				tileCache.getObjectsForRegion(TMACoreObject.class, region, tempSet, true);
+			var possibleParentObjects = new ArrayList<>(tempSet);
+			possibleParentObjects.sort(HIERARCHY_COMPARATOR);
+			for (int i : indices)
+				parents[i] = findParent(pathObjects.get(i), possibleParentObjects);
+		});
+		return Arrays.asList(parents);
+	}
+	
+	/**
+	 * Find the parent for an object from a list of potential parents.
+	 * @param pathObject the object
+	 * @param possibleParentObjects annotations and TMA cores, sorted using {@link #HIERARCHY_COMPARATOR}
+	 * @return the parent, or the root object if no other parent is found
+	 */
+	private PathObject findParent(PathObject pathObject, List<PathObject> possibleParentObjects) {
+		var roi = pathObject.getROI();
+		boolean isDetection = pathObject.isDetection();
+		// Cells use the nucleus centroid, if available
+		var centroidROI = isDetection ? PathObjectTools.getROI(pathObject, true) : roi;
+		for (var possibleParent : possibleParentObjects) {
+			if (possibleParent == pathObject)
+				continue;
+			var parentROI = possibleParent.getROI();
+			if (!samePlane(roi, parentROI, false))
+				continue;
+			if (isDetection) {
+				// Check centroid
+				if (!boundsContain(parentROI, centroidROI.getCentroidX(), centroidROI.getCentroidY(), 0, 0))
+					continue;
+				if (tileCache.containsCentroid(possibleParent, pathObject))
+					return possibleParent;
+			} else {
+				// Only accept parents that would be inserted first - this avoids cycles with identical objects
+				if (pathObject.isTMACore() || HIERARCHY_COMPARATOR.compare(possibleParent, pathObject) <= 0)
+					continue;
+				if (!boundsContain(parentROI, roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight()))
+					continue;
+				if (tileCache.covers(possibleParent, pathObject))
+					return possibleParent;
+			}
+		}
+		return getRootObject();
+	}
+	
+	private static boolean boundsContain(ROI roi, double x, double y, double width, double height) {
+		return x >= roi.getBoundsX() && y >= roi.getBoundsY() && 
+				x + width <= roi.getBoundsX() + roi.getBoundsWidth() &&
+				y + height <= roi.getBoundsY() + roi.getBoundsHeight();
+	}
+	
+	/**
+	 * Insert a large collection of objects into the hierarchy, firing a single change event on completion.
+	 * <p>
+	 * The result is the same as {@link #insertPathObjects(Collection)}, but this is much faster when adding many 
+	 * detections (e.g. when importing cells): detections are sorted spatially, their parents are found in parallel, 
+	 * they are added to each parent in one step, and the spatial cache is rebuilt only once afterwards.
+	 * Any other objects are inserted first, one by one, since they may become the parents of existing objects.
+	 * 
+	 * @param pathObjects the objects to add
+	 * @return true if the hierarchy changed as a result of this call, false otherwise
+	 * @since v0.6.0
+	 */
+	public synchronized boolean insertPathObjectsInBulk(Collection<? extends PathObject> pathObjects) {
+		loadObjectsBeforeChange(pathObjects);
+		List<PathObject> detections = new ArrayList<>();
+		List<PathObject> others = new ArrayList<>();
+		for (var pathObject : pathObjects) {
+			if (pathObject.isTMACore())
+				continue;
+			if (pathObject.isDetection())
+				detections.add(pathObject);
+			else
+				others.add(pathObject);
+		}
+		if (detections.size() + others.size() < pathObjects.size())
+			logger.warn("TMA core objects cannot be inserted - use resolveHierarchy() instead");
+		if (detections.isEmpty() && others.isEmpty())
+			return false;
+		
+		long startTime = System.currentTimeMillis();
+		removeObjectsWithoutEvent(pathObjects.stream().filter(p -> !p.isTMACore() && p.getParent() != null).toList(), true);
+		
+		// Insert potential parents first, largest first
+		others.sort(HIERARCHY_COMPARATOR.reversed());
+		for (var pathObject : others)
+			insertPathObject(getRootObject(), pathObject, false, true);
+		
+		if (!detections.isEmpty()) {
+			// Sort spatially, so that neighbouring objects tend to be handled together
+			detections = sortByHilbertIndex(detections);
+			// Find parents in parallel - the spatial cache can be queried without locking
+			var parents = findParents(detections);
+			Map<PathObject, List<PathObject>> childrenByParent = new LinkedHashMap<>();
+			for (int i = 0; i < detections.size(); i++)
+				childrenByParent.computeIfAbsent(parents.get(i), p -> new ArrayList<>()).add(detections.get(i));
+			for (var entry : childrenByParent.entrySet()) {
+				entry.getKey().addChildObjects(entry.getValue());
+				for (var detection : entry.getValue()) {
+					countAdded(detection);
+					storeMeasurements(detection);
+				}
+			}
+			// The cache is rebuilt in a single pass when next needed
+			tileCache.resetCache();
+		}
+		long endTime = System.currentTimeMillis();
+		logger.debug("Inserted {} objects in {} ms", detections.size() + others.size(), endTime - startTime);
+		
+		fireStructureChangedEvent(this, getRootObject());
+		return true;
+	}
+	
+	/**
+	 * Sort objects according to the position of their centroids along a Hilbert curve.
+	 */
+	private static List<PathObject> sortByHilbertIndex(List<PathObject> pathObjects) {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (var pathObject : pathObjects) {
+			var roi = pathObject.getROI();
+			minX = Math.min(minX, roi.getCentroidX());
+			minY = Math.min(minY, roi.getCentroidY());
+			maxX = Math.max(maxX, roi.getCentroidX());
+			maxY = Math.max(maxY, roi.getCentroidY());
+		}
+		int gridSize = 1 << 16;
+		double scale = (gridSize - 1) / Math.max(1.0, Math.max(maxX - minX, maxY - minY));
+		long[] keys = new long[pathObjects.size()];
+		for (int i = 0; i < keys.length; i++) {
+			var roi = pathObjects.get(i).getROI();
+			int x = (int)((roi.getCentroidX() - minX) * scale);
+			int y = (int)((roi.getCentroidY() - minY) * scale);
+			// Store the index alongside the position in the list, so we can sort primitives
+			keys[i] = (GeneralTools.hilbertIndex(x, y, gridSize) << 31) | i;
+		}
+		Arrays.parallelSort(keys);
+		List<PathObject> sorted = new ArrayList<>(keys.length);
+		for (long key : keys)
+			sorted.add(pathObjects.get((int)(key & Integer.MAX_VALUE)));
+		return sorted;
 	}
 	
 	/**
@@ -376,7 +627,12 @@ public final class PathObjectHierarchy implements Serializable {
 				// Beware that we could have 'orphaned' detections
 				if (possibleParent.isTMACore())
 					possibleParent.getParent().getChildObjects().stream().filter(p -> p.isDetection()).forEach(previousChildren::add);
+				boolean wasInHierarchy = inHierarchy(pathObject);
 				possibleParent.addChildObject(pathObject);
+				if (!wasInHierarchy) {
+					countAdded(pathObject);
+					storeMeasurements(pathObject);
+				}
 				if (!previousChildren.isEmpty()) {
 					pathObject.addChildObjects(filterObjectsForROI(pathObject.getROI(), previousChildren));
 				}
@@ -421,6 +677,7 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	private synchronized boolean removeObject(PathObject pathObject, boolean keepChildren, boolean fireEvent) {
+		loadObjectsBeforeChange(Collections.singletonList(pathObject));
 		// Check the object is within the hierarchy & has a valid parent (from which it can be removed)
 		PathObject pathObjectParent = pathObject.getParent();
 		if (!inHierarchy(pathObject) || pathObjectParent == null) {
@@ -431,6 +688,7 @@ public final class PathObjectHierarchy implements Serializable {
 		// Can't keep children if there aren't any
 		boolean hasChildren = pathObject.hasChildObjects();
 		
+		countRemoved(pathObject, !(keepChildren && hasChildren));
 		pathObjectParent.removeChildObject(pathObject);
 
 		// Assign the children to the parent object, if necessary
@@ -444,7 +702,7 @@ public final class PathObjectHierarchy implements Serializable {
 			if (keepChildren || !hasChildren)
 				fireObjectRemovedEvent(this, pathObject, pathObjectParent);
 			else
-				fireHierarchyChangedEvent(this, pathObjectParent);
+				fireStructureChangedEvent(this, pathObjectParent);
 		}
 		return true;
 	}
@@ -457,9 +715,24 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param keepChildren if true, retain children and descendants of the objects being removed
 	 */
 	public synchronized void removeObjects(Collection<? extends PathObject> pathObjects, boolean keepChildren) {
+		var removed = removeObjectsWithoutEvent(pathObjects, keepChildren);
+		if (!removed.isEmpty())
+			fireStructureChangedEvent(this, getRootObject(), Collections.emptyList(), removed);
+	}
+	
+	/**
+	 * Remove a collection of objects without firing an event.
+	 * @param pathObjects the objects to remove
+	 * @param keepChildren if true, retain children and descendants of the objects being removed
+	 * @return the objects that were removed from the hierarchy (excluding descendants); 
+	 *         this is empty if no objects had a parent from which they were removed
+	 */
+	private synchronized List<PathObject> removeObjectsWithoutEvent(Collection<? extends PathObject> pathObjects, boolean keepChildren) {
 		
 		if (pathObjects.isEmpty())
-			return;
+			return Collections.emptyList();
+		
+		loadObjectsBeforeChange(pathObjects);
 		
 		List<PathObject> pathObjectSet = new ArrayList<>(pathObjects);
 		pathObjectSet.sort((o1, o2) -> Integer.compare(o2.getLevel(), o1.getLevel()));
@@ -479,13 +752,20 @@ public final class PathObjectHierarchy implements Serializable {
 		}
 		
 		if (map.isEmpty())
-			return;
+			return Collections.emptyList();
 		
 		// Loop through and remove objects, keeping children if necessary
 		Set<PathObject> childrenToKeep = new LinkedHashSet<>();
+		List<PathObject> removed = new ArrayList<>();
 		for (Entry<PathObject, List<PathObject>> entry : map.entrySet()) {
 			PathObject parent = entry.getKey();
 			List<PathObject> children = entry.getValue();
+			// Count before removing; objects below a parent that was already removed are no longer in the hierarchy
+			if (inHierarchy(parent)) {
+				for (PathObject child : children)
+					countRemoved(child, true);
+				removed.addAll(children);
+			}
 			parent.removeChildObjects(children);
 			if (keepChildren) {
 				for (PathObject child : children)
@@ -498,7 +778,7 @@ public final class PathObjectHierarchy implements Serializable {
 		for (PathObject pathObject : childrenToKeep) {
 			addPathObjectImpl(pathObject, false);
 		}
-		fireHierarchyChangedEvent(this);
+		return removed;
 		
 		// This previously could result in child objects being deleted even if keepChildren was 
 		// true, depending upon the order in which objects were removed.
@@ -539,7 +819,14 @@ public final class PathObjectHierarchy implements Serializable {
 	
 	// TODO: Be very cautious about this!!!!  Use of tileCache inside a synchronized method might lead to deadlocks?
 	private synchronized boolean addPathObjectToList(PathObject pathObjectParent, PathObject pathObject, boolean fireChangeEvents) {
+		boolean wasInHierarchy = inHierarchy(pathObject);
 		pathObjectParent.addChildObject(pathObject);
+		boolean isInHierarchy = inHierarchy(pathObject);
+		if (isInHierarchy && !wasInHierarchy) {
+			countAdded(pathObject);
+			storeMeasurements(pathObject);
+		} else if (wasInHierarchy && !isInHierarchy)
+			countRemoved(pathObject, true);
 		// Notify listeners of changes, if required
 		if (fireChangeEvents)
 			fireObjectAddedEvent(this, pathObject);
@@ -646,6 +933,8 @@ public final class PathObjectHierarchy implements Serializable {
 	 */
 	public synchronized boolean addObjects(Collection<? extends PathObject> pathObjects) {
 		boolean changes = false;
+		// Objects that were previously elsewhere in the hierarchy are moved, rather than added
+		boolean allNew = true;
 		int n = pathObjects.size();
 		int counter = 0;
 		for (PathObject pathObject : pathObjects) {
@@ -654,11 +943,15 @@ public final class PathObjectHierarchy implements Serializable {
 					logger.debug("Adding {} of {}", counter, n);
 			} else if (n > 1000 && counter % 100 == 0)
 				logger.debug("Adding {} of {}", counter, n);
+			if (allNew && pathObject.getParent() != null)
+				allNew = false;
 			changes = addPathObjectToList(getRootObject(), pathObject, false) || changes;
 			counter++;
 		}
-		if (changes)
-			fireHierarchyChangedEvent(getRootObject());
+		if (changes && allNew)
+			fireStructureChangedEvent(getRootObject(), getRootObject(), pathObjects, Collections.emptyList());
+		else if (changes)
+			fireStructureChangedEvent(getRootObject(), getRootObject());
 //			fireChangeEvent(getRootObject());
 		return changes;
 	}
@@ -680,9 +973,13 @@ public final class PathObjectHierarchy implements Serializable {
 	 * Remove all objects from the hierarchy.
 	 */
 	public synchronized void clearAll() {
+		pager = null;
 		getRootObject().clearChildObjects();
 		tmaGrid = null;
-		fireHierarchyChangedEvent(getRootObject());
+		counts = new ObjectCounts();
+		statistics = null;
+		snapshot = null;
+		fireStructureChangedEvent(getRootObject(), getRootObject());
 	}
 	
 
@@ -747,6 +1044,9 @@ public final class PathObjectHierarchy implements Serializable {
 		if (pathObjects == null)
 			pathObjects = new ArrayList<>();
 		
+		if (mayIncludeDetections(cls))
+			loadAllObjects();
+		
 		// If we want annotations, it can be much faster to get them from the tile cache than to sift through a potentially large number of detections
 		if (PathAnnotationObject.class == cls && tileCache != null && tileCache.isActive()) {
 			pathObjects.addAll(tileCache.getObjectsForRegion(cls, null, null, true));
@@ -813,13 +1113,151 @@ public final class PathObjectHierarchy implements Serializable {
 	}
 	
 	
+	/**
+	 * Get statistics for the caches used to speed up spatial queries across all hierarchies 
+	 * (e.g. geometries and point locators for annotations).
+	 * This can help to judge whether the caches are effective and how much memory they use.
+	 * @return a list of statistics, one for each cache
+	 * @since v0.6.0
+	 */
+	public static List<GeometryCacheStatistics> getGeometryCacheStatistics() {
+		return PathObjectTileCache.getGeometryCacheStatistics();
+	}
+	
 	/**
 	 * Number of objects in the hierarchy, excluding the root.
 	 * @return
 	 */
-	public synchronized int nObjects() {
-		int count = PathObjectTools.countDescendants(getRootObject());
-		return count;
+	public int nObjects() {
+		return getStatistics().getObjectCount();
+	}
+	
+	/**
+	 * Get the number of objects of different types in the hierarchy.
+	 * <p>
+	 * The counts are updated as objects are added or removed through the hierarchy, and recounted when a 
+	 * hierarchy change event is fired (since this may indicate that child objects were changed directly).
+	 * This means the method is cheap enough to be called frequently, e.g. to update a user interface.
+	 * @return an immutable snapshot of the current counts
+	 * @since v0.6.0
+	 */
+	public PathObjectHierarchyStatistics getStatistics() {
+		var stats = statistics;
+		if (stats != null)
+			return stats;
+		synchronized (this) {
+			if (counts == null) {
+				counts = new ObjectCounts();
+				for (var child : getRootObject().getChildObjectsAsArray())
+					counts.addSubtree(child, 1);
+			}
+			stats = counts.toStatistics();
+			statistics = stats;
+			return stats;
+		}
+	}
+	
+	/**
+	 * Get an immutable snapshot of the current structure of the hierarchy.
+	 * <p>
+	 * The snapshot can be queried from any thread without locking, and is unaffected by later changes 
+	 * to the hierarchy. This makes it suitable for long-running reads (e.g. rendering or export) that would 
+	 * otherwise need to hold the hierarchy lock or risk seeing an inconsistent state.
+	 * <p>
+	 * Creating a snapshot requires traversing the hierarchy, but the same snapshot is returned by subsequent 
+	 * calls until the hierarchy changes. Note that only the structure is frozen: the objects themselves 
+	 * are shared with the hierarchy.
+	 * @return a snapshot of the hierarchy structure
+	 * @since v0.6.0
+	 */
+	public PathObjectHierarchySnapshot snapshot() {
+		loadAllObjects();
+		var current = snapshot;
+		if (current != null)
+			return current;
+		synchronized (this) {
+			current = snapshot;
+			if (current == null) {
+				current = PathObjectHierarchySnapshot.create(this);
+				snapshot = current;
+			}
+			return current;
+		}
+	}
+	
+	/**
+	 * Get the columnar store that holds the measurements of detections in this hierarchy.
+	 * <p>
+	 * When a detection is added to the hierarchy, its measurement list is moved into this store 
+	 * if this can be done without losing information (i.e. it is a float measurement list), 
+	 * using {@link PathObject#moveMeasurementsToStore(ColumnarMeasurementStore)}.
+	 * This greatly reduces the memory needed for large numbers of detections, and means that 
+	 * the values of a measurement can be read for many objects at once with 
+	 * {@link ColumnarMeasurementStore#getValues(String, Collection)}.
+	 * Objects with measurements that are not in the store can also be passed to {@code getValues}, 
+	 * in which case their values are read from their measurement lists.
+	 * @return the store for this hierarchy, using float columns
+	 * @since v0.6.0
+	 */
+	public ColumnarMeasurementStore getMeasurementStore() {
+		var store = measurementStore;
+		if (store == null) {
+			synchronized (this) {
+				store = measurementStore;
+				if (store == null) {
+					store = new ColumnarMeasurementStore();
+					measurementStore = store;
+				}
+			}
+		}
+		return store;
+	}
+	
+	/**
+	 * Move the measurements of an object that has been added to the hierarchy into the measurement store, 
+	 * if it is a detection. Descendants are also moved, since these may be added along with their parent.
+	 */
+	void storeMeasurements(PathObject pathObject) {
+		if (pathObject.isDetection())
+			pathObject.moveMeasurementsToStore(getMeasurementStore());
+		if (pathObject.hasChildObjects()) {
+			for (var child : pathObject.getChildObjectsAsArray())
+				storeMeasurements(child);
+		}
+	}
+	
+	/**
+	 * Update the counts for an object (and its descendants) that has been added to the hierarchy.
+	 */
+	private synchronized void countAdded(PathObject pathObject) {
+		if (counts != null)
+			counts.addSubtree(pathObject, 1);
+		statistics = null;
+		snapshot = null;
+	}
+	
+	/**
+	 * Update the counts for an object that is about to be removed from the hierarchy.
+	 * @param includeDescendants if false, the descendants will remain within the hierarchy and should not be counted
+	 */
+	private synchronized void countRemoved(PathObject pathObject, boolean includeDescendants) {
+		if (counts != null) {
+			if (includeDescendants)
+				counts.addSubtree(pathObject, -1);
+			else
+				counts.add(pathObject, -1);
+		}
+		statistics = null;
+		snapshot = null;
+	}
+	
+	/**
+	 * Request that all objects are recounted the next time the statistics are needed.
+	 */
+	private synchronized void invalidateObjectCounts() {
+		counts = null;
+		statistics = null;
+		snapshot = null;
 	}
 	
 	/**
@@ -832,7 +1270,113 @@ public final class PathObjectHierarchy implements Serializable {
 			return;
 		rootObject = hierarchy.getRootObject();
 		tmaGrid = hierarchy.tmaGrid;
-		fireHierarchyChangedEvent(rootObject);
+		// Measurements of the objects may be backed by the other hierarchy's store
+		measurementStore = hierarchy.measurementStore;
+		// Any objects that haven't been loaded yet now belong to this hierarchy
+		synchronized (hierarchy) {
+			pager = hierarchy.pager;
+			hierarchy.pager = null;
+		}
+		if (pager != null)
+			pager.setHierarchy(this);
+		invalidateObjectCounts();
+		fireStructureChangedEvent(rootObject, rootObject);
+	}
+	
+	/**
+	 * Set a loader that can add objects to this hierarchy on demand, rather than requiring all objects 
+	 * to be added at once.
+	 * <p>
+	 * Objects are then loaded whenever a region they may intersect is requested, e.g. via 
+	 * {@link #getObjectsForRegion(Class, ImageRegion, Collection)}, and may be unloaded again if they are 
+	 * unchanged and memory is needed.
+	 * All objects are loaded before any method that requires the full hierarchy (e.g. {@link #getDetectionObjects()} 
+	 * or {@link #snapshot()}), or that may change the parent of existing objects (e.g. inserting or removing 
+	 * an annotation), after which the loader is no longer used.
+	 * <p>
+	 * Note that code accessing child objects directly (rather than through the hierarchy) will only see objects 
+	 * that have already been loaded, and so should call {@link #loadAllObjects()} first.
+	 * Similarly, {@link #getStatistics()} only counts objects that have been loaded.
+	 * 
+	 * @param loader the loader, or null if objects should not be loaded on demand
+	 * @since v0.6.0
+	 * @see #hasUnloadedObjects()
+	 */
+	public synchronized void setLazyObjectLoader(LazyObjectLoader loader) {
+		pager = loader == null ? null : new LazyObjectPager(this, loader);
+	}
+	
+	/**
+	 * Set a loader that can add objects to this hierarchy on demand, with a specified limit on the number of objects 
+	 * to keep loaded.
+	 * @param loader
+	 * @param maxLoaded
+	 * @see #setLazyObjectLoader(LazyObjectLoader)
+	 */
+	synchronized void setLazyObjectLoader(LazyObjectLoader loader, long maxLoaded) {
+		pager = loader == null ? null : new LazyObjectPager(this, loader, maxLoaded);
+	}
+	
+	/**
+	 * Query whether the hierarchy may contain objects that are loaded on demand, and have not yet been loaded.
+	 * @return
+	 * @since v0.6.0
+	 * @see #setLazyObjectLoader(LazyObjectLoader)
+	 */
+	public boolean hasUnloadedObjects() {
+		return pager != null;
+	}
+	
+	/**
+	 * Ensure that any objects that are loaded on demand have been added to the hierarchy.
+	 * This does nothing if the hierarchy does not have a {@link LazyObjectLoader}.
+	 * @throws UncheckedIOException if objects could not be loaded
+	 * @since v0.6.0
+	 * @see #setLazyObjectLoader(LazyObjectLoader)
+	 */
+	public void loadAllObjects() throws UncheckedIOException {
+		var current = pager;
+		if (current == null)
+			return;
+		long startTime = System.currentTimeMillis();
+		if (current.ensureLoaded(null)) {
+			synchronized (this) {
+				if (pager == current)
+					pager = null;
+			}
+			long endTime = System.currentTimeMillis();
+			logger.debug("All objects loaded in {} ms", endTime - startTime);
+		}
+	}
+	
+	/**
+	 * Ensure that any objects that are loaded on demand, and may intersect the specified region, have been added to the hierarchy.
+	 * @param region
+	 */
+	private void loadObjects(ImageRegion region) {
+		var current = pager;
+		if (current == null)
+			return;
+		if (region == null)
+			loadAllObjects();
+		else
+			current.ensureLoaded(region);
+	}
+	
+	/**
+	 * Ensure all objects are loaded before changes that may affect the parents of objects that are loaded on demand.
+	 * Detections don't require this, because their descendants are always loaded with them.
+	 */
+	private void loadObjectsBeforeChange(Collection<? extends PathObject> pathObjects) {
+		if (pager != null && !pathObjects.stream().allMatch(PathObject::isDetection))
+			loadAllObjects();
+	}
+	
+	/**
+	 * Check whether a query for objects of the specified class could return detections, which may be loaded on demand.
+	 */
+	private static boolean mayIncludeDetections(Class<? extends PathObject> cls) {
+		return cls == null || PathDetectionObject.class.isAssignableFrom(cls) || cls.isAssignableFrom(PathDetectionObject.class);
 	}
 	
 	/**
@@ -847,7 +1391,10 @@ public final class PathObjectHierarchy implements Serializable {
 		if (roi.isEmpty() || !roi.isArea())
 			return Collections.emptyList();
 		
-		Collection<PathObject> pathObjects = tileCache.getObjectsForRegion(cls, ImageRegion.createInstance(roi), new HashSet<>(), true);
+		var region = ImageRegion.createInstance(roi);
+		if (mayIncludeDetections(cls))
+			loadObjects(region);
+		Collection<PathObject> pathObjects = tileCache.getObjectsForRegion(cls, region, new HashSet<>(), true);
 		return filterObjectsForROI(roi, pathObjects);
 	}
 	
@@ -907,6 +1454,8 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return collection containing identified objects (same as the input collection, if provided)
 	 */
 	public Collection<PathObject> getObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, Collection<PathObject> pathObjects) {
+		if (mayIncludeDetections(cls))
+			loadObjects(region);
 		return tileCache.getObjectsForRegion(cls, region, pathObjects, true);
 	}
 	
@@ -918,6 +1467,8 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @return
 	 */
 	public boolean hasObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region) {
+		if (mayIncludeDetections(cls))
+			loadObjects(region);
 		return tileCache.hasObjectsForRegion(cls, region, true);
 	}
 	
@@ -988,10 +1539,41 @@ public final class PathObjectHierarchy implements Serializable {
 	 * @param pathObject
 	 */
 	public void fireHierarchyChangedEvent(Object source, PathObject pathObject) {
+		// Objects may have been added or removed without using the hierarchy methods
+		invalidateObjectCounts();
+		fireStructureChangedEvent(source, pathObject);
+	}
+	
+	/**
+	 * Fire a structure change event for changes made via this hierarchy, where the object counts are already up to date.
+	 */
+	private void fireStructureChangedEvent(Object source, PathObject pathObject) {
 		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createStructureChangeEvent(source, this, pathObject);
 		fireEvent(event);
 	}
+	
+	/**
+	 * Fire a structure change event for changes made via this hierarchy, where the objects added and removed are known.
+	 */
+	private void fireStructureChangedEvent(Object source, PathObject pathObject, Collection<? extends PathObject> added, Collection<? extends PathObject> removed) {
+		PathObjectHierarchyEvent event = PathObjectHierarchyEvent.createStructureChangeEvent(source, this, pathObject, added, removed);
+		fireEvent(event);
+	}
 
+	/**
+	 * Update the counts and fire a structure change event after objects were loaded or unloaded on demand.
+	 * @param source the loader
+	 * @param added objects added to the hierarchy
+	 * @param removed objects removed from the hierarchy
+	 */
+	synchronized void firePagedObjectsChangedEvent(LazyObjectLoader source, Collection<? extends PathObject> added, Collection<? extends PathObject> removed) {
+		for (var pathObject : added)
+			countAdded(pathObject);
+		for (var pathObject : removed)
+			countRemoved(pathObject, true);
+		fireStructureChangedEvent(source, getRootObject(), added, removed);
+	}
+	
 	/**
 	 * Fire a hierarchy update indicating the hierarchy structure has changed.
 	 * This is often a good choice of event if multiple changes may have occurred, of if one is unsure what exactly 
@@ -1004,10 +1586,20 @@ public final class PathObjectHierarchy implements Serializable {
 	
 	
 	synchronized void fireEvent(PathObjectHierarchyEvent event) {
-		synchronized(listeners) {
-			for (PathObjectHierarchyListener listener : listeners)
-				listener.hierarchyChanged(event);
-		}
+		// Any event might indicate that the structure or ROIs have changed, so we can't reuse a snapshot
+		snapshot = null;
+		eventDispatcher.fireEvent(event);
+	}
+	
+	/**
+	 * Get statistics about the events fired by this hierarchy, including the time taken by listeners 
+	 * to respond to them.
+	 * This can help identify listeners that are slowing down changes to the hierarchy.
+	 * @return an immutable snapshot of the current statistics
+	 * @since v0.6.0
+	 */
+	public HierarchyEventStatistics getEventStatistics() {
+		return eventDispatcher.getStatistics();
 	}
 	
 	
@@ -1016,4 +1608,61 @@ public final class PathObjectHierarchy implements Serializable {
 		return "Hierarchy: " + nObjects() + " objects";
 	}
 	
+	
+	/**
+	 * Mutable counts of objects by type, excluding the root object.
+	 */
+	private static class ObjectCounts {
+		
+		private int nObjects;
+		private int nAnnotations;
+		private int nDetections;
+		private int nCells;
+		private int nTiles;
+		private int nTMACores;
+		
+		/**
+		 * Add (or subtract, if sign is negative) an object and all its descendants.
+		 * This avoids recursion, since hierarchies can be deep.
+		 */
+		void addSubtree(PathObject pathObject, int sign) {
+			if (!pathObject.hasChildObjects()) {
+				add(pathObject, sign);
+				return;
+			}
+			Deque<PathObject> pending = new ArrayDeque<>();
+			pending.push(pathObject);
+			while (!pending.isEmpty()) {
+				var next = pending.pop();
+				add(next, sign);
+				if (next.hasChildObjects()) {
+					for (var child : next.getChildObjectsAsArray())
+						pending.push(child);
+				}
+			}
+		}
+		
+		void add(PathObject pathObject, int sign) {
+			if (pathObject.isRootObject())
+				return;
+			nObjects += sign;
+			if (pathObject.isAnnotation())
+				nAnnotations += sign;
+			else if (pathObject.isTMACore())
+				nTMACores += sign;
+			else if (pathObject.isDetection()) {
+				nDetections += sign;
+				if (pathObject.isCell())
+					nCells += sign;
+				else if (pathObject.isTile())
+					nTiles += sign;
+			}
+		}
+		
+		PathObjectHierarchyStatistics toStatistics() {
+			return new PathObjectHierarchyStatistics(nObjects, nAnnotations, nDetections, nCells, nTiles, nTMACores);
+		}
+		
+	}
+	
 }
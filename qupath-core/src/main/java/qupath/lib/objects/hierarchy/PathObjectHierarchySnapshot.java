@@ -0,0 +1,269 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathTileObject;
+import qupath.lib.regions.ImageRegion;
+
+/**
+ * An immutable view of the structure of a {@link PathObjectHierarchy} at a single point in time.
+ * <p>
+ * This is intended for code that needs to make many queries of the hierarchy (e.g. rendering, measurement tables,
+ * export) without holding the hierarchy lock, and without seeing a mixture of old and new states if the
+ * hierarchy is modified on another thread.
+ * All methods are thread-safe and do not require any locking.
+ * <p>
+ * Note that the snapshot only freezes the <i>structure</i> of the hierarchy, i.e. which objects it contains
+ * and their parent-child relationships.
+ * The objects themselves are shared with the hierarchy, and so their properties (e.g. classifications,
+ * measurements) may still change.
+ *
+ * @since v0.6.0
+ * @see PathObjectHierarchy#snapshot()
+ */
+public final class PathObjectHierarchySnapshot {
+
+	private final PathObject rootObject;
+	private final TMAGrid tmaGrid;
+	private final PathObjectHierarchyStatistics statistics;
+
+	// All objects except the root, in the same order as PathObjectHierarchy.getFlattenedObjectList
+	private final PathObject[] objects;
+	// Children for all objects that have any
+	private final Map<PathObject, PathObject[]> children;
+
+	// Spatial index, built on demand
+	private volatile Map<Class<? extends PathObject>, PathObjectTileCache.ClassIndex> index;
+
+	private PathObjectHierarchySnapshot(PathObject rootObject, TMAGrid tmaGrid, PathObjectHierarchyStatistics statistics,
+			PathObject[] objects, Map<PathObject, PathObject[]> children) {
+		this.rootObject = rootObject;
+		this.tmaGrid = tmaGrid;
+		this.statistics = statistics;
+		this.objects = objects;
+		this.children = children;
+	}
+
+	/**
+	 * Create a snapshot of a hierarchy.
+	 * This should be called while holding the lock on the hierarchy.
+	 * @param hierarchy
+	 * @return
+	 */
+	static PathObjectHierarchySnapshot create(PathObjectHierarchy hierarchy) {
+		var root = hierarchy.getRootObject();
+		var statistics = hierarchy.getStatistics();
+		var objects = new ArrayList<PathObject>(statistics.getObjectCount());
+		var children = new IdentityHashMap<PathObject, PathObject[]>();
+		// Iterative depth-first traversal, so that the order matches the (recursive) hierarchy methods
+		var stack = new ArrayDeque<PathObject>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			var pathObject = stack.pop();
+			if (pathObject != root)
+				objects.add(pathObject);
+			if (!pathObject.hasChildObjects())
+				continue;
+			var childArray = pathObject.getChildObjectsAsArray();
+			children.put(pathObject, childArray);
+			for (int i = childArray.length - 1; i >= 0; i--)
+				stack.push(childArray[i]);
+		}
+		return new PathObjectHierarchySnapshot(root, hierarchy.getTMAGrid(), statistics,
+				objects.toArray(PathObject[]::new), children);
+	}
+
+	/**
+	 * Get the root object of the hierarchy.
+	 * @return
+	 */
+	public PathObject getRootObject() {
+		return rootObject;
+	}
+
+	/**
+	 * Get the TMA grid at the time of the snapshot, or null if there was no grid.
+	 * @return
+	 */
+	public TMAGrid getTMAGrid() {
+		return tmaGrid;
+	}
+
+	/**
+	 * Get the number of objects of different types at the time of the snapshot.
+	 * @return
+	 */
+	public PathObjectHierarchyStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Get the number of objects in the snapshot, excluding the root.
+	 * @return
+	 */
+	public int nObjects() {
+		return objects.length;
+	}
+
+	/**
+	 * Get the child objects of an object at the time of the snapshot.
+	 * @param parent
+	 * @return an unmodifiable list of child objects, which is empty if the object had no children
+	 *         (or was not in the hierarchy)
+	 */
+	public List<PathObject> getChildObjects(PathObject parent) {
+		var childArray = children.get(parent);
+		if (childArray == null)
+			return Collections.emptyList();
+		return Collections.unmodifiableList(Arrays.asList(childArray));
+	}
+
+	/**
+	 * Get all objects in the snapshot, optionally including the root object.
+	 * Objects are returned in the same order as {@link PathObjectHierarchy#getAllObjects(boolean)}.
+	 * @param includeRoot
+	 * @return an unmodifiable list of objects
+	 */
+	public List<PathObject> getAllObjects(boolean includeRoot) {
+		if (!includeRoot)
+			return Collections.unmodifiableList(Arrays.asList(objects));
+		var list = new ArrayList<PathObject>(objects.length + 1);
+		list.add(rootObject);
+		Collections.addAll(list, objects);
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Get all objects of a specified type (including subclasses) in the snapshot.
+	 * @param cls the type of object, or null to return all objects (including the root)
+	 * @return an unmodifiable list of objects
+	 * @see PathObjectHierarchy#getObjects(Collection, Class)
+	 */
+	public List<PathObject> getObjects(Class<? extends PathObject> cls) {
+		if (cls == null || cls == PathObject.class)
+			return getAllObjects(true);
+		var list = new ArrayList<PathObject>();
+		if (cls.isInstance(rootObject))
+			list.add(rootObject);
+		for (var pathObject : objects) {
+			if (cls.isInstance(pathObject))
+				list.add(pathObject);
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Get all the annotation objects in the snapshot.
+	 * @return
+	 */
+	public List<PathObject> getAnnotationObjects() {
+		return getObjects(PathAnnotationObject.class);
+	}
+
+	/**
+	 * Get all the detection objects in the snapshot (including cells and tiles).
+	 * @return
+	 */
+	public List<PathObject> getDetectionObjects() {
+		return getObjects(PathDetectionObject.class);
+	}
+
+	/**
+	 * Get all the cell objects in the snapshot.
+	 * @return
+	 */
+	public List<PathObject> getCellObjects() {
+		return getObjects(PathCellObject.class);
+	}
+
+	/**
+	 * Get all the tile objects in the snapshot.
+	 * @return
+	 */
+	public List<PathObject> getTileObjects() {
+		return getObjects(PathTileObject.class);
+	}
+
+	/**
+	 * Get objects of a specified type (including subclasses) with ROIs that have bounds overlapping a region.
+	 * <p>
+	 * The spatial index is built the first time this is called, and then shared by all subsequent queries
+	 * of the same snapshot.
+	 * @param cls the type of object, or null to return all types
+	 * @param region the region, or null to return all objects (that have ROIs)
+	 * @return a new collection of objects
+	 * @see PathObjectHierarchy#getObjectsForRegion(Class, ImageRegion, Collection)
+	 */
+	public Collection<PathObject> getObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region) {
+		return PathObjectTileCache.getObjectsForRegion(getIndex(), cls, region, new ArrayList<>(), true, p -> true);
+	}
+
+	/**
+	 * Check if there are any objects of a specified type (including subclasses) with ROIs that have bounds
+	 * overlapping a region.
+	 * @param cls the type of object, or null to check all types
+	 * @param region the region, or null to check all objects
+	 * @return
+	 */
+	public boolean hasObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region) {
+		return !getObjectsForRegion(cls, region).isEmpty();
+	}
+
+	private Map<Class<? extends PathObject>, PathObjectTileCache.ClassIndex> getIndex() {
+		var map = index;
+		if (map == null) {
+			synchronized (this) {
+				map = index;
+				if (map == null) {
+					var objectsByClass = new HashMap<Class<? extends PathObject>, List<PathObject>>();
+					for (var pathObject : objects) {
+						if (pathObject.hasROI())
+							objectsByClass.computeIfAbsent(pathObject.getClass(), c -> new ArrayList<>()).add(pathObject);
+					}
+					map = PathObjectTileCache.packIndexes(objectsByClass);
+					index = map;
+				}
+			}
+		}
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		return "PathObjectHierarchySnapshot: " + objects.length + " objects";
+	}
+
+}
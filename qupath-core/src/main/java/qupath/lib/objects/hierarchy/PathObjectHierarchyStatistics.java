@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+/**
+ * Immutable snapshot of the number of objects of different types within a {@link PathObjectHierarchy}.
+ * <p>
+ * Instances are obtained from {@link PathObjectHierarchy#getStatistics()}, which maintains the counts as objects
+ * are added and removed - so requesting the statistics does not require the hierarchy to be traversed.
+ *
+ * @since v0.6.0
+ */
+public final class PathObjectHierarchyStatistics {
+
+	private final int nObjects;
+	private final int nAnnotations;
+	private final int nDetections;
+	private final int nCells;
+	private final int nTiles;
+	private final int nTMACores;
+
+	PathObjectHierarchyStatistics(int nObjects, int nAnnotations, int nDetections, int nCells, int nTiles, int nTMACores) {
+		this.nObjects = nObjects;
+		this.nAnnotations = nAnnotations;
+		this.nDetections = nDetections;
+		this.nCells = nCells;
+		this.nTiles = nTiles;
+		this.nTMACores = nTMACores;
+	}
+
+	/**
+	 * Get the total number of objects, excluding the root object.
+	 * @return
+	 */
+	public int getObjectCount() {
+		return nObjects;
+	}
+
+	/**
+	 * Get the number of annotation objects.
+	 * @return
+	 */
+	public int getAnnotationCount() {
+		return nAnnotations;
+	}
+
+	/**
+	 * Get the number of detection objects, including cells and tiles
+	 * (consistent with {@link PathObjectHierarchy#getDetectionObjects()}).
+	 * @return
+	 */
+	public int getDetectionCount() {
+		return nDetections;
+	}
+
+	/**
+	 * Get the number of cell objects.
+	 * @return
+	 */
+	public int getCellCount() {
+		return nCells;
+	}
+
+	/**
+	 * Get the number of tile objects.
+	 * @return
+	 */
+	public int getTileCount() {
+		return nTiles;
+	}
+
+	/**
+	 * Get the number of TMA core objects.
+	 * @return
+	 */
+	public int getTMACoreCount() {
+		return nTMACores;
+	}
+
+	@Override
+	public String toString() {
+		return "PathObjectHierarchyStatistics [objects=" + nObjects + ", annotations=" + nAnnotations
+				+ ", detections=" + nDetections + ", cells=" + nCells + ", tiles=" + nTiles
+				+ ", TMA cores=" + nTMACores + "]";
+	}
+
+}
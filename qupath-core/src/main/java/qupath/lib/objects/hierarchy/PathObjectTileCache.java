@@ -23,16 +23,25 @@
 
 package qupath.lib.objects.hierarchy;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.WeakHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
 import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
@@ -45,11 +54,11 @@ import org.locationtech.jts.geom.Location;
 import org.locationtech.jts.geom.Polygonal;
 import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
-import org.locationtech.jts.index.SpatialIndex;
-import org.locationtech.jts.index.quadtree.Quadtree;
+import org.locationtech.jts.index.strtree.STRtree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import qupath.lib.common.ThreadTools;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectTools;
 import qupath.lib.objects.TemporaryObject;
@@ -67,6 +76,12 @@ import qupath.lib.roi.interfaces.ROI;
  * In practice, the cache itself is constructed lazily whenever a request is made 
  * through getObjectsForRegion, so as to avoid rebuilding it too often when the hierarchy
  * is changing a lot.
+ * <p>
+ * Objects are stored in one immutable, bulk-loaded R-tree per class, along with persistent sets of objects added 
+ * and removed since the tree was packed. Any change creates a new index that is then published, so that 
+ * requests can be made concurrently without locking while the hierarchy is being changed. 
+ * When too many changes have accumulated, the tree is repacked in a background thread, and any changes 
+ * made while this was happening are applied to the result.
  * 
  * @author Pete Bankhead
  *
@@ -83,33 +98,59 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	private static final Envelope MAX_ENVELOPE = new Envelope(-Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE);
 	
 	/**
-	 * Keep a map of envelopes per ROI; ROIs should be immutable.
+	 * Minimum and maximum number of changes that can be made to a spatial index before it is repacked in the background.
+	 * Between these, the limit is proportional to the size of the packed tree.
+	 */
+	private static final int MIN_CHANGES_BEFORE_REPACK = 256;
+	private static final int MAX_CHANGES_BEFORE_REPACK = 16384;
+	
+	/**
+	 * Maximum number of objects added or removed by a single event that are applied to the cache individually; 
+	 * beyond this, the cache is rebuilt when next needed.
 	 */
-	private Map<ROI, Envelope> envelopeMap = new WeakHashMap<>();
+	private static final int MAX_INCREMENTAL_CHANGES = 1000;
 	
 	/**
-	 * Keep a map of envelopes per object, because potentially an object might have its ROI replaced behind our back...
+	 * Shared thread for repacking spatial indexes in the background.
 	 */
-	private Map<PathObject, Envelope> lastEnvelopeMap = new WeakHashMap<>();
+	private static final ExecutorService repackExecutor = Executors.newSingleThreadExecutor(
+			ThreadTools.createThreadFactory("hierarchy-index-repack-", true));
 	
 	/**
 	 * Store a spatial index according to the class of PathObject.
+	 * The map and its indexes are immutable, and replaced whenever there is a change.
+	 */
+	private volatile Map<Class<? extends PathObject>, ClassIndex> map = Collections.emptyMap();
+	
+	/**
+	 * Approximate memory that may be used by each of the geometry-related caches.
 	 */
-	private Map<Class<? extends PathObject>, SpatialIndex> map = new HashMap<>();
+	private static final long MAX_GEOMETRY_CACHE_BYTES = Runtime.getRuntime().maxMemory() / 32;
 	
 	/**
-	 * Map to cache Geometries, specifically for annotations.
+	 * Caches for Geometries (specifically for annotations), locators and prepared geometries.
+	 * These are shared across hierarchies, and bounded by an estimate of their size in memory -
+	 * since large annotations can have hundreds of thousands of vertices.
 	 */
-	private static final Map<ROI, Geometry> geometryMap = Collections.synchronizedMap(new WeakHashMap<>());
-	private static final Map<ROI, PointOnGeometryLocator> locatorMap = Collections.synchronizedMap(new WeakHashMap<>());
-//	private static final Map<ROI, Coordinate> centroidMap = Collections.synchronizedMap(new WeakHashMap<>());
+	private static final GeometryCache<ROI, Geometry> geometryMap = new GeometryCache<>(
+			"Geometries", MAX_GEOMETRY_CACHE_BYTES, (roi, geometry) -> 64L + 48L * geometry.getNumPoints());
+	private static final GeometryCache<ROI, PointOnGeometryLocator> locatorMap = new GeometryCache<>(
+			"Locators", MAX_GEOMETRY_CACHE_BYTES, (roi, locator) -> 64L + 96L * roi.getNumPoints());
+	private static final GeometryCache<Geometry, PreparedGeometry> preparedGeometryMap = new GeometryCache<>(
+			"Prepared geometries", MAX_GEOMETRY_CACHE_BYTES, (geometry, prepared) -> 64L + 128L * geometry.getNumPoints());
 
 	private PathObjectHierarchy hierarchy;
-	private boolean isActive = false;
+	private volatile boolean isActive = false;
 	
-	private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
-    private final Lock r = rwl.readLock();
-    private final Lock w = rwl.writeLock();
+	/**
+	 * Lock for changing the spatial indexes; this isn't needed to read them.
+	 */
+	private final ReentrantLock w = new ReentrantLock();
+	
+	/**
+	 * Classes with a repack pending in the background (guarded by the lock).
+	 */
+	private final Set<Class<? extends PathObject>> repackPending = new HashSet<>();
 	
 	
 	public PathObjectTileCache(PathObjectHierarchy hierarchy) {
@@ -123,31 +164,55 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		logger.trace("Cache reset!");
 	}
 	
-//	int cacheCounter = 0;
-
-	private void constructCache(Class<? extends PathObject> limitToClass) {
+	private void constructCache() {
 		w.lock();
 		try {
-	//		logger.info("Skipping cache reconstruction...");
 			long startTime = System.currentTimeMillis();
+			// Collect the objects first, then bulk-load the indexes for each class in parallel
+			Map<Class<? extends PathObject>, List<PathObject>> objectsByClass = new HashMap<>();
+			Deque<PathObject> pending = new ArrayDeque<>();
+			pending.push(hierarchy.getRootObject());
+			while (!pending.isEmpty()) {
+				var pathObject = pending.pop();
+				if (pathObject.hasROI())
+					objectsByClass.computeIfAbsent(pathObject.getClass(), c -> new ArrayList<>()).add(pathObject);
+				if (!(pathObject instanceof TemporaryObject) && pathObject.hasChildObjects()) {
+					for (PathObject child : pathObject.getChildObjectsAsArray())
+						pending.push(child);
+				}
+			}
+			map = packIndexes(objectsByClass);
 			isActive = true;
-			if (limitToClass == null)
-				map.clear();
-			else
-				map.remove(limitToClass);
-			addToCache(hierarchy.getRootObject(), true, limitToClass);
 			long endTime = System.currentTimeMillis();
 			logger.debug("Cache reconstructed in " + (endTime - startTime)/1000.);
 		} finally {
 			w.unlock();
 		}
-//		cacheCounter += (endTime - startTime);
-//		logger.info("Cache count: " + (cacheCounter)/1000.);
+	}
+	
+	/**
+	 * Bulk-load spatial indexes for objects grouped by class, in parallel.
+	 * @param objectsByClass
+	 * @return an unmodifiable map of indexes
+	 */
+	static Map<Class<? extends PathObject>, ClassIndex> packIndexes(Map<Class<? extends PathObject>, List<PathObject>> objectsByClass) {
+		return Collections.unmodifiableMap(
+				objectsByClass.entrySet()
+					.parallelStream()
+					.collect(Collectors.toMap(Entry::getKey, e -> ClassIndex.pack(e.getValue())))
+				);
 	}
 	
 	private void ensureCacheConstructed() {
-		if (!isActive())
-			constructCache(null);
+		if (isActive())
+			return;
+		w.lock();
+		try {
+			if (!isActive())
+				constructCache();
+		} finally {
+			w.unlock();
+		}
 	}
 	
 	// TRUE if the cache has been constructed
@@ -156,38 +221,83 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	}
 	
 	/**
-	 * Add a PathObject to the cache, optionally including children.
+	 * Add a PathObject to the cache. Children are not added.
+	 * This doesn't acquire the lock! The locking is done first.
 	 * 
 	 * @param pathObject
-	 * @param includeChildren
 	 */
-	private void addToCache(PathObject pathObject, boolean includeChildren, Class<? extends PathObject> limitToClass) {
+	private void addToCache(PathObject pathObject) {
 		// If the cache isn't active, we can ignore this... it will be constructed when it is needed
+		if (!isActive() || !pathObject.hasROI())
+			return;
+		var cls = pathObject.getClass();
+		var index = map.get(cls);
+		var updated = index == null ? ClassIndex.pack(Collections.singletonList(pathObject)) : index.withAdded(pathObject);
+		if (updated != index)
+			updateIndex(cls, updated);
+	}
+	
+	/**
+	 * Remove a PathObject from the cache. Children are not removed.
+	 * This doesn't acquire the lock! The locking is done first.
+	 * 
+	 * @param pathObject
+	 */
+	private void removeFromCache(PathObject pathObject) {
+		// If the cache isn't active, then nothing to remove
 		if (!isActive())
 			return;
-
-		if (pathObject.hasROI()) {
-			Class<? extends PathObject> cls = pathObject.getClass();
-			if (limitToClass == null || cls == limitToClass) {
-				SpatialIndex mapObjects = map.get(cls);
-				if (mapObjects == null) {
-					mapObjects = createSpatialIndex();
-					map.put(cls, mapObjects);
-				}
-				Envelope envelope = getEnvelope(pathObject);
-				mapObjects.insert(envelope, pathObject);
-			}
+		var cls = pathObject.getClass();
+		var index = map.get(cls);
+		if (index == null)
+			return;
+		var updated = index.withRemoved(pathObject);
+		if (updated != index)
+			updateIndex(cls, updated);
+	}
+	
+	/**
+	 * Publish an updated index, repacking it if too many changes have accumulated.
+	 * This doesn't acquire the lock! The locking is done first.
+	 */
+	private void updateIndex(Class<? extends PathObject> cls, ClassIndex index) {
+		int maxChanges = index.maxChangesBeforeRepack();
+		if (index.nChanges() > maxChanges * 4) {
+			// Changes are being made faster than the background thread can keep up
+			index = index.repack();
+		} else if (index.nChanges() > maxChanges && repackPending.add(cls)) {
+			var toRepack = index;
+			repackExecutor.execute(() -> repackInBackground(cls, toRepack));
 		}
-		
-		// Add the children
-		if (includeChildren && !(pathObject instanceof TemporaryObject) && pathObject.hasChildObjects()) {
-			for (PathObject child : pathObject.getChildObjectsAsArray())
-				addToCache(child, includeChildren, limitToClass);
+		// Only the map entry for the class is replaced, so this copy depends upon the number of classes (not objects)
+		var newMap = new HashMap<>(map);
+		newMap.put(cls, index);
+		map = Collections.unmodifiableMap(newMap);
+	}
+	
+	private void repackInBackground(Class<? extends PathObject> cls, ClassIndex index) {
+		var repacked = index.repack();
+		w.lock();
+		try {
+			repackPending.remove(cls);
+			// Apply any changes made while repacking; the result is only discarded if the cache 
+			// was rebuilt (or the index repacked inline) in the meantime
+			var current = map.get(cls);
+			var merged = current == null ? null : current.applyChangesSince(index, repacked);
+			if (merged != null) {
+				var newMap = new HashMap<>(map);
+				newMap.put(cls, merged);
+				map = Collections.unmodifiableMap(newMap);
+				logger.trace("Repacked spatial index for {} ({} objects, {} changes applied after repacking)", 
+						cls.getSimpleName(), repacked.packedSize(), merged.nChanges());
+			}
+		} finally {
+			w.unlock();
 		}
 	}
 
 	Geometry getGeometry(ROI roi) {
-		var geometry = geometryMap.get(roi);
+		var geometry = geometryMap.getIfPresent(roi);
 		if (geometry == null)
 			return roi.getGeometry();
 		else
@@ -196,7 +306,7 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	
 	Geometry getGeometry(PathObject pathObject) {
 		ROI roi = pathObject.getROI();
-		Geometry geometry = geometryMap.get(roi);
+		Geometry geometry = geometryMap.getIfPresent(roi);
 		if (geometry == null) {
 			geometry = roi.getGeometry();
 			if (pathObject.isAnnotation() || pathObject.isTMACore()) {
@@ -230,39 +340,33 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	}
 	
 	PointOnGeometryLocator getLocator(ROI roi, boolean addToCache) {
-		var locator = locatorMap.get(roi);
-		if (locator == null) {
-			var geometry = getGeometry(roi);
+		return locatorMap.get(roi, r -> {
+			PointOnGeometryLocator locator;
+			var geometry = getGeometry(r);
 			if (geometry instanceof Polygonal || geometry instanceof LinearRing)
 				locator = new IndexedPointInAreaLocator(geometry);
 			else
 				locator = new SimplePointInAreaLocator(geometry);
 			// Workaround for multithreading bug in JTS 1.17.0 - see https://github.com/locationtech/jts/issues/571
 			locator.locate(new Coordinate());
-			locatorMap.put(roi, locator);
-		}
-		return locator;
+			return locator;
+		});
 	}
 	
 //	public boolean covers(PathObject possibleParent, PathObject possibleChild) {
 //		return getGeometry(possibleParent).covers(getGeometry(possibleChild));
 //	}
 	
-	private Map<Geometry, PreparedGeometry> preparedGeometryMap = new WeakHashMap<>();
-	
 	PreparedGeometry getPreparedGeometry(Geometry geometry) {
-		var prepared = preparedGeometryMap.get(geometry);
-		if (prepared != null)
-			return prepared;
-		
-		synchronized (preparedGeometryMap) {
-			prepared = preparedGeometryMap.get(geometry);
-			if (prepared != null)
-				return prepared;
-			prepared = PreparedGeometryFactory.prepare(geometry);
-			preparedGeometryMap.put(geometry, prepared);
-			return prepared;
-		}
+		return preparedGeometryMap.get(geometry, PreparedGeometryFactory::prepare);
+	}
+	
+	/**
+	 * Get statistics for the caches of geometries, locators and prepared geometries.
+	 * @return
+	 */
+	static List<GeometryCacheStatistics> getGeometryCacheStatistics() {
+		return List.of(geometryMap.getStatistics(), locatorMap.getStatistics(), preparedGeometryMap.getStatistics());
 	}
 	
 	boolean covers(PathObject possibleParent, PathObject possibleChild) {
@@ -319,85 +423,17 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		return SimplePointInAreaLocator.locate(centroid, possibleParent) != Location.EXTERIOR;
 	}
 	
-	
-	private SpatialIndex createSpatialIndex() {
-		return new Quadtree();
-//		return new STRtree();
-	}
-	
-	private Envelope getEnvelope(PathObject pathObject) {
-		var envelope = getEnvelope(pathObject.getROI());
-		lastEnvelopeMap.put(pathObject, envelope);
-		return envelope;
+	private static Envelope getEnvelope(ROI roi) {
+		return new Envelope(roi.getBoundsX(), roi.getBoundsX() + roi.getBoundsWidth(),
+				roi.getBoundsY(), roi.getBoundsY() + roi.getBoundsHeight());
 	}
 	
-	private Envelope getEnvelope(ROI roi) {
-		var envelope = envelopeMap.get(roi);
-		if (envelope == null) {
-			envelope = new Envelope(roi.getBoundsX(), roi.getBoundsX() + roi.getBoundsWidth(),
-					roi.getBoundsY(), roi.getBoundsY() + roi.getBoundsHeight());
-			envelopeMap.put(roi, envelope);
-		}
-		return envelope;
-	}
-	
-	private Envelope getEnvelope(ImageRegion region) {
+	private static Envelope getEnvelope(ImageRegion region) {
 		return new Envelope(region.getMinX(), region.getMaxX(),
 				region.getMinY(), region.getMaxY());
 	}
 	
 	
-	
-	/**
-	 * This doesn't acquire the lock! The locking is done first.
-	 * 
-	 * @param pathObject
-	 * @param removeChildren
-	 */
-	private void removeFromCache(PathObject pathObject, boolean removeChildren) {
-		// If the cache isn't active, then nothing to remove
-		if (!isActive())
-			return;
-		
-		SpatialIndex mapObjects = map.get(pathObject.getClass());
-		
-		// We can remove objects from a Quadtree
-		if (mapObjects instanceof Quadtree) {
-			Envelope envelope = lastEnvelopeMap.get(pathObject);
-			envelope = MAX_ENVELOPE;
-			if (envelope != null) {
-				if (mapObjects.remove(envelope, pathObject)) {
-					logger.debug("Removed {} from cache", pathObject);
-				} else
-					logger.debug("Unable to remove {} from cache", pathObject);
-			} else {
-				logger.debug("No envelope found for {}", pathObject);					
-			}
-//				System.err.println("After: " + mapObjects.query(MAX_ENVELOPE).size());
-			// Remove the children
-			if (removeChildren) {
-				for (PathObject child : pathObject.getChildObjectsAsArray())
-					removeFromCache(child, removeChildren);
-			}
-		} else if (mapObjects instanceof SpatialIndex && !removeChildren) {
-			// We can't remove objects from a STRtree, but since we're just removing one object we can rebuild only the cache for this class
-			constructCache(pathObject.getClass());
-		} else {
-			// If we need to remove multiple objects, better to just rebuild the entire cache
-			constructCache(null);
-		}
-	}
-	
-	
-//	/**
-//	 * Add a PathObject to the cache.  Child objects are not added.
-//	 * @param pathObject
-//	 */
-//	private void addToCache(PathObject pathObject) {
-//		addToCache(pathObject, false);
-//	}
-	
-	
 	/**
 	 * Get all the PathObjects stored in this cache of a specified type and having ROIs with bounds overlapping a specified region.
 	 * This does not guarantee that the ROI (which may not be rectangular) overlaps the region...
@@ -409,6 +445,8 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	 * However this can be addressed by using a Set as the collection.
 	 * <p>
 	 * If a collection is not provided, another Collection is created & used instead.
+	 * <p>
+	 * This does not require a lock, and so can be called while the hierarchy is being changed.
 	 * 
 	 * @param cls a PathObject class, or null if all object types should be returned
 	 * @param region an image region, or null if all objects with ROIs should be return
@@ -418,45 +456,49 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 	 */
 	public Collection<PathObject> getObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, Collection<PathObject> pathObjects, boolean includeSubclasses) {
 		ensureCacheConstructed();
-		
+		// Add all objects that have a parent, i.e. might be in the hierarchy
+		return getObjectsForRegion(map, cls, region, pathObjects, includeSubclasses, 
+				pathObject -> pathObject.getParent() != null || pathObject.isRootObject());
+	}
+	
+	/**
+	 * Query spatial indexes for objects of a specified type with ROIs with bounds overlapping a specified region.
+	 * @param map the indexes to query
+	 * @param cls a PathObject class, or null if all object types should be returned
+	 * @param region an image region, or null if all objects with ROIs should be return
+	 * @param pathObjects an (optional) existing collection to which PathObjects should be added
+	 * @param includeSubclasses true if subclasses of the specified class should be included
+	 * @param filter additional filter that objects must pass to be included
+	 * @return
+	 * @see #getObjectsForRegion(Class, ImageRegion, Collection, boolean)
+	 */
+	static Collection<PathObject> getObjectsForRegion(Map<Class<? extends PathObject>, ClassIndex> map, 
+			Class<? extends PathObject> cls, ImageRegion region, Collection<PathObject> pathObjects, boolean includeSubclasses,
+			Predicate<PathObject> filter) {
 		var envelope = region == null ? MAX_ENVELOPE : getEnvelope(region);
 		
 		int z = region == null ? -1 : region.getZ();
 		int t = region == null ? -1 : region.getT();
-		r.lock();
-		try {
-			// Iterate through all the classes, getting objects of the specified class or subclasses thereof
-			for (Entry<Class<? extends PathObject>, SpatialIndex> entry : map.entrySet()) {
-				if (cls == null || (includeSubclasses && cls.isAssignableFrom(entry.getKey())) || cls.isInstance(entry.getKey())) {
-					if (entry.getValue() != null) {
-						var list = entry.getValue().query(envelope);
-						if (list.isEmpty())
-							continue;
-						
-						if (pathObjects == null)
-							pathObjects = new HashSet<>();
-						
-						// Add all objects that have a parent, i.e. might be in the hierarchy
-						for (PathObject pathObject : (List<PathObject>)list) {
-							var roi = pathObject.getROI();
-							if (roi == null || region == null || (roi.getZ() == z && roi.getT() == t)) {
-								if (pathObject.getParent() != null || pathObject.isRootObject()) {
-									if (envelope.intersects(getEnvelope(pathObject)))
-										pathObjects.add(pathObject);
-								}
-							}
-						}
-					}
-//						pathObjects = entry.getValue().getObjectsForRegion(region, pathObjects);
+		
+		Collection<PathObject> results = pathObjects == null ? new HashSet<>() : pathObjects;
+		Consumer<PathObject> consumer = pathObject -> {
+			var roi = pathObject.getROI();
+			if (roi == null || region == null || (roi.getZ() == z && roi.getT() == t)) {
+				if (filter.test(pathObject)) {
+					if (roi == null || envelope.intersects(getEnvelope(roi)))
+						results.add(pathObject);
 				}
 			}
-	//		logger.info("Objects for " + region + ": " + (pathObjects == null ? 0 : pathObjects.size()));
-			if (pathObjects == null)
-				return Collections.emptySet();
-			return pathObjects;
-		} finally {
-			r.unlock();
+		};
+		// Iterate through all the classes, getting objects of the specified class or subclasses thereof
+		for (Entry<Class<? extends PathObject>, ClassIndex> entry : map.entrySet()) {
+			if (cls == null || (includeSubclasses && cls.isAssignableFrom(entry.getKey())) || cls.isInstance(entry.getKey())) {
+				entry.getValue().query(envelope, consumer);
+			}
 		}
+		if (pathObjects == null && results.isEmpty())
+			return Collections.emptySet();
+		return results;
 	}
 	
 	public boolean hasObjectsForRegion(Class<? extends PathObject> cls, ImageRegion region, boolean includeSubclasses) {
@@ -466,70 +508,31 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 		
 		int z = region == null ? -1 : region.getZ();
 		int t = region == null ? -1 : region.getT();
-		r.lock();
-		try {
-			// Iterate through all the classes, getting objects of the specified class or subclasses thereof
-			for (Entry<Class<? extends PathObject>, SpatialIndex> entry : map.entrySet()) {
-				if (cls == null || cls.isInstance(entry.getKey()) || (includeSubclasses && cls.isAssignableFrom(entry.getKey()))) {
-					if (entry.getValue() != null) {
-						var list = (List<PathObject>)entry.getValue().query(envelope);
-						for (var pathObject : list) {
-							var roi = pathObject.getROI();
-							if (roi == null)
-								continue;
-							if (region == null)
-								return true;
-							if (roi.getZ() != z || roi.getT() != t)
-								continue;
-							if (region.intersects(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight())) {
-								return true;
-							}
-						}
-//						if (list.stream().anyMatch(p -> p.hasROI() && 
-//								(region == null || (p.getROI().getZ() == z && p.getROI().getT() == t))))
-//							return true;
-//						if (entry.getValue().hasObjectsForRegion(region))
-//							return true;
-					}
-				}
+		
+		boolean[] found = new boolean[1];
+		Consumer<PathObject> consumer = pathObject -> {
+			if (found[0])
+				return;
+			var roi = pathObject.getROI();
+			if (roi == null)
+				return;
+			if (region == null)
+				found[0] = true;
+			else if (roi.getZ() == z && roi.getT() == t && 
+					region.intersects(roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight()))
+				found[0] = true;
+		};
+		// Iterate through all the classes, getting objects of the specified class or subclasses thereof
+		for (Entry<Class<? extends PathObject>, ClassIndex> entry : map.entrySet()) {
+			if (cls == null || cls.isInstance(entry.getKey()) || (includeSubclasses && cls.isAssignableFrom(entry.getKey()))) {
+				entry.getValue().query(envelope, consumer);
+				if (found[0])
+					return true;
 			}
-			return false;
-		} finally {
-			r.unlock();
 		}
+		return false;
 	}
 	
-//	public synchronized Collection<PathObject> getObjectsForRegion(Class<? extends PathObject> cls, Rectangle region, Collection<PathObject> pathObjects) {
-//		ensureCacheConstructed();
-//		
-//		if (pathObjects == null)
-//			pathObjects = new HashSet<>();
-//		
-//		// Iterate through all the classes, getting objects of the specified class or subclasses thereof
-//		if (cls == null) {
-//			for (Class<? extends PathObject> tempClass : map.keySet())
-//				getObjectsForRegion(tempClass, region, pathObjects);
-//			return pathObjects;
-//		}
-//		
-//		// Extract the map for the type
-//		PathObjectTileMap mapObjects = map.get(cls);
-//		if (mapObjects == null)
-//			return pathObjects;
-//		
-//		// Get the objects
-//		return mapObjects.getObjectsForRegion(region, pathObjects);
-//	}
-	
-	
-
-//	@Override
-//	public void pathObjectChanged(PathObjectHierarchy pathObjectHierarchy, PathObject pathObject) {
-//		// Remove, then re-add the object - ignoring children (which shouldn't be changed, as no structural change is associated with this event)
-//		removeFromCache(pathObject, false);
-//		addToCache(pathObject, false);
-//	}
-
 
 	@Override
 	public void hierarchyChanged(final PathObjectHierarchyEvent event) {
@@ -538,24 +541,370 @@ class PathObjectTileCache implements PathObjectHierarchyListener {
 			boolean singleChange = event.getChangedObjects().size() == 1;
 			PathObject singleObject = singleChange ? event.getChangedObjects().get(0) : null;
 			if (singleChange && event.getEventType() == HierarchyEventType.ADDED) {
-				removeFromCache(singleObject, false);
-				addToCache(singleObject, false, singleObject.getClass());
+				// Adding replaces any existing entry for the object, so there's no need to remove it first
+				addToCache(singleObject);
 			} else if (singleChange && event.getEventType() == HierarchyEventType.REMOVED) {
-				removeFromCache(singleObject, false);
+				removeFromCache(singleObject);
+			} else if (!event.isChanging() && canUpdateIncrementally(event)) {
+				for (var pathObject : event.getRemovedObjects())
+					removeFromCache(pathObject);
+				for (var pathObject : event.getAddedObjects())
+					addToCache(pathObject);
 			} else if (event.getEventType() == HierarchyEventType.OTHER_STRUCTURE_CHANGE || event.getEventType() == HierarchyEventType.CHANGE_OTHER) {
-//				if (singleChange && !singleObject.isRootObject()) {
-//					removeFromCache(singleObject, false);
-//					addToCache(singleObject, false, singleObject.getClass());					
-//				} else
-//				System.err.println(event);
 				if (!event.isChanging())
 					resetCache();
 			}
 		} finally {
 			w.unlock();
 		}
-//		else if (event.getEventType() == HierarchyEventType.OBJECT_CHANGE)
-//			resetCache(); // TODO: Check if full change is necessary for object change events			
+	}
+	
+	
+	/**
+	 * Check whether a structure change can be applied to the cache without rebuilding it, 
+	 * because the objects added and removed are known (and relatively few, without descendants).
+	 */
+	private static boolean canUpdateIncrementally(PathObjectHierarchyEvent event) {
+		if (!event.hasStructureChangeDetails())
+			return false;
+		var added = event.getAddedObjects();
+		var removed = event.getRemovedObjects();
+		if (added.size() + removed.size() > MAX_INCREMENTAL_CHANGES)
+			return false;
+		return added.stream().noneMatch(PathObject::hasChildObjects) &&
+				removed.stream().noneMatch(PathObject::hasChildObjects);
+	}
+	
+	
+	/**
+	 * Immutable spatial index for objects of a single class.
+	 * <p>
+	 * This combines an STR-packed R-tree (which is very fast to bulk-load and query, but can't be changed after it is built) 
+	 * with the objects added and removed since it was packed.
+	 * These are stored in persistent sets, so that each update creates a new index in O(log n) time while sharing 
+	 * almost everything with the previous one - and an index can be queried from any thread without locking.
+	 * The updates are also logged, so that they can be reapplied to an index that was repacked in the meantime.
+	 */
+	static class ClassIndex {
+		
+		private final STRtree packed;
+		// Identity set of objects in the packed tree (which can't be queried by object)
+		private final Set<PathObject> packedObjects;
+		// Objects added since packing; these are checked individually
+		private final ObjectSet added;
+		// Objects in the packed tree that have since been removed (or re-added with a new ROI); these are hidden
+		private final ObjectSet removed;
+		// Most recent change since packing, linked to those before it
+		private final Change lastChange;
+		
+		private ClassIndex(STRtree packed, Set<PathObject> packedObjects, ObjectSet added, ObjectSet removed, Change lastChange) {
+			this.packed = packed;
+			this.packedObjects = packedObjects;
+			this.added = added;
+			this.removed = removed;
+			this.lastChange = lastChange;
+		}
+		
+		static ClassIndex pack(Collection<PathObject> pathObjects) {
+			var tree = new STRtree();
+			Set<PathObject> packedObjects = Collections.newSetFromMap(new IdentityHashMap<>(pathObjects.size()));
+			for (var pathObject : pathObjects) {
+				if (packedObjects.add(pathObject))
+					tree.insert(getEnvelope(pathObject.getROI()), pathObject);
+			}
+			// Build now, so that the tree is only read afterwards
+			tree.build();
+			return new ClassIndex(tree, Collections.unmodifiableSet(packedObjects), ObjectSet.EMPTY, ObjectSet.EMPTY, null);
+		}
+		
+		ClassIndex repack() {
+			List<PathObject> pathObjects = new ArrayList<>(packedObjects.size() + added.size());
+			if (removed.isEmpty())
+				pathObjects.addAll(packedObjects);
+			else {
+				for (var pathObject : packedObjects) {
+					if (!removed.contains(pathObject))
+						pathObjects.add(pathObject);
+				}
+			}
+			added.forEach(pathObjects::add);
+			return pack(pathObjects);
+		}
+		
+		ClassIndex withAdded(PathObject pathObject) {
+			// If the object is already in the packed tree, hide it there in case its ROI has changed
+			var newAdded = added.with(pathObject);
+			var newRemoved = packedObjects.contains(pathObject) ? removed.with(pathObject) : removed;
+			if (newAdded == added && newRemoved == removed)
+				return this;
+			return new ClassIndex(packed, packedObjects, newAdded, newRemoved, 
+					new Change(pathObject, true, lastChange));
+		}
+		
+		ClassIndex withRemoved(PathObject pathObject) {
+			var newAdded = added.without(pathObject);
+			var newRemoved = packedObjects.contains(pathObject) ? removed.with(pathObject) : removed;
+			if (newAdded == added && newRemoved == removed)
+				return this;
+			return new ClassIndex(packed, packedObjects, newAdded, newRemoved, 
+					new Change(pathObject, false, lastChange));
+		}
+		
+		/**
+		 * Apply the changes made to this index since it was derived from an earlier version to another index, 
+		 * typically one created by repacking the earlier version.
+		 * @param previous an earlier version of this index
+		 * @param target the index to which changes should be applied
+		 * @return the updated target, or null if this index wasn't derived from the earlier version
+		 */
+		ClassIndex applyChangesSince(ClassIndex previous, ClassIndex target) {
+			if (packed != previous.packed)
+				return null;
+			Deque<Change> changes = new ArrayDeque<>();
+			for (var change = lastChange; change != previous.lastChange; change = change.previous) {
+				if (change == null)
+					return null;
+				changes.push(change);
+			}
+			var index = target;
+			for (var change : changes)
+				index = change.isAdded ? index.withAdded(change.pathObject) : index.withRemoved(change.pathObject);
+			return index;
+		}
+		
+		int packedSize() {
+			return packedObjects.size();
+		}
+		
+		int nChanges() {
+			return added.size() + removed.size();
+		}
+		
+		int maxChangesBeforeRepack() {
+			return Math.max(MIN_CHANGES_BEFORE_REPACK, Math.min(MAX_CHANGES_BEFORE_REPACK, packedSize() / 16));
+		}
+		
+		/**
+		 * Pass all objects with envelopes that might intersect the specified envelope to a consumer.
+		 */
+		void query(Envelope envelope, Consumer<PathObject> consumer) {
+			packed.query(envelope, item -> {
+				if (removed.isEmpty() || !removed.contains((PathObject)item))
+					consumer.accept((PathObject)item);
+			});
+			added.forEach(pathObject -> {
+				var roi = pathObject.getROI();
+				if (roi == null || envelope.intersects(getEnvelope(roi)))
+					consumer.accept(pathObject);
+			});
+		}
+		
+	}
+	
+	
+	/**
+	 * A single change logged by a {@link ClassIndex}.
+	 */
+	private record Change(PathObject pathObject, boolean isAdded, Change previous) {}
+	
+	
+	/**
+	 * Persistent identity set of objects, implemented as a hash array mapped trie.
+	 * <p>
+	 * Adding or removing an object returns a new set that shares all but O(log n) nodes with the original, 
+	 * which itself is unchanged.
+	 */
+	static final class ObjectSet {
+		
+		static final ObjectSet EMPTY = new ObjectSet(null, 0);
+		
+		private static final int BITS = 5;
+		private static final int MASK = (1 << BITS) - 1;
+		
+		// Either null (if empty) or a TrieNode; entries of a TrieNode are PathObjects or nodes
+		private final TrieNode root;
+		private final int size;
+		
+		private ObjectSet(TrieNode root, int size) {
+			this.root = root;
+			this.size = size;
+		}
+		
+		int size() {
+			return size;
+		}
+		
+		boolean isEmpty() {
+			return size == 0;
+		}
+		
+		boolean contains(PathObject pathObject) {
+			int hash = hash(pathObject);
+			Object node = root;
+			int shift = 0;
+			while (node instanceof TrieNode trie) {
+				int bit = 1 << ((hash >>> shift) & MASK);
+				if ((trie.bitmap & bit) == 0)
+					return false;
+				node = trie.entries[trie.indexOf(bit)];
+				shift += BITS;
+			}
+			if (node instanceof CollisionNode collision)
+				return collision.indexOf(pathObject) >= 0;
+			return node == pathObject;
+		}
+		
+		ObjectSet with(PathObject pathObject) {
+			var newRoot = root == null ? 
+					new TrieNode(1 << (hash(pathObject) & MASK), new Object[] {pathObject}) : 
+						(TrieNode)insert(root, pathObject, hash(pathObject), 0);
+			return newRoot == root ? this : new ObjectSet(newRoot, size + 1);
+		}
+		
+		ObjectSet without(PathObject pathObject) {
+			if (root == null)
+				return this;
+			var newRoot = remove(root, pathObject, hash(pathObject), 0);
+			if (newRoot == root)
+				return this;
+			return size == 1 ? EMPTY : new ObjectSet((TrieNode)newRoot, size - 1);
+		}
+		
+		void forEach(Consumer<PathObject> consumer) {
+			if (root != null)
+				forEach(root, consumer);
+		}
+		
+		private static void forEach(Object node, Consumer<PathObject> consumer) {
+			if (node instanceof TrieNode trie) {
+				for (var entry : trie.entries)
+					forEach(entry, consumer);
+			} else if (node instanceof CollisionNode collision) {
+				for (var pathObject : collision.objects)
+					consumer.accept(pathObject);
+			} else
+				consumer.accept((PathObject)node);
+		}
+		
+		private static int hash(PathObject pathObject) {
+			return System.identityHashCode(pathObject);
+		}
+		
+		private static Object insert(Object node, PathObject pathObject, int hash, int shift) {
+			if (node instanceof CollisionNode collision) {
+				if (collision.indexOf(pathObject) >= 0)
+					return collision;
+				var objects = Arrays.copyOf(collision.objects, collision.objects.length + 1);
+				objects[collision.objects.length] = pathObject;
+				return new CollisionNode(objects);
+			}
+			var trie = (TrieNode)node;
+			int bit = 1 << ((hash >>> shift) & MASK);
+			int ind = trie.indexOf(bit);
+			if ((trie.bitmap & bit) == 0) {
+				var entries = new Object[trie.entries.length + 1];
+				System.arraycopy(trie.entries, 0, entries, 0, ind);
+				entries[ind] = pathObject;
+				System.arraycopy(trie.entries, ind, entries, ind + 1, trie.entries.length - ind);
+				return new TrieNode(trie.bitmap | bit, entries);
+			}
+			var entry = trie.entries[ind];
+			Object newEntry;
+			if (entry == pathObject)
+				return trie;
+			else if (entry instanceof PathObject existing)
+				newEntry = merge(existing, hash(existing), pathObject, hash, shift + BITS);
+			else {
+				newEntry = insert(entry, pathObject, hash, shift + BITS);
+				if (newEntry == entry)
+					return trie;
+			}
+			var entries = trie.entries.clone();
+			entries[ind] = newEntry;
+			return new TrieNode(trie.bitmap, entries);
+		}
+		
+		private static Object merge(PathObject first, int firstHash, PathObject second, int secondHash, int shift) {
+			if (shift >= Integer.SIZE)
+				return new CollisionNode(new PathObject[] {first, second});
+			int firstInd = (firstHash >>> shift) & MASK;
+			int secondInd = (secondHash >>> shift) & MASK;
+			if (firstInd == secondInd)
+				return new TrieNode(1 << firstInd, new Object[] {merge(first, firstHash, second, secondHash, shift + BITS)});
+			var entries = firstInd < secondInd ? new Object[] {first, second} : new Object[] {second, first};
+			return new TrieNode((1 << firstInd) | (1 << secondInd), entries);
+		}
+		
+		/**
+		 * Remove an object from a node, returning the same node if it isn't found, 
+		 * null if the node is now empty, or a single object if nothing else remains below the root.
+		 */
+		private static Object remove(Object node, PathObject pathObject, int hash, int shift) {
+			if (node instanceof CollisionNode collision) {
+				int ind = collision.indexOf(pathObject);
+				if (ind < 0)
+					return collision;
+				if (collision.objects.length == 2)
+					return collision.objects[1 - ind];
+				var objects = new PathObject[collision.objects.length - 1];
+				System.arraycopy(collision.objects, 0, objects, 0, ind);
+				System.arraycopy(collision.objects, ind + 1, objects, ind, objects.length - ind);
+				return new CollisionNode(objects);
+			}
+			var trie = (TrieNode)node;
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((trie.bitmap & bit) == 0)
+				return trie;
+			int ind = trie.indexOf(bit);
+			var entry = trie.entries[ind];
+			Object newEntry;
+			if (entry == pathObject)
+				newEntry = null;
+			else if (entry instanceof PathObject)
+				return trie;
+			else {
+				newEntry = remove(entry, pathObject, hash, shift + BITS);
+				if (newEntry == entry)
+					return trie;
+			}
+			if (newEntry == null) {
+				if (trie.entries.length == 1)
+					return null;
+				var entries = new Object[trie.entries.length - 1];
+				System.arraycopy(trie.entries, 0, entries, 0, ind);
+				System.arraycopy(trie.entries, ind + 1, entries, ind, entries.length - ind);
+				// Collapse a node with a single object into its parent (but keep the root as a node)
+				if (shift > 0 && entries.length == 1 && entries[0] instanceof PathObject)
+					return entries[0];
+				return new TrieNode(trie.bitmap & ~bit, entries);
+			}
+			if (shift > 0 && trie.entries.length == 1 && newEntry instanceof PathObject)
+				return newEntry;
+			var entries = trie.entries.clone();
+			entries[ind] = newEntry;
+			return new TrieNode(trie.bitmap, entries);
+		}
+		
+		private record TrieNode(int bitmap, Object[] entries) {
+			
+			int indexOf(int bit) {
+				return Integer.bitCount(bitmap & (bit - 1));
+			}
+			
+		}
+		
+		private record CollisionNode(PathObject[] objects) {
+			
+			int indexOf(PathObject pathObject) {
+				for (int i = 0; i < objects.length; i++) {
+					if (objects[i] == pathObject)
+						return i;
+				}
+				return -1;
+			}
+			
+		}
+		
 	}
 	
 }
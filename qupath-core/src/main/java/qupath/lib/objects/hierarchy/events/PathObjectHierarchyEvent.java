@@ -26,7 +26,9 @@ package qupath.lib.objects.hierarchy.events;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
@@ -81,6 +83,9 @@ public class PathObjectHierarchyEvent {
 	private HierarchyEventType type;
 	private List<PathObject> pathObjects;
 	private boolean isChanging;
+	// Objects known to have been added or removed, or null if this isn't known
+	private List<PathObject> addedObjects;
+	private List<PathObject> removedObjects;
 
 	PathObjectHierarchyEvent(final Object source, final PathObjectHierarchy hierarchy, final HierarchyEventType type, final PathObject parentObject, final List<PathObject> pathObjects, final boolean isChanging) {
 		this.source = source;
@@ -89,6 +94,13 @@ public class PathObjectHierarchyEvent {
 		this.parentObject = parentObject;
 		this.pathObjects = Collections.unmodifiableList(pathObjects);
 		this.isChanging = isChanging;
+		if (type == HierarchyEventType.ADDED) {
+			this.addedObjects = this.pathObjects;
+			this.removedObjects = Collections.emptyList();
+		} else if (type == HierarchyEventType.REMOVED) {
+			this.addedObjects = Collections.emptyList();
+			this.removedObjects = this.pathObjects;
+		}
 	}
 	
 	@Override
@@ -107,6 +119,28 @@ public class PathObjectHierarchyEvent {
 		return new PathObjectHierarchyEvent(source, hierarchy, HierarchyEventType.OTHER_STRUCTURE_CHANGE, parentObject, new ArrayList<>(0), false);						
 	}
 
+	/**
+	 * Create a hierarchy event indicating that the hierarchy structure has been changed by adding and/or removing 
+	 * known objects.
+	 * <p>
+	 * Only the objects that were added or removed directly need to be included, not their descendants.
+	 * @param source
+	 * @param hierarchy
+	 * @param parentObject
+	 * @param addedObjects objects added to the hierarchy
+	 * @param removedObjects objects removed from the hierarchy
+	 * @return
+	 * @since v0.6.0
+	 * @see #hasStructureChangeDetails()
+	 */
+	public static PathObjectHierarchyEvent createStructureChangeEvent(Object source, PathObjectHierarchy hierarchy, PathObject parentObject,
+			Collection<? extends PathObject> addedObjects, Collection<? extends PathObject> removedObjects) {
+		var event = createStructureChangeEvent(source, hierarchy, parentObject);
+		event.addedObjects = Collections.unmodifiableList(new ArrayList<>(addedObjects));
+		event.removedObjects = Collections.unmodifiableList(new ArrayList<>(removedObjects));
+		return event;
+	}
+
 	/**
 	 * Create a hierarchy event indicated objects were added.
 	 * @param source
@@ -144,6 +178,60 @@ public class PathObjectHierarchyEvent {
 		return new PathObjectHierarchyEvent(source, hierarchy, type, null, new ArrayList<>(pathObjects), isChanging);
 	}
 
+	/**
+	 * Create a single event that summarizes two events fired in succession, so that listeners can respond 
+	 * to a burst of changes once.
+	 * <p>
+	 * If either event is a structure change, the result is an {@link HierarchyEventType#OTHER_STRUCTURE_CHANGE} event 
+	 * (since listeners generally need to respond to these more thoroughly), otherwise the result has the same type 
+	 * as the input events if they match, or {@link HierarchyEventType#CHANGE_OTHER} if they don't.
+	 * The changed objects are combined, and the added and removed objects are combined whenever both events have 
+	 * these details.
+	 * 
+	 * @param first the earlier event
+	 * @param second the later event; this determines the source and {@link #isChanging()} status of the result
+	 * @return the combined event
+	 * @throws IllegalArgumentException if the events refer to different hierarchies
+	 * @since v0.6.0
+	 */
+	public static PathObjectHierarchyEvent createCoalescedEvent(PathObjectHierarchyEvent first, PathObjectHierarchyEvent second) {
+		if (first.hierarchy != second.hierarchy)
+			throw new IllegalArgumentException("Cannot combine events for different hierarchies");
+		Set<PathObject> changed = new LinkedHashSet<>(first.pathObjects);
+		changed.addAll(second.pathObjects);
+		if (!first.isStructureChangeEvent() && !second.isStructureChangeEvent()) {
+			var type = first.type == second.type ? first.type : HierarchyEventType.CHANGE_OTHER;
+			return new PathObjectHierarchyEvent(second.source, second.hierarchy, type, null, new ArrayList<>(changed), second.isChanging);
+		}
+		// Combine structure changes, using the root if the changes were made in different places
+		PathObject parent;
+		if (!first.isStructureChangeEvent())
+			parent = second.parentObject;
+		else if (!second.isStructureChangeEvent() || first.parentObject == second.parentObject)
+			parent = first.parentObject;
+		else
+			parent = second.hierarchy == null ? null : second.hierarchy.getRootObject();
+		var event = new PathObjectHierarchyEvent(second.source, second.hierarchy, HierarchyEventType.OTHER_STRUCTURE_CHANGE, parent, new ArrayList<>(changed), second.isChanging);
+		boolean firstHasDetails = first.hasStructureChangeDetails() || !first.isStructureChangeEvent();
+		boolean secondHasDetails = second.hasStructureChangeDetails() || !second.isStructureChangeEvent();
+		if (firstHasDetails && secondHasDetails) {
+			var added1 = first.getAddedObjects();
+			var removed1 = first.getRemovedObjects();
+			var added2 = second.getAddedObjects();
+			var removed2 = second.getRemovedObjects();
+			// Objects added and then removed are reported as removed only (and vice versa)
+			Set<PathObject> added = new LinkedHashSet<>(added1);
+			added.removeAll(removed2);
+			added.addAll(added2);
+			Set<PathObject> removed = new LinkedHashSet<>(removed1);
+			removed.removeAll(added2);
+			removed.addAll(removed2);
+			event.addedObjects = Collections.unmodifiableList(new ArrayList<>(added));
+			event.removedObjects = Collections.unmodifiableList(new ArrayList<>(removed));
+		}
+		return event;
+	}
+
 	/**
 	 * Returns true if changes are still being made, so more events will be fired.
 	 * This enables listeners to postpone expensive operations that could be called often until 
@@ -171,6 +259,41 @@ public class PathObjectHierarchyEvent {
 		return pathObjects;
 	}
 	
+	/**
+	 * Returns true if this is a structure change event for which the objects added and removed are known exactly.
+	 * If this returns false for a structure change event, then listeners should assume that anything below 
+	 * {@link #getStructureChangeBase()} may have changed.
+	 * @return
+	 * @since v0.6.0
+	 * @see #getAddedObjects()
+	 * @see #getRemovedObjects()
+	 */
+	public boolean hasStructureChangeDetails() {
+		return addedObjects != null && removedObjects != null;
+	}
+	
+	/**
+	 * Get the objects that were added to the hierarchy, if known.
+	 * Descendants of these objects are not included.
+	 * @return the added objects, or an empty list if none were added or this information is not available
+	 * @since v0.6.0
+	 * @see #hasStructureChangeDetails()
+	 */
+	public List<PathObject> getAddedObjects() {
+		return addedObjects == null ? Collections.emptyList() : addedObjects;
+	}
+	
+	/**
+	 * Get the objects that were removed from the hierarchy, if known.
+	 * Descendants of these objects are not included.
+	 * @return the removed objects, or an empty list if none were removed or this information is not available
+	 * @since v0.6.0
+	 * @see #hasStructureChangeDetails()
+	 */
+	public List<PathObject> getRemovedObjects() {
+		return removedObjects == null ? Collections.emptyList() : removedObjects;
+	}
+	
 	/**
 	 * Get the hierarchy event type.
 	 * @return
@@ -138,6 +138,9 @@ public abstract class AbstractPlugin<T> implements PathPlugin<T> {
 		if (!parseArgument(imageData, arg))
 			return false;
 
+		// Plugins may access child objects directly, so can't rely on objects being loaded on demand
+		imageData.getHierarchy().loadAllObjects();
+
 		preprocess(taskRunner, imageData);
 
 		Collection<Runnable> tasks = getTasks(imageData);
@@ -28,6 +28,7 @@ import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.ref.SoftReference;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -46,6 +47,8 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -60,12 +63,14 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
 import qupath.lib.common.GeneralTools;
+import qupath.lib.common.ThreadTools;
 import qupath.lib.images.ImageData;
 import qupath.lib.images.ImageData.ImageType;
 import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ServerTools;
 import qupath.lib.images.servers.ImageServerBuilder.ServerBuilder;
 import qupath.lib.io.GsonTools;
+import qupath.lib.io.IncrementalImageDataWriter;
 import qupath.lib.io.PathIO;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjectTools;
@@ -124,6 +129,19 @@ class DefaultProject implements Project<BufferedImage> {
 	private long creationTimestamp;
 	private long modificationTimestamp;
 	
+	private final transient Object summaryIndexLock = new Object();
+	private transient volatile ProjectSummaryIndex summaryIndex;
+	
+	/**
+	 * Thread used to create summaries for the index after image data is saved, since this requires 
+	 * every measurement to be checked.
+	 */
+	private static final ExecutorService summaryExecutor = Executors.newSingleThreadExecutor(
+			ThreadTools.createThreadFactory("project-summary-", true));
+	
+	private final transient Object thumbnailAtlasLock = new Object();
+	private transient ThumbnailAtlas thumbnailAtlas;
+	
 	DefaultProject(final File file) {
 		this.file = file;
 		if (file.isDirectory()) {
@@ -397,6 +415,40 @@ class DefaultProject implements Project<BufferedImage> {
 		return modificationTimestamp;
 	}
 	
+	/**
+	 * Get the summary index for this project, reading the stored summaries the first time it is requested.
+	 * @return
+	 */
+	ProjectSummaryIndex getSummaryIndex() {
+		var index = summaryIndex;
+		if (index == null) {
+			synchronized (summaryIndexLock) {
+				index = summaryIndex;
+				if (index == null) {
+					index = new ProjectSummaryIndex(this);
+					index.refresh();
+					summaryIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Get the atlas used to store thumbnail previews for all images in the project.
+	 * @return
+	 */
+	ThumbnailAtlas getThumbnailAtlas() {
+		synchronized (thumbnailAtlasLock) {
+			if (thumbnailAtlas == null) {
+				var dirData = Paths.get(getBasePath().toString(), "data");
+				thumbnailAtlas = new ThumbnailAtlas(dirData.resolve("thumbnails.atlas"), 
+						id -> dirData.resolve(id).resolve("thumbnail.jpg"), ThumbnailAtlas.DEFAULT_CACHE_BYTES);
+			}
+			return thumbnailAtlas;
+		}
+	}
+	
 	
 	Path ensureDirectoryExists(Path path) throws IOException {
 		if (!Files.isDirectory(path))
@@ -455,6 +507,17 @@ class DefaultProject implements Project<BufferedImage> {
 		 */
 		private transient SoftReference<BufferedImage> cachedThumbnail;
 		
+		/**
+		 * Timestamp of the most recently saved data file, for which an index summary has been requested.
+		 */
+		private transient volatile long pendingSummaryTimestamp;
+		
+		/**
+		 * Lock used when reading or writing the thumbnail, so that this doesn't need to wait for image data 
+		 * to be read or saved.
+		 */
+		private final transient Object thumbnailLock = new Object();
+		
 		DefaultProjectImageEntry(final ServerBuilder<BufferedImage> builder) throws IOException {
 			this(builder, null, null, null, null);
 		}
@@ -700,8 +763,9 @@ class DefaultProject implements Project<BufferedImage> {
 				return null;
 			ImageData<BufferedImage> imageData = null;
 			if (Files.exists(path)) {
-				try (var stream = Files.newInputStream(path)) {
-					imageData = PathIO.readImageData(stream, null, server, BufferedImage.class);
+				try {
+					// Read from the path (rather than a stream) so that detections can be loaded on demand, if requested
+					imageData = PathIO.readImageData(path, null, server, BufferedImage.class);
 					imageData.setLastSavedPath(path.toString(), true);
 				} catch (Exception e) {
 					logger.error("Error reading image data from " + path, e);
@@ -739,6 +803,13 @@ class DefaultProject implements Project<BufferedImage> {
 			getEntryPath(true);
 			var pathData = getImageDataPath();
 			
+			// Ensure any objects that are loaded on demand are read before the file is moved
+			try {
+				imageData.getHierarchy().loadAllObjects();
+			} catch (UncheckedIOException e) {
+				throw new IOException("Unable to load all objects for " + pathData, e.getCause());
+			}
+			
 			// If we already have a file, back it up first
 			var pathBackup = getBackupImageDataPath();
 			if (Files.exists(pathData))
@@ -772,6 +843,35 @@ class DefaultProject implements Project<BufferedImage> {
 				throw e;
 			}
 			
+			writeServerAndSummary(imageData, timestamp);
+		}
+		
+		/**
+		 * Save image data using an {@link IncrementalImageDataWriter}, so that only changed detections are encoded.
+		 * The data file is replaced atomically, so no backup is needed.
+		 * @param imageData
+		 * @param writer
+		 * @return summary of the write
+		 * @throws IOException
+		 */
+		synchronized IncrementalImageDataWriter.WriteResult saveImageData(ImageData<BufferedImage> imageData, IncrementalImageDataWriter writer) throws IOException {
+			getEntryPath(true);
+			String id = getFullProjectEntryID();
+			if (!Objects.equals(id, imageData.getProperty(IMAGE_ID))) {
+				logger.warn("Updating ID property to {}", id);
+				imageData.setProperty(IMAGE_ID, id);
+			}
+			var pathData = getImageDataPath();
+			logger.debug("Saving image data incrementally to {}", pathData);
+			var result = writer.write(pathData);
+			writeServerAndSummary(imageData, Files.getLastModifiedTime(pathData).toMillis());
+			return result;
+		}
+		
+		/**
+		 * Write the server (if it has changed) and data summary, after the image data has been saved.
+		 */
+		private void writeServerAndSummary(ImageData<BufferedImage> imageData, long timestamp) throws IOException {
 			// If successful, write the server (including metadata)
 			var server = imageData.getServer();
 			var currentServerBuilder = server.getBuilder();
@@ -792,10 +892,113 @@ class DefaultProject implements Project<BufferedImage> {
 			}
 			
 			var pathSummary = getDataSummaryPath();
+			var summary = new ImageDataSummary(imageData, timestamp);
 			try (var out = Files.newBufferedWriter(pathSummary, StandardCharsets.UTF_8)) {
-				GsonTools.getInstance().toJson(new ImageDataSummary(imageData, timestamp), out);
+				GsonTools.getInstance().toJson(summary, out);
 			}			
-
+			requestIndexSummary(imageData, timestamp);
+		}
+		
+		/**
+		 * Request that the index summary is created from the saved image data in the background.
+		 * If the entry is saved again before this happens, only the most recent request is handled.
+		 */
+		private void requestIndexSummary(ImageData<?> imageData, long timestamp) {
+			// The snapshot was usually created while writing, so should be available already
+			var snapshot = imageData.getHierarchy().snapshot();
+			pendingSummaryTimestamp = timestamp;
+			summaryExecutor.execute(() -> {
+				if (pendingSummaryTimestamp != timestamp)
+					return;
+				try {
+					var summary = ProjectSummaryIndex.EntrySummary.create(snapshot, timestamp);
+					// Measurements may have been changed since saving, in which case the summary may not match the file
+					if (imageData.isChanged()) {
+						logger.debug("Image data for {} changed after saving - summary will not be stored", getImageName());
+						return;
+					}
+					if (storeIndexSummary(summary)) {
+						var index = summaryIndex;
+						if (index != null)
+							index.update(this, summary);
+					}
+				} catch (Exception e) {
+					logger.warn("Unable to store summary for {}: {}", getImageName(), e.getLocalizedMessage());
+					logger.debug(e.getLocalizedMessage(), e);
+				}
+			});
+		}
+		
+		/**
+		 * Read the index summary stored for this entry.
+		 * @return the summary, or null if no summary is available or it is out of date
+		 * @throws IOException
+		 */
+		synchronized ProjectSummaryIndex.EntrySummary readIndexSummary() throws IOException {
+			var pathData = getImageDataPath();
+			if (!Files.exists(pathData))
+				return new ProjectSummaryIndex.EntrySummary(0L, null, null, null);
+			var pathSummary = getDataSummaryPath();
+			if (!Files.exists(pathSummary))
+				return null;
+			JsonObject json;
+			try (var reader = Files.newBufferedReader(pathSummary, StandardCharsets.UTF_8)) {
+				json = GsonTools.getInstance().fromJson(reader, JsonObject.class);
+			}
+			if (json == null || !json.has("index"))
+				return null;
+			var summary = GsonTools.getInstance().fromJson(json.get("index"), ProjectSummaryIndex.EntrySummary.class);
+			if (summary.timestamp() != Files.getLastModifiedTime(pathData).toMillis()) {
+				logger.debug("Summary for {} is out of date", getImageName());
+				return null;
+			}
+			return summary;
+		}
+		
+		/**
+		 * Create a new index summary for this entry by reading its hierarchy, and store it.
+		 * @return the new summary
+		 * @throws IOException
+		 */
+		synchronized ProjectSummaryIndex.EntrySummary rebuildIndexSummary() throws IOException {
+			var pathData = getImageDataPath();
+			if (!Files.exists(pathData))
+				return new ProjectSummaryIndex.EntrySummary(0L, null, null, null);
+			long timestamp = Files.getLastModifiedTime(pathData).toMillis();
+			var summary = ProjectSummaryIndex.EntrySummary.create(readHierarchy(), timestamp);
+			storeIndexSummary(summary);
+			return summary;
+		}
+		
+		/**
+		 * Store an index summary, provided that the data file hasn't changed since it was summarized.
+		 * Any other fields in the stored summary are retained.
+		 * @param summary
+		 * @return true if the summary was stored, false if it is out of date
+		 * @throws IOException
+		 */
+		private synchronized boolean storeIndexSummary(ProjectSummaryIndex.EntrySummary summary) throws IOException {
+			var pathData = getImageDataPath();
+			if (!Files.exists(pathData) || Files.getLastModifiedTime(pathData).toMillis() != summary.timestamp())
+				return false;
+			var gson = GsonTools.getInstance();
+			var pathSummary = getDataSummaryPath();
+			JsonObject json = null;
+			if (Files.exists(pathSummary)) {
+				try (var reader = Files.newBufferedReader(pathSummary, StandardCharsets.UTF_8)) {
+					json = gson.fromJson(reader, JsonObject.class);
+				} catch (Exception e) {
+					logger.warn("Unable to read existing summary for {}: {}", getImageName(), e.getLocalizedMessage());
+				}
+			}
+			if (json == null)
+				json = new JsonObject();
+			json.addProperty("timestamp", summary.timestamp());
+			json.add("index", gson.toJsonTree(summary));
+			try (var out = Files.newBufferedWriter(pathSummary, StandardCharsets.UTF_8)) {
+				gson.toJson(json, out);
+			}
+			return true;
 		}
 
 		@Override
@@ -838,43 +1041,74 @@ class DefaultProject implements Project<BufferedImage> {
 		}
 
 		@Override
-		public synchronized BufferedImage getThumbnail() throws IOException {
-			long startTime = System.nanoTime();
-			var thumbnail = cachedThumbnail == null ? null : cachedThumbnail.get();
-			boolean cached = thumbnail != null;
-			if (thumbnail == null) {
-				var path = getThumbnailPath();
-				if (Files.exists(path)) {
-					try (var stream = Files.newInputStream(path)) {
-						thumbnail = ImageIO.read(stream);
-						cachedThumbnail = new SoftReference<>(thumbnail);
+		public BufferedImage getThumbnail() throws IOException {
+			synchronized (thumbnailLock) {
+				long startTime = System.nanoTime();
+				var thumbnail = cachedThumbnail == null ? null : cachedThumbnail.get();
+				boolean cached = thumbnail != null;
+				if (thumbnail == null) {
+					var path = getThumbnailPath();
+					if (Files.exists(path)) {
+						try (var stream = Files.newInputStream(path)) {
+							thumbnail = ImageIO.read(stream);
+							cachedThumbnail = new SoftReference<>(thumbnail);
+						}
 					}
 				}
+				long endTime = System.nanoTime();
+				if (cached)
+					logger.trace("Thumbnail accessed from cache in {} ms", (endTime - startTime) / 1000000);
+				else
+					logger.trace("Thumbnail read in {} ms", (endTime - startTime) / 1000000);
+				return thumbnail;
+			}
+		}
+		
+		@Override
+		public BufferedImage getThumbnailPreview() throws IOException {
+			var atlas = getThumbnailAtlas();
+			synchronized (thumbnailLock) {
+				var preview = atlas.getPreview(getID());
+				if (preview != null)
+					return preview;
+				var thumbnail = getThumbnail();
+				if (thumbnail == null)
+					return null;
+				return atlas.createPreview(getID(), thumbnail);
 			}
-			long endTime = System.nanoTime();
-			if (cached)
-				logger.trace("Thumbnail accessed from cache in {} ms", (endTime - startTime) / 1000000);
-			else
-				logger.trace("Thumbnail read in {} ms", (endTime - startTime) / 1000000);
-			return thumbnail;
 		}
 
 		@Override
-		public synchronized void setThumbnail(BufferedImage img) throws IOException {
-			resetCachedThumbnail();
-			getEntryPath(true);
-			var path = getThumbnailPath();
-			try (var stream = Files.newOutputStream(path)) {
-				ImageIO.write(img, "JPEG", stream);
+		public void markThumbnailFailed() {
+			getThumbnailAtlas().markFailed(getID());
+		}
+		
+		@Override
+		public boolean isThumbnailFailed() {
+			return getThumbnailAtlas().isFailed(getID());
+		}
+
+		@Override
+		public void setThumbnail(BufferedImage img) throws IOException {
+			synchronized (thumbnailLock) {
+				resetCachedThumbnail();
+				getEntryPath(true);
+				var path = getThumbnailPath();
+				try (var stream = Files.newOutputStream(path)) {
+					ImageIO.write(img, "JPEG", stream);
+				}
 			}
 		}
 
 		/**
 		 * Reset the cached thumbnail, so that it will be reloaded next time it is requested.
 		 */
-		private synchronized void resetCachedThumbnail() {
-			logger.trace("Resetting cached thumbnail for {}", getID());
-			cachedThumbnail = null;
+		private void resetCachedThumbnail() {
+			synchronized (thumbnailLock) {
+				logger.trace("Resetting cached thumbnail for {}", getID());
+				cachedThumbnail = null;
+				getThumbnailAtlas().invalidate(getID());
+			}
 		}
 		
 		synchronized boolean moveDataToTrash() {
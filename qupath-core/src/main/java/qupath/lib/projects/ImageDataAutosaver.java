@@ -0,0 +1,262 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.projects;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.ThreadTools;
+import qupath.lib.images.ImageData;
+import qupath.lib.io.IncrementalImageDataWriter;
+
+/**
+ * Save image data for project entries periodically on a background thread.
+ * <p>
+ * For entries belonging to a project created by {@link ProjectIO}, only the detections that have changed since the
+ * last save are encoded, and the data file is replaced atomically (see {@link IncrementalImageDataWriter}).
+ * Other entries are saved using {@link ProjectImageEntry#saveImageData(ImageData)}.
+ * <p>
+ * Image data is only saved if it has changed since it was registered or last saved.
+ *
+ * @since v0.6.0
+ */
+public class ImageDataAutosaver implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageDataAutosaver.class);
+
+	/**
+	 * Default interval between autosaves.
+	 */
+	public static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(2);
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+			ThreadTools.createThreadFactory("image-data-autosave", true));
+
+	private final Map<ImageData<?>, Registration<?>> registrations = new IdentityHashMap<>();
+	private Duration interval;
+	private ScheduledFuture<?> task;
+
+	private long saveCount = 0;
+	private long failureCount = 0;
+	private long bytesWritten = 0;
+	private long bytesCopied = 0;
+	private Duration lastLatency = Duration.ZERO;
+	private Duration maxLatency = Duration.ZERO;
+	private Duration totalLatency = Duration.ZERO;
+
+	/**
+	 * Create an autosaver using the default interval.
+	 * @see #DEFAULT_INTERVAL
+	 */
+	public ImageDataAutosaver() {
+		this(DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Create an autosaver using the specified interval.
+	 * @param interval the interval between saves; if zero or negative, image data is only saved by {@link #saveNow()}
+	 */
+	public ImageDataAutosaver(Duration interval) {
+		setInterval(interval);
+	}
+
+	/**
+	 * Set the interval between saves.
+	 * @param interval the interval; if zero or negative, image data is only saved by {@link #saveNow()}
+	 */
+	public synchronized void setInterval(Duration interval) {
+		Objects.requireNonNull(interval, "Interval must not be null");
+		if (interval.equals(this.interval))
+			return;
+		this.interval = interval;
+		if (task != null)
+			task.cancel(false);
+		task = null;
+		if (!interval.isNegative() && !interval.isZero() && !executor.isShutdown()) {
+			long millis = interval.toMillis();
+			task = executor.scheduleWithFixedDelay(this::saveAll, millis, millis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Get the interval between saves.
+	 * @return
+	 */
+	public synchronized Duration getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Register image data to be autosaved to a project entry.
+	 * The image data should be unchanged since it was read from (or saved to) the entry.
+	 * If the image data was already registered, it is registered again with the new entry.
+	 * @param <T>
+	 * @param entry
+	 * @param imageData
+	 */
+	public synchronized <T> void register(ProjectImageEntry<T> entry, ImageData<T> imageData) {
+		Objects.requireNonNull(entry, "Entry must not be null");
+		unregister(imageData);
+		IncrementalImageDataWriter writer = null;
+		if (entry instanceof DefaultProject.DefaultProjectImageEntry)
+			writer = new IncrementalImageDataWriter(imageData);
+		registrations.put(imageData, new Registration<>(entry, imageData, writer));
+	}
+
+	/**
+	 * Stop autosaving image data.
+	 * This does not save any pending changes.
+	 * @param imageData
+	 * @return true if the image data was registered, false otherwise
+	 */
+	public synchronized boolean unregister(ImageData<?> imageData) {
+		var registration = registrations.remove(imageData);
+		if (registration == null)
+			return false;
+		if (registration.writer() != null)
+			registration.writer().close();
+		return true;
+	}
+
+	/**
+	 * Request that all registered image data is saved now (if changed), rather than waiting for the next interval.
+	 * @return a future that completes when saving is finished
+	 */
+	public CompletableFuture<Void> saveNow() {
+		return CompletableFuture.runAsync(this::saveAll, executor);
+	}
+
+	/**
+	 * Get metrics summarizing the saves made so far.
+	 * @return
+	 */
+	public synchronized AutosaveMetrics getMetrics() {
+		return new AutosaveMetrics(saveCount, failureCount, bytesWritten, bytesCopied, lastLatency, maxLatency,
+				saveCount == 0 ? Duration.ZERO : totalLatency.dividedBy(saveCount));
+	}
+
+	/**
+	 * Save all registered image data that has changed.
+	 * This is always called from the executor thread.
+	 */
+	private void saveAll() {
+		ArrayList<Registration<?>> list;
+		synchronized (this) {
+			list = new ArrayList<>(registrations.values());
+		}
+		for (var registration : list) {
+			if (!registration.hasChanges())
+				continue;
+			// Skip if unregistered while earlier image data was being saved
+			synchronized (this) {
+				if (registrations.get(registration.imageData()) != registration)
+					continue;
+			}
+			long startTime = System.nanoTime();
+			try {
+				var result = registration.save();
+				var latency = Duration.ofNanos(System.nanoTime() - startTime);
+				synchronized (this) {
+					saveCount++;
+					lastLatency = latency;
+					if (latency.compareTo(maxLatency) > 0)
+						maxLatency = latency;
+					totalLatency = totalLatency.plus(latency);
+					if (result != null) {
+						bytesWritten += result.bytesWritten();
+						bytesCopied += result.bytesCopied();
+					}
+				}
+				logger.debug("Autosaved {} in {} ms", registration.entry().getImageName(), latency.toMillis());
+			} catch (Exception e) {
+				synchronized (this) {
+					failureCount++;
+				}
+				logger.error("Unable to autosave " + registration.entry().getImageName() + ": " + e.getLocalizedMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Stop autosaving, without saving any pending changes.
+	 */
+	@Override
+	public synchronized void close() {
+		if (task != null)
+			task.cancel(false);
+		task = null;
+		executor.shutdown();
+		for (var registration : registrations.values()) {
+			if (registration.writer() != null)
+				registration.writer().close();
+		}
+		registrations.clear();
+	}
+
+
+	private record Registration<T>(ProjectImageEntry<T> entry, ImageData<T> imageData, IncrementalImageDataWriter writer) {
+
+		boolean hasChanges() {
+			return writer == null ? imageData.isChanged() : writer.hasChanges();
+		}
+
+		/**
+		 * Save the image data.
+		 * @return details of the write, or null if these aren't available
+		 */
+		@SuppressWarnings("unchecked")
+		IncrementalImageDataWriter.WriteResult save() throws IOException {
+			if (writer != null && entry instanceof DefaultProject.DefaultProjectImageEntry defaultEntry)
+				return defaultEntry.saveImageData((ImageData<BufferedImage>)imageData, writer);
+			entry.saveImageData(imageData);
+			return null;
+		}
+
+	}
+
+	/**
+	 * Metrics summarizing autosaves.
+	 * @param saveCount number of successful saves
+	 * @param failureCount number of failed saves
+	 * @param bytesWritten total number of bytes written by incremental saves
+	 * @param bytesCopied total number of bytes copied from previous files by incremental saves, rather than being encoded
+	 * @param lastLatency time taken by the most recent successful save
+	 * @param maxLatency maximum time taken by a successful save
+	 * @param meanLatency mean time taken by successful saves
+	 */
+	public record AutosaveMetrics(long saveCount, long failureCount, long bytesWritten, long bytesCopied,
+			Duration lastLatency, Duration maxLatency, Duration meanLatency) {}
+
+}
@@ -231,6 +231,21 @@ public interface ProjectImageEntry<T> extends UriResource {
 	 */
 	public T getThumbnail() throws IOException;
 	
+	/**
+	 * Request a small version of the thumbnail for the image, suitable for displaying in a list.
+	 * <p>
+	 * This may be much faster than {@link #getThumbnail()} if the thumbnails of many images are needed, 
+	 * because implementations may cache previews for all images in the project.
+	 * The default implementation simply returns the thumbnail.
+	 * 
+	 * @return a preview of the thumbnail if one has already been set, otherwise null.
+	 * @throws IOException
+	 * @since v0.6.0
+	 */
+	public default T getThumbnailPreview() throws IOException {
+		return getThumbnail();
+	}
+	
 	/**
 	 * Set a thumbnail for the image. This will replace any existing thumbnail.
 	 * 
@@ -239,6 +254,26 @@ public interface ProjectImageEntry<T> extends UriResource {
 	 */
 	public void setThumbnail(T img) throws IOException;	
 	
+	/**
+	 * Record that a thumbnail could not be created for the image, so that it isn't requested repeatedly 
+	 * (e.g. when displaying a list of images).
+	 * This is cleared if a thumbnail is set later.
+	 * The default implementation does nothing.
+	 * @since v0.6.0
+	 * @see #isThumbnailFailed()
+	 */
+	public default void markThumbnailFailed() {}
+	
+	/**
+	 * Query whether a thumbnail could not be created for the image.
+	 * The default implementation always returns false.
+	 * @return true if {@link #markThumbnailFailed()} has been called and no thumbnail has been set since
+	 * @since v0.6.0
+	 */
+	public default boolean isThumbnailFailed() {
+		return false;
+	}
+	
 	/**
 	 * Get a collection of the URIs required by this project's ImageServer.
 	 * <p>
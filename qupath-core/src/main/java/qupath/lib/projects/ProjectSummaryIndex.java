@@ -0,0 +1,539 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.projects;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.ThreadTools;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectTools;
+import qupath.lib.objects.PathTileObject;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.objects.hierarchy.PathObjectHierarchySnapshot;
+import qupath.lib.plugins.SimpleProgressMonitor;
+
+/**
+ * A compact index summarizing the objects and measurements for every image in a project.
+ * <p>
+ * This makes it possible to answer questions such as "how many cells of each class are there across all images?"
+ * without reading the data file for each image.
+ * For each image, the index stores object counts by type and classification, a summary of each measurement
+ * (count, minimum, maximum and mean) and the bounds of each annotation.
+ * <p>
+ * For projects read by {@link ProjectIO}, the summary for each image is stored alongside its data file, and updated
+ * in the background after the image data is saved. Images that haven't been saved since the index was introduced 
+ * (or whose data file was changed elsewhere, or changed again before the summary could be stored) aren't included 
+ * until {@link #rebuild(boolean, SimpleProgressMonitor)} is called.
+ * For other projects, the index is only populated by rebuilding.
+ *
+ * @since v0.6.0
+ */
+public class ProjectSummaryIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProjectSummaryIndex.class);
+
+	/**
+	 * Object types that may be stored in the index, mapped from their names.
+	 */
+	private static final Map<String, Class<? extends PathObject>> TYPES;
+
+	static {
+		var types = new LinkedHashMap<String, Class<? extends PathObject>>();
+		for (var cls : List.of(PathAnnotationObject.class, TMACoreObject.class, PathDetectionObject.class, PathCellObject.class, PathTileObject.class))
+			types.put(PathObjectTools.getSuitableName(cls, false), cls);
+		TYPES = Collections.unmodifiableMap(types);
+	}
+
+	private final Project<?> project;
+	private final Map<String, EntrySummary> summaries = new ConcurrentHashMap<>();
+
+	ProjectSummaryIndex(Project<?> project) {
+		this.project = project;
+	}
+
+	/**
+	 * Get the index for a project.
+	 * <p>
+	 * For a project read by {@link ProjectIO}, the same index is returned each time. The first time this is called,
+	 * the stored summaries for all images are read in parallel.
+	 * For other projects, a new (empty) index is returned, which needs to be rebuilt before use.
+	 * @param project
+	 * @return
+	 */
+	public static ProjectSummaryIndex getIndex(Project<?> project) {
+		if (project instanceof DefaultProject defaultProject)
+			return defaultProject.getSummaryIndex();
+		return new ProjectSummaryIndex(project);
+	}
+
+	/**
+	 * Update the summary for an entry, e.g. after its image data has been saved.
+	 */
+	void update(ProjectImageEntry<?> entry, EntrySummary summary) {
+		summaries.put(entry.getID(), summary);
+	}
+
+	/**
+	 * Read the stored summaries for all images again, in parallel.
+	 * This does nothing for projects that don't store summaries.
+	 */
+	public void refresh() {
+		refresh(null);
+	}
+
+	/**
+	 * Read the stored summaries for all images again, in parallel.
+	 * This does nothing for projects that don't store summaries.
+	 * @param monitor optional progress monitor, which may be used to cancel the refresh
+	 * @return true if the summaries were read, false if the refresh was cancelled (in which case the index is unchanged)
+	 */
+	public boolean refresh(SimpleProgressMonitor monitor) {
+		if (!(project instanceof DefaultProject)) {
+			if (monitor != null)
+				monitor.pluginCompleted("Nothing to read");
+			return true;
+		}
+		long startTime = System.currentTimeMillis();
+		var entries = project.getImageList();
+		if (monitor != null)
+			monitor.startMonitoring("Reading " + entries.size() + " summaries", entries.size(), true);
+		var futures = entries.stream()
+				.map(entry -> CompletableFuture.supplyAsync(() -> readStoredSummary(entry)))
+				.toList();
+		Map<String, EntrySummary> map = new LinkedHashMap<>();
+		for (int i = 0; i < entries.size(); i++) {
+			if (monitor != null && monitor.cancelled()) {
+				futures.forEach(f -> f.cancel(false));
+				logger.debug("Reading stored summaries cancelled");
+				return false;
+			}
+			var summary = futures.get(i).join();
+			if (summary != null)
+				map.put(entries.get(i).getID(), summary);
+			if (monitor != null)
+				monitor.updateProgress(1, entries.get(i).getImageName(), null);
+		}
+		summaries.keySet().retainAll(map.keySet());
+		summaries.putAll(map);
+		long endTime = System.currentTimeMillis();
+		logger.debug("Read {}/{} stored summaries in {} ms", map.size(), entries.size(), endTime - startTime);
+		if (monitor != null)
+			monitor.pluginCompleted(map.size() + " summaries read");
+		return true;
+	}
+
+	private static EntrySummary readStoredSummary(ProjectImageEntry<?> entry) {
+		try {
+			if (entry instanceof DefaultProject.DefaultProjectImageEntry defaultEntry)
+				return defaultEntry.readIndexSummary();
+		} catch (Exception e) {
+			logger.warn("Unable to read summary for {}: {}", entry.getImageName(), e.getLocalizedMessage());
+			logger.debug(e.getLocalizedMessage(), e);
+		}
+		return null;
+	}
+
+	/**
+	 * Rebuild the index by reading the object hierarchy for images in parallel, using all available threads.
+	 * For projects read by {@link ProjectIO}, the new summaries are also stored.
+	 * @param onlyMissing if true, only images that aren't currently in the index are read
+	 * @param monitor optional progress monitor, which may be used to cancel the rebuild
+	 * @return the number of images that were successfully indexed
+	 */
+	public int rebuild(boolean onlyMissing, SimpleProgressMonitor monitor) {
+		List<? extends ProjectImageEntry<?>> entries = onlyMissing ? getMissingEntries() : project.getImageList();
+		if (monitor != null)
+			monitor.startMonitoring("Indexing " + entries.size() + " images", entries.size(), true);
+		if (entries.isEmpty()) {
+			if (monitor != null)
+				monitor.pluginCompleted("No images to index");
+			return 0;
+		}
+		long startTime = System.currentTimeMillis();
+		var count = new AtomicInteger();
+		var pool = Executors.newFixedThreadPool(
+				Math.min(entries.size(), ThreadTools.getParallelism()),
+				ThreadTools.createThreadFactory("project-index-", true));
+		try {
+			var futures = entries.stream()
+					.map(entry -> CompletableFuture.runAsync(() -> {
+						if (monitor != null && monitor.cancelled())
+							return;
+						try {
+							summaries.put(entry.getID(), rebuild(entry));
+							count.incrementAndGet();
+						} catch (Exception e) {
+							logger.warn("Unable to index {}: {}", entry.getImageName(), e.getLocalizedMessage());
+							logger.debug(e.getLocalizedMessage(), e);
+						} finally {
+							if (monitor != null)
+								monitor.updateProgress(1, entry.getImageName(), null);
+						}
+					}, pool))
+					.toArray(CompletableFuture[]::new);
+			CompletableFuture.allOf(futures).join();
+		} finally {
+			pool.shutdown();
+		}
+		long endTime = System.currentTimeMillis();
+		logger.info("Indexed {}/{} images in {} ms", count.get(), entries.size(), endTime - startTime);
+		if (monitor != null)
+			monitor.pluginCompleted(count.get() + " images indexed");
+		return count.get();
+	}
+
+	private static EntrySummary rebuild(ProjectImageEntry<?> entry) throws IOException {
+		if (entry instanceof DefaultProject.DefaultProjectImageEntry defaultEntry)
+			return defaultEntry.rebuildIndexSummary();
+		var hierarchy = entry.hasImageData() ? entry.readHierarchy() : new PathObjectHierarchy();
+		return EntrySummary.create(hierarchy, System.currentTimeMillis());
+	}
+
+	/**
+	 * Get the images in the project that don't have a summary in the index.
+	 * @return
+	 */
+	public List<ProjectImageEntry<?>> getMissingEntries() {
+		List<ProjectImageEntry<?>> missing = new ArrayList<>();
+		for (var entry : project.getImageList()) {
+			if (!summaries.containsKey(entry.getID()))
+				missing.add(entry);
+		}
+		return missing;
+	}
+
+	/**
+	 * Get the summary for a single image.
+	 * @param entry
+	 * @return the summary, or null if the image isn't in the index
+	 */
+	public EntrySummary getSummary(ProjectImageEntry<?> entry) {
+		return summaries.get(entry.getID());
+	}
+
+	/**
+	 * Count objects across all images in the index.
+	 * @param cls the object type, including subclasses (e.g. {@code PathDetectionObject.class} includes cells);
+	 *            may be null to count all objects
+	 * @param pathClass the classification; use {@link PathClass#NULL_CLASS} for unclassified objects, or null
+	 *                  to count objects with any classification
+	 * @return
+	 */
+	public long countObjects(Class<? extends PathObject> cls, PathClass pathClass) {
+		long count = 0;
+		for (var summary : getSummaries().values())
+			count += summary.countObjects(cls, pathClass);
+		return count;
+	}
+
+	/**
+	 * Count objects for each image in the index.
+	 * @param cls the object type, including subclasses; may be null to count all objects
+	 * @param pathClass the classification; use {@link PathClass#NULL_CLASS} for unclassified objects, or null
+	 *                  to count objects with any classification
+	 * @return a map of counts, with images in the same order as the project
+	 */
+	public Map<ProjectImageEntry<?>, Long> countObjectsByEntry(Class<? extends PathObject> cls, PathClass pathClass) {
+		Map<ProjectImageEntry<?>, Long> map = new LinkedHashMap<>();
+		for (var entry : project.getImageList()) {
+			var summary = summaries.get(entry.getID());
+			if (summary != null)
+				map.put(entry, summary.countObjects(cls, pathClass));
+		}
+		return map;
+	}
+
+	/**
+	 * Count objects according to their classification, across all images in the index.
+	 * @param cls the object type, including subclasses; may be null to count all objects
+	 * @return a map of counts, with keys given by the string representation of each classification
+	 *         (or "Unclassified")
+	 */
+	public Map<String, Long> countObjectsByClassification(Class<? extends PathObject> cls) {
+		Map<String, Long> map = new TreeMap<>();
+		for (var summary : getSummaries().values()) {
+			for (var typeEntry : summary.counts().entrySet()) {
+				if (matchesType(typeEntry.getKey(), cls)) {
+					for (var classEntry : typeEntry.getValue().entrySet())
+						map.merge(classEntry.getKey(), classEntry.getValue(), Long::sum);
+				}
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Get the names of all measurements for objects of a specified type, across all images in the index.
+	 * @param cls the object type, including subclasses; may be null to include all objects
+	 * @return
+	 */
+	public Set<String> getMeasurementNames(Class<? extends PathObject> cls) {
+		Set<String> names = new TreeSet<>();
+		for (var summary : getSummaries().values()) {
+			for (var typeEntry : summary.measurements().entrySet()) {
+				if (matchesType(typeEntry.getKey(), cls))
+					names.addAll(typeEntry.getValue().keySet());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Summarize a measurement for objects of a specified type, across all images in the index.
+	 * @param cls the object type, including subclasses; may be null to include all objects
+	 * @param measurement the measurement name
+	 * @return the summary, or null if no (non-NaN) values are available
+	 */
+	public MeasurementSketch getMeasurementSketch(Class<? extends PathObject> cls, String measurement) {
+		MeasurementSketch sketch = null;
+		for (var summary : getSummaries().values())
+			sketch = MeasurementSketch.merge(sketch, summary.getMeasurementSketch(cls, measurement));
+		return sketch;
+	}
+
+	/**
+	 * Get the summaries for entries that are currently in the project.
+	 */
+	private Map<String, EntrySummary> getSummaries() {
+		Map<String, EntrySummary> map = new LinkedHashMap<>();
+		for (var entry : project.getImageList()) {
+			var summary = summaries.get(entry.getID());
+			if (summary != null)
+				map.put(entry.getID(), summary);
+		}
+		return map;
+	}
+
+	private static boolean matchesType(String type, Class<? extends PathObject> cls) {
+		if (cls == null || cls == PathObject.class)
+			return true;
+		var typeClass = TYPES.get(type);
+		if (typeClass != null)
+			return cls.isAssignableFrom(typeClass);
+		return type.equals(PathObjectTools.getSuitableName(cls, false));
+	}
+
+	private static String pathClassToString(PathClass pathClass) {
+		return pathClass == null || pathClass == PathClass.NULL_CLASS ? "Unclassified" : pathClass.toString();
+	}
+
+
+	/**
+	 * Summary of the objects for a single image.
+	 * @param timestamp the last modified time of the data file that was summarized
+	 * @param counts object counts, mapped from object type and then classification
+	 * @param measurements measurement summaries, mapped from object type and then measurement name
+	 * @param annotations the bounds of all annotations
+	 */
+	public record EntrySummary(long timestamp, Map<String, Map<String, Long>> counts,
+			Map<String, Map<String, MeasurementSketch>> measurements, List<AnnotationBounds> annotations) {
+
+		/**
+		 * Constructor.
+		 * @param timestamp
+		 * @param counts
+		 * @param measurements
+		 * @param annotations
+		 */
+		public EntrySummary {
+			// Fields may be missing if read from JSON
+			counts = counts == null ? Map.of() : counts;
+			measurements = measurements == null ? Map.of() : measurements;
+			annotations = annotations == null ? List.of() : annotations;
+		}
+
+		/**
+		 * Summarize all the objects in a hierarchy.
+		 */
+		static EntrySummary create(PathObjectHierarchy hierarchy, long timestamp) {
+			return create(hierarchy.snapshot(), timestamp);
+		}
+
+		/**
+		 * Summarize all the objects in a hierarchy snapshot.
+		 * This checks every measurement, so should be called from a background thread for large hierarchies.
+		 */
+		static EntrySummary create(PathObjectHierarchySnapshot snapshot, long timestamp) {
+			Map<String, Map<String, Long>> counts = new TreeMap<>();
+			Map<String, Map<String, MeasurementSketch.Builder>> builders = new TreeMap<>();
+			List<AnnotationBounds> annotations = new ArrayList<>();
+			for (var pathObject : snapshot.getAllObjects(true)) {
+				var type = PathObjectTools.getSuitableName(pathObject.getClass(), false);
+				counts.computeIfAbsent(type, k -> new TreeMap<>())
+					.merge(pathClassToString(pathObject.getPathClass()), 1L, Long::sum);
+				var measurementList = pathObject.getMeasurementList();
+				if (!measurementList.isEmpty()) {
+					var typeBuilders = builders.computeIfAbsent(type, k -> new TreeMap<>());
+					for (int i = 0; i < measurementList.size(); i++) {
+						double value = measurementList.getMeasurementValue(i);
+						if (Double.isFinite(value))
+							typeBuilders.computeIfAbsent(measurementList.getMeasurementName(i), k -> new MeasurementSketch.Builder()).add(value);
+					}
+				}
+				if (pathObject.isAnnotation() && pathObject.hasROI())
+					annotations.add(AnnotationBounds.create(pathObject));
+			}
+			Map<String, Map<String, MeasurementSketch>> measurements = new TreeMap<>();
+			for (var typeEntry : builders.entrySet()) {
+				Map<String, MeasurementSketch> map = new TreeMap<>();
+				for (var entry : typeEntry.getValue().entrySet())
+					map.put(entry.getKey(), entry.getValue().build());
+				measurements.put(typeEntry.getKey(), map);
+			}
+			return new EntrySummary(timestamp, counts, measurements, annotations);
+		}
+
+		/**
+		 * Count objects in the image.
+		 * @param cls the object type, including subclasses; may be null to count all objects
+		 * @param pathClass the classification; use {@link PathClass#NULL_CLASS} for unclassified objects, or null
+		 *                  to count objects with any classification
+		 * @return
+		 */
+		public long countObjects(Class<? extends PathObject> cls, PathClass pathClass) {
+			long count = 0;
+			var name = pathClass == null ? null : pathClassToString(pathClass);
+			for (var typeEntry : counts.entrySet()) {
+				if (!matchesType(typeEntry.getKey(), cls))
+					continue;
+				if (name == null)
+					count += typeEntry.getValue().values().stream().mapToLong(Long::longValue).sum();
+				else
+					count += typeEntry.getValue().getOrDefault(name, 0L);
+			}
+			return count;
+		}
+
+		/**
+		 * Summarize a measurement for objects of a specified type in the image.
+		 * @param cls the object type, including subclasses; may be null to include all objects
+		 * @param measurement the measurement name
+		 * @return the summary, or null if no (non-NaN) values are available
+		 */
+		public MeasurementSketch getMeasurementSketch(Class<? extends PathObject> cls, String measurement) {
+			MeasurementSketch sketch = null;
+			for (var typeEntry : measurements.entrySet()) {
+				if (matchesType(typeEntry.getKey(), cls))
+					sketch = MeasurementSketch.merge(sketch, typeEntry.getValue().get(measurement));
+			}
+			return sketch;
+		}
+
+	}
+
+	/**
+	 * Summary of the values of a measurement, which can be combined across images.
+	 * NaN and infinite values are excluded.
+	 * @param count number of values
+	 * @param min minimum value
+	 * @param max maximum value
+	 * @param sum sum of values
+	 */
+	public record MeasurementSketch(long count, double min, double max, double sum) {
+
+		/**
+		 * Get the mean value.
+		 * @return
+		 */
+		public double mean() {
+			return count == 0 ? Double.NaN : sum / count;
+		}
+
+		/**
+		 * Combine two summaries, either of which may be null.
+		 * @param first
+		 * @param second
+		 * @return the combined summary, or null if both inputs are null
+		 */
+		public static MeasurementSketch merge(MeasurementSketch first, MeasurementSketch second) {
+			if (first == null)
+				return second;
+			if (second == null)
+				return first;
+			return new MeasurementSketch(first.count + second.count, Math.min(first.min, second.min),
+					Math.max(first.max, second.max), first.sum + second.sum);
+		}
+
+		private static class Builder {
+
+			private long count = 0;
+			private double min = Double.POSITIVE_INFINITY;
+			private double max = Double.NEGATIVE_INFINITY;
+			private double sum = 0;
+
+			private void add(double value) {
+				count++;
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+				sum += value;
+			}
+
+			private MeasurementSketch build() {
+				return new MeasurementSketch(count, min, max, sum);
+			}
+
+		}
+
+	}
+
+	/**
+	 * The bounding box of an annotation.
+	 * @param name the annotation name (may be null)
+	 * @param pathClass the string representation of the classification, or "Unclassified"
+	 * @param z
+	 * @param t
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	public record AnnotationBounds(String name, String pathClass, int z, int t, double x, double y, double width, double height) {
+
+		private static AnnotationBounds create(PathObject pathObject) {
+			var roi = pathObject.getROI();
+			return new AnnotationBounds(pathObject.getName(), pathClassToString(pathObject.getPathClass()),
+					roi.getZ(), roi.getT(), roi.getBoundsX(), roi.getBoundsY(), roi.getBoundsWidth(), roi.getBoundsHeight());
+		}
+
+	}
+
+}
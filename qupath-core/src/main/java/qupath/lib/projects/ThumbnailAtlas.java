@@ -0,0 +1,435 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.projects;
+
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import qupath.lib.common.GeneralTools;
+import qupath.lib.common.ThreadTools;
+
+/**
+ * Small previews of the thumbnails for all images in a project, packed into a single file.
+ * <p>
+ * Reading previews for a long list of images one file at a time (and decoding full-size thumbnails) is slow.
+ * Instead, the atlas file is memory-mapped when it is first needed, and each preview is decoded on request.
+ * Decoded previews are kept in a small LRU cache, bounded by memory.
+ * <p>
+ * The thumbnail file for each image remains the 'true' thumbnail; the atlas stores the size and last modified
+ * time of the file used to create each preview, and ignores previews that are out of date.
+ * New previews are written to the atlas file in the background, a few seconds after they are created.
+ * <p>
+ * Images for which no thumbnail could be created are also recorded, so that they aren't requested repeatedly.
+ * These are only stored in memory, since the failure may be temporary (e.g. if an image is on a network drive).
+ */
+class ThumbnailAtlas {
+
+	private static final Logger logger = LoggerFactory.getLogger(ThumbnailAtlas.class);
+
+	/**
+	 * Maximum width or height of a preview.
+	 */
+	static final int PREVIEW_SIZE = 256;
+
+	/**
+	 * Default maximum memory used to cache decoded previews.
+	 */
+	static final long DEFAULT_CACHE_BYTES = 64L * 1024L * 1024L;
+
+	private static final int MAGIC = 0x51505441; // QPTA
+	private static final int VERSION = 1;
+
+	private static final long WRITE_DELAY_MILLIS = 5000L;
+
+	private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+			ThreadTools.createThreadFactory("thumbnail-atlas", true));
+
+	private final Path path;
+	private final Function<String, Path> sourcePaths;
+	private final PreviewCache cache;
+	private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+	// Entries and pending writes, guarded by the lock
+	private final Object lock = new Object();
+	private Map<String, AtlasEntry> entries;
+	private boolean changed = false;
+	private ScheduledFuture<?> pendingWrite;
+
+	/**
+	 * Create an atlas.
+	 * @param path the atlas file
+	 * @param sourcePaths function to get the thumbnail file for an image ID
+	 * @param maxCacheBytes maximum memory used to cache decoded previews
+	 */
+	ThumbnailAtlas(Path path, Function<String, Path> sourcePaths, long maxCacheBytes) {
+		this.path = path;
+		this.sourcePaths = sourcePaths;
+		this.cache = new PreviewCache(maxCacheBytes);
+	}
+
+	/**
+	 * Get the preview for an image, if it is cached or in the atlas and up to date.
+	 * @param id the image ID
+	 * @return the preview, or null if it isn't available
+	 * @throws IOException if the atlas could not be read
+	 */
+	BufferedImage getPreview(String id) throws IOException {
+		var preview = cache.get(id);
+		if (preview != null)
+			return preview;
+		AtlasEntry entry;
+		synchronized (lock) {
+			entry = ensureLoaded().get(id);
+		}
+		if (entry == null)
+			return null;
+		if (!entry.matches(readAttributes(sourcePaths.apply(id)))) {
+			logger.trace("Preview for {} is out of date", id);
+			invalidate(id);
+			return null;
+		}
+		var bytes = new byte[entry.data().remaining()];
+		entry.data().duplicate().get(bytes);
+		preview = ImageIO.read(new ByteArrayInputStream(bytes));
+		if (preview != null)
+			cache.put(id, preview);
+		return preview;
+	}
+
+	/**
+	 * Create (and store) the preview for an image from its thumbnail.
+	 * @param id the image ID
+	 * @param thumbnail the full-size thumbnail, which should have just been read from (or written to) its file
+	 * @return the preview
+	 * @throws IOException if the preview could not be encoded
+	 */
+	BufferedImage createPreview(String id, BufferedImage thumbnail) throws IOException {
+		failed.remove(id);
+		var preview = resize(thumbnail, PREVIEW_SIZE);
+		var attributes = readAttributes(sourcePaths.apply(id));
+		if (attributes != null) {
+			var stream = new ByteArrayOutputStream();
+			if (ImageIO.write(preview, "JPEG", stream)) {
+				var entry = new AtlasEntry(attributes.size(), attributes.lastModifiedTime().toMillis(), ByteBuffer.wrap(stream.toByteArray()));
+				synchronized (lock) {
+					ensureLoaded().put(id, entry);
+					changed = true;
+					scheduleWrite();
+				}
+			}
+		}
+		cache.put(id, preview);
+		return preview;
+	}
+
+	/**
+	 * Remove any preview for an image, e.g. because its thumbnail has changed.
+	 * @param id the image ID
+	 */
+	void invalidate(String id) {
+		failed.remove(id);
+		cache.remove(id);
+		synchronized (lock) {
+			if (entries != null && entries.remove(id) != null) {
+				changed = true;
+				scheduleWrite();
+			}
+		}
+	}
+
+	/**
+	 * Record that a thumbnail could not be created for an image.
+	 * This is cleared when the preview is created or invalidated, e.g. because a thumbnail has been set.
+	 * @param id the image ID
+	 */
+	void markFailed(String id) {
+		failed.add(id);
+	}
+
+	/**
+	 * Query whether a thumbnail could not be created for an image.
+	 * @param id the image ID
+	 * @return true if {@link #markFailed(String)} was called, and the preview hasn't been created or invalidated since
+	 */
+	boolean isFailed(String id) {
+		return failed.contains(id);
+	}
+
+	/**
+	 * Write the atlas file now, if it has changed.
+	 * @throws IOException
+	 */
+	void flush() throws IOException {
+		Map<String, AtlasEntry> snapshot;
+		synchronized (lock) {
+			if (pendingWrite != null) {
+				pendingWrite.cancel(false);
+				pendingWrite = null;
+			}
+			if (!changed)
+				return;
+			snapshot = new LinkedHashMap<>(entries);
+			changed = false;
+		}
+		try {
+			write(snapshot);
+		} catch (IOException e) {
+			synchronized (lock) {
+				changed = true;
+			}
+			throw e;
+		}
+	}
+
+	private void scheduleWrite() {
+		if (pendingWrite == null || pendingWrite.isDone())
+			pendingWrite = executor.schedule(this::flushQuietly, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			logger.warn("Unable to write thumbnail atlas: {}", e.getLocalizedMessage());
+			logger.debug(e.getLocalizedMessage(), e);
+		}
+	}
+
+	/**
+	 * Get the entries, reading them from the atlas file if necessary.
+	 * This must be called while holding the lock.
+	 */
+	private Map<String, AtlasEntry> ensureLoaded() throws IOException {
+		if (entries == null) {
+			long startTime = System.currentTimeMillis();
+			entries = new LinkedHashMap<>();
+			if (Files.isRegularFile(path)) {
+				try {
+					read(path, entries);
+				} catch (BufferUnderflowException | IllegalArgumentException e) {
+					logger.warn("Unable to read thumbnail atlas {}: {}", path, e.getLocalizedMessage());
+					entries.clear();
+				}
+			}
+			long endTime = System.currentTimeMillis();
+			logger.debug("Read {} thumbnail previews from atlas in {} ms", entries.size(), endTime - startTime);
+		}
+		return entries;
+	}
+
+	private static void read(Path path, Map<String, AtlasEntry> entries) throws IOException {
+		ByteBuffer buffer;
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// Files can't be replaced on Windows while they are mapped, so read them instead
+			if (GeneralTools.isWindows()) {
+				buffer = ByteBuffer.allocate((int)channel.size());
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+					continue;
+				buffer.flip();
+			} else
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.getInt() != MAGIC)
+			throw new IllegalArgumentException("Not a thumbnail atlas");
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IllegalArgumentException("Unsupported thumbnail atlas version " + version);
+		int n = buffer.getInt();
+		for (int i = 0; i < n; i++) {
+			var idBytes = new byte[buffer.getShort()];
+			buffer.get(idBytes);
+			long sourceSize = buffer.getLong();
+			long sourceModified = buffer.getLong();
+			int offset = (int)buffer.getLong();
+			int length = buffer.getInt();
+			var data = buffer.slice(offset, length);
+			entries.put(new String(idBytes, StandardCharsets.UTF_8), new AtlasEntry(sourceSize, sourceModified, data));
+		}
+	}
+
+	private void write(Map<String, AtlasEntry> snapshot) throws IOException {
+		long startTime = System.currentTimeMillis();
+		// Drop previews for images that have been removed
+		snapshot.entrySet().removeIf(e -> !e.getValue().matches(readAttributes(sourcePaths.apply(e.getKey()))));
+
+		Map<String, byte[]> ids = new LinkedHashMap<>();
+		long headerSize = 12;
+		for (var id : snapshot.keySet()) {
+			var idBytes = id.getBytes(StandardCharsets.UTF_8);
+			ids.put(id, idBytes);
+			headerSize += 2 + idBytes.length + 28;
+		}
+		var header = ByteBuffer.allocate((int)headerSize);
+		header.putInt(MAGIC).putInt(VERSION).putInt(snapshot.size());
+		long offset = headerSize;
+		for (var mapEntry : snapshot.entrySet()) {
+			var idBytes = ids.get(mapEntry.getKey());
+			var entry = mapEntry.getValue();
+			int length = entry.data().remaining();
+			header.putShort((short)idBytes.length).put(idBytes)
+				.putLong(entry.sourceSize()).putLong(entry.sourceModified())
+				.putLong(offset).putInt(length);
+			offset += length;
+		}
+		header.flip();
+
+		Files.createDirectories(path.getParent());
+		var pathTemp = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			try (var channel = FileChannel.open(pathTemp, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				writeFully(channel, header);
+				for (var entry : snapshot.values())
+					writeFully(channel, entry.data().duplicate());
+			}
+			try {
+				Files.move(pathTemp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(pathTemp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(pathTemp);
+			throw e;
+		}
+		long endTime = System.currentTimeMillis();
+		logger.debug("Wrote {} thumbnail previews to atlas in {} ms", snapshot.size(), endTime - startTime);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private static BasicFileAttributes readAttributes(Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			logger.debug("Unable to read attributes for {}: {}", path, e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Resize an image (if needed) so that its width and height are no more than a specified size.
+	 * The output is always RGB, so that it can be written as a JPEG.
+	 */
+	static BufferedImage resize(BufferedImage img, int maxSize) {
+		double scale = Math.min(1.0, (double)maxSize / Math.max(img.getWidth(), img.getHeight()));
+		int width = Math.max(1, (int)Math.round(img.getWidth() * scale));
+		int height = Math.max(1, (int)Math.round(img.getHeight() * scale));
+		if (scale == 1.0 && img.getType() == BufferedImage.TYPE_INT_RGB)
+			return img;
+		var imgResized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		var g2d = imgResized.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2d.drawImage(img, 0, 0, width, height, null);
+		g2d.dispose();
+		return imgResized;
+	}
+
+
+	/**
+	 * A preview stored in the atlas.
+	 * @param sourceSize size of the thumbnail file used to create the preview
+	 * @param sourceModified last modified time of the thumbnail file, in milliseconds
+	 * @param data the encoded preview
+	 */
+	private record AtlasEntry(long sourceSize, long sourceModified, ByteBuffer data) {
+
+		boolean matches(BasicFileAttributes attributes) {
+			return attributes != null && attributes.size() == sourceSize &&
+					attributes.lastModifiedTime().toMillis() == sourceModified;
+		}
+
+	}
+
+	/**
+	 * LRU cache of decoded previews, bounded by an estimate of the memory required.
+	 */
+	private static class PreviewCache {
+
+		private final long maxBytes;
+		private final LinkedHashMap<String, BufferedImage> map = new LinkedHashMap<>(16, 0.75f, true);
+		private long bytes = 0;
+
+		private PreviewCache(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		private synchronized BufferedImage get(String id) {
+			return map.get(id);
+		}
+
+		private synchronized void put(String id, BufferedImage img) {
+			remove(id);
+			map.put(id, img);
+			bytes += estimateBytes(img);
+			var iter = map.values().iterator();
+			while (bytes > maxBytes && map.size() > 1) {
+				bytes -= estimateBytes(iter.next());
+				iter.remove();
+			}
+		}
+
+		private synchronized void remove(String id) {
+			var previous = map.remove(id);
+			if (previous != null)
+				bytes -= estimateBytes(previous);
+		}
+
+		private static long estimateBytes(BufferedImage img) {
+			return (long)img.getWidth() * img.getHeight() * 4L;
+		}
+
+	}
+
+}
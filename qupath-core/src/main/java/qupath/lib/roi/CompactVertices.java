@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.roi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import qupath.lib.geom.Point2;
+
+/**
+ * Immutable vertices stored as quantized 16-bit offsets from an integer origin, packed into a single array.
+ * <p>
+ * This is intended for the very large numbers of small polygons typically used for detections and cells,
+ * which often have coordinates on (or close to) the pixel grid. It requires half the memory of {@link DefaultVertices}
+ * for the coordinates themselves, and only a single array.
+ * <p>
+ * The representation is lossless: vertices are only stored in this way if every coordinate can be recovered exactly,
+ * otherwise {@link #tryToCreate(float[], float[])} returns null.
+ */
+class CompactVertices implements Vertices {
+
+	/**
+	 * Maximum number of fractional bits to use when quantizing, i.e. the finest step is 1/256 pixel.
+	 */
+	private static final int MAX_SHIFT = 8;
+
+	private static final int MAX_OFFSET = 0xFFFF;
+
+	private final int originX;
+	private final int originY;
+	private final int shift;
+	// Interleaved x and y offsets, to be interpreted as unsigned values
+	private final short[] xy;
+
+	private CompactVertices(int originX, int originY, int shift, short[] xy) {
+		this.originX = originX;
+		this.originY = originY;
+		this.shift = shift;
+		this.xy = xy;
+	}
+
+	/**
+	 * Try to create compact vertices that exactly represent the specified coordinates.
+	 * @param x
+	 * @param y
+	 * @return the vertices, or null if the coordinates cannot be stored without loss of precision
+	 *         (or there are no coordinates)
+	 */
+	static CompactVertices tryToCreate(final float[] x, final float[] y) {
+		int n = x.length;
+		if (n == 0 || n != y.length)
+			return null;
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			// Note that comparisons are false for NaN, so these are caught here too
+			if (!(Math.abs(x[i]) < 1e9 && Math.abs(y[i]) < 1e9) || isNegativeZero(x[i]) || isNegativeZero(y[i]))
+				return null;
+			minX = Math.min(minX, x[i]);
+			maxX = Math.max(maxX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+		int originX = (int)Math.floor(minX);
+		int originY = (int)Math.floor(minY);
+		double extent = Math.max(maxX - originX, maxY - originY);
+		if (extent > MAX_OFFSET)
+			return null;
+
+		// Find the number of fractional bits needed to represent all coordinates exactly
+		int shift = 0;
+		for (int i = 0; i < n; i++) {
+			shift = Math.max(shift, fractionalBits((double)x[i] - originX));
+			shift = Math.max(shift, fractionalBits((double)y[i] - originY));
+			if (shift > MAX_SHIFT || extent * (1 << shift) > MAX_OFFSET)
+				return null;
+		}
+
+		double scale = 1 << shift;
+		short[] xy = new short[n * 2];
+		for (int i = 0; i < n; i++) {
+			xy[i*2] = (short)(int)(((double)x[i] - originX) * scale);
+			xy[i*2+1] = (short)(int)(((double)y[i] - originY) * scale);
+		}
+		return new CompactVertices(originX, originY, shift, xy);
+	}
+
+	private static boolean isNegativeZero(float value) {
+		return value == 0 && Float.floatToRawIntBits(value) != 0;
+	}
+
+	/**
+	 * Get the number of fractional bits required to represent a non-negative value exactly,
+	 * or {@code MAX_SHIFT + 1} if more bits would be needed.
+	 * @param value
+	 * @return
+	 */
+	private static int fractionalBits(double value) {
+		int bits = 0;
+		while (value != Math.rint(value)) {
+			if (++bits > MAX_SHIFT)
+				break;
+			value *= 2;
+		}
+		return bits;
+	}
+
+	private float toValue(int origin, short offset) {
+		// This is exact in double precision, and then recovers the original float
+		return (float)(origin + (offset & MAX_OFFSET) / (double)(1 << shift));
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return xy.length == 0;
+	}
+
+	@Override
+	public int size() {
+		return xy.length / 2;
+	}
+
+	@Override
+	public float[] getX(float[] xArray) {
+		return getArray(xArray, 0, originX);
+	}
+
+	@Override
+	public float[] getY(float[] yArray) {
+		return getArray(yArray, 1, originY);
+	}
+
+	private float[] getArray(float[] array, int offset, int origin) {
+		int n = size();
+		if (array == null || array.length < n)
+			array = new float[n];
+		for (int i = 0; i < n; i++)
+			array[i] = toValue(origin, xy[i*2 + offset]);
+		return array;
+	}
+
+	@Override
+	public Point2 get(int idx) {
+		return new Point2(getX(idx), getY(idx));
+	}
+
+	@Override
+	public float getX(int idx) {
+		return toValue(originX, xy[idx*2]);
+	}
+
+	@Override
+	public float getY(int idx) {
+		return toValue(originY, xy[idx*2+1]);
+	}
+
+	@Override
+	public List<Point2> getPoints() {
+		int n = size();
+		List<Point2> points = new ArrayList<>(n);
+		for (int i = 0; i < n; i++)
+			points.add(get(i));
+		return points;
+	}
+
+	/**
+	 * Returns the same object, since compact vertices are immutable.
+	 */
+	@Override
+	public Vertices duplicate() {
+		return this;
+	}
+
+	@Override
+	public void compact() {
+		// Already as compact as it gets
+	}
+
+}
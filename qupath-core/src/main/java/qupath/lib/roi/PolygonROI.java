@@ -201,9 +201,13 @@ public class PolygonROI extends AbstractPathROI implements Serializable {
 	
 	@Override
 	public ROI scale(double scaleX, double scaleY, double originX, double originY) {
-		return new PolygonROI(
-				getAllPoints().stream().map(p -> RoiTools.scalePoint(p, scaleX, scaleY, originX, originY)).toList(),
-				getImagePlane());
+		float[] x = vertices.getX(null);
+		float[] y = vertices.getY(null);
+		for (int i = 0; i < x.length; i++) {
+			x[i] = (float)RoiTools.scaleOrdinate(x[i], scaleX, originX);
+			y[i] = (float)RoiTools.scaleOrdinate(y[i], scaleY, originY);
+		}
+		return new PolygonROI(x, y, getImagePlane(), false);
 	}
 	
 	
@@ -284,6 +288,38 @@ public class PolygonROI extends AbstractPathROI implements Serializable {
 		return vertices.getPoints();
 	}
 	
+	/**
+	 * Get the number of points, without needing to create them.
+	 */
+	@Override
+	public int getNumPoints() {
+		return vertices.size();
+	}
+	
+	/**
+	 * Get the x-coordinate of the vertex with the specified index.
+	 * <p>
+	 * Together with {@link #getVertexY(int)}, this provides a way to iterate over the vertices without 
+	 * allocating objects, in contrast to {@link #getAllPoints()}.
+	 * @param index the vertex index, from 0 to {@link #getNumPoints()} (exclusive)
+	 * @return
+	 * @since v0.6.0
+	 */
+	public double getVertexX(int index) {
+		return vertices.getX(index);
+	}
+	
+	/**
+	 * Get the y-coordinate of the vertex with the specified index.
+	 * @param index the vertex index, from 0 to {@link #getNumPoints()} (exclusive)
+	 * @return
+	 * @since v0.6.0
+	 * @see #getVertexX(int)
+	 */
+	public double getVertexY(int index) {
+		return vertices.getY(index);
+	}
+	
 	
 	Vertices getVertices() {
 		return vertices;
@@ -195,10 +195,30 @@ public class ROIs {
 	public static ROI createPolygonROI(double[] x, double[] y, ImagePlane plane) {
 		if (x.length != y.length)
 			throw new IllegalArgumentException("Arrays have different lengths!");
-		var points = new ArrayList<Point2>();
-		for (int i = 0; i < x.length; i++)
-			points.add(new Point2(x[i], y[i]));
-		return new PolygonROI(points, plane);
+		float[] xf = new float[x.length];
+		float[] yf = new float[y.length];
+		for (int i = 0; i < x.length; i++) {
+			xf[i] = (float)x[i];
+			yf[i] = (float)y[i];
+		}
+		return new PolygonROI(xf, yf, plane, false);
+	}
+	
+	/**
+	 * Create a polygon ROI from arrays of x and y coordinates, without creating any intermediate {@link Point2} objects.
+	 * <p>
+	 * Note that the arrays are used directly by the ROI and are not copied, so they must not be modified afterwards.
+	 * This is intended for readers that build coordinates in primitive buffers.
+	 * @param x
+	 * @param y
+	 * @param plane
+	 * @return
+	 * @since v0.6.0
+	 */
+	public static PolygonROI createPolygonROI(float[] x, float[] y, ImagePlane plane) {
+		if (x.length != y.length)
+			throw new IllegalArgumentException("Arrays have different lengths!");
+		return new PolygonROI(x, y, plane, false);
 	}
 
 	
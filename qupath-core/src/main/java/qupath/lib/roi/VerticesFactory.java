@@ -39,7 +39,18 @@ class VerticesFactory {
 		return new DefaultMutableVertices(createVertices(DefaultVertices.DEFAULT_CAPACITY));
 	}
 
+	/**
+	 * Create immutable vertices from the specified coordinates.
+	 * Where possible, these will use a compact representation that requires less memory.
+	 * @param x
+	 * @param y
+	 * @param copyArrays if false, the arrays may be used directly (and so should not be modified later)
+	 * @return
+	 */
 	public static Vertices createVertices(final float[] x, final float[] y, final boolean copyArrays) {
+		var compact = CompactVertices.tryToCreate(x, y);
+		if (compact != null)
+			return compact;
 		return new DefaultVertices(x, y, copyArrays);
 	}
 
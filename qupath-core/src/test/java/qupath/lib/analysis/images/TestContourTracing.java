@@ -26,15 +26,18 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import javax.imageio.ImageIO;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -42,6 +45,12 @@ import org.locationtech.jts.operation.valid.IsValidOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import qupath.lib.images.servers.ImageServers;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.RegionRequest;
+
 /**
  * Test conversion of raster images (binary and labelled) to ROIs.
  * 
@@ -151,4 +160,64 @@ public class TestContourTracing {
 	}
 	
 
+	@Test
+	void testTracingLabelsInTiles() throws Exception {
+		var img = createLabelImage();
+		var server = ImageServers.pyramidalizeTiled(new WrappedBufferedImageServer("labels", img), 64, 64, 1.0);
+		var creator = ContourTracing.createNumberedObjectFunction(r -> PathObjects.createDetectionObject(r));
+		
+		// Tiled tracing should give the same ROIs as tracing the whole image
+		var expected = ContourTracing.createROIs(img.getRaster(), 0, null, 1, -1);
+		var pathObjects = ContourTracing.labelsToObjects(server, null, creator);
+		assertEquals(expected.size(), pathObjects.size());
+		for (var pathObject : pathObjects) {
+			var label = Integer.parseInt(pathObject.getName());
+			var geomExpected = expected.get(label).getGeometry();
+			var geom = pathObject.getROI().getGeometry();
+			assertEquals(geomExpected.getArea(), geom.getArea(), 1e-6);
+			assertEquals(0, geom.symDifference(geomExpected).getArea(), 1e-6);
+			assertNull(new IsValidOp(geom).getValidationError());
+		}
+		// Labels crossing tile boundaries should be stitched, and labels split into separate pieces kept together
+		assertEquals(1, getObject(pathObjects, 1).getROI().getGeometry().getNumGeometries());
+		assertEquals(2, getObject(pathObjects, 2).getROI().getGeometry().getNumGeometries());
+		
+		// Objects should be passed to the consumer in label order
+		List<PathObject> streamed = new ArrayList<>();
+		ContourTracing.labelsToObjects(server, null, creator, batch -> streamed.addAll(batch));
+		assertEquals(List.of("1", "2", "3"), streamed.stream().map(PathObject::getName).toList());
+		
+		// Only pixels within the region should be traced
+		var region = RegionRequest.createInstance(server.getPath(), 1.0, 100, 0, 100, 200);
+		var regionObjects = ContourTracing.labelsToObjects(server, region, creator);
+		assertEquals(2, regionObjects.size());
+		assertEquals(50 * 100, getObject(regionObjects, 1).getROI().getArea(), 1e-6);
+		assertEquals(30 * 30, getObject(regionObjects, 2).getROI().getArea(), 1e-6);
+	}
+	
+	private static PathObject getObject(List<PathObject> pathObjects, int label) {
+		return pathObjects.stream().filter(p -> Integer.toString(label).equals(p.getName())).findFirst().orElseThrow();
+	}
+	
+	/**
+	 * Create a label image, where label 1 crosses several tile boundaries, label 2 has two separate pieces in 
+	 * different tiles, and label 3 is inside a single tile.
+	 */
+	private static BufferedImage createLabelImage() {
+		var img = new BufferedImage(300, 200, BufferedImage.TYPE_USHORT_GRAY);
+		var raster = img.getRaster();
+		fill(raster, 1, 50, 50, 100, 100);
+		fill(raster, 2, 10, 10, 20, 20);
+		fill(raster, 2, 170, 130, 30, 30);
+		fill(raster, 3, 260, 5, 20, 20);
+		return img;
+	}
+	
+	private static void fill(WritableRaster raster, int label, int x, int y, int width, int height) {
+		for (int yy = y; yy < y + height; yy++) {
+			for (int xx = x; xx < x + width; xx++)
+				raster.setSample(xx, yy, 0, label);
+		}
+	}
+	
 }
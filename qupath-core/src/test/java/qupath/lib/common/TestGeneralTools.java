@@ -404,7 +404,32 @@ public class TestGeneralTools {
 		assertEquals(1, GeneralTools.sum(array));
 		assertEquals(0, GeneralTools.sum(new long[0]));
 	}
-	
+
+	@Test
+	public void test_hilbertIndex() {
+		// Order of the 2x2 grid
+		assertEquals(0, GeneralTools.hilbertIndex(0, 0, 2));
+		assertEquals(1, GeneralTools.hilbertIndex(0, 1, 2));
+		assertEquals(2, GeneralTools.hilbertIndex(1, 1, 2));
+		assertEquals(3, GeneralTools.hilbertIndex(1, 0, 2));
+
+		// Every cell is visited once, and consecutive cells are adjacent
+		int gridSize = 64;
+		int[] xs = new int[gridSize * gridSize];
+		int[] ys = new int[gridSize * gridSize];
+		Arrays.fill(xs, -1);
+		for (int y = 0; y < gridSize; y++) {
+			for (int x = 0; x < gridSize; x++) {
+				int d = (int)GeneralTools.hilbertIndex(x, y, gridSize);
+				assertEquals(-1, xs[d]);
+				xs[d] = x;
+				ys[d] = y;
+			}
+		}
+		for (int d = 1; d < xs.length; d++)
+			assertEquals(1, Math.abs(xs[d] - xs[d-1]) + Math.abs(ys[d] - ys[d-1]));
+	}
+
 	@Test
 	public void test_generateDistinctName() {
 		List<String> existingNames = Arrays.asList("Alpha", "alpha", "Alpha", "Alpha (1)", "Alpha (1) (1)", "Alpha (2)", "Alpha ()", "beta", "", "(1)", "Alpha (5");
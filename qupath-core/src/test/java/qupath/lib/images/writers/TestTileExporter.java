@@ -0,0 +1,262 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.images.writers;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.plugins.SimpleProgressMonitor;
+import qupath.lib.regions.ImageRegion;
+
+@SuppressWarnings("javadoc")
+public class TestTileExporter {
+
+	@TempDir
+	Path tempDir;
+
+	private static final int N_TILES = 7 * 5 + 1; // Includes JSON file
+
+	@Test
+	public void test_outputs() throws IOException {
+		var dirIndividual = Files.createDirectory(tempDir.resolve("individual"));
+		createExporter().coalesceReads(false).writeTiles(dirIndividual.toString());
+		var expected = readDirectory(dirIndividual);
+		assertEquals(N_TILES, expected.size());
+		assertTrue(expected.containsKey("image [x=128,y=256,w=128,h=128].png"));
+
+		// Reading tiles together should give exactly the same files
+		var dirCoalesced = Files.createDirectory(tempDir.resolve("coalesced"));
+		createExporter().coalesceReads(true).maxConcurrentReads(1).writeTiles(dirCoalesced.toString());
+		assertSameFiles(expected, readDirectory(dirCoalesced));
+
+		var pathZip = tempDir.resolve("tiles.zip");
+		createExporter().writeTiles(pathZip.toString());
+		assertSameFiles(expected, readZip(pathZip));
+		assertFalse(Files.exists(tempDir.resolve("tiles.zip.partial")));
+
+		var pathTar = tempDir.resolve("tiles.tar");
+		createExporter().writeTiles(pathTar.toString());
+		assertSameFiles(expected, readTar(pathTar));
+		assertFalse(Files.exists(tempDir.resolve("tiles.tar.partial")));
+	}
+
+	@Test
+	public void test_coalesceOverlapping() throws IOException {
+		var dirIndividual = Files.createDirectory(tempDir.resolve("individual"));
+		createExporter().overlap(32).coalesceReads(false).writeTiles(dirIndividual.toString());
+		var dirCoalesced = Files.createDirectory(tempDir.resolve("coalesced"));
+		createExporter().overlap(32).coalesceReads(true).writeTiles(dirCoalesced.toString());
+		var expected = readDirectory(dirIndividual);
+		assertTrue(expected.size() > N_TILES);
+		assertSameFiles(expected, readDirectory(dirCoalesced));
+	}
+
+	@Test
+	public void test_longNames() throws IOException {
+		var subDir = "a-directory-with-a-name-that-is-long-enough-to-require-extended-headers-when-written-to-a-tar-file";
+		var dir = Files.createDirectory(tempDir.resolve("dir"));
+		createExporter().imageSubDir(subDir).writeTiles(dir.toString());
+		var pathTar = tempDir.resolve("tiles.tar");
+		createExporter().imageSubDir(subDir).writeTiles(pathTar.toString());
+		var expected = readDirectory(dir);
+		assertTrue(expected.keySet().stream().allMatch(n -> n.startsWith(subDir) || n.endsWith(".json")));
+		assertSameFiles(expected, readTar(pathTar));
+	}
+
+	@Test
+	public void test_resumeDirectory() throws IOException {
+		var dir = Files.createDirectory(tempDir.resolve("tiles"));
+		createExporter().writeTiles(dir.toString());
+		var expected = readDirectory(dir);
+
+		var pathRemoved = dir.resolve("image [x=0,y=0,w=128,h=128].png");
+		var pathRetained = dir.resolve("image [x=128,y=0,w=128,h=128].png");
+		Files.delete(pathRemoved);
+		var time = FileTime.fromMillis(1000L);
+		Files.setLastModifiedTime(pathRetained, time);
+
+		createExporter().resume(true).writeTiles(dir.toString());
+		assertSameFiles(expected, readDirectory(dir));
+		assertTrue(Files.exists(pathRemoved));
+		assertEquals(time, Files.getLastModifiedTime(pathRetained));
+	}
+
+	@Test
+	public void test_resumeArchives() throws IOException {
+		var dir = Files.createDirectory(tempDir.resolve("tiles"));
+		createExporter().writeTiles(dir.toString());
+		var expected = readDirectory(dir);
+
+		for (var name : new String[] {"tiles.zip", "tiles.tar"}) {
+			// Simulate an export that was interrupted part way through writing a file
+			var path = tempDir.resolve(name);
+			createExporter().writeTiles(path.toString());
+			var bytes = Files.readAllBytes(path);
+			var pathPartial = tempDir.resolve(name + ".partial");
+			Files.write(pathPartial, Arrays.copyOf(bytes, bytes.length / 2 + 100));
+			Files.delete(path);
+
+			createExporter().resume(true).writeTiles(path.toString());
+			assertFalse(Files.exists(pathPartial));
+			var actual = name.endsWith(".zip") ? readZip(path) : readTar(path);
+			assertSameFiles(expected, actual);
+		}
+	}
+
+	@Test
+	public void test_cancel() throws IOException {
+		var path = tempDir.resolve("tiles.zip");
+		createExporter().progressMonitor(new CancelledMonitor()).writeTiles(path.toString());
+		assertFalse(Files.exists(path));
+		assertTrue(Files.exists(tempDir.resolve("tiles.zip.partial")));
+
+		createExporter().resume(true).writeTiles(path.toString());
+		assertEquals(N_TILES, readZip(path).size());
+		assertFalse(Files.exists(tempDir.resolve("tiles.zip.partial")));
+	}
+
+	@Test
+	public void test_crop() {
+		var img = createImage(50, 40);
+		var cropped = TileExportPipeline.crop(img, 10, 5, 20, 30);
+		assertEquals(20, cropped.getWidth());
+		assertEquals(30, cropped.getHeight());
+		for (int y = 0; y < 30; y++) {
+			for (int x = 0; x < 20; x++)
+				assertEquals(img.getRGB(x + 10, y + 5), cropped.getRGB(x, y));
+		}
+	}
+
+	private static TileExporter createExporter() {
+		var server = new WrappedBufferedImageServer("image", createImage(1000, 700));
+		return new TileExporter(new ImageData<>(server))
+				.tileSize(128)
+				.downsample(1.0)
+				.imageExtension(".png")
+				.exportJson(true);
+	}
+
+	private static BufferedImage createImage(int width, int height) {
+		var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		var rand = new Random(100L);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				img.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | rand.nextInt(256));
+		}
+		return img;
+	}
+
+	private static void assertSameFiles(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (var entry : expected.entrySet()) {
+			// The JSON file includes the output path
+			if (!entry.getKey().endsWith(".json"))
+				assertArrayEquals(entry.getValue(), actual.get(entry.getKey()), entry.getKey());
+		}
+	}
+
+	private static Map<String, byte[]> readDirectory(Path dir) throws IOException {
+		var map = new TreeMap<String, byte[]>();
+		try (var stream = Files.walk(dir)) {
+			for (var path : stream.filter(Files::isRegularFile).toList())
+				map.put(dir.relativize(path).toString().replace('\\', '/'), Files.readAllBytes(path));
+		}
+		return map;
+	}
+
+	private static Map<String, byte[]> readZip(Path path) throws IOException {
+		var map = new TreeMap<String, byte[]>();
+		try (var zip = new ZipFile(path.toFile())) {
+			for (var entry : zip.stream().toList()) {
+				try (var stream = zip.getInputStream(entry)) {
+					map.put(entry.getName(), stream.readAllBytes());
+				}
+			}
+		}
+		return map;
+	}
+
+	private static Map<String, byte[]> readTar(Path path) throws IOException {
+		var map = new TreeMap<String, byte[]>();
+		var buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+		String paxPath = null;
+		while (buffer.remaining() >= 512) {
+			var header = new byte[512];
+			buffer.get(header);
+			if (header[0] == 0)
+				break;
+			int size = Integer.parseInt(new String(header, 124, 11, StandardCharsets.US_ASCII).trim(), 8);
+			var data = new byte[size];
+			buffer.get(data);
+			buffer.position(buffer.position() + (512 - size % 512) % 512);
+			if (header[156] == 'x') {
+				var record = new String(data, StandardCharsets.UTF_8);
+				paxPath = record.substring(record.indexOf("path=") + 5, record.length() - 1);
+			} else {
+				var name = paxPath == null ? new String(header, 0, 100, StandardCharsets.UTF_8).replace("\0", "") : paxPath;
+				assertFalse(map.containsKey(name), "Duplicate entry " + name);
+				map.put(name, data);
+				paxPath = null;
+			}
+		}
+		return map;
+	}
+
+	private static class CancelledMonitor implements SimpleProgressMonitor {
+
+		@Override
+		public void startMonitoring(String message, int maxProgress, boolean mayCancel) {}
+
+		@Override
+		public void updateProgress(int increment, String message, ImageRegion region) {}
+
+		@Override
+		public void pluginCompleted(String message) {}
+
+		@Override
+		public boolean cancelled() {
+			return true;
+		}
+
+	}
+
+}
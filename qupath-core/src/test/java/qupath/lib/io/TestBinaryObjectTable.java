@@ -0,0 +1,242 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import qupath.lib.common.ColorTools;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.TMACoreObject;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.RoiTools;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+@SuppressWarnings("javadoc")
+public class TestBinaryObjectTable {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void test_readWrite() throws IOException {
+		var pathObjects = createObjects();
+		var path = tempDir.resolve("objects.qpobj");
+		PathIO.exportObjectsAsBinary(path, pathObjects, true);
+		assertSameObjects(pathObjects, PathIO.readObjects(path), true);
+
+		// Streams and compressed files should give the same result
+		var bytes = new ByteArrayOutputStream();
+		PathIO.exportObjectsAsBinary(bytes, pathObjects, true);
+		assertSameObjects(pathObjects, BinaryObjectTable.wrap(ByteBuffer.wrap(bytes.toByteArray())).getPathObjects(), true);
+		var pathCompressed = tempDir.resolve("objects.qpobj.gz");
+		try (var stream = new GZIPOutputStream(Files.newOutputStream(pathCompressed))) {
+			PathIO.exportObjectsAsBinary(stream, pathObjects, true);
+		}
+		assertSameObjects(pathObjects, PathIO.readObjects(pathCompressed), true);
+		assertTrue(PathIO.getObjectFileExtensions(false).contains(".qpobj"));
+	}
+
+	@Test
+	public void test_excludeMeasurements() throws IOException {
+		var pathObjects = createObjects();
+		var path = tempDir.resolve("no-measurements.qpobj");
+		PathIO.exportObjectsAsBinary(path, pathObjects, false);
+		var table = BinaryObjectTable.open(path);
+		assertTrue(table.getMeasurementNames().isEmpty());
+		assertNull(table.getColumn("measurements"));
+		assertSameObjects(pathObjects, table.getPathObjects(), false);
+	}
+
+	@Test
+	public void test_columns() throws IOException {
+		var pathObjects = new ArrayList<PathObject>();
+		var tumor = PathClass.fromString("Tumor");
+		var stroma = PathClass.fromString("Stroma");
+		for (int i = 0; i < 100; i++) {
+			var detection = PathObjects.createDetectionObject(ROIs.createRectangleROI(i, i, 2, 2, ImagePlane.getDefaultPlane()),
+					i % 3 == 0 ? null : i % 3 == 1 ? tumor : stroma);
+			detection.getMeasurementList().put("Index", i);
+			if (i % 2 == 0)
+				detection.getMeasurementList().put("Even", i / 2);
+			pathObjects.add(detection);
+		}
+		var path = tempDir.resolve("columns.qpobj");
+		PathIO.exportObjectsAsBinary(path, pathObjects, true);
+
+		var table = BinaryObjectTable.open(path);
+		assertEquals(100, table.size());
+		assertEquals(List.of("Tumor", "Stroma"), table.getClassNames());
+		assertEquals(List.of("Index", "Even"), table.getMeasurementNames());
+		assertNull(table.getMeasurementValues("Missing"));
+
+		var index = table.getMeasurementValues("Index");
+		var even = table.getMeasurementValues("Even");
+		var classes = table.getColumn("class").asIntBuffer();
+		assertEquals(100, index.remaining());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, index.get(i));
+			if (i % 2 == 0)
+				assertEquals(i / 2, even.get(i));
+			else
+				assertTrue(Double.isNaN(even.get(i)));
+			assertEquals(i % 3 - 1, classes.get(i));
+		}
+
+		// Columns should be aligned to 8 bytes, and coordinates stored as closed rings
+		var bytes = Files.readAllBytes(path);
+		var header = new String(bytes, BinaryObjectTable.PREAMBLE_LENGTH, ByteBuffer.wrap(bytes, 8, 4).order(ByteOrder.LITTLE_ENDIAN).getInt());
+		assertTrue(header.strip().startsWith("{"));
+		var coordOffsets = table.getColumn("roi_coord_offsets").asLongBuffer();
+		assertEquals(101, coordOffsets.remaining());
+		assertEquals(500, coordOffsets.get(100));
+		assertEquals(1000, table.getColumn("roi_coords").asDoubleBuffer().remaining());
+		assertFalse(table.getColumnNames().contains("name_offsets"));
+		assertFalse(table.getColumnNames().contains("nucleus_type"));
+	}
+
+	@Test
+	public void test_invalidFiles() throws IOException {
+		var path = tempDir.resolve("invalid.qpobj");
+		Files.write(path, new byte[] {1, 2, 3, 4, 5});
+		assertThrows(IOException.class, () -> BinaryObjectTable.open(path));
+
+		Files.write(path, "QPOBJ\0\1\0 not really a header".getBytes());
+		assertThrows(IOException.class, () -> BinaryObjectTable.open(path));
+
+		// Truncated files should fail before any columns are used
+		var bytes = new ByteArrayOutputStream();
+		PathIO.exportObjectsAsBinary(bytes, createObjects(), true);
+		var truncated = bytes.toByteArray();
+		Files.write(path, Arrays.copyOf(truncated, truncated.length - 64));
+		assertThrows(IOException.class, () -> PathIO.readObjects(path));
+
+		// Empty collections should be written without problems
+		PathIO.exportObjectsAsBinary(path, List.of(), true);
+		assertTrue(PathIO.readObjects(path).isEmpty());
+	}
+
+	private static List<PathObject> createObjects() {
+		var plane = ImagePlane.getDefaultPlane();
+		List<PathObject> pathObjects = new ArrayList<>();
+
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100, 50, plane), PathClass.fromString("Tumor: Positive"));
+		annotation.setName("My annotation \u00B5m");
+		annotation.setColor(ColorTools.packRGB(255, 0, 0));
+		annotation.setLocked(true);
+		annotation.getMetadata().put("Key", "Value");
+		annotation.getMeasurementList().put("Annotation measurement", 1.5);
+		pathObjects.add(annotation);
+
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createEllipseROI(10, 20, 30, 15, ImagePlane.getPlane(1, 2))));
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createLineROI(1, 2, 30.5, 40.25, plane)));
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createPolylineROI(new double[] {0, 10, 20}, new double[] {5, 0, 5}, plane)));
+		pathObjects.add(PathObjects.createAnnotationObject(ROIs.createPointsROI(new double[] {1, 2, 3}, new double[] {4, 5, 6}, plane)));
+
+		// Polygon with a hole, and a multipolygon
+		var outer = ROIs.createRectangleROI(0, 0, 100, 100, plane);
+		var hole = ROIs.createEllipseROI(25, 25, 50, 50, plane);
+		pathObjects.add(PathObjects.createAnnotationObject(RoiTools.combineROIs(outer, hole, RoiTools.CombineOp.SUBTRACT)));
+		var separate = ROIs.createRectangleROI(200, 200, 10, 10, plane);
+		pathObjects.add(PathObjects.createAnnotationObject(RoiTools.union(List.of(outer, separate))));
+
+		for (int i = 0; i < 20; i++) {
+			var roi = ROIs.createPolygonROI(new double[] {i, i + 10, i + 4}, new double[] {0, 2.5, 9.25}, plane);
+			var detection = PathObjects.createDetectionObject(roi, i % 2 == 0 ? PathClass.fromString("Tumor") : null);
+			detection.getMeasurementList().put("Index", i);
+			pathObjects.add(detection);
+		}
+
+		var cell = PathObjects.createCellObject(ROIs.createRectangleROI(0, 0, 20, 20, plane),
+				ROIs.createEllipseROI(5, 5, 10, 10, plane), PathClass.fromString("Stroma"));
+		cell.getMeasurementList().put("Cell measurement", 2.0);
+		pathObjects.add(cell);
+		pathObjects.add(PathObjects.createCellObject(ROIs.createRectangleROI(50, 0, 20, 20, plane), null));
+		pathObjects.add(PathObjects.createTileObject(ROIs.createRectangleROI(0, 0, 256, 256, plane)));
+
+		var core = new TMACoreObject();
+		core.setROI(ROIs.createEllipseROI(500, 500, 100, 100, plane));
+		core.setMissing(true);
+		core.setName("A-1");
+		pathObjects.add(core);
+		return pathObjects;
+	}
+
+	private static void assertSameObjects(List<PathObject> expected, List<PathObject> actual, boolean includeMeasurements) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			var p1 = expected.get(i);
+			var p2 = actual.get(i);
+			assertEquals(p1.getID(), p2.getID());
+			assertEquals(p1.getClass(), p2.getClass());
+			assertEquals(p1.getPathClass(), p2.getPathClass());
+			assertEquals(p1.getName(), p2.getName());
+			assertEquals(p1.getColor(), p2.getColor());
+			assertEquals(p1.isLocked(), p2.isLocked());
+			assertEquals(p1.getMetadata(), p2.getMetadata());
+			assertSameROIs(p1.getROI(), p2.getROI());
+			if (p1 instanceof PathCellObject cell)
+				assertSameROIs(cell.getNucleusROI(), ((PathCellObject)p2).getNucleusROI());
+			if (p1 instanceof TMACoreObject core)
+				assertEquals(core.isMissing(), ((TMACoreObject)p2).isMissing());
+			if (includeMeasurements)
+				assertEquals(p1.getMeasurementList().asMap(), p2.getMeasurementList().asMap());
+			else
+				assertTrue(p2.getMeasurementList().isEmpty());
+		}
+	}
+
+	private static void assertSameROIs(ROI roi1, ROI roi2) {
+		if (roi1 == null) {
+			assertNull(roi2);
+			return;
+		}
+		assertEquals(roi1.getClass(), roi2.getClass());
+		assertEquals(roi1.getZ(), roi2.getZ());
+		assertEquals(roi1.getT(), roi2.getT());
+		assertEquals(roi1.getArea(), roi2.getArea(), 1e-6);
+		assertEquals(roi1.getLength(), roi2.getLength(), 1e-6);
+		assertEquals(roi1.getAllPoints(), roi2.getAllPoints());
+	}
+
+}
@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestIncrementalImageDataWriter {
+
+	@TempDir
+	static Path tempDir;
+
+	@Test
+	public void test_copyUnchangedChunks() throws IOException {
+		var imageData = createImageData();
+		var hierarchy = imageData.getHierarchy();
+		var path = tempDir.resolve("copy.qpdata");
+		try (var writer = new IncrementalImageDataWriter(imageData)) {
+			assertFalse(writer.hasChanges());
+
+			// Everything should be encoded the first time
+			var result = writer.write(path);
+			int nChunks = result.chunksWritten();
+			assertEquals(0, result.chunksCopied());
+			assertEquals(Files.size(path), result.bytesWritten());
+			assertFalse(Files.exists(tempDir.resolve("copy.qpdata.tmp")));
+			assertSameDetections(hierarchy, PathIO.readHierarchy(path));
+
+			// Without changes, all detections should be copied
+			result = writer.write(path);
+			assertEquals(nChunks, result.chunksWritten());
+			assertEquals(nChunks - 3, result.chunksCopied());
+
+			// Only the tile containing the changed detection should be encoded
+			var detection = hierarchy.getDetectionObjects().iterator().next();
+			detection.setPathClass(PathClass.getInstance("Changed"));
+			hierarchy.fireObjectClassificationsChangedEvent(this, List.of(detection));
+			assertTrue(writer.hasChanges());
+			assertTrue(imageData.isChanged());
+			result = writer.write(path);
+			assertEquals(nChunks - 4, result.chunksCopied());
+			assertFalse(writer.hasChanges());
+			assertFalse(imageData.isChanged());
+			assertSameDetections(hierarchy, PathIO.readHierarchy(path));
+
+			// Adding and removing detections should be identified from the structure
+			// (removing the last child means that the positions of the other children don't change)
+			var annotation = hierarchy.getAnnotationObjects().iterator().next();
+			var children = annotation.getChildObjectsAsArray();
+			hierarchy.removeObject(children[children.length - 1], false);
+			hierarchy.addObject(createDetection(10000, 10000));
+			result = writer.write(path);
+			assertEquals(nChunks + 1, result.chunksWritten());
+			assertEquals(nChunks - 4, result.chunksCopied());
+			assertSameDetections(hierarchy, PathIO.readHierarchy(path));
+
+			// Changes without details should cause everything to be encoded
+			hierarchy.fireHierarchyChangedEvent(this);
+			result = writer.write(path);
+			assertEquals(0, result.chunksCopied());
+			assertSameDetections(hierarchy, PathIO.readHierarchy(path));
+		}
+	}
+
+	@Test
+	public void test_fileChanged() throws IOException {
+		var imageData = createImageData();
+		var path = tempDir.resolve("changed.qpdata");
+		try (var writer = new IncrementalImageDataWriter(imageData)) {
+			writer.write(path);
+			// If the file is written elsewhere, nothing should be copied from it
+			PathIO.writeImageData(path, imageData);
+			Files.write(path, new byte[] {1}, StandardOpenOption.APPEND);
+			var result = writer.write(path);
+			assertEquals(0, result.chunksCopied());
+			assertSameDetections(imageData.getHierarchy(), PathIO.readHierarchy(path));
+		}
+	}
+
+	@Test
+	public void test_propertyChanges() throws IOException {
+		var imageData = createImageData();
+		var path = tempDir.resolve("properties.qpdata");
+		try (var writer = new IncrementalImageDataWriter(imageData)) {
+			writer.write(path);
+			imageData.setProperty("key", "value");
+			assertTrue(writer.hasChanges());
+			writer.write(path);
+			assertFalse(writer.hasChanges());
+			var imageData2 = PathIO.readImageData(path, null, imageData.getServer(), BufferedImage.class);
+			assertEquals("value", imageData2.getProperty("key"));
+		}
+	}
+
+	private static ImageData<BufferedImage> createImageData() {
+		var server = new WrappedBufferedImageServer("test", new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB));
+		var imageData = new ImageData<>(server);
+		var hierarchy = imageData.getHierarchy();
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 8192, 8192, ImagePlane.getDefaultPlane()));
+		hierarchy.addObject(annotation);
+		// Create detections in a 3x3 grid of tiles
+		for (int y = 0; y < 3; y++) {
+			for (int x = 0; x < 3; x++) {
+				for (int i = 0; i < 100; i++)
+					annotation.addChildObject(createDetection(x * ImageDataChunks.TILE_SIZE + i * 10, y * ImageDataChunks.TILE_SIZE + i * 10));
+			}
+		}
+		hierarchy.fireHierarchyChangedEvent(imageData);
+		imageData.setChanged(false);
+		return imageData;
+	}
+
+	private static PathObject createDetection(double x, double y) {
+		return PathObjects.createDetectionObject(ROIs.createRectangleROI(x, y, 5, 5, ImagePlane.getDefaultPlane()));
+	}
+
+	private static void assertSameDetections(PathObjectHierarchy expected, PathObjectHierarchy actual) {
+		Map<Object, PathClass> expectedMap = expected.getDetectionObjects().stream()
+				.collect(Collectors.toMap(PathObject::getID, p -> p.getPathClass() == null ? PathClass.NULL_CLASS : p.getPathClass()));
+		Map<Object, PathClass> actualMap = actual.getDetectionObjects().stream()
+				.collect(Collectors.toMap(PathObject::getID, p -> p.getPathClass() == null ? PathClass.NULL_CLASS : p.getPathClass()));
+		assertEquals(expectedMap, actualMap);
+	}
+
+}
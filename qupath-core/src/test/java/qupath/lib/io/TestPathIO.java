@@ -24,30 +24,55 @@
 package qupath.lib.io;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.UUID;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import org.junit.jupiter.api.Test;
 
+import qupath.lib.images.ImageData;
+import qupath.lib.images.servers.WrappedBufferedImageServer;
+import qupath.lib.measurements.MeasurementList;
+import qupath.lib.measurements.MeasurementListFactory;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
 import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.TMACoreObject;
 import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.DefaultTMAGrid;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
 import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
 
 @SuppressWarnings("javadoc")
 public class TestPathIO {
@@ -137,6 +162,336 @@ public class TestPathIO {
 
 	}
 	
+	@Test
+	public void test_chunkedDataFileRoundTrip() throws IOException {
+		var imageData = createImageData();
+		var path = Files.createTempFile("test", ".qpdata");
+		try {
+			PathIO.writeImageData(path, imageData);
+			try (var stream = Files.newInputStream(path)) {
+				assertEquals(ImageDataChunks.MAGIC, new DataInputStream(stream).readInt());
+			}
+			var imageData2 = PathIO.readImageData(path, null, imageData.getServer(), BufferedImage.class);
+			assertSameHierarchy(imageData.getHierarchy(), imageData2.getHierarchy());
+			assertEquals(imageData.getImageType(), imageData2.getImageType());
+			assertEquals("value", imageData2.getProperty("key"));
+			
+			// Reading from a stream should give the same result as reading from a file
+			try (var stream = Files.newInputStream(path)) {
+				assertSameHierarchy(imageData.getHierarchy(), PathIO.readHierarchy(stream));
+			}
+			assertSameHierarchy(imageData.getHierarchy(), PathIO.readHierarchy(path));
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+	
+	@Test
+	public void test_serializedDataFileRoundTrip() throws IOException {
+		var imageData = createImageData();
+		var path = Files.createTempFile("test", ".qpdata");
+		try {
+			PathIO.setDataFileFormat(PathIO.DataFileFormat.SERIALIZED);
+			PathIO.writeImageData(path, imageData);
+		} finally {
+			PathIO.setDataFileFormat(PathIO.DataFileFormat.CHUNKED);
+		}
+		try {
+			var bytes = Files.readAllBytes(path);
+			assertEquals((byte)0xAC, bytes[0]);
+			assertEquals((byte)0xED, bytes[1]);
+			var imageData2 = PathIO.readImageData(path, null, imageData.getServer(), BufferedImage.class);
+			assertSameHierarchy(imageData.getHierarchy(), imageData2.getHierarchy());
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+	
+	@Test
+	public void test_readHierarchyWithoutDetections() throws IOException {
+		var imageData = createImageData();
+		var hierarchy = imageData.getHierarchy();
+		for (var format : PathIO.DataFileFormat.values()) {
+			var path = writeImageData(imageData, format);
+			try {
+				var hierarchy2 = PathIO.readHierarchyWithoutDetections(path);
+				assertTrue(hierarchy2.getDetectionObjects().isEmpty());
+				assertEquals(getIDs(hierarchy.getAnnotationObjects()), getIDs(hierarchy2.getAnnotationObjects()));
+				assertEquals(
+						getIDs(hierarchy.getTMAGrid().getTMACoreList()),
+						getIDs(hierarchy2.getTMAGrid().getTMACoreList()));
+			} finally {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+	
+	@Test
+	public void test_readHierarchyForRegion() throws IOException {
+		var imageData = createImageData();
+		var hierarchy = imageData.getHierarchy();
+		var regions = List.of(
+				ImageRegion.createInstance(1000, 1500, 3000, 2500, 0, 0),
+				ImageRegion.createInstance(0, 0, 10000, 10000, 1, 0),
+				ImageRegion.createInstance(20000, 20000, 100, 100, 0, 0));
+		for (var format : PathIO.DataFileFormat.values()) {
+			var path = writeImageData(imageData, format);
+			try {
+				for (var region : regions) {
+					var expected = new HashSet<UUID>();
+					for (var detection : hierarchy.getDetectionObjects()) {
+						if (detection.getParent().isDetection() || !intersects(region, detection.getROI()))
+							continue;
+						expected.add(detection.getID());
+						for (var descendant : detection.getDescendantObjects(null))
+							expected.add(descendant.getID());
+					}
+					var hierarchy2 = PathIO.readHierarchyForRegion(path, region);
+					assertEquals(expected, new HashSet<>(getIDs(hierarchy2.getDetectionObjects())));
+					assertEquals(getIDs(hierarchy.getAnnotationObjects()), getIDs(hierarchy2.getAnnotationObjects()));
+				}
+			} finally {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+	
+	@Test
+	public void test_chunkedDataFileWithoutIndex() throws IOException {
+		var imageData = createImageData();
+		var path = writeImageData(imageData, PathIO.DataFileFormat.CHUNKED);
+		try {
+			// Remove the trailer, so that the file needs to be read sequentially
+			var bytes = Files.readAllBytes(path);
+			Files.write(path, Arrays.copyOf(bytes, bytes.length - 12));
+			assertSameHierarchy(imageData.getHierarchy(), PathIO.readHierarchy(path));
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+	
+	@Test
+	public void test_readImageDataLazily() throws IOException {
+		var imageData = createImageData();
+		var hierarchy = imageData.getHierarchy();
+		var path = writeImageData(imageData, PathIO.DataFileFormat.CHUNKED);
+		var previous = PathIO.isLazyDetectionLoading();
+		try {
+			PathIO.setLazyDetectionLoading(true);
+			var imageData2 = PathIO.readImageData(path, null, imageData.getServer(), BufferedImage.class);
+			var hierarchy2 = imageData2.getHierarchy();
+			assertTrue(hierarchy2.hasUnloadedObjects());
+			assertEquals(0, hierarchy2.getStatistics().getDetectionCount());
+			assertEquals(getIDs(hierarchy.getAnnotationObjects()), getIDs(hierarchy2.getAnnotationObjects()));
+			
+			// Region requests should load the detections that are needed, without changing the image data
+			var region = ImageRegion.createInstance(1000, 1500, 3000, 2500, 0, 0);
+			assertEquals(
+					new HashSet<>(getIDs(hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null))),
+					new HashSet<>(getIDs(hierarchy2.getObjectsForRegion(PathDetectionObject.class, region, null))));
+			assertTrue(hierarchy2.hasUnloadedObjects());
+			assertFalse(imageData2.isChanged());
+			
+			// Objects may be added to their parents in a different order, so compare by ID
+			hierarchy2.loadAllObjects();
+			assertFalse(hierarchy2.hasUnloadedObjects());
+			assertFalse(imageData2.isChanged());
+			var expected = hierarchy.getAllObjects(false);
+			var actual = new HashMap<UUID, PathObject>();
+			for (var pathObject : hierarchy2.getAllObjects(false))
+				actual.put(pathObject.getID(), pathObject);
+			assertEquals(expected.size(), actual.size());
+			for (var pathObject : expected)
+				assertSameObject(pathObject, actual.get(pathObject.getID()));
+		} finally {
+			PathIO.setLazyDetectionLoading(previous);
+			Files.deleteIfExists(path);
+		}
+	}
+	
+	private static Path writeImageData(ImageData<?> imageData, PathIO.DataFileFormat format) throws IOException {
+		var path = Files.createTempFile("test", ".qpdata");
+		var previous = PathIO.getDataFileFormat();
+		try {
+			PathIO.setDataFileFormat(format);
+			PathIO.writeImageData(path, imageData);
+		} finally {
+			PathIO.setDataFileFormat(previous);
+		}
+		return path;
+	}
+	
+	private static boolean intersects(ImageRegion region, ROI roi) {
+		return region.getZ() == roi.getZ() && region.getT() == roi.getT() &&
+				roi.getBoundsX() <= region.getMaxX() && roi.getBoundsX() + roi.getBoundsWidth() >= region.getMinX() &&
+				roi.getBoundsY() <= region.getMaxY() && roi.getBoundsY() + roi.getBoundsHeight() >= region.getMinY();
+	}
+	
+	private static List<UUID> getIDs(Collection<? extends PathObject> pathObjects) {
+		return pathObjects.stream().map(PathObject::getID).toList();
+	}
+	
+	/**
+	 * Create image data containing a wide range of objects, including enough detections for 
+	 * some tiles to be split across multiple chunks.
+	 */
+	private static ImageData<BufferedImage> createImageData() {
+		var server = new WrappedBufferedImageServer("test", new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB));
+		var imageData = new ImageData<>(server, ImageData.ImageType.BRIGHTFIELD_H_DAB);
+		imageData.setProperty("key", "value");
+		var hierarchy = imageData.getHierarchy();
+		var rng = new Random(100L);
+		
+		var tumor = PathClass.getInstance("Tumor");
+		var positive = PathClass.getInstance(tumor, "Positive", null);
+		var classes = Arrays.asList(null, tumor, positive, PathClass.getInstance("Stroma"));
+		var plane = ImagePlane.getDefaultPlane();
+		
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 5000, 5000, plane), tumor);
+		annotation.setName("Annotation");
+		annotation.setLocked(true);
+		annotation.setColor(255, 0, 0);
+		annotation.getMetadata().put("key", "value");
+		annotation.getMeasurementList().put("Something", 1.0/3.0);
+		hierarchy.addObject(annotation, false);
+		
+		var nested = PathObjects.createAnnotationObject(ROIs.createEllipseROI(100, 200, 300, 400, plane), positive);
+		hierarchy.addObjectBelowParent(annotation, nested, false);
+		hierarchy.addObjectBelowParent(nested, PathObjects.createAnnotationObject(ROIs.createLineROI(110.5, 220.25, 300, 400, plane)), false);
+		hierarchy.addObjectBelowParent(annotation, PathObjects.createAnnotationObject(
+				ROIs.createPointsROI(new double[] {1.5, 2.5, 3.5}, new double[] {4.25, 5.25, 6.25}, plane)), false);
+		hierarchy.addObject(PathObjects.createAnnotationObject(
+				ROIs.createPolylineROI(new double[] {6000, 7000, 7500.5}, new double[] {100, 200, 300.5}, plane)), false);
+		hierarchy.addObject(PathObjects.createAnnotationObject(
+				ROIs.createRectangleROI(10, 20, 30, 40, ImagePlane.getPlane(1, 0))), false);
+		
+		// TMA cores with detections
+		var cores = new ArrayList<TMACoreObject>();
+		for (int i = 0; i < 4; i++) {
+			var core = PathObjects.createTMACoreObject(12000 + (i % 2) * 1000, 12000 + (i / 2) * 1000, 800, i == 3);
+			core.setName("Core " + i);
+			cores.add(core);
+		}
+		hierarchy.setTMAGrid(DefaultTMAGrid.create(cores, 2));
+		for (var core : cores) {
+			var roi = core.getROI();
+			for (int i = 0; i < 10; i++)
+				hierarchy.addObjectBelowParent(core, createDetection(rng, roi.getCentroidX(), roi.getCentroidY(), 100, classes), false);
+		}
+		
+		// Detections scattered across the image, with many concentrated in one tile
+		for (int i = 0; i < 12000; i++) {
+			double range = i < 9000 ? 2000 : 10000;
+			var detection = createDetection(rng, rng.nextDouble() * range, rng.nextDouble() * range, 0, classes);
+			var roi = detection.getROI();
+			var parent = roi.getBoundsX() + roi.getBoundsWidth() < 5000 && roi.getBoundsY() + roi.getBoundsHeight() < 5000 ? annotation : null;
+			hierarchy.addObjectBelowParent(parent, detection, false);
+			if (i % 100 == 0) {
+				var child = PathObjects.createDetectionObject(ROIs.createRectangleROI(roi.getBoundsX(), roi.getBoundsY(), 2, 2, plane));
+				hierarchy.addObjectBelowParent(detection, child, false);
+			}
+		}
+		hierarchy.addObjectBelowParent(null, createDetection(rng, 500, 500, 0, classes), false);
+		hierarchy.addObject(PathObjects.createDetectionObject(ROIs.createRectangleROI(50, 50, 5, 5, ImagePlane.getPlane(1, 0))), false);
+		hierarchy.fireHierarchyChangedEvent(hierarchy);
+		return imageData;
+	}
+	
+	private static PathObject createDetection(Random rng, double x, double y, double offset, List<PathClass> classes) {
+		var plane = ImagePlane.getDefaultPlane();
+		x += (rng.nextDouble() - 0.5) * offset;
+		y += (rng.nextDouble() - 0.5) * offset;
+		var pathClass = classes.get(rng.nextInt(classes.size()));
+		var polygon = ROIs.createPolygonROI(
+				new double[] {x, x + 5 + rng.nextInt(5), x + 2.5},
+				new double[] {y, y + 1.5, y + 6 + rng.nextInt(5)},
+				plane);
+		int type = rng.nextInt(3);
+		if (type == 0) {
+			var measurements = MeasurementListFactory.createMeasurementList(2, MeasurementList.MeasurementListType.FLOAT);
+			measurements.put("Area", polygon.getArea());
+			measurements.put("Intensity", rng.nextInt(256));
+			var detection = PathObjects.createDetectionObject(polygon, pathClass, measurements);
+			detection.setColor(rng.nextInt(256), 0, 128);
+			return detection;
+		} else if (type == 1) {
+			var measurements = MeasurementListFactory.createMeasurementList(3, MeasurementList.MeasurementListType.DOUBLE);
+			measurements.put("Area", polygon.getArea());
+			measurements.put("Probability", rng.nextDouble());
+			measurements.put("Missing", Double.NaN);
+			var nucleus = ROIs.createEllipseROI(x + 1, y + 1, 2, 3, plane);
+			var cell = PathObjects.createCellObject(polygon, nucleus, pathClass, measurements);
+			if (pathClass != null)
+				cell.setPathClass(pathClass, rng.nextDouble());
+			return cell;
+		} else
+			return PathObjects.createTileObject(ROIs.createRectangleROI(Math.floor(x), Math.floor(y), 8, 8, plane), pathClass, null);
+	}
+	
+	private static void assertSameHierarchy(PathObjectHierarchy expected, PathObjectHierarchy actual) {
+		var expectedObjects = new ArrayList<>(expected.getAllObjects(true));
+		var actualObjects = new ArrayList<>(actual.getAllObjects(true));
+		assertEquals(expectedObjects.size(), actualObjects.size());
+		for (int i = 0; i < expectedObjects.size(); i++)
+			assertSameObject(expectedObjects.get(i), actualObjects.get(i));
+		var expectedGrid = expected.getTMAGrid();
+		var actualGrid = actual.getTMAGrid();
+		if (expectedGrid == null) {
+			assertNull(actualGrid);
+		} else {
+			assertEquals(expectedGrid.getGridWidth(), actualGrid.getGridWidth());
+			assertEquals(getIDs(expectedGrid.getTMACoreList()), getIDs(actualGrid.getTMACoreList()));
+			for (var core : actualGrid.getTMACoreList())
+				assertSame(actual.getRootObject(), core.getParent());
+		}
+	}
+	
+	private static void assertSameObject(PathObject expected, PathObject actual) {
+		assertEquals(expected.getClass(), actual.getClass());
+		if (!expected.isRootObject())
+			assertEquals(expected.getID(), actual.getID());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getColor(), actual.getColor());
+		assertEquals(expected.getPathClass(), actual.getPathClass());
+		assertEquals(expected.getClassProbability(), actual.getClassProbability());
+		assertEquals(expected.isLocked(), actual.isLocked());
+		assertEquals(expected.getParent() == null, actual.getParent() == null);
+		if (expected.getParent() != null && !expected.getParent().isRootObject())
+			assertEquals(expected.getParent().getID(), actual.getParent().getID());
+		assertEquals(expected.nChildObjects(), actual.nChildObjects());
+		
+		var expectedMeasurements = expected.getMeasurementList();
+		var actualMeasurements = actual.getMeasurementList();
+		assertEquals(expectedMeasurements.getMeasurementNames(), actualMeasurements.getMeasurementNames());
+		for (var name : expectedMeasurements.getMeasurementNames())
+			assertEquals(expectedMeasurements.get(name), actualMeasurements.get(name));
+		
+		if (expected instanceof PathAnnotationObject)
+			assertEquals(new HashMap<>(expected.getMetadata()), new HashMap<>(actual.getMetadata()));
+		if (expected instanceof TMACoreObject core)
+			assertEquals(core.isMissing(), ((TMACoreObject)actual).isMissing());
+		
+		assertSameROI(expected.getROI(), actual.getROI());
+		if (expected instanceof PathCellObject cell)
+			assertSameROI(cell.getNucleusROI(), ((PathCellObject)actual).getNucleusROI());
+	}
+	
+	private static void assertSameROI(ROI expected, ROI actual) {
+		if (expected == null) {
+			assertNull(actual);
+			return;
+		}
+		assertEquals(expected.getClass(), actual.getClass());
+		assertEquals(expected.getImagePlane(), actual.getImagePlane());
+		var expectedPoints = expected.getAllPoints();
+		var actualPoints = actual.getAllPoints();
+		assertEquals(expectedPoints.size(), actualPoints.size());
+		for (int i = 0; i < expectedPoints.size(); i++) {
+			assertEquals(expectedPoints.get(i).getX(), actualPoints.get(i).getX(), 1e-6);
+			assertEquals(expectedPoints.get(i).getY(), actualPoints.get(i).getY(), 1e-6);
+		}
+	}
+	
 	private static <T> T serializeDeserializeStandard(T obj) {
 		try {
 			var bytesOut = new ByteArrayOutputStream();
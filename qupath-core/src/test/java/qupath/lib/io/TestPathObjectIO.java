@@ -32,19 +32,28 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.reflect.TypeToken;
 
 import qupath.lib.common.ColorTools;
+import qupath.lib.common.GeneralTools;
 import qupath.lib.io.PathIO.GeoJsonExportOptions;
 import qupath.lib.measurements.MeasurementList;
 import qupath.lib.measurements.MeasurementListFactory;
 import qupath.lib.objects.PathCellObject;
 import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjectTools;
 import qupath.lib.objects.PathObjects;
 import qupath.lib.objects.classes.PathClass;
 import qupath.lib.regions.ImagePlane;
@@ -167,6 +176,149 @@ public class TestPathObjectIO {
 		assertArrayEquals(countCheck, new int[] {1, 1, 1, 1, 1});
 	}
 	
+	@Test
+	public void test_streamingGeoJSON() throws IOException {
+		var objs = createMixedObjects(2500);
+		
+		for (var options : List.of(new GeoJsonExportOptions[0], new GeoJsonExportOptions[] {GeoJsonExportOptions.FEATURE_COLLECTION})) {
+			var bos = new ByteArrayOutputStream();
+			PathIO.exportObjectsAsGeoJSON(bos, objs, options);
+			var bytes = bos.toByteArray();
+			
+			assertSameObjects(objs, PathIO.readObjectsFromGeoJSON(new ByteArrayInputStream(bytes)));
+			
+			List<PathObject> parallelObjects = new ArrayList<>();
+			PathIO.readObjectsFromGeoJSON(new ByteArrayInputStream(bytes), true, parallelObjects::add);
+			assertSameObjects(objs, parallelObjects);
+		}
+	}
+	
+	@Test
+	public void test_streamingGeoJSONMemberOrder() throws IOException {
+		// Features before type, geometry before type, and a bare geometry
+		String json = """
+				[
+				  {"features": [{"geometry": {"coordinates": [[[0, 0], [10, 0], [10, 10], [0, 0]]], "type": "Polygon"}, "type": "Feature", "properties": {"objectType": "detection"}}],
+				   "type": "FeatureCollection"},
+				  {"geometry": {"type": "Point", "coordinates": [5, 5]}, "type": "Feature"},
+				  {"type": "LineString", "coordinates": [[0, 0], [5, 5]]},
+				  {"type": "Something else"}
+				]
+				""";
+		for (boolean parallel : new boolean[] {false, true}) {
+			List<PathObject> pathObjects = new ArrayList<>();
+			PathIO.readObjectsFromGeoJSON(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), parallel, pathObjects::add);
+			assertEquals(3, pathObjects.size());
+			assertTrue(pathObjects.get(0).isDetection());
+			assertEquals(3, pathObjects.get(0).getROI().getNumPoints());
+			assertTrue(pathObjects.get(1).isAnnotation());
+			assertTrue(pathObjects.get(1).getROI().isPoint());
+			assertTrue(pathObjects.get(2).getROI().isLine());
+		}
+		assertTrue(PathIO.readObjectsFromGeoJSON(new ByteArrayInputStream(new byte[0])).isEmpty());
+	}
+	
+	@Test
+	public void test_parallelGeoJSONExport(@TempDir Path dir) throws IOException {
+		var objs = createMixedObjects(1300);
+		objs.get(1).setName("An annotation");
+		objs.get(1).setColor(ColorTools.packRGB(255, 0, 0));
+		objs.get(3).getMetadata().put("Key", "Value");
+		objs.add(PathObjects.createCellObject(
+				ROIs.createRectangleROI(0.25, 1.5, 20.75, 20, ImagePlane.getDefaultPlane()),
+				ROIs.createRectangleROI(5.5, 5.25, 3, 3, ImagePlane.getDefaultPlane())));
+		
+		// Output should match Gson exactly
+		var gson = GsonTools.getInstance();
+		var type = new TypeToken<List<PathObject>>() {}.getType();
+		assertEquals(gson.toJson(objs, type), exportToString(objs));
+		assertEquals(gson.toJson(FeatureCollection.wrap(objs)), exportToString(objs, GeoJsonExportOptions.FEATURE_COLLECTION));
+		assertEquals(GsonTools.getInstance(true).toJson(objs, type), exportToString(objs, GeoJsonExportOptions.PRETTY_JSON));
+		assertEquals(gson.toJson(objs.get(0)), exportToString(objs.subList(0, 1)));
+		assertEquals("[]", exportToString(List.of()));
+		
+		// Excluding measurements should match the previous approach of copying objects without measurements
+		var copies = objs.stream().map(p -> PathObjectTools.transformObject(p, null, false)).toList();
+		assertEquals(gson.toJson(copies, type), exportToString(objs, GeoJsonExportOptions.EXCLUDE_MEASUREMENTS));
+		assertFalse(objs.get(0).getMeasurementList().isEmpty());
+		
+		// Compressed output should be readable
+		var path = dir.resolve("objects.geojson.gz");
+		PathIO.exportObjectsAsGeoJSON(path, objs, GeoJsonExportOptions.FEATURE_COLLECTION);
+		assertSameObjects(objs, PathIO.readObjects(path));
+	}
+	
+	@Test
+	public void test_coordinateFormatting() {
+		var rng = new Random(100L);
+		double[] values = {0, -0.0, 0.125, 0.135, 1.005, 2.675, -3.5, -0.001, 1e20, 123456789.125, Double.NaN, Double.POSITIVE_INFINITY};
+		for (int nDecimals = 0; nDecimals <= 4; nDecimals++) {
+			for (double v : values)
+				assertEquals(GeneralTools.formatNumber(Locale.US, v, nDecimals), formatNumber(v, nDecimals));
+			for (int i = 0; i < 10_000; i++) {
+				double v = (rng.nextInt(2_000_000) - 1_000_000) / 200.0;
+				assertEquals(GeneralTools.formatNumber(Locale.US, v, nDecimals), formatNumber(v, nDecimals));
+				v = rng.nextDouble() * 1e7 - 5e6;
+				assertEquals(GeneralTools.formatNumber(Locale.US, v, nDecimals), formatNumber(v, nDecimals));
+			}
+		}
+	}
+	
+	private static String formatNumber(double value, int nDecimals) {
+		var sb = new StringBuilder();
+		ROITypeAdapters.appendNumber(sb, value, nDecimals);
+		return sb.toString();
+	}
+	
+	private static String exportToString(Collection<? extends PathObject> pathObjects, GeoJsonExportOptions... options) throws IOException {
+		var bos = new ByteArrayOutputStream();
+		PathIO.exportObjectsAsGeoJSON(bos, pathObjects, options);
+		return bos.toString(StandardCharsets.UTF_8);
+	}
+	
+	private static List<PathObject> createMixedObjects(int n) {
+		List<PathObject> objs = new ArrayList<>();
+		var plane = ImagePlane.getDefaultPlane();
+		for (int i = 0; i < n; i++) {
+			double x = (i % 50) * 20;
+			double y = (i / 50) * 20;
+			ROI roi;
+			switch (i % 5) {
+			case 0:
+				roi = ROIs.createRectangleROI(x, y, 10, 10, plane);
+				break;
+			case 1:
+				roi = ROIs.createEllipseROI(x, y, 10, 8, plane);
+				break;
+			case 2:
+				roi = ROIs.createPolygonROI(new float[] {(float)x, (float)x+10, (float)x+4}, new float[] {(float)y, (float)y+2, (float)y+9}, ImagePlane.getPlane(1, 2));
+				break;
+			case 3:
+				roi = ROIs.createLineROI(x, y, x+5, y+5, plane);
+				break;
+			default:
+				roi = ROIs.createPointsROI(x, y, plane);
+			}
+			var pathObject = i % 2 == 0 ? PathObjects.createDetectionObject(roi) : PathObjects.createAnnotationObject(roi);
+			pathObject.getMeasurementList().put("Index", i);
+			objs.add(pathObject);
+		}
+		return objs;
+	}
+	
+	private static void assertSameObjects(List<PathObject> expected, List<PathObject> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			var p1 = expected.get(i);
+			var p2 = actual.get(i);
+			assertEquals(p1.getID(), p2.getID());
+			assertEquals(p1.getClass(), p2.getClass());
+			assertEquals(p1.getROI().getRoiType(), p2.getROI().getRoiType());
+			assertSameROIs(p1.getROI(), p2.getROI());
+			assertSameMeasurements(p1.getMeasurementList(), p2.getMeasurementList());
+		}
+	}
+	
 	private static void assertSameMeasurements(MeasurementList ml1, MeasurementList ml2) {
 		assertEquals(ml1.size(), ml2.size());
 		assertEquals(ml1.getMeasurementNames(), ml2.getMeasurementNames());
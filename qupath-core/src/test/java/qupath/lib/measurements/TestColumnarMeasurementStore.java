@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License 
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.measurements;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.measurements.MeasurementList.MeasurementListType;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestColumnarMeasurementStore {
+
+	@Test
+	public void test_lists() {
+		TestMeasurementListFactory.testList(new ColumnarMeasurementStore(MeasurementListType.FLOAT).createMeasurementList());
+		TestMeasurementListFactory.testList(new ColumnarMeasurementStore(MeasurementListType.DOUBLE).createMeasurementList());
+		assertThrows(IllegalArgumentException.class, () -> new ColumnarMeasurementStore(MeasurementListType.GENERAL));
+	}
+
+	@Test
+	public void test_rows() {
+		var store = new ColumnarMeasurementStore();
+		var list1 = store.createMeasurementList();
+		var list2 = store.createMeasurementList();
+		assertEquals(2, store.getRowCount());
+
+		list1.put("A", 1.0);
+		list1.put("B", 2.0);
+		list2.put("B", 3.0);
+		list2.put("C", Double.NaN);
+
+		assertEquals(List.of("A", "B", "C"), store.getMeasurementNames());
+		assertEquals(List.of("A", "B"), list1.getMeasurementNames());
+		assertEquals(List.of("B", "C"), list2.getMeasurementNames());
+		assertArrayEquals(new double[] {1.0, 2.0}, list1.values());
+
+		// Explicit NaN values should be distinguished from missing values
+		assertTrue(list2.containsKey("C"));
+		assertTrue(Double.isNaN(list2.get("C")));
+		assertFalse(list1.containsKey("C"));
+		assertEquals(-1.0, list1.getOrDefault("C", -1.0));
+		assertTrue(Double.isNaN(list2.getOrDefault("C", -1.0)));
+
+		list1.removeMeasurements("A");
+		assertEquals(List.of("B"), list1.getMeasurementNames());
+		assertEquals(2.0, list1.get("B"));
+		assertEquals(3.0, list2.get("B"));
+	}
+
+	@Test
+	public void test_getValues() {
+		var store = new ColumnarMeasurementStore(MeasurementListType.DOUBLE);
+		var plane = ImagePlane.getDefaultPlane();
+		List<PathObject> pathObjects = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			var list = i % 10 == 0 ? MeasurementListFactory.createMeasurementList(1, MeasurementListType.DOUBLE) : store.createMeasurementList();
+			if (i % 7 != 0)
+				list.put("Value", i);
+			pathObjects.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i, i, 1, 1, plane), null, list));
+		}
+		double[] values = store.getValues("Value", pathObjects);
+		assertEquals(pathObjects.size(), values.length);
+		for (int i = 0; i < values.length; i++) {
+			if (i % 7 == 0)
+				assertTrue(Double.isNaN(values[i]));
+			else
+				assertEquals(i, values[i]);
+		}
+		double[] missing = store.getValues("Missing", pathObjects);
+		for (double v : missing)
+			assertTrue(Double.isNaN(v));
+	}
+
+	@Test
+	public void test_copyLists() {
+		var floatStore = new ColumnarMeasurementStore(MeasurementListType.FLOAT);
+		var doubleStore = new ColumnarMeasurementStore(MeasurementListType.DOUBLE);
+		var floatList = MeasurementListFactory.createMeasurementList(2, MeasurementListType.FLOAT);
+		floatList.put("A", 1.5);
+		floatList.put("B", Double.NaN);
+		var doubleList = MeasurementListFactory.createMeasurementList(1, MeasurementListType.DOUBLE);
+		var generalList = MeasurementListFactory.createMeasurementList(1, MeasurementListType.GENERAL);
+
+		// Lists should only be copied if this doesn't lose precision
+		assertTrue(floatStore.canStore(floatList));
+		assertFalse(floatStore.canStore(doubleList));
+		assertFalse(floatStore.canStore(generalList));
+		assertTrue(doubleStore.canStore(doubleList));
+		assertNull(floatStore.createMeasurementList(doubleList));
+
+		var copy = floatStore.createMeasurementList(floatList);
+		assertTrue(floatStore.contains(copy));
+		assertFalse(floatStore.contains(floatList));
+		assertFalse(doubleStore.contains(copy));
+		assertEquals(floatList.getMeasurementNames(), copy.getMeasurementNames());
+		assertEquals(1.5, copy.get("A"));
+		assertTrue(copy.containsKey("B"));
+		assertTrue(Double.isNaN(copy.get("B")));
+
+		// Copying a second list should reuse the existing columns
+		floatList.put("C", 3.0);
+		var copy2 = floatStore.createMeasurementList(floatList);
+		assertEquals(List.of("A", "B", "C"), copy2.getMeasurementNames());
+		assertEquals(List.of("A", "B"), copy.getMeasurementNames());
+	}
+
+	@Test
+	public void test_hierarchyStore() {
+		var hierarchy = new PathObjectHierarchy();
+		var plane = ImagePlane.getDefaultPlane();
+		var detection = PathObjects.createDetectionObject(ROIs.createRectangleROI(0, 0, 10, 10, plane));
+		detection.getMeasurementList().put("A", 1.0);
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100, 100, plane));
+		annotation.getMeasurementList().put("A", 2.0);
+		hierarchy.addObject(detection);
+		hierarchy.addObject(annotation);
+
+		// Only detection measurements are moved to the store
+		var store = hierarchy.getMeasurementStore();
+		assertTrue(store.contains(detection.getMeasurementList()));
+		assertFalse(store.contains(annotation.getMeasurementList()));
+		assertEquals(1.0, detection.getMeasurements().get("A").doubleValue());
+		assertArrayEquals(new double[] {1.0, 2.0}, store.getValues("A", List.of(detection, annotation)));
+
+		// Detections inserted in bulk should also use the store
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			var pathObject = PathObjects.createDetectionObject(ROIs.createRectangleROI(i, i, 1, 1, plane));
+			pathObject.getMeasurementList().put("B", i);
+			detections.add(pathObject);
+		}
+		hierarchy.insertPathObjectsInBulk(detections);
+		assertTrue(detections.stream().allMatch(p -> store.contains(p.getMeasurementList())));
+		double[] values = store.getValues("B", detections);
+		for (int i = 0; i < values.length; i++)
+			assertEquals(i, values[i]);
+	}
+
+	@Test
+	public void test_serialization() throws IOException, ClassNotFoundException {
+		var store = new ColumnarMeasurementStore();
+		var list = store.createMeasurementList();
+		list.put("A", 1.5);
+		list.put("B", 2.5);
+
+		var bytes = new ByteArrayOutputStream();
+		try (var stream = new ObjectOutputStream(bytes)) {
+			stream.writeObject(list);
+		}
+		try (var stream = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			var list2 = (MeasurementList)stream.readObject();
+			assertEquals(list.getMeasurementNames(), list2.getMeasurementNames());
+			assertArrayEquals(list.values(), list2.values());
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+@SuppressWarnings("javadoc")
+public class TestGeometryCache {
+
+	@Test
+	public void test_boundedSize() {
+		long maxBytes = 100 * 1024;
+		var cache = new GeometryCache<ROI, String>("Test", maxBytes, (roi, value) -> 10 * 1024);
+		List<ROI> rois = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			var roi = ROIs.createRectangleROI(i, i, 10, 10, ImagePlane.getDefaultPlane());
+			rois.add(roi);
+			cache.put(roi, "Value " + i);
+		}
+		var stats = cache.getStatistics();
+		assertTrue(stats.getEstimatedBytes() <= maxBytes);
+		assertTrue(stats.getEntryCount() < rois.size());
+		assertTrue(stats.getEvictionCount() > 0);
+		assertEquals(maxBytes, stats.getMaxBytes());
+	}
+
+	@Test
+	public void test_hitsAndMisses() {
+		var cache = new GeometryCache<ROI, String>("Test", 1024 * 1024, (roi, value) -> 1024);
+		var roi = ROIs.createRectangleROI(0, 0, 10, 10, ImagePlane.getDefaultPlane());
+		assertNull(cache.getIfPresent(roi));
+		var value = cache.get(roi, r -> "Computed");
+		assertSame(value, cache.get(roi, r -> "Computed again"));
+		assertSame(value, cache.getIfPresent(roi));
+
+		var stats = cache.getStatistics();
+		assertEquals(1, stats.getEntryCount());
+		assertEquals(2, stats.getHitCount());
+		assertEquals(2, stats.getMissCount());
+
+		cache.clear();
+		assertNull(cache.getIfPresent(roi));
+	}
+
+}
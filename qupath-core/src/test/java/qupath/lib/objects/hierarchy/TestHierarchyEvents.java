@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent.HierarchyEventType;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestHierarchyEvents {
+
+	@Test
+	public void test_structureChangeDetails() {
+		var hierarchy = new PathObjectHierarchy();
+		List<PathObjectHierarchyEvent> events = new ArrayList<>();
+		hierarchy.addListener(events::add);
+
+		var detections = createDetections(10, 0);
+		hierarchy.addObjects(detections);
+		assertEquals(1, events.size());
+		var event = events.get(0);
+		assertTrue(event.isStructureChangeEvent());
+		assertTrue(event.hasStructureChangeDetails());
+		assertEquals(detections, event.getAddedObjects());
+		assertTrue(event.getRemovedObjects().isEmpty());
+
+		var toRemove = detections.subList(0, 5);
+		hierarchy.removeObjects(toRemove, false);
+		assertEquals(2, events.size());
+		event = events.get(1);
+		assertTrue(event.hasStructureChangeDetails());
+		assertEquals(Set.copyOf(toRemove), Set.copyOf(event.getRemovedObjects()));
+		assertTrue(event.getAddedObjects().isEmpty());
+
+		hierarchy.fireHierarchyChangedEvent(this);
+		assertFalse(events.get(2).hasStructureChangeDetails());
+
+		// Incremental updates to the spatial cache should give the same result as rebuilding it
+		var region = ImageRegion.createInstance(0, 0, 1000, 1000, 0, 0);
+		var more = createDetections(10, 50);
+		hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null);
+		hierarchy.addObjects(more);
+		assertEquals(15, hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null).size());
+	}
+
+	@Test
+	public void test_coalescedListener() {
+		var hierarchy = new PathObjectHierarchy();
+		var executor = new ManualExecutor();
+		List<PathObjectHierarchyEvent> events = new ArrayList<>();
+		PathObjectHierarchyListener listener = events::add;
+		hierarchy.addListener(listener, executor);
+
+		var first = createDetections(5, 0);
+		var second = createDetections(5, 20);
+		hierarchy.addObjects(first);
+		hierarchy.addObjects(second);
+		hierarchy.removeObjects(Collections.singletonList(first.get(0)), false);
+		assertTrue(events.isEmpty());
+
+		executor.runAll();
+		assertEquals(1, events.size());
+		var event = events.get(0);
+		assertEquals(HierarchyEventType.OTHER_STRUCTURE_CHANGE, event.getEventType());
+		assertTrue(event.hasStructureChangeDetails());
+		assertEquals(9, event.getAddedObjects().size());
+		assertEquals(List.of(first.get(0)), event.getRemovedObjects());
+
+		var stats = hierarchy.getEventStatistics();
+		assertEquals(3, stats.getEventCount());
+		assertEquals(2, stats.getCoalescedCount());
+		assertEquals(1, stats.getDeliveryCount());
+
+		// Object changes of the same type are combined without becoming structure changes
+		hierarchy.fireObjectClassificationsChangedEvent(this, first.subList(1, 3));
+		hierarchy.fireObjectClassificationsChangedEvent(this, first.subList(2, 4));
+		executor.runAll();
+		assertEquals(2, events.size());
+		event = events.get(1);
+		assertEquals(HierarchyEventType.CHANGE_CLASSIFICATION, event.getEventType());
+		assertEquals(first.subList(1, 4), event.getChangedObjects());
+
+		// Removed listeners should not be notified
+		hierarchy.removeListener(listener);
+		hierarchy.fireHierarchyChangedEvent(this);
+		executor.runAll();
+		assertEquals(3, events.size());
+	}
+
+	private static List<PathObject> createDetections(int n, double offset) {
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < n; i++)
+			detections.add(PathObjects.createDetectionObject(
+					ROIs.createRectangleROI(offset + i * 10, offset + i * 10, 5, 5, ImagePlane.getDefaultPlane())));
+		return detections;
+	}
+
+	/**
+	 * Executor that only runs tasks when requested, to simulate a busy UI thread.
+	 */
+	private static class ManualExecutor implements Executor {
+
+		private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			while (!tasks.isEmpty())
+				tasks.poll().run();
+		}
+
+	}
+
+}
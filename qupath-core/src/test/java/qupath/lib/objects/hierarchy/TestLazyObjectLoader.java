@@ -0,0 +1,257 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestLazyObjectLoader {
+
+	private static final int TILE_SIZE = 1000;
+	private static final int PAGE_SIZE = 25;
+
+	@Test
+	public void test_loadOnDemand() {
+		var hierarchy = new PathObjectHierarchy();
+		var annotation = createAnnotation(hierarchy);
+		var loader = new GridLoader(annotation);
+		hierarchy.setLazyObjectLoader(loader);
+
+		assertTrue(hierarchy.hasUnloadedObjects());
+		assertFalse(hierarchy.isEmpty());
+		assertEquals(0, hierarchy.getStatistics().getDetectionCount());
+
+		// Annotation queries shouldn't load anything
+		assertEquals(1, hierarchy.getAnnotationObjects().size());
+		assertEquals(1, hierarchy.getObjectsForRegion(PathAnnotationObject.class, getTile(0), null).size());
+		assertEquals(0, loader.totalLoads());
+
+		// Detection queries should only load the pages that are needed
+		assertEquals(PAGE_SIZE, hierarchy.getObjectsForRegion(PathDetectionObject.class, getTile(0), null).size());
+		assertEquals(List.of(1, 0, 0, 0), loader.loadCounts());
+		assertEquals(PAGE_SIZE, hierarchy.getStatistics().getDetectionCount());
+		assertTrue(hierarchy.hasObjectsForRegion(PathDetectionObject.class, getTile(3)));
+		assertEquals(List.of(1, 0, 0, 1), loader.loadCounts());
+
+		// Requesting all detections should load everything, and remove the loader
+		assertEquals(PAGE_SIZE * 4, hierarchy.getDetectionObjects().size());
+		assertEquals(List.of(1, 1, 1, 1), loader.loadCounts());
+		assertFalse(hierarchy.hasUnloadedObjects());
+		assertEquals(PAGE_SIZE * 4, annotation.nChildObjects());
+		assertEquals(PAGE_SIZE * 4, hierarchy.getStatistics().getDetectionCount());
+	}
+
+	@Test
+	public void test_unloadUnchangedPages() {
+		var hierarchy = new PathObjectHierarchy();
+		var annotation = createAnnotation(hierarchy);
+		var loader = new GridLoader(annotation);
+		hierarchy.setLazyObjectLoader(loader, PAGE_SIZE + 5);
+
+		var page0 = hierarchy.getObjectsForRegion(PathDetectionObject.class, getTile(0), null);
+		var page1 = hierarchy.getObjectsForRegion(PathDetectionObject.class, getTile(1), null);
+		// The first page should have been unloaded to make space for the second
+		assertTrue(page0.stream().allMatch(p -> p.getParent() == null));
+		assertTrue(page1.stream().allMatch(p -> p.getParent() == annotation));
+		assertEquals(PAGE_SIZE, hierarchy.getStatistics().getDetectionCount());
+
+		// Changed pages should not be unloaded
+		page1.iterator().next().setPathClass(PathClass.getInstance("Changed"));
+		var page2 = hierarchy.getObjectsForRegion(PathDetectionObject.class, getTile(2), null);
+		assertTrue(page1.stream().allMatch(p -> p.getParent() == annotation));
+		assertTrue(page2.stream().allMatch(p -> p.getParent() == annotation));
+
+		// Unloaded pages should be reloaded when needed
+		var page0Reloaded = hierarchy.getObjectsForRegion(PathDetectionObject.class, getTile(0), null);
+		assertEquals(PAGE_SIZE, page0Reloaded.size());
+		assertEquals(List.of(2, 1, 1, 0), loader.loadCounts());
+		assertTrue(page2.stream().allMatch(p -> p.getParent() == null));
+
+		hierarchy.loadAllObjects();
+		assertFalse(hierarchy.hasUnloadedObjects());
+		assertEquals(PAGE_SIZE * 4, annotation.nChildObjects());
+		assertEquals(PAGE_SIZE * 4, hierarchy.getStatistics().getDetectionCount());
+		assertEquals(1, hierarchy.getDetectionObjects().stream().filter(p -> p.getPathClass() != null).count());
+	}
+
+	@Test
+	public void test_eventsUseLoaderAsSource() {
+		var hierarchy = new PathObjectHierarchy();
+		var annotation = createAnnotation(hierarchy);
+		var loader = new GridLoader(annotation);
+		hierarchy.setLazyObjectLoader(loader);
+
+		List<PathObjectHierarchyEvent> events = new ArrayList<>();
+		hierarchy.addListener(events::add);
+		hierarchy.getObjectsForRegion(PathDetectionObject.class, getTile(1), null);
+		assertEquals(1, events.size());
+		var event = events.get(0);
+		assertSame(loader, event.getSource());
+		assertTrue(event.hasStructureChangeDetails());
+		assertEquals(PAGE_SIZE, event.getAddedObjects().size());
+		assertTrue(event.getRemovedObjects().isEmpty());
+	}
+
+	@Test
+	public void test_changesLoadAllObjects() {
+		var hierarchy = new PathObjectHierarchy();
+		var annotation = createAnnotation(hierarchy);
+		var loader = new GridLoader(annotation);
+		hierarchy.setLazyObjectLoader(loader);
+
+		// Removing a detection doesn't require other objects to be loaded
+		var detection = hierarchy.getObjectsForRegion(PathDetectionObject.class, getTile(0), null).iterator().next();
+		hierarchy.removeObject(detection, false);
+		assertTrue(hierarchy.hasUnloadedObjects());
+
+		// Removing an annotation does, so that its children can be kept
+		hierarchy.removeObject(annotation, true);
+		assertFalse(hierarchy.hasUnloadedObjects());
+		assertEquals(PAGE_SIZE * 4 - 1, hierarchy.getRootObject().nChildObjects());
+		assertEquals(PAGE_SIZE * 4 - 1, hierarchy.getStatistics().getDetectionCount());
+	}
+
+	@Test
+	public void test_setHierarchy() {
+		var hierarchy = new PathObjectHierarchy();
+		var annotation = createAnnotation(hierarchy);
+		hierarchy.setLazyObjectLoader(new GridLoader(annotation));
+
+		var hierarchy2 = new PathObjectHierarchy();
+		hierarchy2.setHierarchy(hierarchy);
+		assertTrue(hierarchy2.hasUnloadedObjects());
+		assertFalse(hierarchy.hasUnloadedObjects());
+		assertEquals(PAGE_SIZE, hierarchy2.getObjectsForRegion(PathDetectionObject.class, getTile(2), null).size());
+
+		hierarchy2.clearAll();
+		assertFalse(hierarchy2.hasUnloadedObjects());
+		assertTrue(hierarchy2.isEmpty());
+	}
+
+	@Test
+	public void test_noLoader() {
+		var hierarchy = new PathObjectHierarchy();
+		assertFalse(hierarchy.hasUnloadedObjects());
+		hierarchy.loadAllObjects();
+		hierarchy.setLazyObjectLoader(null);
+		assertFalse(hierarchy.hasUnloadedObjects());
+		assertNull(hierarchy.getTMAGrid());
+	}
+
+	private static PathObject createAnnotation(PathObjectHierarchy hierarchy) {
+		var annotation = PathObjects.createAnnotationObject(
+				ROIs.createRectangleROI(0, 0, TILE_SIZE * 2, TILE_SIZE * 2, ImagePlane.getDefaultPlane()));
+		hierarchy.addObject(annotation);
+		return annotation;
+	}
+
+	private static ImageRegion getTile(int page) {
+		return ImageRegion.createInstance((page % 2) * TILE_SIZE + 1, (page / 2) * TILE_SIZE + 1, TILE_SIZE - 2, TILE_SIZE - 2, 0, 0);
+	}
+
+	/**
+	 * Loader for a 2x2 grid of pages, each containing detections that are children of the same parent.
+	 */
+	private static class GridLoader implements LazyObjectLoader {
+
+		private final PathObject parent;
+		private final int[] loadCounts = new int[4];
+
+		private GridLoader(PathObject parent) {
+			this.parent = parent;
+		}
+
+		private synchronized List<Integer> loadCounts() {
+			return List.of(loadCounts[0], loadCounts[1], loadCounts[2], loadCounts[3]);
+		}
+
+		private synchronized int totalLoads() {
+			return loadCounts().stream().mapToInt(Integer::intValue).sum();
+		}
+
+		@Override
+		public int getPageCount() {
+			return loadCounts.length;
+		}
+
+		@Override
+		public int getPageSize(int page) {
+			return PAGE_SIZE;
+		}
+
+		@Override
+		public boolean intersects(int page, ImageRegion region) {
+			var tile = getTile(page);
+			return region.getZ() == 0 && region.getT() == 0 &&
+					region.intersects(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight());
+		}
+
+		@Override
+		public LoadedPage loadPage(int page) {
+			synchronized (this) {
+				loadCounts[page]++;
+			}
+			var tile = getTile(page);
+			List<PathObject> detections = new ArrayList<>();
+			for (int i = 0; i < PAGE_SIZE; i++) {
+				var roi = ROIs.createRectangleROI(tile.getX() + i * 10, tile.getY() + i * 10, 5, 5, ImagePlane.getDefaultPlane());
+				detections.add(PathObjects.createDetectionObject(roi));
+			}
+			var objects = Map.of(parent, detections);
+			return new LoadedPage() {
+
+				@Override
+				public Map<PathObject, List<PathObject>> getObjects() {
+					return objects;
+				}
+
+				@Override
+				public boolean isUnchanged() {
+					return detections.stream().allMatch(p -> p.getParent() == parent && p.getPathClass() == null);
+				}
+
+			};
+		}
+
+	}
+
+}
@@ -378,6 +378,174 @@ public class TestPathObjectHierarchy {
 
 	}
 	
+	@Test
+	public void test_statistics() {
+		var hierarchy = new PathObjectHierarchy();
+		var plane = ImagePlane.getDefaultPlane();
+		
+		var outer = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 1000, 1000, plane));
+		var inner = PathObjects.createAnnotationObject(ROIs.createRectangleROI(100, 100, 200, 200, plane));
+		hierarchy.addObject(outer);
+		hierarchy.addObject(inner);
+		var detections = new ArrayList<PathObject>();
+		for (int i = 0; i < 10; i++) {
+			var roi = ROIs.createRectangleROI(150 + i, 150 + i, 1, 1, plane);
+			if (i < 3)
+				detections.add(PathObjects.createCellObject(roi, null));
+			else if (i < 5)
+				detections.add(PathObjects.createTileObject(roi));
+			else
+				detections.add(PathObjects.createDetectionObject(roi));
+		}
+		hierarchy.addObjects(detections);
+		checkStatistics(hierarchy, 12, 2, 10, 3, 2);
+		
+		// Resolving changes the structure, but not the counts
+		hierarchy.resolveHierarchy();
+		assertEquals(inner, detections.get(0).getParent());
+		checkStatistics(hierarchy, 12, 2, 10, 3, 2);
+		
+		// Removing while keeping children
+		hierarchy.removeObject(inner, true);
+		checkStatistics(hierarchy, 11, 1, 10, 3, 2);
+		hierarchy.insertPathObject(inner, true);
+		checkStatistics(hierarchy, 12, 2, 10, 3, 2);
+		hierarchy.removeObjects(Collections.singletonList(outer), true);
+		checkStatistics(hierarchy, 11, 1, 10, 3, 2);
+		
+		// Removing with descendants
+		hierarchy.insertPathObject(outer, true);
+		hierarchy.removeObjects(Arrays.asList(outer, detections.get(0)), false);
+		checkStatistics(hierarchy, 0, 0, 0, 0, 0);
+		
+		// Changing child objects directly should be picked up after a change event
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 500, 500, plane));
+		hierarchy.addObject(annotation);
+		annotation.addChildObjects(detections);
+		hierarchy.fireHierarchyChangedEvent(annotation);
+		checkStatistics(hierarchy, 11, 1, 10, 3, 2);
+		
+		hierarchy.clearAll();
+		checkStatistics(hierarchy, 0, 0, 0, 0, 0);
+	}
+	
+	@Test
+	public void test_insertPathObjectsInBulk() {
+		var plane = ImagePlane.getDefaultPlane();
+		var hierarchy = new PathObjectHierarchy();
+		var hierarchyBulk = new PathObjectHierarchy();
+		
+		List<PathObject> objects = new ArrayList<>();
+		List<PathObject> objectsBulk = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			var roi = ROIs.createRectangleROI(i * 250, i * 100, 500, 500, plane);
+			objects.add(PathObjects.createAnnotationObject(roi));
+			objectsBulk.add(PathObjects.createAnnotationObject(roi));
+		}
+		for (int i = 0; i < 2000; i++) {
+			var roi = ROIs.createEllipseROI((i * 37) % 1500, (i * 53) % 1000, 4, 4, plane);
+			objects.add(PathObjects.createDetectionObject(roi));
+			objectsBulk.add(PathObjects.createDetectionObject(roi));
+		}
+		// Add one annotation before, to check existing objects are handled
+		hierarchy.addObject(objects.remove(0));
+		hierarchyBulk.addObject(objectsBulk.remove(0));
+		
+		var listener = new PO_hlistener();
+		hierarchyBulk.addListener(listener);
+		
+		assertTrue(hierarchy.insertPathObjects(objects));
+		assertTrue(hierarchyBulk.insertPathObjectsInBulk(objectsBulk));
+		assertEquals(3, listener.getFiredState());
+		
+		assertEquals(hierarchy.nObjects(), hierarchyBulk.nObjects());
+		assertEquals(hierarchy.nObjects(), PathObjectTools.countDescendants(hierarchyBulk.getRootObject()));
+		for (int i = 0; i < objects.size(); i++) {
+			var parent = objects.get(i).getParent();
+			var parentBulk = objectsBulk.get(i).getParent();
+			if (parent.isRootObject())
+				assertTrue(parentBulk.isRootObject());
+			else
+				assertEquals(parent.getROI(), parentBulk.getROI());
+		}
+		// Check the spatial cache is up to date
+		var region = ImageRegion.createInstance(0, 0, 600, 600, 0, 0);
+		assertEquals(hierarchy.getObjectsForRegion(null, region, null).size(), 
+				hierarchyBulk.getObjectsForRegion(null, region, null).size());
+	}
+	
+	@Test
+	public void test_resolveHierarchyMatchesInsert() {
+		var plane = ImagePlane.getDefaultPlane();
+		var hierarchy = new PathObjectHierarchy();
+		var hierarchyResolved = new PathObjectHierarchy();
+		
+		List<PathObject> objects = new ArrayList<>();
+		List<PathObject> objectsResolved = new ArrayList<>();
+		// Nested annotations spanning several tiles
+		var rois = Arrays.asList(
+				ROIs.createRectangleROI(0, 0, 10000, 10000, plane),
+				ROIs.createRectangleROI(1000, 1000, 5000, 5000, plane),
+				ROIs.createEllipseROI(2000, 2000, 1000, 1000, plane),
+				ROIs.createRectangleROI(8000, 500, 1500, 9000, plane)
+				);
+		for (var roi : rois) {
+			objects.add(PathObjects.createAnnotationObject(roi));
+			objectsResolved.add(PathObjects.createAnnotationObject(roi));
+		}
+		for (int i = 0; i < 5000; i++) {
+			var roi = ROIs.createEllipseROI((i * 37) % 12000, (i * 53) % 11000, 4, 4, plane);
+			objects.add(PathObjects.createDetectionObject(roi));
+			objectsResolved.add(PathObjects.createDetectionObject(roi));
+		}
+		hierarchy.insertPathObjects(objects);
+		hierarchyResolved.addObjects(objectsResolved);
+		
+		var listener = new PO_hlistener();
+		hierarchyResolved.addListener(listener);
+		hierarchyResolved.resolveHierarchy();
+		assertEquals(3, listener.getFiredState());
+		
+		assertEquals(hierarchy.nObjects(), PathObjectTools.countDescendants(hierarchyResolved.getRootObject()));
+		for (int i = 0; i < objects.size(); i++) {
+			var parent = objects.get(i).getParent();
+			var parentResolved = objectsResolved.get(i).getParent();
+			if (parent.isRootObject())
+				assertTrue(parentResolved.isRootObject());
+			else
+				assertEquals(parent.getROI(), parentResolved.getROI());
+			assertEquals(objects.get(i).getLevel(), objectsResolved.get(i).getLevel());
+		}
+		
+		// Resolving again shouldn't change anything
+		listener.setFiredState(0);
+		hierarchyResolved.resolveHierarchy();
+		assertEquals(0, listener.getFiredState());
+		
+		// Identical annotations must not become parents of one another
+		var roi = ROIs.createRectangleROI(0, 0, 100, 100, plane);
+		var hierarchyDuplicates = new PathObjectHierarchy();
+		hierarchyDuplicates.addObjects(Arrays.asList(PathObjects.createAnnotationObject(roi), PathObjects.createAnnotationObject(roi)));
+		hierarchyDuplicates.resolveHierarchy();
+		assertEquals(2, PathObjectTools.countDescendants(hierarchyDuplicates.getRootObject()));
+	}
+	
+	private static void checkStatistics(PathObjectHierarchy hierarchy, int nObjects, int nAnnotations, int nDetections, int nCells, int nTiles) {
+		var stats = hierarchy.getStatistics();
+		assertEquals(nObjects, stats.getObjectCount());
+		assertEquals(nAnnotations, stats.getAnnotationCount());
+		assertEquals(nDetections, stats.getDetectionCount());
+		assertEquals(nCells, stats.getCellCount());
+		assertEquals(nTiles, stats.getTileCount());
+		assertEquals(nObjects, hierarchy.nObjects());
+		// Check against a full traversal
+		assertEquals(PathObjectTools.countDescendants(hierarchy.getRootObject()), stats.getObjectCount());
+		assertEquals(hierarchy.getAnnotationObjects().size(), stats.getAnnotationCount());
+		assertEquals(hierarchy.getDetectionObjects().size(), stats.getDetectionCount());
+		assertEquals(hierarchy.getCellObjects().size(), stats.getCellCount());
+		assertEquals(hierarchy.getTileObjects().size(), stats.getTileCount());
+	}
+	
 	
 }
 
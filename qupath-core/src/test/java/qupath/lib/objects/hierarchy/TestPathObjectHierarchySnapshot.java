@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestPathObjectHierarchySnapshot {
+
+	@Test
+	public void test_snapshotUnchangedByEdits() {
+		var hierarchy = createHierarchy();
+		var snapshot = hierarchy.snapshot();
+		var before = new ArrayList<>(snapshot.getAllObjects(false));
+		assertEquals(hierarchy.getFlattenedObjectList(null).stream().filter(p -> !p.isRootObject()).toList(), before);
+		assertSame(hierarchy.getStatistics(), snapshot.getStatistics());
+
+		var annotation = hierarchy.getAnnotationObjects().iterator().next();
+		var children = new ArrayList<>(snapshot.getChildObjects(annotation));
+		assertEquals(new ArrayList<>(annotation.getChildObjects()), children);
+
+		// Modify the hierarchy, and check the snapshot is unchanged
+		hierarchy.removeObjects(new ArrayList<>(annotation.getChildObjects()).subList(0, 5), false);
+		hierarchy.addObject(PathObjects.createDetectionObject(ROIs.createRectangleROI(5, 5, 2, 2, ImagePlane.getDefaultPlane())));
+		assertEquals(before, snapshot.getAllObjects(false));
+		assertEquals(children, snapshot.getChildObjects(annotation));
+		assertEquals(before.size(), snapshot.nObjects());
+
+		var newSnapshot = hierarchy.snapshot();
+		assertNotSame(snapshot, newSnapshot);
+		assertEquals(hierarchy.getAllObjects(false).size(), newSnapshot.nObjects());
+		assertEquals(children.size() - 5, newSnapshot.getChildObjects(annotation).size());
+	}
+
+	@Test
+	public void test_snapshotReused() {
+		var hierarchy = createHierarchy();
+		var snapshot = hierarchy.snapshot();
+		assertSame(snapshot, hierarchy.snapshot());
+		hierarchy.fireHierarchyChangedEvent(this);
+		assertNotSame(snapshot, hierarchy.snapshot());
+	}
+
+	@Test
+	public void test_snapshotObjects() {
+		var hierarchy = createHierarchy();
+		var snapshot = hierarchy.snapshot();
+		assertEquals(new HashSet<>(hierarchy.getAnnotationObjects()), new HashSet<>(snapshot.getAnnotationObjects()));
+		assertEquals(new HashSet<>(hierarchy.getDetectionObjects()), new HashSet<>(snapshot.getDetectionObjects()));
+		assertTrue(snapshot.getCellObjects().isEmpty());
+		assertEquals(hierarchy.getAllObjects(true).size(), snapshot.getObjects(null).size());
+		assertTrue(snapshot.getObjects(null).contains(hierarchy.getRootObject()));
+		assertThrows(UnsupportedOperationException.class, () -> snapshot.getAllObjects(false).clear());
+	}
+
+	@Test
+	public void test_snapshotRegions() {
+		var hierarchy = createHierarchy();
+		var snapshot = hierarchy.snapshot();
+		var region = ImageRegion.createInstance(0, 0, 50, 50, 0, 0);
+		var expected = new HashSet<>(hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null));
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, new HashSet<>(snapshot.getObjectsForRegion(PathDetectionObject.class, region)));
+		assertTrue(snapshot.hasObjectsForRegion(PathAnnotationObject.class, region));
+
+		// Removing objects shouldn't affect the snapshot
+		hierarchy.removeObjects(new ArrayList<>(expected), false);
+		assertTrue(hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null).isEmpty());
+		assertEquals(expected, new HashSet<>(snapshot.getObjectsForRegion(PathDetectionObject.class, region)));
+
+		var empty = ImageRegion.createInstance(0, 0, 50, 50, 1, 0);
+		assertFalse(snapshot.hasObjectsForRegion(null, empty));
+	}
+
+	private static PathObjectHierarchy createHierarchy() {
+		var hierarchy = new PathObjectHierarchy();
+		var plane = ImagePlane.getDefaultPlane();
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 500, 500, plane));
+		hierarchy.addObject(annotation);
+		List<PathObject> detections = new ArrayList<>();
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 10; x++) {
+				detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(x * 40 + 2, y * 40 + 2, 20, 20, plane)));
+			}
+		}
+		hierarchy.addObjects(detections);
+		hierarchy.resolveHierarchy();
+		return hierarchy;
+	}
+
+}
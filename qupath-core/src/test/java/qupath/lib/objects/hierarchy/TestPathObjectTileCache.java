@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.objects.hierarchy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.PathROIObject;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.regions.ImageRegion;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestPathObjectTileCache {
+
+	@Test
+	public void test_incrementalChanges() {
+		var hierarchy = new PathObjectHierarchy();
+		var plane = ImagePlane.getDefaultPlane();
+
+		// Bulk load
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+			detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i * 10, i * 5, 5, 5, plane)));
+		hierarchy.addObjects(detections);
+		var region = ImageRegion.createInstance(1001, 501, 2000, 1000, 0, 0);
+		checkRegion(hierarchy, region);
+
+		// Enough single changes to require the index to be repacked
+		for (int i = 0; i < 1000; i++) {
+			var detection = PathObjects.createDetectionObject(ROIs.createRectangleROI(i * 10 + 2, i * 5 + 2, 5, 5, plane));
+			hierarchy.addObject(detection);
+			if (i % 2 == 0)
+				hierarchy.removeObject(detections.get(i), false);
+			if (i % 100 == 0)
+				checkRegion(hierarchy, region);
+		}
+		checkRegion(hierarchy, region);
+		checkRegion(hierarchy, ImageRegion.createInstance(0, 0, 100000, 100000, 0, 0));
+
+		// Removed objects should not be found, even if they are re-added elsewhere
+		var removed = detections.get(200);
+		assertFalse(hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null).contains(removed));
+		var moved = detections.get(201);
+		hierarchy.removeObject(moved, false);
+		((PathROIObject)moved).setROI(ROIs.createRectangleROI(50000, 50000, 5, 5, plane));
+		hierarchy.addObject(moved);
+		assertFalse(hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null).contains(moved));
+		assertTrue(hierarchy.getObjectsForRegion(PathDetectionObject.class,
+				ImageRegion.createInstance(49000, 49000, 2000, 2000, 0, 0), null).contains(moved));
+		assertTrue(hierarchy.hasObjectsForRegion(PathDetectionObject.class,
+				ImageRegion.createInstance(49000, 49000, 2000, 2000, 0, 0)));
+		assertFalse(hierarchy.hasObjectsForRegion(PathDetectionObject.class,
+				ImageRegion.createInstance(60000, 60000, 2000, 2000, 0, 0)));
+		checkRegion(hierarchy, region);
+	}
+
+	@Test
+	public void test_changesAppliedAfterRepack() {
+		var plane = ImagePlane.getDefaultPlane();
+		List<PathObject> detections = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			detections.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i * 10, 0, 5, 5, plane)));
+		var index = PathObjectTileCache.ClassIndex.pack(detections.subList(0, 50));
+		for (int i = 50; i < 60; i++)
+			index = index.withAdded(detections.get(i));
+		
+		// Changes made while repacking should be applied to the repacked index
+		var snapshot = index;
+		var repacked = snapshot.repack();
+		for (int i = 60; i < 100; i++)
+			index = index.withAdded(detections.get(i));
+		for (int i = 0; i < 100; i += 3)
+			index = index.withRemoved(detections.get(i));
+		var merged = index.applyChangesSince(snapshot, repacked);
+		assertEquals(60, merged.packedSize());
+		assertEquals(queryAll(index), queryAll(merged));
+		assertEquals(100 - 34, queryAll(merged).size());
+		
+		// Indexes packed from elsewhere can't be merged
+		assertNull(index.applyChangesSince(repacked, repacked));
+		
+		// Adding an object that is already present shouldn't duplicate it
+		var pathObject = detections.get(1);
+		List<PathObject> found = new ArrayList<>();
+		merged.withAdded(pathObject).query(new Envelope(11, 14, 1, 4), found::add);
+		assertEquals(List.of(pathObject), found);
+	}
+	
+	@Test
+	public void test_objectSet() {
+		var plane = ImagePlane.getDefaultPlane();
+		List<PathObject> pool = new ArrayList<>();
+		for (int i = 0; i < 500; i++)
+			pool.add(PathObjects.createDetectionObject(ROIs.createRectangleROI(i, i, 1, 1, plane)));
+		var rand = new Random(100L);
+		var set = PathObjectTileCache.ObjectSet.EMPTY;
+		Set<PathObject> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (int i = 0; i < 20000; i++) {
+			var pathObject = pool.get(rand.nextInt(pool.size()));
+			var previous = set;
+			int previousSize = previous.size();
+			if (rand.nextBoolean()) {
+				set = set.with(pathObject);
+				assertEquals(expected.add(pathObject), set != previous);
+			} else {
+				set = set.without(pathObject);
+				assertEquals(expected.remove(pathObject), set != previous);
+			}
+			// Earlier versions should be unchanged
+			assertEquals(previousSize, previous.size());
+			assertEquals(expected.size(), set.size());
+			assertEquals(expected.contains(pathObject), set.contains(pathObject));
+		}
+		List<PathObject> list = new ArrayList<>();
+		set.forEach(list::add);
+		assertEquals(expected, new HashSet<>(list));
+		assertEquals(expected.size(), list.size());
+		for (var pathObject : pool)
+			set = set.without(pathObject);
+		assertSame(PathObjectTileCache.ObjectSet.EMPTY, set);
+	}
+	
+	private static Set<PathObject> queryAll(PathObjectTileCache.ClassIndex index) {
+		Set<PathObject> set = new HashSet<>();
+		index.query(new Envelope(-1e6, 1e6, -1e6, 1e6), set::add);
+		return set;
+	}
+
+	private static void checkRegion(PathObjectHierarchy hierarchy, ImageRegion region) {
+		Set<PathObject> expected = hierarchy.getDetectionObjects()
+				.stream()
+				.filter(p -> region.intersects(p.getROI().getBoundsX(), p.getROI().getBoundsY(), p.getROI().getBoundsWidth(), p.getROI().getBoundsHeight()))
+				.collect(Collectors.toSet());
+		var actual = new HashSet<>(hierarchy.getObjectsForRegion(PathDetectionObject.class, region, null));
+		assertEquals(expected, actual);
+	}
+
+}
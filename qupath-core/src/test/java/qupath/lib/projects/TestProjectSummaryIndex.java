@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.projects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.io.GsonTools;
+import qupath.lib.objects.PathAnnotationObject;
+import qupath.lib.objects.PathCellObject;
+import qupath.lib.objects.PathDetectionObject;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.objects.hierarchy.PathObjectHierarchy;
+import qupath.lib.projects.ProjectSummaryIndex.EntrySummary;
+import qupath.lib.projects.ProjectSummaryIndex.MeasurementSketch;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+@SuppressWarnings("javadoc")
+public class TestProjectSummaryIndex {
+
+	@Test
+	public void test_countObjects() {
+		var summary = EntrySummary.create(createHierarchy(), 1L);
+		var tumor = PathClass.fromString("Tumor");
+
+		assertEquals(1, summary.countObjects(PathAnnotationObject.class, null));
+		assertEquals(30, summary.countObjects(PathDetectionObject.class, null));
+		assertEquals(10, summary.countObjects(PathCellObject.class, null));
+		assertEquals(31, summary.countObjects(null, null));
+		assertEquals(31, summary.countObjects(PathObject.class, null));
+
+		assertEquals(15, summary.countObjects(PathDetectionObject.class, tumor));
+		assertEquals(5, summary.countObjects(PathCellObject.class, tumor));
+		assertEquals(16, summary.countObjects(null, PathClass.NULL_CLASS));
+		assertEquals(0, summary.countObjects(null, PathClass.fromString("Stroma")));
+
+		assertEquals(1, summary.annotations().size());
+		assertEquals(100, summary.annotations().get(0).width());
+	}
+
+	@Test
+	public void test_measurementSketch() {
+		var summary = EntrySummary.create(createHierarchy(), 1L);
+
+		// Cells have values 0-9, other detections have values 0-19, but one is NaN
+		var sketch = summary.getMeasurementSketch(PathCellObject.class, "Value");
+		assertEquals(10, sketch.count());
+		assertEquals(0, sketch.min());
+		assertEquals(9, sketch.max());
+		assertEquals(4.5, sketch.mean(), 1e-6);
+
+		sketch = summary.getMeasurementSketch(PathDetectionObject.class, "Value");
+		assertEquals(29, sketch.count());
+		assertEquals(19, sketch.max());
+
+		assertNull(summary.getMeasurementSketch(PathAnnotationObject.class, "Value"));
+		assertNull(summary.getMeasurementSketch(null, "Missing"));
+	}
+
+	@Test
+	public void test_merge() {
+		var first = new MeasurementSketch(2, 1, 5, 6);
+		var second = new MeasurementSketch(3, -1, 4, 9);
+		var merged = MeasurementSketch.merge(first, second);
+		assertEquals(new MeasurementSketch(5, -1, 5, 15), merged);
+		assertEquals(3, merged.mean());
+		assertEquals(first, MeasurementSketch.merge(first, null));
+		assertEquals(second, MeasurementSketch.merge(null, second));
+		assertNull(MeasurementSketch.merge(null, null));
+		assertTrue(Double.isNaN(new MeasurementSketch(0, 0, 0, 0).mean()));
+	}
+
+	@Test
+	public void test_json() {
+		var summary = EntrySummary.create(createHierarchy(), 1234L);
+		var gson = GsonTools.getInstance();
+		var json = gson.toJson(summary);
+		assertEquals(summary, gson.fromJson(json, EntrySummary.class));
+
+		// Missing fields should be replaced by empty collections
+		var empty = gson.fromJson("{\"timestamp\": 10}", EntrySummary.class);
+		assertEquals(10, empty.timestamp());
+		assertEquals(0, empty.countObjects(null, null));
+		assertTrue(empty.annotations().isEmpty());
+	}
+
+	private static PathObjectHierarchy createHierarchy() {
+		var hierarchy = new PathObjectHierarchy();
+		var annotation = PathObjects.createAnnotationObject(ROIs.createRectangleROI(0, 0, 100, 100, ImagePlane.getDefaultPlane()));
+		hierarchy.addObject(annotation);
+		var tumor = PathClass.fromString("Tumor");
+		for (int i = 0; i < 20; i++) {
+			var detection = PathObjects.createDetectionObject(ROIs.createRectangleROI(i, i, 2, 2, ImagePlane.getDefaultPlane()),
+					i % 2 == 0 ? tumor : null);
+			detection.getMeasurementList().put("Value", i == 5 ? Double.NaN : i);
+			annotation.addChildObject(detection);
+		}
+		for (int i = 0; i < 10; i++) {
+			var roi = ROIs.createRectangleROI(i, i, 4, 4, ImagePlane.getDefaultPlane());
+			var cell = PathObjects.createCellObject(roi, null, i < 5 ? tumor : null);
+			cell.getMeasurementList().put("Value", i);
+			annotation.addChildObject(cell);
+		}
+		hierarchy.fireHierarchyChangedEvent(hierarchy);
+		return hierarchy;
+	}
+
+}
@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.projects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+@SuppressWarnings("javadoc")
+public class TestThumbnailAtlas {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void test_resize() {
+		var img = createImage(1000, 600, Color.RED);
+		var resized = ThumbnailAtlas.resize(img, 256);
+		assertEquals(256, resized.getWidth());
+		assertEquals(154, resized.getHeight());
+		assertEquals(BufferedImage.TYPE_INT_RGB, resized.getType());
+
+		var small = createImage(100, 50, Color.RED);
+		assertSame(small, ThumbnailAtlas.resize(small, 256));
+	}
+
+	@Test
+	public void test_readWrite() throws IOException {
+		var pathAtlas = tempDir.resolve("thumbnails.atlas");
+		for (int i = 0; i < 5; i++)
+			writeThumbnail(Integer.toString(i), i % 2 == 0 ? Color.RED : Color.BLUE);
+
+		var atlas = createAtlas(pathAtlas);
+		for (int i = 0; i < 5; i++) {
+			var id = Integer.toString(i);
+			assertNull(atlas.getPreview(id));
+			var preview = atlas.createPreview(id, ImageIO.read(getThumbnailPath(id).toFile()));
+			assertEquals(ThumbnailAtlas.PREVIEW_SIZE, preview.getWidth());
+			// Previews should be cached
+			assertSame(preview, atlas.getPreview(id));
+		}
+		atlas.flush();
+		assertTrue(Files.exists(pathAtlas));
+		assertFalse(Files.exists(tempDir.resolve("thumbnails.atlas.tmp")));
+
+		// A new atlas should read the previews from the file
+		var atlas2 = createAtlas(pathAtlas);
+		for (int i = 0; i < 5; i++) {
+			var preview = atlas2.getPreview(Integer.toString(i));
+			assertNotNull(preview);
+			assertEquals(ThumbnailAtlas.PREVIEW_SIZE, preview.getWidth());
+			var rgb = new Color(preview.getRGB(preview.getWidth()/2, preview.getHeight()/2));
+			if (i % 2 == 0)
+				assertTrue(rgb.getRed() > 200 && rgb.getBlue() < 50);
+			else
+				assertTrue(rgb.getBlue() > 200 && rgb.getRed() < 50);
+		}
+	}
+
+	@Test
+	public void test_outOfDate() throws IOException {
+		var pathAtlas = tempDir.resolve("thumbnails.atlas");
+		writeThumbnail("changed", Color.RED);
+		writeThumbnail("removed", Color.RED);
+		writeThumbnail("invalidated", Color.RED);
+		var atlas = createAtlas(pathAtlas);
+		for (var id : new String[] {"changed", "removed", "invalidated"})
+			atlas.createPreview(id, ImageIO.read(getThumbnailPath(id).toFile()));
+		atlas.flush();
+
+		// Previews should be ignored if the thumbnail has changed or been removed
+		writeThumbnail("changed", Color.BLUE);
+		Files.setLastModifiedTime(getThumbnailPath("changed"), FileTime.fromMillis(1000L));
+		Files.delete(getThumbnailPath("removed"));
+		atlas.invalidate("invalidated");
+		atlas.flush();
+
+		var atlas2 = createAtlas(pathAtlas);
+		assertNull(atlas2.getPreview("changed"));
+		assertNull(atlas2.getPreview("removed"));
+		assertNull(atlas2.getPreview("invalidated"));
+		assertNull(atlas2.getPreview("missing"));
+	}
+
+	@Test
+	public void test_failed() throws IOException {
+		var atlas = createAtlas(tempDir.resolve("thumbnails.atlas"));
+		atlas.markFailed("first");
+		atlas.markFailed("second");
+		assertTrue(atlas.isFailed("first"));
+		assertFalse(atlas.isFailed("missing"));
+
+		// Failures should be cleared when a thumbnail becomes available
+		atlas.invalidate("first");
+		assertFalse(atlas.isFailed("first"));
+		writeThumbnail("second", Color.RED);
+		atlas.createPreview("second", ImageIO.read(getThumbnailPath("second").toFile()));
+		assertFalse(atlas.isFailed("second"));
+	}
+
+	@Test
+	public void test_invalidFile() throws IOException {
+		var pathAtlas = tempDir.resolve("thumbnails.atlas");
+		Files.write(pathAtlas, new byte[] {1, 2, 3, 4, 5});
+		writeThumbnail("image", Color.RED);
+		var atlas = createAtlas(pathAtlas);
+		assertNull(atlas.getPreview("image"));
+		atlas.createPreview("image", ImageIO.read(getThumbnailPath("image").toFile()));
+		atlas.flush();
+		assertNotNull(createAtlas(pathAtlas).getPreview("image"));
+	}
+
+	private ThumbnailAtlas createAtlas(Path path) {
+		return new ThumbnailAtlas(path, this::getThumbnailPath, 1024 * 1024);
+	}
+
+	private Path getThumbnailPath(String id) {
+		return tempDir.resolve(id).resolve("thumbnail.jpg");
+	}
+
+	private void writeThumbnail(String id, Color color) throws IOException {
+		var path = getThumbnailPath(id);
+		Files.createDirectories(path.getParent());
+		ImageIO.write(createImage(1000, 600, color), "JPEG", path.toFile());
+	}
+
+	private static BufferedImage createImage(int width, int height, Color color) {
+		var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		var g2d = img.createGraphics();
+		g2d.setColor(color);
+		g2d.fillRect(0, 0, width, height);
+		g2d.dispose();
+		return img;
+	}
+
+}
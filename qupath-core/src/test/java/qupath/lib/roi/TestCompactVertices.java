@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package qupath.lib.roi;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import qupath.lib.regions.ImagePlane;
+
+@SuppressWarnings("javadoc")
+public class TestCompactVertices {
+
+	@Test
+	public void test_lossless() {
+		var rand = new Random(100L);
+		for (float step : new float[] {1f, 0.5f, 0.25f, 1f/256f}) {
+			int n = 50;
+			float[] x = new float[n];
+			float[] y = new float[n];
+			for (int i = 0; i < n; i++) {
+				x[i] = 120_000 + rand.nextInt(200) * step;
+				y[i] = 80_000 + rand.nextInt(200) * step;
+			}
+			var vertices = CompactVertices.tryToCreate(x, y);
+			assertNotNull(vertices);
+			assertEquals(n, vertices.size());
+			assertArrayEquals(x, vertices.getX(null));
+			assertArrayEquals(y, vertices.getY(null));
+			for (int i = 0; i < n; i++) {
+				assertEquals(x[i], vertices.getX(i));
+				assertEquals(y[i], vertices.getY(i));
+			}
+		}
+	}
+
+	@Test
+	public void test_notRepresentable() {
+		// Too many fractional bits
+		assertNull(CompactVertices.tryToCreate(new float[] {0.1f, 1f, 2f}, new float[] {0f, 1f, 0f}));
+		// Extent too large
+		assertNull(CompactVertices.tryToCreate(new float[] {0f, 100_000f, 2f}, new float[] {0f, 1f, 0f}));
+		// Extent too large for the required precision
+		assertNull(CompactVertices.tryToCreate(new float[] {0f, 1000.5f, 2f}, new float[] {0f, 1000f, 0f}));
+		assertNull(CompactVertices.tryToCreate(new float[] {Float.NaN, 1f, 2f}, new float[] {0f, 1f, 0f}));
+		assertNull(CompactVertices.tryToCreate(new float[] {-0f, 1f, 2f}, new float[] {0f, 1f, 0f}));
+		assertNull(CompactVertices.tryToCreate(new float[0], new float[0]));
+	}
+
+	@Test
+	public void test_polygon() {
+		var plane = ImagePlane.getDefaultPlane();
+		float[] x = {10.5f, 20f, 20f, 10f};
+		float[] y = {10f, 10f, 25.25f, 25f};
+		var roi = ROIs.createPolygonROI(x, y, plane);
+		assertInstanceOf(CompactVertices.class, roi.getVertices());
+		var geometry = roi.getGeometry();
+		assertEquals(geometry.getArea(), roi.getArea(), 1e-6);
+		assertEquals(geometry.getCentroid().getX(), roi.getCentroidX(), 1e-4);
+		assertEquals(geometry.getCentroid().getY(), roi.getCentroidY(), 1e-4);
+		assertEquals(10.0, roi.getBoundsX());
+		assertEquals(15.25, roi.getBoundsHeight());
+
+		assertEquals(x.length, roi.getNumPoints());
+		for (int i = 0; i < x.length; i++) {
+			assertEquals(x[i], roi.getVertexX(i));
+			assertEquals(y[i], roi.getVertexY(i));
+		}
+
+		var scaled = roi.scale(2.0, 3.0, 10, 10);
+		assertEquals(roi.getArea() * 6.0, scaled.getArea(), 1e-6);
+		assertEquals(roi.getArea(), roi.translate(1000.125, -5).getArea(), 1e-6);
+	}
+
+}
@@ -164,6 +164,26 @@ public class TestROIs {
 	}
 	
 	
+	@Test
+	public void testPolygonFromArrays() {
+		var plane = ImagePlane.getPlane(1, 2);
+		double[] x = {0, 100, 100, 20};
+		double[] y = {0, 0, 50, 80};
+		float[] xf = {0, 100, 100, 20};
+		float[] yf = {0, 0, 50, 80};
+		var points = List.of(new Point2(0, 0), new Point2(100, 0), new Point2(100, 50), new Point2(20, 80));
+		
+		var expected = ROIs.createPolygonROI(points, plane);
+		var fromDoubles = ROIs.createPolygonROI(x, y, plane);
+		var fromFloats = ROIs.createPolygonROI(xf, yf, plane);
+		for (var roi : List.of(fromDoubles, fromFloats)) {
+			assertEquals(expected.getAllPoints(), roi.getAllPoints());
+			assertEquals(expected.getArea(), roi.getArea(), 1e-6);
+			assertEquals(plane, roi.getImagePlane());
+		}
+		assertThrows(IllegalArgumentException.class, () -> ROIs.createPolygonROI(new float[3], new float[2], plane));
+	}
+	
 	@Test
 	public void roiSerialization() {
 		
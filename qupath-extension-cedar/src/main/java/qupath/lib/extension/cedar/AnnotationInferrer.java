@@ -189,16 +189,13 @@ public class AnnotationInferrer {
                 int lastIndex = fileName.lastIndexOf(".");
                 fileName = fileName.substring(0, lastIndex);
                 File annotationFile = new File(annotationFolder, fileName + ".geojson");
-                // Consider using a buffer writer
-                FileWriter fileWriter = new FileWriter(annotationFile);
-                fileWriter.write(response);
-                fileWriter.flush();
-                fileWriter.close();
-                extension.parseAnnotationFile(annotationFile);
-                if (this.trackAction != null) {
-                    List<CedarAnnotation> annotations = extension.getTableSource();
-                    extension.trackAction(trackAction, "Inference", "Added: " + annotations.size());
-                }
+                // Replace the file atomically. Any journal for the old annotations is discarded too.
+                AnnotationSaver.replaceAnnotationFile(annotationFile, response);
+                // Loading is done in the background. Track the action after all annotations are loaded.
+                extension.loadAnnotationFile(annotationFile, annotations -> {
+                    if (this.trackAction != null)
+                        extension.trackAction(trackAction, "Inference", "Added: " + annotations.size());
+                });
             }
         }
         catch(Exception e) {
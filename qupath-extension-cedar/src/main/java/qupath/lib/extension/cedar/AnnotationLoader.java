@@ -0,0 +1,254 @@
+package qupath.lib.extension.cedar;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.common.GeneralTools;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Load annotations for an image in a background thread. The annotation file is parsed off the JavaFX thread,
+ * all PathObjects are handed over to be added into the hierarchy with a single call, and the annotation table
+ * is then populated in chunks on the JavaFX thread so that the first rows show up immediately for large annotation files.
+ * A running load is cancelled when a new one is started (e.g. the user switches to another image).
+ */
+public class AnnotationLoader {
+    private static final Logger logger = LoggerFactory.getLogger(AnnotationLoader.class);
+    // The number of rows to be added into the table for each round in the JavaFX thread
+    private static final int PUBLISH_CHUNK_SIZE = 500;
+    // Files larger than this (in bytes) are converted into PathObjects in parallel
+    private static final long PARALLEL_FILE_SIZE = 10L * 1024 * 1024;
+    // The order of the Hilbert curve used to sort annotations, i.e. a grid of 2^16 x 2^16
+    private static final int HILBERT_ORDER = 16;
+    // Only one loading is needed at any time
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            ThreadTools.createThreadFactory("cedar-annotation-loader-", true));
+    // Used to make sure the annotation file is not being written when loading
+    private final AnnotationSaver annotationSaver;
+    // The loading task that is running
+    private LoadingTask currentTask;
+
+    public AnnotationLoader(AnnotationSaver annotationSaver) {
+        this.annotationSaver = annotationSaver;
+    }
+
+    /**
+     * Load the annotation file into the passed table source. Any running loading will be cancelled.
+     * This method should be called in the JavaFX thread.
+     *
+     * @param annotationFile the annotation file in either geojson or json
+     * @param tableSource the source list of the annotation table
+     * @param listener
+     * @return the task for loading
+     */
+    public Task<List<CedarAnnotation>> load(File annotationFile,
+                                            ObservableList<CedarAnnotation> tableSource,
+                                            LoadingListener listener) {
+        return load(annotationFile, null, tableSource, listener);
+    }
+
+    /**
+     * Load annotations that have been parsed (e.g. prefetched) into the passed table source. The file is parsed
+     * only if the passed annotations are null.
+     *
+     * @param annotationFile the annotation file in either geojson or json
+     * @param parsedAnnotations sorted annotations parsed from the annotation file. Null is allowed.
+     * @param tableSource the source list of the annotation table
+     * @param listener
+     * @return the task for loading
+     */
+    public Task<List<CedarAnnotation>> load(File annotationFile,
+                                            List<CedarAnnotation> parsedAnnotations,
+                                            ObservableList<CedarAnnotation> tableSource,
+                                            LoadingListener listener) {
+        cancel();
+        LoadingTask task = new LoadingTask(annotationFile, parsedAnnotations, tableSource, listener);
+        task.setOnFailed(e -> {
+            if (currentTask == task)
+                currentTask = null;
+            listener.loadingFailed(task.getException());
+        });
+        currentTask = task;
+        executor.submit(task);
+        return task;
+    }
+
+    /**
+     * Cancel the running loading if any. This method should be called in the JavaFX thread so that
+     * no more chunks are published after it returns.
+     */
+    public void cancel() {
+        if (currentTask != null) {
+            logger.info("Cancel loading annotations: " + currentTask.annotationFile.getAbsolutePath());
+            currentTask.cancel(true);
+        }
+        currentTask = null;
+    }
+
+    /**
+     * Check if there is a loading running, i.e. the table has not been fully populated yet.
+     * This method should be called in the JavaFX thread.
+     * @return
+     */
+    public boolean isLoading() {
+        return currentTask != null;
+    }
+
+    /**
+     * Parse the annotation file into a list of CedarAnnotation. No JavaFX object is touched here so that
+     * this method can be called in any thread.
+     *
+     * @param annotationFile
+     * @return null if the file extension is not supported.
+     * @throws IOException
+     */
+    static List<CedarAnnotation> readAnnotations(File annotationFile) throws IOException {
+        logger.info("Loading annotation: " + annotationFile.getAbsolutePath());
+        CedarAnnotationReader reader = new CedarAnnotationReader();
+        // Only worth the overhead of parallel conversion for large files
+        reader.setParallel(annotationFile.length() > PARALLEL_FILE_SIZE);
+        List<CedarAnnotation> annotations = reader.read(annotationFile);
+        if (annotations == null) {
+            logger.info("Cannot load annnotation file. The file must have extension name .geojson or .json.");
+            return null;
+        }
+        // Changes saved since the last compaction are kept in the journal
+        return AnnotationSaver.applyJournal(annotationFile, annotations);
+    }
+
+    /**
+     * Sort the list of CedarAnnoations along a Hilbert curve over ROI bounds so that neighbouring rows are close
+     * to each other in the image. This makes the viewer pan smoothly when going through the table.
+     *
+     * @param annotations
+     */
+    static void sortAnnotations(List<CedarAnnotation> annotations) {
+        if (annotations.size() < 2)
+            return;
+        // Using bounds, instead of centroid, gives a better intuition
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (CedarAnnotation annotation : annotations) {
+            ROI roi = annotation.getPathObject().getROI();
+            minX = Math.min(minX, roi.getBoundsX());
+            minY = Math.min(minY, roi.getBoundsY());
+            maxX = Math.max(maxX, roi.getBoundsX());
+            maxY = Math.max(maxY, roi.getBoundsY());
+        }
+        // Use the same scale for x and y so that the curve is not distorted
+        int gridSize = 1 << HILBERT_ORDER;
+        double scale = (gridSize - 1) / Math.max(1.0, Math.max(maxX - minX, maxY - minY));
+        // Keys are computed once so that the comparison is consistent (i.e. transitive) for List.sort
+        List<SortEntry> entries = new ArrayList<>(annotations.size());
+        for (CedarAnnotation annotation : annotations) {
+            ROI roi = annotation.getPathObject().getROI();
+            int x = (int) ((roi.getBoundsX() - minX) * scale);
+            int y = (int) ((roi.getBoundsY() - minY) * scale);
+            entries.add(new SortEntry(annotation, GeneralTools.hilbertIndex(x, y, gridSize), roi.getBoundsX(), roi.getBoundsY()));
+        }
+        entries.sort(Comparator.comparingLong(SortEntry::key)
+                .thenComparingDouble(SortEntry::y)
+                .thenComparingDouble(SortEntry::x));
+        ListIterator<CedarAnnotation> it = annotations.listIterator();
+        for (SortEntry entry : entries) {
+            it.next();
+            it.set(entry.annotation());
+        }
+    }
+
+    private record SortEntry(CedarAnnotation annotation, long key, double x, double y) {}
+
+    /**
+     * Callbacks for a loading. All methods are called in the JavaFX thread and never after the loading is cancelled.
+     */
+    public interface LoadingListener {
+        /**
+         * Called after the file is parsed and before any row is added into the table. This is the place
+         * to add all PathObjects into the hierarchy.
+         */
+        void annotationsParsed(List<CedarAnnotation> annotations);
+
+        /**
+         * Called after all annotations have been added into the table.
+         */
+        void annotationsLoaded(List<CedarAnnotation> annotations);
+
+        /**
+         * Called if the file cannot be parsed.
+         */
+        void loadingFailed(Throwable e);
+    }
+
+    private class LoadingTask extends Task<List<CedarAnnotation>> {
+        private final File annotationFile;
+        private final List<CedarAnnotation> parsedAnnotations;
+        private final ObservableList<CedarAnnotation> tableSource;
+        private final LoadingListener listener;
+
+        LoadingTask(File annotationFile,
+                    List<CedarAnnotation> parsedAnnotations,
+                    ObservableList<CedarAnnotation> tableSource,
+                    LoadingListener listener) {
+            this.annotationFile = annotationFile;
+            this.parsedAnnotations = parsedAnnotations;
+            this.tableSource = tableSource;
+            this.listener = listener;
+        }
+
+        @Override
+        protected List<CedarAnnotation> call() throws Exception {
+            List<CedarAnnotation> annotations = parsedAnnotations;
+            if (annotations == null) {
+                // The file may be still being saved (e.g. switch back to the previous image quickly)
+                annotationSaver.waitForSaving();
+                if (isCancelled())
+                    return null;
+                annotations = readAnnotations(annotationFile);
+                if (annotations == null)
+                    throw new IOException("Not supported annotation file: " + annotationFile.getName());
+                if (isCancelled())
+                    return null;
+                sortAnnotations(annotations);
+                if (isCancelled())
+                    return null;
+            }
+            // Publish everything to the JavaFX thread. All checks for cancelling should be done in
+            // the JavaFX thread too, since cancel() is called there.
+            Platform.runLater(() -> {
+                if (isCancelled())
+                    return;
+                tableSource.clear();
+                listener.annotationsParsed(annotations);
+            });
+            for (int start = 0; start < annotations.size(); start += PUBLISH_CHUNK_SIZE) {
+                List<CedarAnnotation> chunk = annotations.subList(start,
+                        Math.min(start + PUBLISH_CHUNK_SIZE, annotations.size()));
+                Platform.runLater(() -> {
+                    if (!isCancelled())
+                        tableSource.addAll(chunk);
+                });
+                updateProgress(start + chunk.size(), annotations.size());
+            }
+            Platform.runLater(() -> {
+                if (isCancelled())
+                    return;
+                if (currentTask == this)
+                    currentTask = null;
+                listener.annotationsLoaded(annotations);
+            });
+            return annotations;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package qupath.lib.extension.cedar;
+
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.TableView;
+import javafx.util.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.gui.QuPathGUI;
+import qupath.lib.gui.viewer.QuPathViewer;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.regions.RegionRequest;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Play through the rows in the annotation table one by one for reviewing. Only one KeyFrame is used and
+ * the next row is picked when it fires, so nothing is created per row up front. While a row is shown,
+ * the tiles for the fields of view of the next few rows are read into the tile cache in a background thread
+ * so that the viewer does not need to wait for them.
+ * All methods should be called in the JavaFX thread.
+ */
+public class AnnotationReviewPlayer {
+    private static final Logger logger = LoggerFactory.getLogger(AnnotationReviewPlayer.class);
+    // The number of rows after the current one whose tiles are prefetched
+    private static final int PREFETCH_ROWS = 3;
+    private final Timeline timeline = new Timeline();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            ThreadTools.createThreadFactory("cedar-review-prefetcher-", true));
+    private final TableView<CedarAnnotation> annotationTable;
+    private final Supplier<QuPathGUI> qupathSupplier;
+    // Called to show a row
+    private final IntConsumer rowHandler;
+    // The row to be shown next
+    private int nextRow;
+    private Future<?> prefetchFuture;
+
+    /**
+     * @param annotationTable the table to be played
+     * @param qupathSupplier
+     * @param rowHandler called with the row index when the row should be shown
+     */
+    public AnnotationReviewPlayer(TableView<CedarAnnotation> annotationTable,
+                                  Supplier<QuPathGUI> qupathSupplier,
+                                  IntConsumer rowHandler) {
+        this.annotationTable = annotationTable;
+        this.qupathSupplier = qupathSupplier;
+        this.rowHandler = rowHandler;
+        timeline.setCycleCount(Animation.INDEFINITE);
+    }
+
+    /**
+     * Start playing from the passed row.
+     *
+     * @param startRow
+     * @param secondsPerRow
+     */
+    public void start(int startRow, double secondsPerRow) {
+        timeline.stop();
+        nextRow = startRow;
+        // The same as before: the first row is shown after secondsPerRow
+        timeline.getKeyFrames().setAll(new KeyFrame(Duration.seconds(secondsPerRow), event -> showNextRow()));
+        prefetchTiles(nextRow);
+        timeline.play();
+    }
+
+    public void play() {
+        timeline.play();
+    }
+
+    public void pause() {
+        timeline.pause();
+    }
+
+    public void stop() {
+        timeline.stop();
+        timeline.getKeyFrames().clear();
+        cancelPrefetching();
+    }
+
+    public Animation.Status getStatus() {
+        return timeline.getStatus();
+    }
+
+    private void showNextRow() {
+        // Rows may be removed or filtered during playing
+        if (nextRow >= annotationTable.getItems().size()) {
+            stop();
+            return;
+        }
+        rowHandler.accept(nextRow);
+        nextRow++;
+        prefetchTiles(nextRow);
+    }
+
+    private void cancelPrefetching() {
+        if (prefetchFuture != null)
+            prefetchFuture.cancel(true);
+        prefetchFuture = null;
+    }
+
+    /**
+     * Read the tiles needed to show the rows starting from the passed one into the tile cache.
+     * The current downsample and view size of the viewer are used, since centering on an annotation
+     * does not change them.
+     */
+    private void prefetchTiles(int fromRow) {
+        cancelPrefetching();
+        QuPathGUI qupath = qupathSupplier.get();
+        QuPathViewer viewer = qupath == null ? null : qupath.getViewer();
+        ImageServer<BufferedImage> server = viewer == null ? null : viewer.getServer();
+        if (server == null)
+            return;
+        double downsample = viewer.getDownsampleFactor();
+        double fieldWidth = viewer.getView().getWidth() * downsample;
+        double fieldHeight = viewer.getView().getHeight() * downsample;
+        if (fieldWidth <= 0 || fieldHeight <= 0)
+            return;
+        List<RegionRequest> requests = new ArrayList<>();
+        List<CedarAnnotation> rows = annotationTable.getItems();
+        for (int row = fromRow; row < Math.min(fromRow + PREFETCH_ROWS, rows.size()); row++) {
+            ROI roi = rows.get(row).getPathObject() == null ? null : rows.get(row).getPathObject().getROI();
+            if (roi == null)
+                continue;
+            // The same field of view as QuPathViewer.centerROI
+            int x = (int) Math.max(0, roi.getCentroidX() - fieldWidth / 2.0);
+            int y = (int) Math.max(0, roi.getCentroidY() - fieldHeight / 2.0);
+            int width = (int) Math.min(server.getWidth() - x, Math.ceil(fieldWidth));
+            int height = (int) Math.min(server.getHeight() - y, Math.ceil(fieldHeight));
+            if (width <= 0 || height <= 0)
+                continue;
+            requests.add(RegionRequest.createInstance(server.getPath(), downsample,
+                    x, y, width, height, roi.getZ(), roi.getT()));
+        }
+        if (requests.isEmpty())
+            return;
+        Map<RegionRequest, BufferedImage> cache = qupath.getImageRegionStore().getCache();
+        prefetchFuture = executor.submit(() -> {
+            for (RegionRequest request : requests) {
+                for (TileRequest tile : server.getTileRequestManager().getTileRequests(request)) {
+                    if (Thread.currentThread().isInterrupted())
+                        return;
+                    RegionRequest tileRequest = tile.getRegionRequest();
+                    if (cache.containsKey(tileRequest))
+                        continue;
+                    try {
+                        // Tiles are cached by the server into the same cache used by the viewer
+                        server.readRegion(tileRequest);
+                    }
+                    catch (Exception e) {
+                        logger.debug("Cannot prefetch tile " + tileRequest + ": " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,310 @@
+package qupath.lib.extension.cedar;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.fx.dialogs.Dialogs;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.io.GsonTools;
+import qupath.lib.io.PathIO;
+import qupath.lib.objects.PathObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Save annotations for an image in a background thread. Changes made since the last save are tracked so that a save
+ * only appends these changes into a journal file next to the GeoJSON file (e.g. image.geojson.journal), one json
+ * line per changed or removed object. The journal is compacted into the GeoJSON file when it grows too large compared
+ * to the GeoJSON file, or when a compaction is requested (e.g. the application is closing). The GeoJSON file is
+ * always written into a temp file first and then moved to replace the original one, so that a crash never leaves
+ * a truncated annotation file behind.
+ * All methods except waitForSaving() should be called in the JavaFX thread.
+ */
+public class AnnotationSaver {
+    private static final Logger logger = LoggerFactory.getLogger(AnnotationSaver.class);
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String BACKUP_EXTENSION = ".bak";
+    // Compact the journal when its size is larger than this fraction of the GeoJSON file
+    private static final double COMPACT_RATIO = 0.25d;
+    private static final String OP_KEY = "op";
+    private static final String OP_PUT = "put";
+    private static final String OP_REMOVE = "remove";
+    // Saving should be done one by one so that they are written in order
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            ThreadTools.createThreadFactory("cedar-annotation-saver-", true));
+    // Changes since the last save
+    private final Set<PathObject> changedObjects = new LinkedHashSet<>();
+    private final Set<UUID> removedIds = new LinkedHashSet<>();
+    // Some changes cannot be tracked by objects (e.g. merge). Need to write the whole file.
+    private boolean fullSaveNeeded;
+    // Files whose last save failed. The tracked changes have been cleared, so the whole file needs to be written.
+    // This is checked in the saving thread, so that saves submitted before the failure are covered too.
+    private final Set<File> failedFiles = ConcurrentHashMap.newKeySet();
+
+    public AnnotationSaver() {
+    }
+
+    /**
+     * Clear all tracked changes. This should be called when new annotations are loaded.
+     */
+    public void reset() {
+        changedObjects.clear();
+        removedIds.clear();
+        fullSaveNeeded = false;
+    }
+
+    public void markChanged(PathObject pathObject) {
+        if (pathObject == null)
+            return;
+        removedIds.remove(pathObject.getID());
+        changedObjects.add(pathObject);
+    }
+
+    public void markChanged(Iterable<? extends PathObject> pathObjects) {
+        for (PathObject pathObject : pathObjects)
+            markChanged(pathObject);
+    }
+
+    public void markRemoved(Iterable<? extends PathObject> pathObjects) {
+        for (PathObject pathObject : pathObjects) {
+            changedObjects.remove(pathObject);
+            removedIds.add(pathObject.getID());
+        }
+    }
+
+    /**
+     * Call this method when changes cannot be tracked for individual objects.
+     */
+    public void markAllChanged() {
+        fullSaveNeeded = true;
+    }
+
+    /**
+     * Save the annotations in a background thread.
+     *
+     * @param annotationFile the GeoJSON file
+     * @param pathObjects all objects for the image
+     * @param compact true to write all objects into the GeoJSON file and remove the journal
+     */
+    public void save(File annotationFile, List<PathObject> pathObjects, boolean compact) {
+        // Make a copy since the passed list may be changed when saving
+        List<PathObject> allObjects = List.copyOf(pathObjects);
+        boolean isFullSave = compact || fullSaveNeeded || !annotationFile.exists();
+        // Journal entries are small. Create them here so that they are not changed during saving.
+        List<String> entries = isFullSave ? null : createJournalEntries();
+        reset();
+        executor.submit(() -> {
+            try {
+                if (isFullSave || failedFiles.contains(annotationFile) || !appendJournal(annotationFile, entries))
+                    writeAnnotations(annotationFile, allObjects);
+                failedFiles.remove(annotationFile);
+            }
+            catch (IOException e) {
+                failedFiles.add(annotationFile);
+                logger.error("Cannot save the annotation: " + e.getMessage(), e);
+                Dialogs.showErrorMessage("Error in Saving Annotation",
+                        "Cannot save annotation: " + annotationFile.getName());
+            }
+        });
+    }
+
+    /**
+     * Block the calling thread until all submitted saving has been done. Don't call this method in the JavaFX
+     * thread except when the application is closing.
+     */
+    public void waitForSaving() {
+        try {
+            executor.submit(() -> {}).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            logger.error("Error in waiting for saving: " + e.getMessage(), e);
+        }
+    }
+
+    private List<String> createJournalEntries() {
+        Gson gson = GsonTools.getInstance();
+        List<String> entries = new ArrayList<>(removedIds.size() + changedObjects.size());
+        for (UUID id : removedIds) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty(OP_KEY, OP_REMOVE);
+            entry.addProperty("id", id.toString());
+            entries.add(gson.toJson(entry));
+        }
+        for (PathObject pathObject : changedObjects) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty(OP_KEY, OP_PUT);
+            entry.add("feature", gson.toJsonTree(pathObject));
+            entries.add(gson.toJson(entry));
+        }
+        return entries;
+    }
+
+    /**
+     * Append entries into the journal.
+     * @return false if the journal should be compacted into the GeoJSON file.
+     */
+    private boolean appendJournal(File annotationFile, List<String> entries) throws IOException {
+        Path journal = getJournalPath(annotationFile);
+        if (entries.isEmpty())
+            return true;
+        StringBuilder builder = new StringBuilder();
+        for (String entry : entries)
+            builder.append(entry).append('\n');
+        byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+        long journalSize = Files.exists(journal) ? Files.size(journal) : 0L;
+        if (journalSize + bytes.length > annotationFile.length() * COMPACT_RATIO)
+            return false; // Time to compact
+        try (FileChannel channel = FileChannel.open(journal,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(false);
+        }
+        logger.info("Appended " + entries.size() + " changes into " + journal);
+        return true;
+    }
+
+    private void writeAnnotations(File annotationFile, List<PathObject> pathObjects) throws IOException {
+        Path target = annotationFile.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_EXTENSION);
+        PathIO.exportObjectsAsGeoJSON(temp, pathObjects);
+        // Make sure the content is on the disk before moving
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        backupAnnotations(target);
+        moveAtomically(temp, target);
+        // All changes in the journal are in the GeoJSON file now. Replaying the journal is harmless
+        // if this fails since all entries are idempotent.
+        Files.deleteIfExists(getJournalPath(annotationFile));
+        logger.info("Saved " + pathObjects.size() + " annotations into " + annotationFile);
+    }
+
+    private void backupAnnotations(Path annotationFile) {
+        if (!Files.exists(annotationFile))
+            return;
+        // Don't track the backup action. It is a system automatic action
+        // No user involved.
+        Path backupFile = annotationFile.resolveSibling(annotationFile.getFileName() + BACKUP_EXTENSION);
+        try {
+            Files.deleteIfExists(backupFile);
+            // A hard link keeps the old content after the original file is replaced without copying it
+            Files.createLink(backupFile, annotationFile);
+        }
+        catch (UnsupportedOperationException | IOException e) {
+            try {
+                Files.copy(annotationFile, backupFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (IOException e1) {
+                logger.warn("Cannot back up " + annotationFile + ": " + e1.getMessage());
+            }
+        }
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            logger.debug("Atomic move is not supported: " + e.getMessage());
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Path getJournalPath(File annotationFile) {
+        return new File(annotationFile.getAbsolutePath() + JOURNAL_EXTENSION).toPath();
+    }
+
+    /**
+     * Replace the annotation file with the passed content (e.g. from inference) atomically. Any journal
+     * for this file is removed since it is not for the new content.
+     *
+     * @param annotationFile
+     * @param content
+     * @throws IOException
+     */
+    static void replaceAnnotationFile(File annotationFile, String content) throws IOException {
+        Path target = annotationFile.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_EXTENSION);
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        moveAtomically(temp, target);
+        Files.deleteIfExists(getJournalPath(annotationFile));
+    }
+
+    /**
+     * Apply the changes recorded in the journal of the passed annotation file, if any, to the annotations
+     * loaded from the file.
+     *
+     * @param annotationFile
+     * @param annotations the annotations loaded from the file
+     * @return the annotations after the journal is applied.
+     * @throws IOException
+     */
+    static List<CedarAnnotation> applyJournal(File annotationFile, List<CedarAnnotation> annotations) throws IOException {
+        Path journal = getJournalPath(annotationFile);
+        if (!Files.exists(journal))
+            return annotations;
+        Map<UUID, CedarAnnotation> id2annotation = new LinkedHashMap<>();
+        for (CedarAnnotation annotation : annotations)
+            id2annotation.put(annotation.getPathObject().getID(), annotation);
+        Gson gson = GsonTools.getInstance();
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+                JsonObject entry;
+                try {
+                    entry = JsonParser.parseString(line).getAsJsonObject();
+                }
+                catch (JsonParseException | IllegalStateException e) {
+                    // Most likely the last line was not fully written
+                    logger.warn("Ignore the invalid entry in " + journal + ": " + e.getMessage());
+                    break;
+                }
+                String op = entry.get(OP_KEY).getAsString();
+                if (OP_REMOVE.equals(op)) {
+                    id2annotation.remove(UUID.fromString(entry.get("id").getAsString()));
+                }
+                else if (OP_PUT.equals(op)) {
+                    PathObject pathObject = gson.fromJson(entry.get("feature"), PathObject.class);
+                    id2annotation.remove(pathObject.getID()); // Make sure the latest is kept at the end
+                    id2annotation.put(pathObject.getID(), new CedarAnnotation(pathObject));
+                }
+                count++;
+            }
+        }
+        logger.info("Applied " + count + " changes in " + journal);
+        return new ArrayList<>(id2annotation.values());
+    }
+}
@@ -0,0 +1,226 @@
+package qupath.lib.extension.cedar;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import qupath.lib.io.PathIO;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.objects.classes.PathClass;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+import qupath.lib.roi.interfaces.ROI;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A streaming reader for cedar annotation files. Two layouts are supported:
+ * <ul>
+ *     <li>GeoJSON in a .geojson file, which is passed to QuPath's streaming GeoJSON reader
+ *     (see {@link PathIO#readObjectsFromGeoJSON(InputStream, boolean, java.util.function.Consumer)}).</li>
+ *     <li>The legacy cedar json layout in a .json file with "annotation" (a list of polygons in [y, x]) and
+ *     "features" holding "class", "anno_style" and "metadata" lists. This is tokenized with Jackson's JsonParser
+ *     so that no JsonNode tree and no Point2 per vertex are created.</li>
+ * </ul>
+ */
+public class CedarAnnotationReader {
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private boolean parallel;
+
+    public CedarAnnotationReader() {
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Convert GeoJSON features into PathObjects in parallel.
+     * @param parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Read the annotations in a geojson or json file.
+     *
+     * @param annotationFile
+     * @return null if the file extension is not supported.
+     * @throws IOException
+     */
+    public List<CedarAnnotation> read(File annotationFile) throws IOException {
+        String name = annotationFile.getName();
+        if (name.endsWith(".geojson"))
+            return readGeoJSON(annotationFile);
+        if (name.endsWith(".json"))
+            return readLegacyJSON(annotationFile);
+        return null;
+    }
+
+    private List<CedarAnnotation> readGeoJSON(File annotationFile) throws IOException {
+        List<CedarAnnotation> annotations = new ArrayList<>();
+        try (InputStream stream = new FileInputStream(annotationFile)) {
+            PathIO.readObjectsFromGeoJSON(stream, parallel, pathObject -> annotations.add(new CedarAnnotation(pathObject)));
+        }
+        return annotations;
+    }
+
+    private List<CedarAnnotation> readLegacyJSON(File annotationFile) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(annotationFile)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new JsonParseException(parser, "Expect a json object in " + annotationFile.getName());
+            List<ROI> rois = new ArrayList<>();
+            LegacyFeatures features = new LegacyFeatures();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "annotation" -> rois = readLegacyPolygons(parser);
+                    case "features" -> features = readLegacyFeatures(parser);
+                    default -> parser.skipChildren();
+                }
+            }
+            return createLegacyAnnotations(rois, features);
+        }
+    }
+
+    /**
+     * Read the legacy polygons, i.e. a list of lists of [y, x]. The current token should be START_ARRAY.
+     */
+    private List<ROI> readLegacyPolygons(JsonParser parser) throws IOException {
+        List<ROI> rois = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return rois;
+        }
+        ImagePlane plane = ImagePlane.getPlane(0, 0);
+        // Reuse the buffer for all polygons
+        CoordinateBuffer buffer = new CoordinateBuffer();
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            buffer.clear();
+            while (parser.nextToken() == JsonToken.START_ARRAY) {
+                parser.nextToken();
+                double y = parser.getDoubleValue();
+                parser.nextToken();
+                double x = parser.getDoubleValue();
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                    parser.skipChildren();
+                buffer.add(x, y);
+            }
+            rois.add(ROIs.createPolygonROI(buffer.getXFloats(), buffer.getYFloats(), plane));
+        }
+        return rois;
+    }
+
+    /**
+     * Read the legacy features with lists for class, anno_style and metadata. The current token should be START_OBJECT.
+     */
+    private LegacyFeatures readLegacyFeatures(JsonParser parser) throws IOException {
+        LegacyFeatures features = new LegacyFeatures();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return features;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "class" -> features.classIds = readStringList(parser);
+                case "anno_style" -> features.annoStyles = readStringList(parser);
+                case "metadata" -> features.metadata = readStringList(parser);
+                default -> parser.skipChildren();
+            }
+        }
+        return features;
+    }
+
+    private List<String> readStringList(JsonParser parser) throws IOException {
+        List<String> list = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return list;
+        }
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token.isScalarValue())
+                list.add(parser.getValueAsString());
+            else {
+                parser.skipChildren();
+                list.add(null);
+            }
+        }
+        return list;
+    }
+
+    private List<CedarAnnotation> createLegacyAnnotations(List<ROI> rois, LegacyFeatures features) {
+        if (features.classIds.size() < rois.size() ||
+            features.annoStyles.size() < rois.size() ||
+            features.metadata.size() < rois.size())
+            throw new IllegalArgumentException("The numbers of class, anno_style, or metadata are less than the number of annotations.");
+        List<CedarAnnotation> cedarAnnotations = new ArrayList<>(rois.size());
+        for (int i = 0; i < rois.size(); i++) {
+            PathObject annotationObject = PathObjects.createAnnotationObject(rois.get(i));
+            Integer classId = Integer.parseInt(features.classIds.get(i).trim());
+            CedarAnnotation cedarAnnotation = new CedarAnnotation();
+            cedarAnnotation.setAnnotationStyle(features.annoStyles.get(i));
+            cedarAnnotation.setPathObject(annotationObject);
+            cedarAnnotation.setClassId(classId);
+            cedarAnnotation.setMetaData(features.metadata.get(i));
+            cedarAnnotations.add(cedarAnnotation);
+
+            // Assign class to annotationObject so that we can see different colors
+            PathClass pathCls = CedarPathClassHandler.getHandler().getPathClass(cedarAnnotation.getClassId());
+            annotationObject.setPathClass(pathCls);
+            cedarAnnotation.setClassName(pathCls.getName());
+        }
+        return cedarAnnotations;
+    }
+
+    /**
+     * A growable buffer of x and y coordinates in primitive arrays.
+     */
+    static class CoordinateBuffer {
+        private float[] x = new float[16];
+        private float[] y = new float[16];
+        private int size;
+
+        void add(double xx, double yy) {
+            if (size == x.length) {
+                x = Arrays.copyOf(x, size * 2);
+                y = Arrays.copyOf(y, size * 2);
+            }
+            x[size] = (float) xx;
+            y[size] = (float) yy;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        float[] getXFloats() {
+            return Arrays.copyOf(x, size);
+        }
+
+        float[] getYFloats() {
+            return Arrays.copyOf(y, size);
+        }
+    }
+
+    /**
+     * The lists in "features" of the legacy cedar json layout.
+     */
+    static class LegacyFeatures {
+        List<String> classIds = new ArrayList<>();
+        List<String> annoStyles = new ArrayList<>();
+        List<String> metadata = new ArrayList<>();
+    }
+}
@@ -1,10 +1,6 @@
 package qupath.lib.extension.cedar;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
@@ -26,26 +22,22 @@ import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.stage.WindowEvent;
-import javafx.util.Duration;
 import javafx.util.converter.IntegerStringConverter;
 import org.controlsfx.control.CheckComboBox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import qupath.fx.dialogs.Dialogs;
-import qupath.lib.geom.Point2;
 import qupath.lib.gui.QuPathGUI;
+import qupath.lib.gui.prefs.PathPrefs;
+import qupath.lib.gui.tools.GuiTools;
 import qupath.lib.gui.viewer.tools.handlers.MoveToolEventHandler;
 import qupath.lib.images.ImageData;
-import qupath.lib.io.PathIO;
+import qupath.lib.images.servers.ImageServer;
 import qupath.lib.objects.PathObject;
-import qupath.lib.objects.PathObjects;
-import qupath.lib.objects.classes.PathClass;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyEvent;
 import qupath.lib.objects.hierarchy.events.PathObjectHierarchyListener;
 import qupath.lib.objects.hierarchy.events.PathObjectSelectionListener;
-import qupath.lib.regions.ImagePlane;
-import qupath.lib.roi.ROIs;
 import qupath.lib.roi.interfaces.ROI;
 import qupath.lib.scripting.QP;
 
@@ -56,6 +48,7 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -90,7 +83,7 @@ public class CedarExtensionView {
     // Keep previous hierarchy so that we can remove listeners
     private PathObjectHierarchy pathObjectHierarchy;
     // Used for animation
-    private Timeline timeline;
+    private AnnotationReviewPlayer reviewPlayer;
     private Button startBtn;
     private Button pauseBtn;
     private Button stopBtn;
@@ -100,6 +93,11 @@ public class CedarExtensionView {
     private TextField filterTF;
     // A flag to block the changes to self
     private boolean changeFromObject;
+    // Saving and loading of annotations are done in background threads
+    private final AnnotationSaver annotationSaver = new AnnotationSaver();
+    private final AnnotationLoader annotationLoader = new AnnotationLoader(annotationSaver);
+    // Warm up the next and previous images
+    private final ImagePrefetcher imagePrefetcher = new ImagePrefetcher(annotationSaver);
 
     private final ObservableList<String> items = FXCollections.observableArrayList();
     private CheckComboBox<String> checkComboBox = new CheckComboBox<>(items);
@@ -124,7 +122,10 @@ public class CedarExtensionView {
     public void setQupath(QuPathGUI qupath) {
         this.qupath = qupath;
         this.qupath.getStage().addEventHandler(WindowEvent.WINDOW_CLOSE_REQUEST, e -> {
-            saveAnnotations();
+            // Compact the journal so that the annotation file is complete for other tools
+            saveAnnotations(true);
+            // Saving is done in a background thread. Make sure it is done before exiting.
+            annotationSaver.waitForSaving();
             // Don't forget to dump the actions to a file. This should be called after
             // saveAnnotations since the actions of saving is tracked
             ActionTrackingManager.getManager().writeToFile();
@@ -208,6 +209,7 @@ public class CedarExtensionView {
         trackObjectMoveEvent(event);
         if (changeFromObject)
             return; // Changes from this object
+        trackChangesForSaving(event);
         if (event.getEventType() == PathObjectHierarchyEvent.HierarchyEventType.REMOVED) {
             List<PathObject> changedObjects = event.getChangedObjects();
             if (changedObjects == null || changedObjects.size() == 0)
@@ -314,6 +316,23 @@ public class CedarExtensionView {
         updateAnnotationBtn.setDisable(false);
     }
 
+    /**
+     * Record changed objects so that only these changes are written when saving.
+     */
+    private void trackChangesForSaving(PathObjectHierarchyEvent event) {
+        if (event.isChanging())
+            return; // Wait for the final event
+        List<PathObject> changedObjects = event.getChangedObjects();
+        if (event.getEventType() == PathObjectHierarchyEvent.HierarchyEventType.REMOVED) {
+            if (changedObjects != null)
+                annotationSaver.markRemoved(changedObjects);
+        }
+        else if (changedObjects == null || changedObjects.isEmpty())
+            annotationSaver.markAllChanged(); // e.g. merged or split. Don't know what have been changed.
+        else
+            annotationSaver.markChanged(changedObjects);
+    }
+
     private CedarAnnotation createNewAnnotationForPathObject(PathObject pathObject) {
         CedarAnnotation cedarAnnotation = new CedarAnnotation();
         cedarAnnotation.setPathObject(pathObject);
@@ -398,7 +417,7 @@ public class CedarExtensionView {
 
         updateAnnotationBtn = new Button("Update Annotation");
         updateAnnotationBtn.setOnAction(e -> {
-            saveAnnotations();
+            saveAnnotations(false);
         });
         updateAnnotationBtn.setDisable(true);
         buttonBox.getChildren().add(updateAnnotationBtn);
@@ -453,42 +472,40 @@ public class CedarExtensionView {
                 Color.LIGHTGRAY, BorderStrokeStyle.SOLID, new CornerRadii(2), new BorderWidths(1))
         ));
 
-        timeline = new Timeline();
-        timeline.setCycleCount(1);
+        // QuPathGUI is set after the view is created
+        reviewPlayer = new AnnotationReviewPlayer(annotationTable, () -> qupath, this::reviewRow);
 
         // Use space key to control
         annotationTable.setOnKeyPressed(keyEvent -> {
             if (keyEvent.getCode() == KeyCode.SPACE) {
-                if (timeline.getStatus() == Animation.Status.PAUSED) {
-                    timeline.play();
+                if (reviewPlayer.getStatus() == Animation.Status.PAUSED) {
+                    reviewPlayer.play();
                     pauseBtn.setDisable(false);
-                } else if (timeline.getStatus() == Animation.Status.RUNNING) {
-                    timeline.pause();
+                } else if (reviewPlayer.getStatus() == Animation.Status.RUNNING) {
+                    reviewPlayer.pause();
                     pauseBtn.setDisable(true);
                 }
             }
         });
 
         startBtn.setOnAction(e -> {
-            if (timeline.getStatus() == Animation.Status.PAUSED) {
-                timeline.play();
+            if (reviewPlayer.getStatus() == Animation.Status.PAUSED) {
+                reviewPlayer.play();
                 pauseBtn.setDisable(false);
                 return;
             }
-            setUpTimeline();
+            startReview();
             // In case it has no focus
             annotationTable.requestFocus();
-            timeline.play();
             pauseBtn.setDisable(false);
             stopBtn.setDisable(false);
         });
         pauseBtn.setOnAction(e -> {
-            timeline.pause();
+            reviewPlayer.pause();
             pauseBtn.setDisable(true);
         });
         stopBtn.setOnAction(e -> {
-            timeline.stop();
-            timeline.getKeyFrames().clear();
+            reviewPlayer.stop();
             stopBtn.setDisable(true);
             pauseBtn.setDisable(true);
         });
@@ -497,36 +514,31 @@ public class CedarExtensionView {
         return buttonBox;
     }
 
-    private void setUpTimeline() {
-        if (timeline != null) { // Should not do it. Just in case...
-            timeline.getKeyFrames().clear();
-        }
-
+    private void startReview() {
         int startIndex = annotationTable.getSelectionModel().getSelectedIndex();
         if (startIndex < 0 || startIndex >= annotationTable.getItems().size()) {
             startIndex = 0; // Restart from 0
         }
         double duration = Double.parseDouble(durationTF.getText().trim()); // per row
-        for (int i = startIndex; i < annotationTable.getItems().size(); i++) {
-            int rowIndex = i;
-            KeyFrame keyFrame = new KeyFrame(Duration.seconds((i - startIndex) * duration + duration), event -> {
-                // Clear the previous selection
-                annotationTable.getSelectionModel().clearSelection();
-
-                // Select the current row
-                annotationTable.getSelectionModel().select(rowIndex);
-
-                // Scroll to the current row to bring it into view
-                annotationTable.scrollTo(rowIndex);
-                if (autoAssignCheckedBox.isSelected()) {
-                    CedarAnnotation annotation = annotationTable.getItems().get(rowIndex);
-                    if (annotation.getAnnotationStyle() == AnnotationType.auto) {
-                        annotation.setAnnotationStyle(AnnotationType.auto_checked);
-                        annotationTable.refresh();
-                    }
-                }
-            });
-            timeline.getKeyFrames().add(keyFrame);
+        reviewPlayer.start(startIndex, duration);
+    }
+
+    private void reviewRow(int rowIndex) {
+        // Clear the previous selection
+        annotationTable.getSelectionModel().clearSelection();
+
+        // Select the current row
+        annotationTable.getSelectionModel().select(rowIndex);
+
+        // Scroll to the current row to bring it into view
+        annotationTable.scrollTo(rowIndex);
+        if (autoAssignCheckedBox.isSelected()) {
+            CedarAnnotation annotation = annotationTable.getItems().get(rowIndex);
+            if (annotation.getAnnotationStyle() == AnnotationType.auto) {
+                annotation.setAnnotationStyle(AnnotationType.auto_checked);
+                annotationSaver.markChanged(annotation.getPathObject());
+                annotationTable.refresh();
+            }
         }
     }
 
@@ -707,6 +719,7 @@ public class CedarExtensionView {
         annotationStyleCol.setOnEditCommit(event -> {
             AnnotationType oldValue = event.getOldValue();
             event.getRowValue().setAnnotationStyle(event.getNewValue());
+            annotationSaver.markChanged(event.getRowValue().getPathObject());
             updateAnnotationBtn.setDisable(false);
             CedarExtensionAction action = ActionTrackingManager.getManager().createAction("Annotation Editing");
             trackAction(action, "type: " + event.getRowValue().getPathObject().getID(),
@@ -718,6 +731,7 @@ public class CedarExtensionView {
         metaDataSol.setOnEditCommit(event -> {
             String oldValue = event.getOldValue();
             event.getRowValue().setMetaData(event.getNewValue());
+            annotationSaver.markChanged(event.getRowValue().getPathObject());
             updateAnnotationBtn.setDisable(false);
             // Note: This track has not really got the duration of this editing!!!
             // To get the duration, we may need to do a much complicated tracking to create object-level action.
@@ -810,6 +824,7 @@ public class CedarExtensionView {
             if (annotation.getAnnotationStyle() != AnnotationType.manual)
                 annotation.setAnnotationStyle(AnnotationType.auto_edited);
             this.annotationTable.refresh(); // TODO: Look for a method to refresh a cell only
+            annotationSaver.markChanged(annotation.getPathObject());
             updateAnnotationBtn.setDisable(false);
             trackAction(action,
                     "Class Name: " + annotation.getPathObject().getID(),
@@ -858,6 +873,7 @@ public class CedarExtensionView {
                 annotation.setAnnotationStyle(AnnotationType.auto_edited);
             // This is not efficient. Use it for the time being to synchronize the whole row
             annotationTable.refresh();
+            annotationSaver.markChanged(annotation.getPathObject());
             updateAnnotationBtn.setDisable(false);
             trackAction(action,
                     "class id: " + annotation.getPathObject().getID(),
@@ -871,17 +887,33 @@ public class CedarExtensionView {
         File imageFile = imageList.getSelectionModel().getSelectedItem();
         if (imageFile == null)
             return; // Do nothing
-        loadImage(imageFile);
-        // Wrap into here to avoid displaying issue when there is dialog shown (e.g. confirm the
-        // image type)
-        // Inside runLater doesn't work when no dialog is shown!
-//        Platform.runLater(() -> loadAnnotation(imageFile));
-        // Use thread works for both cases.
-        // However, an exception is thrown sometimes indicating this thread is not
-        // in the JavaFX thread.
-        Thread t = new Thread(() -> loadAnnotation(imageFile));
-        t.start();
-//        loadAnnotation(imageFile);
+        // Stop loading annotations for the previous image if it is still going on
+        annotationLoader.cancel();
+        // Use whatever has been prefetched for this image
+        ImagePrefetcher.PrefetchedImage prefetched = imagePrefetcher.take(imageFile);
+        if (!loadImage(imageFile, prefetched == null ? null : prefetched.getServer())) {
+            // The image is not opened (e.g. the user cancelled). Don't show its annotations with the current image.
+            if (!imageFile.equals(this.currentImageFile))
+                return;
+        }
+        // Parsing is done in a background thread by AnnotationLoader and the table is
+        // populated in the JavaFX thread. Therefore, this can be called directly.
+        loadAnnotation(imageFile, prefetched);
+        prefetchNeighbourImages();
+    }
+
+    /**
+     * Prefetch the images next to the selected one in the list, since users usually go through images one by one.
+     */
+    private void prefetchNeighbourImages() {
+        int index = imageList.getSelectionModel().getSelectedIndex();
+        List<File> imageFiles = imageList.getItems();
+        List<File> neighbours = new ArrayList<>(2);
+        if (index > -1 && index + 1 < imageFiles.size())
+            neighbours.add(imageFiles.get(index + 1)); // Next first since it is more likely to be used
+        if (index > 0)
+            neighbours.add(imageFiles.get(index - 1));
+        imagePrefetcher.prefetch(neighbours, imageFile -> getAnnotationFileForImage(imageFile, false));
     }
 
     private void handleAnnotationTableSelection() {
@@ -901,40 +933,33 @@ public class CedarExtensionView {
         trackAction(action,"Selected Item", annotation.toTrackingString());
     }
 
-    private void saveAnnotations() {
+    /**
+     * Save the annotations for the current image in a background thread.
+     *
+     * @param compact true to write all annotations into the GeoJSON file. Otherwise, only changes since
+     *                the last saving may be appended into the journal.
+     */
+    private void saveAnnotations(boolean compact) {
         CedarExtensionAction action = ActionTrackingManager.getManager().createAction("Saving an Annotation");
         // Should not save if it is disabled
         if (this.updateAnnotationBtn.isDisabled() || this.currentImageFile == null)
             return; // Do nothing
+        // The table is not fully populated. Saving it now will lose annotations in the file.
+        if (annotationLoader.isLoading()) {
+            logger.warn("Annotations are still loading for " + currentImageFile + ". Skip saving.");
+            return;
+        }
         logger.info("Saving annotations for " + imageList.getSelectionModel().getSelectedItem());
         // Save the data into geojson
         File annotationFile = getAnnotationFileForImage(currentImageFile, true);
         // Since we have used filter, we need to use the source of the original filtered list
         List<PathObject> pathObjects = getTableSource().stream().map(a -> a.getPathObject()).toList();
-        try {
-            backupAnnotations(annotationFile);
-            PathIO.exportObjectsAsGeoJSON(annotationFile, pathObjects);
-            // Disable after saving
-            this.updateAnnotationBtn.setDisable(true);
-        } catch (IOException e) {
-            logger.error("Cannot save the annotation: " + e.getMessage(), e);
-        }
+        annotationSaver.save(annotationFile, pathObjects, compact);
+        // Disable after saving
+        this.updateAnnotationBtn.setDisable(true);
         trackAction(action,"Saving annotation for", imageList.getSelectionModel().getSelectedItem().toString());
     }
 
-    private void backupAnnotations(File annoationFile) {
-        if (!annoationFile.exists())
-            return;
-        // Don't track the backup action. It is a system automatic action
-        // No user involved.
-        // Change the file name to .json.bak
-        String backupFileName = annoationFile.getAbsolutePath() + ".bak";
-        File backupFile = new File(backupFileName);
-        if (backupFile.exists())
-            backupFile.delete(); // Delete it
-        annoationFile.renameTo(backupFile);
-    }
-
     private File getImagesFolder(File folder) {
         if (folder == null)
             folder = this.currentFolder;
@@ -982,7 +1007,9 @@ public class CedarExtensionView {
 //            return;
         }
         // Before switch to the new folder, save whatever annotation we have if needed.
-        saveAnnotations();
+        saveAnnotations(true);
+        // Nothing prefetched is needed for the new folder
+        imagePrefetcher.cancelAll();
         this.currentFolder = folder;
         this.folderLabel.setText(folder.getAbsolutePath());
         listImages();
@@ -1067,13 +1094,37 @@ public class CedarExtensionView {
      * @return
      */
     public boolean loadImage(File imageFile) {
+        return loadImage(imageFile, null);
+    }
+
+    /**
+     * Load an image file using a server that has been built already (e.g. prefetched).
+     *
+     * @param imageFile
+     * @param server the server for the image file. If it is null, the server will be built.
+     * @return
+     */
+    private boolean loadImage(File imageFile, ImageServer<BufferedImage> server) {
         try {
             // Save the annotation first in case there is something changed there.
-            saveAnnotations();
+            saveAnnotations(false);
             logger.info("Loading image: " + imageFile.getAbsolutePath());
-            this.currentImageFile = imageFile;
             CedarExtensionAction action = ActionTrackingManager.getManager().createAction("Image Loading");
-            boolean rtn = this.qupath.openImage(this.qupath.getViewer(), imageFile.getAbsolutePath());
+            boolean rtn;
+            // QuPathGUI.openImage handles projects and prompts for the image type. Use it for these cases.
+            if (server != null && qupath.getProject() == null &&
+                    PathPrefs.imageTypeSettingProperty().get() != PathPrefs.ImageTypeSetting.PROMPT) {
+                if (!openPrefetchedImage(server)) {
+                    logger.info("Loading image is cancelled: " + imageFile.getAbsolutePath());
+                    return false;
+                }
+                this.currentImageFile = imageFile;
+                rtn = true;
+            }
+            else {
+                this.currentImageFile = imageFile;
+                rtn = this.qupath.openImage(this.qupath.getViewer(), imageFile.getAbsolutePath());
+            }
             if (rtn) {
                 if (this.pathObjectHierarchy != null) {
                     this.pathObjectHierarchy.removeListener(this.pathListener);
@@ -1101,6 +1152,44 @@ public class CedarExtensionView {
         }
     }
 
+    /**
+     * Open a prefetched server in the viewer in place of the current image. As when opening an image via QuPath,
+     * the user is asked to save any changes to the current image first, which may be cancelled. The server of the
+     * replaced image is closed afterwards.
+     *
+     * @param server
+     * @return false if the user cancelled
+     * @throws IOException
+     */
+    private boolean openPrefetchedImage(ImageServer<BufferedImage> server) throws IOException {
+        var viewer = qupath.getViewer();
+        ImageData<BufferedImage> imageDataOld = viewer.getImageData();
+        // This prompts to save changes if needed, and resets the viewer
+        if (!qupath.closeViewer(viewer)) {
+            // The prefetched server has been taken from the prefetcher, so it is not needed any more
+            closeServer(server);
+            return false;
+        }
+        ImageData.ImageType imageType = ImageData.ImageType.UNSET;
+        if (PathPrefs.imageTypeSettingProperty().get() == PathPrefs.ImageTypeSetting.AUTO_ESTIMATE)
+            imageType = GuiTools.estimateImageType(server, qupath.getImageRegionStore().getThumbnail(server, 0, 0, true));
+        viewer.setImageData(new ImageData<>(server, imageType));
+        if (imageDataOld != null && imageDataOld.getServer() != server)
+            closeServer(imageDataOld.getServer());
+        return true;
+    }
+
+    private void closeServer(ImageServer<BufferedImage> server) {
+        // Keep the server if it is still shown in another viewer
+        if (qupath.getAllViewers().stream().anyMatch(v -> v.getServer() == server))
+            return;
+        try {
+            server.close();
+        } catch (Exception e) {
+            logger.warn("Cannot close the server for " + server.getPath(), e);
+        }
+    }
+
     /**
      * Load the annotations for the passed image file. It is assumed the annotations should be in a
      * json file having the same file name, but in the annotations folder.
@@ -1108,7 +1197,7 @@ public class CedarExtensionView {
      * @param imageFile Note: the passed parameter is an image file, not its annotation file.
      * @return
      */
-    private boolean loadAnnotation(File imageFile) {
+    private boolean loadAnnotation(File imageFile, ImagePrefetcher.PrefetchedImage prefetched) {
         // Creating an Object for tracking
         CedarExtensionAction action = ActionTrackingManager.getManager().createAction("Annotation Loading");
         File annotationFolder = getAnnotationsFolder(this.currentFolder);
@@ -1118,6 +1207,8 @@ public class CedarExtensionView {
         File annotationFile = getAnnotationFileForImage(imageFile, false);
         // This may be possible. Create a warning
         if (!annotationFile.exists()) {
+            annotationLoader.cancel();
+            annotationSaver.reset();
             Dialogs.showWarningNotification("No Annotation File",
                     "Cannot find an annotation file for the image file, " + imageFile.getName() + ".");
             // Reset the table first
@@ -1127,23 +1218,19 @@ public class CedarExtensionView {
             inferAnnotationBtn.setDisable(false);
             return false;
         }
-        try {
-            // If there is annotation, the infer button should be disabled
-            inferAnnotationBtn.setDisable(true);
-            if (filterTF != null)
-                filterTF.clear();
-            boolean rtn = parseAnnotationFile(annotationFile);
+        // If there is annotation, the infer button should be disabled
+        inferAnnotationBtn.setDisable(true);
+        if (filterTF != null)
+            filterTF.clear();
+        // Prefetched annotations are used only if the file has not been changed after parsing
+        List<CedarAnnotation> parsedAnnotations = prefetched == null ? null : prefetched.getAnnotations(annotationFile);
+        loadAnnotationFile(annotationFile, parsedAnnotations, annotations -> {
             trackAction(action,"Annotation File", annotationFile.getAbsolutePath());
             // Count the classes
             CedarExtensionAction loadedAction = ActionTrackingManager.getManager().createAction("Annotation Loaded");
             trackAction(loadedAction, "Annotation Counts", countLoadedAnnotations());
-            return rtn;
-        } catch (IOException e) {
-            Dialogs.showErrorMessage("Error in Opening Annotation",
-                    "Cannot open annotation for: " + imageFile.getName());
-            logger.error("Cannot open annotation for: " + imageFile.getAbsolutePath(), e);
-            return false;
-        }
+        });
+        return true;
     }
 
     private String countLoadedAnnotations() {
@@ -1174,7 +1261,7 @@ public class CedarExtensionView {
         changeFromObject = true;
         imageData.getHierarchy().addObjects(pathObjects);
         ObservableList<CedarAnnotation> newAnnotations = FXCollections.observableArrayList(pathObjects.stream().map(p -> new CedarAnnotation(p)).toList());
-        sortAnnotations(newAnnotations);
+        AnnotationLoader.sortAnnotations(newAnnotations);
         ObservableList<CedarAnnotation> source = getTableSource();
         // Insert just below the original path object that is selected
         int selectedIndex = annotationTable.getSelectionModel().getSelectedIndex();
@@ -1183,6 +1270,7 @@ public class CedarExtensionView {
         else
             source.addAll(newAnnotations); // insert at the end
         // Enable save button so that we can save
+        annotationSaver.markChanged(pathObjects);
         this.updateAnnotationBtn.setDisable(false);
         // Select all together with the original one
         List<PathObject> toBeSelected = new ArrayList<>(pathObjects);
@@ -1193,127 +1281,59 @@ public class CedarExtensionView {
         changeFromObject = false;
     }
 
-    boolean parseAnnotationFile(File annotationFile) throws IOException {
-        logger.info("Loading annotation: " + annotationFile.getAbsolutePath());
-        ObservableList<CedarAnnotation> cedarAnnotations = null;
-        if (annotationFile.getName().endsWith(".geojson")) {
-            cedarAnnotations = loadFromGeoJSON(annotationFile);
-        } else if (annotationFile.getName().endsWith(".json")) {
-            cedarAnnotations = loadFromJSON((annotationFile));
-        }
-        if (cedarAnnotations == null) {
-            logger.info("Cannot load annnotation file. The file must have extension name .geojson or .json.");
-            return false;
-        }
-        changeFromObject = true;
-        ImageData<BufferedImage> imageData = this.qupath.getImageData();
-        cedarAnnotations.forEach(a -> imageData.getHierarchy().addObject(a.getPathObject(), false));
-        sortAnnotations(cedarAnnotations);
-        // Wrap the annotation list into a FilteredList so that we can do filtering
-        // Replace the data for the table. We only need to replace the original source
-        // the table view will be refreshed automatically.
-        ObservableList<CedarAnnotation> dataSource = this.getTableSource();
-        dataSource.clear();
-        dataSource.setAll(cedarAnnotations);
-        // Have to wrap it into this. Otherwise, it cannot be disabled.
-        Platform.runLater(() -> updateAnnotationBtn.setDisable(true));
-        QP.fireHierarchyUpdate(this.qupath.getImageData().getHierarchy());
-        changeFromObject = false;
-        return true;
-    }
-
     /**
-     * Sort the list of CedarAnnoations based on ROI's centroid starting from top left corner to the bottom right corner.
+     * Load an annotation file into the table and the hierarchy of the current image in a background thread.
+     * This method can be called from any thread.
      *
-     * @param annotations
+     * @param annotationFile
+     * @param onLoaded called in the JavaFX thread after all annotations are shown in the table. Null is allowed.
      */
-    private void sortAnnotations(List<CedarAnnotation> annotations) {
-        annotations.sort((a1, a2) -> {
-            // Using bounds, instead of centroid, gives a better intuition
-            double a1_x = a1.getPathObject().getROI().getBoundsX();
-            double a1_y = a1.getPathObject().getROI().getBoundsY();
-            double a2_x = a2.getPathObject().getROI().getBoundsX();
-            double a2_y = a2.getPathObject().getROI().getBoundsY();
-            // Compare y first: We want to make sure a2, which has higher value to be listed later, therefore
-            // the delta should be like this.
-            double delta_y = a1_y - a2_y;
-            if (delta_y > 0) return 1;
-            if (delta_y < 0) return -1;
-            double delta_x = a1_x - a2_x;
-            if (delta_x > 0) return 1;
-            return -1;
-        });
+    void loadAnnotationFile(File annotationFile, Consumer<List<CedarAnnotation>> onLoaded) {
+        loadAnnotationFile(annotationFile, null, onLoaded);
     }
 
-    private ObservableList<CedarAnnotation> loadFromJSON(File annotationFile) throws IOException {
-        // The following code is based on RunInference.java in Monai Label QuPath extension
-        ImageData<BufferedImage> imageData = this.qupath.getImageData();
-
-        // Create ObjectMapper instance
-        ObjectMapper objectMapper = new ObjectMapper();
-
-        // Read JSON file and parse it to JsonNode
-        JsonNode rootNode = objectMapper.readTree(annotationFile);
-
-        // Get image_name
-        String imageName = rootNode.path("image_name").asText();
-
-        // Get features
-        JsonNode featuresNode = rootNode.path("features");
-        JsonNode classNode = featuresNode.path("class");
-        JsonNode annoStyleNode = featuresNode.path("anno_style");
-        JsonNode metadataNode = featuresNode.path("metadata");
-
-        // Get annotations
-        JsonNode annotationsNode = rootNode.path("annotation");
-        ObservableList<CedarAnnotation> cedarAnnotations = FXCollections.observableArrayList();
-        for (int i = 0; i < annotationsNode.size(); i++) {
-            JsonNode annotation = annotationsNode.get(i);
-            List<Point2> pointsList = new ArrayList<>();
-            for (int j = 0; j < annotation.size(); j++) {
-                JsonNode point = annotation.get(j);
-                double x = point.get(1).asDouble();
-                double y = point.get(0).asDouble();
-                pointsList.add(new Point2(x, y));
-            }
-            ImagePlane plane = ImagePlane.getPlane(0, 0);
-            ROI polyROI = ROIs.createPolygonROI(pointsList, plane);
-            PathObject annotationObject = PathObjects.createAnnotationObject(polyROI);
-
-            String annotationStyle = annoStyleNode.get(i).textValue();
-            String metadata = metadataNode.get(i).textValue();
-            // This should use to String since the original value is a class
-            String annotationClassId = classNode.get(i).toString();
-            Integer classId = Integer.parseInt(annotationClassId);
-            CedarAnnotation cedarAnnotation = new CedarAnnotation();
-            cedarAnnotation.setAnnotationStyle(annotationStyle);
-            cedarAnnotation.setPathObject(annotationObject);
-            cedarAnnotation.setClassId(classId);
-            cedarAnnotation.setMetaData(metadata);
-            cedarAnnotations.add(cedarAnnotation);
-
-            // Assign class to annotationObject so that we can see different colors
-            PathClass pathCls = CedarPathClassHandler.getHandler().getPathClass(cedarAnnotation.getClassId());
-            annotationObject.setPathClass(pathCls);
-            cedarAnnotation.setClassName(pathCls.getName());
+    private void loadAnnotationFile(File annotationFile,
+                                    List<CedarAnnotation> parsedAnnotations,
+                                    Consumer<List<CedarAnnotation>> onLoaded) {
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(() -> loadAnnotationFile(annotationFile, parsedAnnotations, onLoaded));
+            return;
         }
+        updateAnnotationBtn.setDisable(true);
+        annotationLoader.load(annotationFile, parsedAnnotations, getTableSource(), new AnnotationLoader.LoadingListener() {
+            @Override
+            public void annotationsParsed(List<CedarAnnotation> annotations) {
+                ImageData<BufferedImage> imageData = qupath.getImageData();
+                if (imageData != null) {
+                    changeFromObject = true;
+                    // A single call so that only one hierarchy event is fired
+                    imageData.getHierarchy().addObjects(annotations.stream().map(CedarAnnotation::getPathObject).toList());
+                    changeFromObject = false;
+                }
+                // Nothing has been changed for the newly loaded annotations
+                annotationSaver.reset();
+                // Set the list of options based on distinct class names in the table
+                setCheckComboBox(annotations);
+            }
 
-        // Set the list of options based on distinct class names in the table
-        this.setCheckComboBox(cedarAnnotations);
-        return cedarAnnotations;
-    }
-
-    private ObservableList<CedarAnnotation> loadFromGeoJSON(File annotationFile) throws IOException {
-        List<PathObject> geoObjects = PathIO.readObjects(annotationFile);
-        // Convert it into a list of CedarAnnotation
-        ObservableList<CedarAnnotation> cedarAnnotations = FXCollections.observableArrayList(geoObjects.stream().map(p -> new CedarAnnotation(p)).toList());
+            @Override
+            public void annotationsLoaded(List<CedarAnnotation> annotations) {
+                // Any change during loading should not enable saving of a partial table
+                updateAnnotationBtn.setDisable(true);
+                if (onLoaded != null)
+                    onLoaded.accept(annotations);
+            }
 
-        // Set the list of options based on distinct class names in the table
-        this.setCheckComboBox(cedarAnnotations);
-        return cedarAnnotations;
+            @Override
+            public void loadingFailed(Throwable e) {
+                Dialogs.showErrorMessage("Error in Opening Annotation",
+                        "Cannot open annotation: " + annotationFile.getName());
+                logger.error("Cannot open annotation: " + annotationFile.getAbsolutePath(), e);
+            }
+        });
     }
 
-    private void setCheckComboBox(ObservableList<CedarAnnotation> cedarAnnotations) {
+    private void setCheckComboBox(List<CedarAnnotation> cedarAnnotations) {
         // Create a list of the class names for selection
         List<String> distinctClassNames = cedarAnnotations.stream()
                 .map(CedarAnnotation::getClassName)
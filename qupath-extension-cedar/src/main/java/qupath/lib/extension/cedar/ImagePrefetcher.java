@@ -0,0 +1,264 @@
+package qupath.lib.extension.cedar;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qupath.lib.common.ThreadTools;
+import qupath.lib.images.servers.ImageServer;
+import qupath.lib.images.servers.ImageServerMetadata;
+import qupath.lib.images.servers.ImageServerProvider;
+import qupath.lib.images.servers.ServerBuilder;
+import qupath.lib.images.servers.TileRequest;
+import qupath.lib.images.servers.UriImageSupport;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Prefetch images next to the current one in the image list so that moving to the next or previous image is fast.
+ * For each image, the ImageServer is built and its metadata read, the low resolution tiles are read into the shared
+ * tile cache (i.e. the region store used by the viewer), and the annotation file is parsed into CedarAnnotations.
+ * Only the passed neighbours are kept. Anything else is cancelled and released, so that memory is bounded by
+ * the number of neighbours.
+ * All methods should be called in the JavaFX thread.
+ */
+public class ImagePrefetcher {
+    private static final Logger logger = LoggerFactory.getLogger(ImagePrefetcher.class);
+    // The maximum bytes of low resolution tiles to be read for an image
+    private static final long MAX_TILE_BYTES = 32L * 1024 * 1024;
+    // Two threads so that a slow image does not block the other neighbour
+    private final ExecutorService executor = Executors.newFixedThreadPool(2,
+            ThreadTools.createThreadFactory("cedar-image-prefetcher-", true));
+    // Used to make sure the annotation file is not being written when parsing
+    private final AnnotationSaver annotationSaver;
+    // Prefetching keyed by image files
+    private final Map<File, PrefetchTask> tasks = new LinkedHashMap<>();
+
+    public ImagePrefetcher(AnnotationSaver annotationSaver) {
+        this.annotationSaver = annotationSaver;
+    }
+
+    /**
+     * Start prefetching the passed image files. Prefetching for any other image is cancelled.
+     *
+     * @param imageFiles the image files to be prefetched, e.g. the next and previous images
+     * @param annotationFileForImage to find the annotation file for an image file
+     */
+    public void prefetch(List<File> imageFiles, Function<File, File> annotationFileForImage) {
+        Set<File> toBeKept = new HashSet<>(imageFiles);
+        for (Iterator<Map.Entry<File, PrefetchTask>> it = tasks.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<File, PrefetchTask> entry = it.next();
+            if (!toBeKept.contains(entry.getKey())) {
+                entry.getValue().discard();
+                it.remove();
+            }
+        }
+        for (File imageFile : imageFiles) {
+            if (tasks.containsKey(imageFile))
+                continue;
+            PrefetchTask task = new PrefetchTask(imageFile, annotationFileForImage.apply(imageFile));
+            tasks.put(imageFile, task);
+            task.future = executor.submit(task);
+        }
+    }
+
+    /**
+     * Take the prefetched image. The prefetched image is handed over to the caller and removed from this object.
+     * If the prefetching has not finished yet, it is cancelled and null is returned so that the caller
+     * can load the image as usual without waiting.
+     *
+     * @param imageFile
+     * @return null if nothing has been prefetched for the image file
+     */
+    public PrefetchedImage take(File imageFile) {
+        PrefetchTask task = tasks.remove(imageFile);
+        if (task == null)
+            return null;
+        return task.take();
+    }
+
+    /**
+     * Cancel all prefetching and release anything prefetched (e.g. the folder is switched).
+     */
+    public void cancelAll() {
+        for (PrefetchTask task : tasks.values())
+            task.discard();
+        tasks.clear();
+    }
+
+    /**
+     * Read the low resolution tiles into the tile cache from the lowest resolution up until MAX_TILE_BYTES is reached.
+     */
+    private static void readLowResolutionTiles(ImageServer<BufferedImage> server) throws Exception {
+        // This should also read the lowest resolution tiles
+        server.getDefaultThumbnail(0, 0);
+        ImageServerMetadata metadata = server.getMetadata();
+        long bytesPerPixel = (long) metadata.getSizeC() * metadata.getPixelType().getBytesPerPixel();
+        long totalBytes = 0L;
+        for (int level = server.nResolutions() - 1; level >= 0; level--) {
+            for (TileRequest tile : server.getTileRequestManager().getTileRequestsForLevel(level)) {
+                totalBytes += tile.getTileWidth() * (long) tile.getTileHeight() * bytesPerPixel;
+                if (totalBytes > MAX_TILE_BYTES)
+                    return;
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedException("Prefetching is cancelled for " + server.getPath());
+                // Tiles are cached by the server
+                server.readRegion(tile.getRegionRequest());
+            }
+        }
+    }
+
+    /**
+     * Build the server in the same way as QuPathGUI.openImage. Null is returned if there is no builder or
+     * the user needs to select an image from multiple ones.
+     */
+    private static ImageServer<BufferedImage> buildServer(File imageFile) throws Exception {
+        UriImageSupport<BufferedImage> support = ImageServerProvider.getPreferredUriImageSupport(BufferedImage.class,
+                imageFile.getAbsolutePath());
+        List<ServerBuilder<BufferedImage>> builders = support == null ? Collections.emptyList() : support.getBuilders();
+        if (builders.size() != 1)
+            return null;
+        return builders.get(0).build();
+    }
+
+    /**
+     * What has been prefetched for an image file.
+     */
+    public static class PrefetchedImage {
+        private final File imageFile;
+        private ImageServer<BufferedImage> server;
+        private File annotationFile;
+        private List<CedarAnnotation> annotations;
+        // Used to check if the annotation file has been changed after parsing
+        private long annotationFileStamp;
+
+        PrefetchedImage(File imageFile) {
+            this.imageFile = imageFile;
+        }
+
+        public File getImageFile() {
+            return imageFile;
+        }
+
+        /**
+         * @return null if the server cannot be prefetched
+         */
+        public ImageServer<BufferedImage> getServer() {
+            return server;
+        }
+
+        /**
+         * Get the parsed annotations if the annotation file has not been changed after parsing. The returned
+         * annotations have been sorted.
+         *
+         * @param annotationFile the annotation file to be loaded
+         * @return null if the annotations are not for the passed file or the file has been changed.
+         */
+        public List<CedarAnnotation> getAnnotations(File annotationFile) {
+            if (annotations == null || !annotationFile.equals(this.annotationFile))
+                return null;
+            if (getFileStamp(annotationFile) != annotationFileStamp)
+                return null;
+            return annotations;
+        }
+
+        private void close() {
+            if (server == null)
+                return;
+            try {
+                server.close();
+            }
+            catch (Exception e) {
+                logger.warn("Cannot close the prefetched server for " + imageFile + ": " + e.getMessage());
+            }
+            server = null;
+        }
+
+        private static long getFileStamp(File annotationFile) {
+            File journal = new File(annotationFile.getAbsolutePath() + ".journal");
+            return 31 * (31 * annotationFile.lastModified() + annotationFile.length()) + journal.lastModified() + journal.length();
+        }
+    }
+
+    private class PrefetchTask implements Callable<PrefetchedImage> {
+        private final File imageFile;
+        private final File annotationFile;
+        private Future<PrefetchedImage> future;
+        // Not null only after finishing and before taking
+        private PrefetchedImage result;
+        private boolean discarded;
+
+        PrefetchTask(File imageFile, File annotationFile) {
+            this.imageFile = imageFile;
+            this.annotationFile = annotationFile;
+        }
+
+        @Override
+        public PrefetchedImage call() throws Exception {
+            PrefetchedImage prefetched = new PrefetchedImage(imageFile);
+            try {
+                prefetched.server = buildServer(imageFile);
+                if (prefetched.server != null)
+                    readLowResolutionTiles(prefetched.server);
+                if (annotationFile != null && annotationFile.exists()) {
+                    // Don't parse a file that is being written
+                    annotationSaver.waitForSaving();
+                    long stamp = PrefetchedImage.getFileStamp(annotationFile);
+                    List<CedarAnnotation> annotations = AnnotationLoader.readAnnotations(annotationFile);
+                    if (annotations != null) {
+                        AnnotationLoader.sortAnnotations(annotations);
+                        prefetched.annotationFile = annotationFile;
+                        prefetched.annotations = annotations;
+                        prefetched.annotationFileStamp = stamp;
+                    }
+                }
+            }
+            catch (Exception e) {
+                // Not an issue. The image will be loaded as usual.
+                logger.debug("Cannot prefetch " + imageFile + ": " + e.getMessage(), e);
+                prefetched.close();
+                throw e;
+            }
+            synchronized (this) {
+                if (discarded) {
+                    prefetched.close();
+                    return null;
+                }
+                result = prefetched;
+            }
+            logger.info("Prefetched " + imageFile.getName());
+            return prefetched;
+        }
+
+        synchronized PrefetchedImage take() {
+            if (result == null) {
+                // Don't block the caller
+                discard();
+                return null;
+            }
+            PrefetchedImage rtn = result;
+            result = null; // Handed over. Don't close it.
+            return rtn;
+        }
+
+        synchronized void discard() {
+            discarded = true;
+            if (future != null)
+                future.cancel(true);
+            if (result != null)
+                result.close();
+            result = null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package qupath.lib.extension.cedar;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qupath.lib.io.PathIO;
+import qupath.lib.objects.PathObject;
+import qupath.lib.objects.PathObjects;
+import qupath.lib.regions.ImagePlane;
+import qupath.lib.roi.ROIs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SuppressWarnings("javadoc")
+public class TestAnnotationSaver {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void test_saveAfterFailure() throws IOException {
+        File file = tempDir.resolve("image.geojson").toFile();
+        PathObject first = createAnnotation(0);
+        PathObject second = createAnnotation(100);
+        AnnotationSaver saver = new AnnotationSaver();
+        saver.save(file, List.of(first), false);
+        saver.waitForSaving();
+        assertEquals(Set.of(first.getID()), readIds(file));
+
+        // Block both the journal and the temp file used for a full save, so that saving the change fails
+        Path journal = Path.of(file.getAbsolutePath() + ".journal");
+        Path temp = Path.of(file.getAbsolutePath() + ".tmp");
+        Files.createDirectory(journal);
+        Files.createDirectory(temp);
+        saver.markChanged(second);
+        saver.save(file, List.of(first, second), false);
+        saver.waitForSaving();
+        assertEquals(Set.of(first.getID()), readIds(file));
+
+        // The next save should write the change, even though nothing else has changed since
+        Files.delete(journal);
+        Files.delete(temp);
+        saver.save(file, List.of(first, second), false);
+        saver.waitForSaving();
+        assertEquals(Set.of(first.getID(), second.getID()), readIds(file));
+    }
+
+    private static PathObject createAnnotation(double x) {
+        return PathObjects.createAnnotationObject(ROIs.createRectangleROI(x, 0, 50, 50, ImagePlane.getDefaultPlane()));
+    }
+
+    private static Set<UUID> readIds(File file) throws IOException {
+        return PathIO.readObjects(file).stream().map(PathObject::getID).collect(Collectors.toSet());
+    }
+
+}
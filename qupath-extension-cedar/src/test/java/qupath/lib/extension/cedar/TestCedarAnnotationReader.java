@@ -0,0 +1,83 @@
+package qupath.lib.extension.cedar;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SuppressWarnings("javadoc")
+public class TestCedarAnnotationReader {
+
+    @TempDir
+    Path tempDir;
+
+    private static final String FEATURE = """
+            {"type": "Feature", "id": "%s",
+             "geometry": {"type": "Polygon", "coordinates": [[[0, 0], [10, 0], [10, 10], [0, 0]]]},
+             "properties": {"objectType": "annotation", "classification": {"name": "Tumor"}}}
+            """;
+
+    @Test
+    public void test_featureCollectionWithForeignMembers() throws IOException {
+        // Nested members before "features" must be skipped without losing the annotations
+        String json = """
+                {"type": "FeatureCollection",
+                 "bbox": [0, 0, 10, 10],
+                 "crs": {"type": "name", "properties": {"name": "urn:ogc:def:crs:OGC::CRS84"}},
+                 "foreign": {"nested": [{"a": 1}, {"b": [1, 2, 3]}], "features": []},
+                 "features": [%s, %s]}
+                """.formatted(feature("a"), feature("b"));
+        var annotations = read(json);
+        assertEquals(2, annotations.size());
+        assertEquals("Tumor", annotations.get(0).getPathObject().getPathClass().toString());
+    }
+
+    @Test
+    public void test_featureWithForeignMembers() throws IOException {
+        String json = """
+                {"type": "Feature",
+                 "bbox": [0, 0, 10, 10],
+                 "foreign": {"geometry": {"type": "Point", "coordinates": [1, 2]}, "list": [[1], [2]]},
+                 "geometry": {"type": "Polygon", "coordinates": [[[0, 0], [10, 0], [10, 10], [0, 0]]]},
+                 "properties": {"objectType": "annotation"}}
+                """;
+        var annotations = read(json);
+        assertEquals(1, annotations.size());
+        assertEquals(50.0, annotations.get(0).getPathObject().getROI().getArea(), 1e-6);
+    }
+
+    @Test
+    public void test_parallel() throws IOException {
+        var sb = new StringBuilder("{\"type\": \"FeatureCollection\", \"bbox\": [0, 0, 10, 10], \"features\": [");
+        for (int i = 0; i < 2500; i++) {
+            if (i > 0)
+                sb.append(",");
+            sb.append(feature(Integer.toString(i)));
+        }
+        sb.append("]}");
+        var reader = new CedarAnnotationReader();
+        reader.setParallel(true);
+        assertEquals(2500, read(reader, sb.toString()).size());
+    }
+
+    private static String feature(String id) {
+        return FEATURE.formatted(id);
+    }
+
+    private List<CedarAnnotation> read(String json) throws IOException {
+        return read(new CedarAnnotationReader(), json);
+    }
+
+    private List<CedarAnnotation> read(CedarAnnotationReader reader, String json) throws IOException {
+        Path path = tempDir.resolve("annotations.geojson");
+        Files.writeString(path, json, StandardCharsets.UTF_8);
+        return reader.read(path.toFile());
+    }
+
+}
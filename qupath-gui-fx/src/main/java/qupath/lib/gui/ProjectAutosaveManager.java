@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * This file is part of QuPath.
+ * %%
+ * Copyright (C) 2024 QuPath developers, The University of Edinburgh
+ * %%
+ * QuPath is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * QuPath is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with QuPath.  If not, see <https://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+
+package qupath.lib.gui;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener.Change;
+import qupath.lib.gui.prefs.PathPrefs;
+import qupath.lib.gui.viewer.QuPathViewer;
+import qupath.lib.images.ImageData;
+import qupath.lib.projects.ImageDataAutosaver;
+import qupath.lib.projects.Project;
+
+/**
+ * Manager to autosave image data opened from the current project in the background.
+ * <p>
+ * An {@link ImageDataAutosaver} is created for each project (unless QuPath is read-only),
+ * and image data is registered with it whenever it is opened in a viewer.
+ * The interval is taken from {@link PathPrefs#autosaveMinutesProperty()}.
+ *
+ * @since v0.6.0
+ */
+class ProjectAutosaveManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProjectAutosaveManager.class);
+
+	private final QuPathGUI qupath;
+
+	private final ChangeListener<ImageData<BufferedImage>> imageDataListener = this::imageDataChanged;
+
+	private ImageDataAutosaver autosaver;
+
+	private ProjectAutosaveManager(QuPathGUI qupath) {
+		this.qupath = qupath;
+	}
+
+	/**
+	 * Create a new instance, which listens for changes to the project and viewers of a QuPath instance.
+	 * @param qupath
+	 * @return
+	 */
+	static ProjectAutosaveManager create(QuPathGUI qupath) {
+		var manager = new ProjectAutosaveManager(qupath);
+		qupath.projectProperty().addListener((v, o, n) -> manager.resetAutosaver());
+		qupath.readOnlyProperty().addListener((v, o, n) -> manager.resetAutosaver());
+		PathPrefs.autosaveMinutesProperty().addListener((v, o, n) -> manager.updateInterval());
+		for (var viewer : qupath.getAllViewers())
+			viewer.imageDataProperty().addListener(manager.imageDataListener);
+		qupath.getAllViewers().addListener((Change<? extends QuPathViewer> c) -> manager.viewersChanged(c));
+		manager.resetAutosaver();
+		return manager;
+	}
+
+	private static Duration getInterval() {
+		return Duration.ofMinutes(Math.max(0, PathPrefs.autosaveMinutesProperty().get()));
+	}
+
+	private void updateInterval() {
+		if (autosaver != null)
+			autosaver.setInterval(getInterval());
+	}
+
+	/**
+	 * Close any existing autosaver, and create a new one for the current project.
+	 * Any pending changes are not saved; this is expected to be handled by prompting the user
+	 * before the project is changed.
+	 */
+	private void resetAutosaver() {
+		if (autosaver != null) {
+			autosaver.close();
+			autosaver = null;
+		}
+		var project = qupath.getProject();
+		if (project == null || qupath.isReadOnly())
+			return;
+		autosaver = new ImageDataAutosaver(getInterval());
+		logger.debug("Autosaving {} every {} minutes", project, getInterval().toMinutes());
+		for (var viewer : qupath.getAllViewers())
+			register(project, viewer.getImageData());
+	}
+
+	private void viewersChanged(Change<? extends QuPathViewer> change) {
+		while (change.next()) {
+			for (var viewer : change.getRemoved()) {
+				viewer.imageDataProperty().removeListener(imageDataListener);
+				if (autosaver != null && viewer.getImageData() != null)
+					autosaver.unregister(viewer.getImageData());
+			}
+			for (var viewer : change.getAddedSubList()) {
+				viewer.imageDataProperty().addListener(imageDataListener);
+				if (autosaver != null)
+					register(qupath.getProject(), viewer.getImageData());
+			}
+		}
+	}
+
+	private void imageDataChanged(ObservableValue<? extends ImageData<BufferedImage>> observable,
+			ImageData<BufferedImage> imageDataOld, ImageData<BufferedImage> imageDataNew) {
+		if (autosaver == null)
+			return;
+		if (imageDataOld != null)
+			autosaver.unregister(imageDataOld);
+		register(qupath.getProject(), imageDataNew);
+	}
+
+	private void register(Project<BufferedImage> project, ImageData<BufferedImage> imageData) {
+		if (project == null || imageData == null)
+			return;
+		var entry = project.getEntry(imageData);
+		if (entry != null)
+			autosaver.register(entry, imageData);
+	}
+
+}
@@ -203,6 +203,7 @@ public class QuPathGUI {
 
 	private QuPathMainPaneManager mainPaneManager;
 	private UndoRedoManager undoRedoManager;
+	private ProjectAutosaveManager autosaveManager;
 	private MenuItemVisibilityManager menuVisibilityManager;
 
 	private boolean isStandalone = true;
@@ -593,6 +594,7 @@ public class QuPathGUI {
 
 	private void initializeProjectBehavior() {
 		setupProjectNameMasking();
+		autosaveManager = ProjectAutosaveManager.create(this);
 		pathClassManager.getAvailablePathClasses().addListener((Change<? extends PathClass> c) -> syncProjectPathClassesToAvailable());
 	}
 	
@@ -162,6 +162,9 @@ public class FileMenuActions implements MenuActions {
 			}
 		});
 		
+		@ActionConfig("Action.File.Project.rebuildSummaryIndex")
+		public final Action REBUILD_SUMMARY_INDEX = qupath.createProjectAction(project -> ProjectCommands.promptToRebuildSummaryIndex(qupath));
+		
 		public final Action SEP_22= ActionTools.createSeparator();
 		
 		@ActionConfig("Action.File.Project.importLegacy")
@@ -38,6 +38,7 @@ import qupath.lib.common.GeneralTools;
 import qupath.lib.gui.QuPathGUI;
 import qupath.fx.dialogs.Dialogs;
 import qupath.lib.gui.tools.GuiTools;
+import qupath.lib.images.ImageData;
 import qupath.lib.io.PathIO.GeoJsonExportOptions;
 import qupath.lib.objects.PathObject;
 import qupath.lib.objects.hierarchy.PathObjectHierarchy;
@@ -46,7 +47,7 @@ import qupath.lib.plugins.workflow.DefaultScriptableWorkflowStep;
 import qupath.lib.scripting.QP;
 
 /**
- * Command to export object(s) in GeoJSON format to an output file.
+ * Command to export object(s) in GeoJSON or QuPath's binary object format to an output file.
  * 
  * @author Melvin Gelbard
  * @author Pete Bankhead
@@ -58,6 +59,9 @@ public final class ExportObjectsCommand {
 	private static final String COMPRESS_ZIP = "ZIP";
 	private static final String COMPRESS_GZIP = "gzip";
 	
+	private static final String FORMAT_GEOJSON = "GeoJSON";
+	private static final String FORMAT_BINARY = "QuPath binary";
+	
 	// Suppress default constructor for non-instantiability
 	private ExportObjectsCommand() {
 		throw new AssertionError();
@@ -85,6 +89,7 @@ public final class ExportObjectsCommand {
 		// Params
 		var parameterList = new ParameterList()
 				.addChoiceParameter("exportOptions", "Export ", defaultObjects, Arrays.asList(allObjects, selectedObjects), "Choose which objects to export - run a 'Select annotations/detections' command first if needed")
+				.addChoiceParameter("format", "Format", FORMAT_GEOJSON, List.of(FORMAT_GEOJSON, FORMAT_BINARY), "Choose the output format - QuPath binary (.qpobj) is much faster to read and write for large numbers of objects, but is only supported by QuPath and custom scripts (the JSON options and compression are ignored)")
 				.addBooleanParameter("excludeMeasurements", "Exclude measurements", false, "Exclude object measurements during export - for large numbers of detections this can help reduce the file size")
 				.addBooleanParameter("doPretty", "Pretty JSON", false, "Pretty GeoJSON is more human-readable but results in larger file sizes")
 				.addBooleanParameter("doFeatureCollection", "Export as FeatureCollection", true, "Export as a 'FeatureCollection', which is a standard GeoJSON way to represent multiple objects; if not, a regular JSON object/array will be export")
@@ -132,8 +137,13 @@ public final class ExportObjectsCommand {
 			defaultDirectory = defaultDirectory.getParentFile();
 		File defaultFile = new File(defaultDirectory, defaultName);
 		
-		String comp = (String)parameterList.getChoiceParameterValue("compression");
+		boolean doBinary = FORMAT_BINARY.equals(parameterList.getChoiceParameterValue("format"));
+		String comp = doBinary ? FORMAT_BINARY : (String)parameterList.getChoiceParameterValue("compression");
 		switch (comp) {
+		case FORMAT_BINARY:
+			outFile = FileChoosers.promptToSaveFile("Export to file", defaultFile,
+					FileChoosers.createExtensionFilter("QuPath binary objects", ".qpobj"));
+			break;
 		case COMPRESS_ZIP:
 			outFile = FileChoosers.promptToSaveFile("Export to file", defaultFile,
 					FileChoosers.createExtensionFilter("ZIP archive", ".zip"));
@@ -151,6 +161,10 @@ public final class ExportObjectsCommand {
 		if (outFile == null)
 			return false;
 		
+		if (doBinary)
+			return exportBinary(imageData, toProcess, comboChoice.equals(allObjects), outFile,
+					!parameterList.getBooleanParameterValue("excludeMeasurements"));
+		
 		List<GeoJsonExportOptions> options = new ArrayList<>();
 		if (parameterList.getBooleanParameterValue("excludeMeasurements"))
 			options.add(GeoJsonExportOptions.EXCLUDE_MEASUREMENTS);
@@ -194,4 +208,25 @@ public final class ExportObjectsCommand {
 		return true;
 	}
 	
+	private static boolean exportBinary(ImageData<?> imageData, Collection<PathObject> toProcess, boolean allObjects, File outFile, boolean includeMeasurements) throws IOException {
+		QP.exportObjectsToBinary(toProcess, outFile.getAbsolutePath(), includeMeasurements);
+		
+		int nObjects = toProcess.size();
+		String message = nObjects == 1 ? "1 object was exported to " + outFile.getAbsolutePath() : 
+			String.format("%d objects were exported to %s", nObjects, outFile.getAbsolutePath());
+		Dialogs.showInfoNotification("Succesful export", message);
+		
+		Map<String, String> map = new LinkedHashMap<>();
+		map.put("path", outFile.getPath());
+		map.put("includeMeasurements", Boolean.toString(includeMeasurements));
+		String method = allObjects ? "exportAllObjectsToBinary" : "exportSelectedObjectsToBinary";
+		String methodTitle = allObjects ? "Export all objects" : "Export selected objects";
+		String methodString = String.format("%s(%s, %s)", 
+				method, 
+				"\"" + GeneralTools.escapeFilePath(outFile.getPath()) + "\"",
+				includeMeasurements);
+		imageData.getHistoryWorkflow().addStep(new DefaultScriptableWorkflowStep(methodTitle, map, methodString));
+		return true;
+	}
+	
 }
\ No newline at end of file
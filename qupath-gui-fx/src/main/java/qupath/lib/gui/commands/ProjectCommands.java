@@ -33,6 +33,9 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.imageio.ImageIO;
@@ -42,6 +45,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javafx.concurrent.Task;
+import javafx.event.ActionEvent;
+import javafx.scene.control.ButtonType;
 import qupath.fx.dialogs.FileChoosers;
 import qupath.lib.gui.QuPathGUI;
 import qupath.fx.dialogs.Dialogs;
@@ -53,9 +58,12 @@ import qupath.lib.images.servers.ImageServerBuilder;
 import qupath.lib.images.servers.ImageServerProvider;
 import qupath.lib.io.GsonTools;
 import qupath.lib.io.PathIO;
+import qupath.lib.plugins.SimpleProgressMonitor;
 import qupath.lib.projects.Project;
 import qupath.lib.projects.ProjectImageEntry;
+import qupath.lib.projects.ProjectSummaryIndex;
 import qupath.lib.projects.Projects;
+import qupath.lib.regions.ImageRegion;
 
 /**
  * Helper class implementing simple 'single-method' commands related to projects.
@@ -125,6 +133,18 @@ public class ProjectCommands {
 		return ProjectImportImagesCommand.getThumbnailRGB(server, null);
 	}
 	
+	/**
+	 * Request the thumbnail for a project entry, generating it in the background if it hasn't already been set.
+	 * Thumbnails for different entries are generated in parallel (using a small number of threads, since this 
+	 * is usually limited by reading the images), and repeated requests for the same entry share the same result.
+	 * @param entry
+	 * @return a future that completes with the thumbnail, or exceptionally if the thumbnail could not be generated
+	 * @since v0.6.0
+	 */
+	public static CompletableFuture<BufferedImage> requestThumbnail(ProjectImageEntry<BufferedImage> entry) {
+		return ProjectImportImagesCommand.requestThumbnail(entry);
+	}
+	
 	/**
 	 * Show the metadata editor for the specified project.
 	 * @param project
@@ -278,6 +298,119 @@ public class ProjectCommands {
 		return true;
 	}
 	
+	/**
+	 * Rebuild the summary index for the current project, reading the objects for each image in parallel.
+	 * The user is prompted whether to rebuild the index for all images, or only those that are missing 
+	 * or out of date.
+	 * @param qupath the QuPath instance
+	 * @return the number of images that were indexed
+	 * @see ProjectSummaryIndex
+	 * @since v0.6.0
+	 */
+	public static int promptToRebuildSummaryIndex(QuPathGUI qupath) {
+		var project = qupath.getProject();
+		String title = "Rebuild summary index";
+		if (project == null) {
+			GuiTools.showNoProjectError(title);
+			return 0;
+		}
+		// Reading the stored summaries requires a file to be read for every image
+		var index = runSummaryIndexTask(qupath, title, "Reading stored summaries...", monitor -> {
+			var projectIndex = ProjectSummaryIndex.getIndex(project);
+			return projectIndex.refresh(monitor) ? projectIndex : null;
+		});
+		if (index == null)
+			return 0;
+		int nMissing = index.getMissingEntries().size();
+		int nImages = project.getImageList().size();
+		boolean onlyMissing;
+		if (nMissing == 0) {
+			if (!Dialogs.showConfirmDialog(title, "The index is up to date for all " + nImages + " images.\nRebuild it anyway?"))
+				return 0;
+			onlyMissing = false;
+		} else if (nMissing == nImages) {
+			onlyMissing = true;
+		} else {
+			String missingOption = "Only missing or out-of-date images (" + nMissing + ")";
+			String allOption = "All images (" + nImages + ")";
+			var choice = Dialogs.showChoiceDialog(title, "Rebuild the index for", List.of(missingOption, allOption), missingOption);
+			if (choice == null)
+				return 0;
+			onlyMissing = missingOption.equals(choice);
+		}
+		
+		Integer nCompleted = runSummaryIndexTask(qupath, title, 
+				"Indexing " + (onlyMissing ? nMissing : nImages) + " images...", 
+				monitor -> index.rebuild(onlyMissing, monitor));
+		if (nCompleted == null)
+			nCompleted = 0;
+		Dialogs.showInfoNotification(title, nCompleted + " image(s) indexed");
+		return nCompleted;
+	}
+	
+	/**
+	 * Run a task using the summary index in the background, showing its progress in a dialog that can be used to cancel it.
+	 * @return the result of the task, or null if it was cancelled or failed
+	 */
+	private static <T> T runSummaryIndexTask(QuPathGUI qupath, String title, String message, Function<SimpleProgressMonitor, T> function) {
+		var task = new SummaryIndexTask<>(function);
+		var dialog = new ProgressDialog(task);
+		dialog.setTitle(title);
+		dialog.setContentText(message);
+		dialog.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+		dialog.getDialogPane().lookupButton(ButtonType.CANCEL).addEventFilter(ActionEvent.ACTION, e -> {
+			task.cancel(false);
+			e.consume();
+		});
+		qupath.getThreadPoolManager().submitShortTask(task);
+		dialog.showAndWait();
+		return task.getValue();
+	}
+	
+	
+	private static class SummaryIndexTask<T> extends Task<T> {
+		
+		private final Function<SimpleProgressMonitor, T> function;
+		
+		SummaryIndexTask(Function<SimpleProgressMonitor, T> function) {
+			this.function = function;
+		}
+
+		@Override
+		protected T call() throws Exception {
+			var monitor = new SimpleProgressMonitor() {
+				
+				private final AtomicInteger progress = new AtomicInteger();
+				private int maxProgress = 1;
+
+				@Override
+				public void startMonitoring(String message, int maxProgress, boolean mayCancel) {
+					this.maxProgress = Math.max(1, maxProgress);
+					updateMessage(message);
+					SummaryIndexTask.this.updateProgress(0, this.maxProgress);
+				}
+
+				@Override
+				public void updateProgress(int increment, String message, ImageRegion region) {
+					updateMessage(message);
+					SummaryIndexTask.this.updateProgress(progress.addAndGet(increment), maxProgress);
+				}
+
+				@Override
+				public void pluginCompleted(String message) {
+					updateMessage(message);
+				}
+
+				@Override
+				public boolean cancelled() {
+					return isCancelled();
+				}
+				
+			};
+			return function.apply(monitor);
+		}
+		
+	}
 	
 	
 	private static class LegacyProjectTask extends Task<Integer> {
@@ -34,9 +34,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -115,6 +120,18 @@ class ProjectImportImagesCommand {
 	private static final BooleanProperty importObjectsProperty = PathPrefs.createPersistentPreference("projectImportObjects", false);
 	private static final BooleanProperty showImageSelectorProperty = PathPrefs.createPersistentPreference("showImageSelectorProperty", false);
 	
+	/**
+	 * Maximum number of thumbnails to generate in parallel.
+	 * Generating thumbnails mostly involves reading images, so using more threads than this tends not to help.
+	 */
+	private static final int MAX_THUMBNAIL_THREADS = 4;
+	
+	private static final ExecutorService thumbnailPool = Executors.newFixedThreadPool(
+			Math.min(MAX_THUMBNAIL_THREADS, ThreadTools.getParallelism()), 
+			ThreadTools.createThreadFactory("project-thumbnails", true));
+	
+	private static final Map<ProjectImageEntry<BufferedImage>, CompletableFuture<BufferedImage>> pendingThumbnails = new ConcurrentHashMap<>();
+	
 	/**
 	 * Prompt to import images to the current project.
 	 *
@@ -461,11 +478,13 @@ class ProjectImportImagesCommand {
 					allAddedEntries.addAll(entries);
 					
 					// Initialize (the slow bit)
+					// Thumbnails are then generated in the background, so that import isn't delayed by them
 					int n = builders.size();
 					for (var entry : entries) {
 						pool.submit(() -> {
 							try {
 								initializeEntry(entry, type, pyramidalize, importObjects);
+								requestThumbnail(entry);
 							} catch (Exception e) {
 								failures.add(entry);
 								logger.warn("Exception adding " + entry, e);
@@ -728,7 +747,7 @@ class ProjectImportImagesCommand {
 			// Set the image name
 			String name = ServerTools.getDisplayableImageName(server);
 			entry.setImageName(name);
-			// The thumbnail generation has been moved to ProjectBrowser to avoid overhead
+			// The thumbnail is generated separately (see requestThumbnail) to avoid overhead
 			
 			// Pyramidalize this if we need to
 			@SuppressWarnings("resource")
@@ -789,6 +808,33 @@ class ProjectImportImagesCommand {
 //	}
 	
 	
+	/**
+	 * Request the thumbnail for a project entry, generating it in the background if it hasn't already been set.
+	 * Thumbnails for different entries are generated in parallel, and repeated requests for the same entry 
+	 * share the same result.
+	 * @param entry
+	 * @return a future that completes with the thumbnail
+	 */
+	static CompletableFuture<BufferedImage> requestThumbnail(ProjectImageEntry<BufferedImage> entry) {
+		var future = pendingThumbnails.computeIfAbsent(entry, e -> CompletableFuture.supplyAsync(() -> {
+			try {
+				var img = e.getThumbnail();
+				if (img == null) {
+					try (ImageServer<BufferedImage> server = e.getServerBuilder().build()) {
+						img = getThumbnailRGB(server, null);
+						e.setThumbnail(img);
+					}
+				}
+				return img;
+			} catch (Exception ex) {
+				throw new CompletionException(ex);
+			}
+		}, thumbnailPool));
+		future.whenComplete((img, ex) -> pendingThumbnails.remove(entry, future));
+		return future;
+	}
+	
+	
 	public static BufferedImage getThumbnailRGB(ImageServer<BufferedImage> server, ImageDisplay imageDisplay) throws IOException {
 		var img2 = server.getDefaultThumbnail(server.nZSlices()/2, 0);
 		// Try to write RGB images directly
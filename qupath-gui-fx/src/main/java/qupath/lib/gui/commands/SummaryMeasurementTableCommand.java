@@ -119,6 +119,9 @@ public class SummaryMeasurementTableCommand {
 	private static final Logger logger = LoggerFactory.getLogger(SummaryMeasurementTableCommand.class);
 
 	private static final BooleanProperty useRegexColumnFilter = PathPrefs.createPersistentPreference("summaryMeasurementTableUseRegexColumnFilter", false);
+	
+	// Number of rows for which values are requested at a time when converting a table to strings
+	private static final int EXPORT_BLOCK_SIZE = 10_000;
 
 	private QuPathGUI qupath;
 	
@@ -155,7 +158,7 @@ public class SummaryMeasurementTableCommand {
 		final PathObjectHierarchy hierarchy = imageData.getHierarchy();
 
 		ObservableMeasurementTableData model = new ObservableMeasurementTableData();
-		model.setImageData(imageData, imageData == null ? Collections.emptyList() : imageData.getHierarchy().getObjects(null, type));
+		model.setImageData(imageData, imageData == null ? Collections.emptyList() : imageData.getHierarchy().snapshot().getObjects(type));
 
 		SplitPane splitPane = new SplitPane();
 		HistogramDisplay histogramDisplay = new HistogramDisplay(model, true);
@@ -418,7 +421,7 @@ public class SummaryMeasurementTableCommand {
 				if (imageData != null)
 					displayedName.set(ServerTools.getDisplayableImageName(imageData.getServer()));
 				if (event.isStructureChangeEvent())
-					model.setImageData(imageData, imageData.getHierarchy().getObjects(null, type));
+					model.setImageData(imageData, imageData.getHierarchy().snapshot().getObjects(type));
 				else
 					model.refreshEntries();
 				table.refresh();
@@ -655,9 +658,19 @@ public class SummaryMeasurementTableCommand {
 		rows.add(sb.toString());
 		sb.setLength(0);
 		
-		for (T object : model.getItems()) {
+		// Request values a block of rows at a time, so that measurements can be read in bulk (by column) 
+		// without needing to hold every value in memory at once
+		var items = model.getItems();
+		String[][] values = new String[nColumns][];
+		for (int row = 0; row < items.size(); row++) {
+			int blockRow = row % EXPORT_BLOCK_SIZE;
+			if (blockRow == 0) {
+				var block = items.subList(row, Math.min(row + EXPORT_BLOCK_SIZE, items.size()));
+				for (int col = 0; col < nColumns; col++)
+					values[col] = model.getStringValues(block, names.get(col), -1);
+			}
 			for (int col = 0; col < nColumns; col++) {
-				String val = model.getStringValue(object, names.get(col));
+				String val = values[col][blockRow];
 				if (val != null) {
 					if (val.contains("\""))
 						logger.warn("Syntax is ambiguous (i.e. misuse of '\"'), which might result in inconsistencies/errors.");
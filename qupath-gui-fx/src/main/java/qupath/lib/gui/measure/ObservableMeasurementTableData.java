@@ -205,7 +205,7 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 					containsMultiT = true;
 			}
 		}
-		boolean detectionsAnywhere = imageData == null ? containsDetections : !imageData.getHierarchy().getDetectionObjects().isEmpty();
+		boolean detectionsAnywhere = imageData == null ? containsDetections : imageData.getHierarchy().getStatistics().getDetectionCount() > 0;
 
 		// Include object ID if we have anything other than root objects
 		if (containsAnnotations || containsDetections || containsTMACores)
@@ -480,8 +480,19 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 			return values;
 		}
 		// Good news! We just need a regular measurement
-		for (int i = 0; i < filterList.size(); i++)
-			values[i] = filterList.get(i).getMeasurementList().get(column);
+		return getMeasurementListValues(filterList, column);
+	}
+	
+	/**
+	 * Get the values of a measurement stored in the measurement lists of objects.
+	 * These are read in bulk from the hierarchy's measurement store whenever possible.
+	 */
+	private double[] getMeasurementListValues(final List<? extends PathObject> pathObjects, final String column) {
+		if (imageData != null)
+			return imageData.getHierarchy().getMeasurementStore().getValues(column, pathObjects);
+		double[] values = new double[pathObjects.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = pathObjects.get(i).getMeasurementList().get(column);
 		return values;
 	}
 	
@@ -568,12 +579,12 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 		
 		@Override
 		protected int computeValue() {
-			Collection<PathObject> pathObjects;
 			if (pathObject.isRootObject()) {
-				pathObjects = imageData.getHierarchy().getObjects(null, cls);
-			} else {
-				pathObjects = imageData.getHierarchy().getObjectsForROI(cls, pathObject.getROI());
+				// The snapshot is shared by all rows until the hierarchy changes (and includes the root if it matches)
+				int n = imageData.getHierarchy().snapshot().getObjects(cls).size();
+				return cls.isInstance(pathObject) ? n - 1 : n;
 			}
+			Collection<PathObject> pathObjects = imageData.getHierarchy().getObjectsForROI(cls, pathObject.getROI());
 			pathObjects.remove(pathObject);
 			return pathObjects.size();
 //			return PathObjectTools.countChildren(pathObject, cls, true);
@@ -1751,7 +1762,7 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 //			for (PathObject child : PathObjectTools.getFlattenedObjectList(parentObject, null, true)) {
 			Collection<PathObject> pathObjects;
 			if (parentObject.isRootObject())
-				pathObjects = hierarchy.getDetectionObjects();
+				pathObjects = hierarchy.snapshot().getDetectionObjects();
 			else
 				pathObjects = hierarchy.getObjectsForROI(PathDetectionObject.class, parentObject.getROI());
 			
@@ -1941,7 +1952,21 @@ public class ObservableMeasurementTableData implements PathTableData<PathObject>
 			logger.warn("Requested measurement {} for null object! Returned empty String.", column);
 			return "";
 		}
-		double val = pathObject.getMeasurementList().get(column);
+		return formatMeasurementListValue(pathObject.getMeasurementList().get(column));
+	}
+	
+	@Override
+	public String[] getStringValues(final List<? extends PathObject> pathObjects, final String column, final int decimalPlaces) {
+		if (builderMap.containsKey(column))
+			return PathTableData.super.getStringValues(pathObjects, column, decimalPlaces);
+		double[] values = getMeasurementListValues(pathObjects, column);
+		String[] strings = new String[values.length];
+		for (int i = 0; i < values.length; i++)
+			strings[i] = formatMeasurementListValue(values[i]);
+		return strings;
+	}
+	
+	private static String formatMeasurementListValue(double val) {
 		if (Double.isNaN(val))
 			return "NaN";
 		return GeneralTools.formatNumber(val, 4);
@@ -93,6 +93,25 @@ public interface PathTableData<T> {
 	 */
 	public double[] getDoubleValues(final String column);
 	
+	/**
+	 * Get string values for a list of items, converting to a fixed number of decimal places if the column is numeric.
+	 * <p>
+	 * This gives the same result as calling {@link #getStringValue(Object, String, int)} for each item, 
+	 * but implementations may override it to read the values more efficiently.
+	 * 
+	 * @param items
+	 * @param name
+	 * @param decimalPlaces
+	 * @return an array containing the value for each item
+	 * @since v0.6.0
+	 */
+	public default String[] getStringValues(final List<? extends T> items, final String name, final int decimalPlaces) {
+		String[] values = new String[items.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = getStringValue(items.get(i), name, decimalPlaces);
+		return values;
+	}
+	
 	/**
 	 * Get internal list of the items used to provide measurements.
 	 * 
@@ -419,7 +419,8 @@ public class PathObjectHierarchyView implements ChangeListener<ImageData<Buffere
 		
 		this.hierarchy = imageData == null ? null : imageData.getHierarchy();
 		if (hierarchy != null) {
-			hierarchy.addListener(this);
+			// Rebuilding the tree is expensive, so respond to bursts of changes only once
+			hierarchy.addListener(this, Platform::runLater);
 			hierarchy.getSelectionModel().addPathObjectSelectionListener(this);
 			treeView.setRoot(createNode(hierarchy.getRootObject()));
 		} else
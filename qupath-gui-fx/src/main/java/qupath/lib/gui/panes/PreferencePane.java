@@ -337,6 +337,9 @@ public class PreferencePane {
 		@DoublePref("Prefs.InputOutput.tmaExportDownsample")
 		public final DoubleProperty tmaExportDownsample = PathPrefs.tmaExportDownsampleProperty();
 		
+		@IntegerPref("Prefs.InputOutput.autosaveMinutes")
+		public final IntegerProperty autosaveMinutes = PathPrefs.autosaveMinutesProperty();
+		
 	}
 	
 	
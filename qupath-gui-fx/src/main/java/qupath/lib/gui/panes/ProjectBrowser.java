@@ -41,8 +41,6 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -99,7 +97,6 @@ import javafx.scene.layout.StackPane;
 import qupath.fx.controls.PredicateTextField;
 import qupath.fx.prefs.controlsfx.PropertyItemBuilder;
 import qupath.lib.common.GeneralTools;
-import qupath.lib.common.ThreadTools;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.actions.ActionTools;
 import qupath.lib.gui.commands.ProjectCommands;
@@ -114,7 +111,6 @@ import qupath.lib.gui.tools.IconFactory.PathIcons;
 import qupath.lib.gui.tools.MenuTools;
 import qupath.fx.utils.GridPaneUtils;
 import qupath.lib.images.ImageData;
-import qupath.lib.images.servers.ImageServer;
 import qupath.lib.images.servers.ImageServerMetadata;
 import qupath.lib.plugins.parameters.ParameterList;
 import qupath.lib.projects.Project;
@@ -180,11 +176,6 @@ public class ProjectBrowser implements ChangeListener<ImageData<BufferedImage>>
 	private static final String UNASSIGNED_NODE = "(Unassigned)";
 	private static final String UNDEFINED_VALUE = "Undefined";
 
-	/**
-	 * To load thumbnails in the background
-	 */
-	private static ExecutorService executor;
-
 	/**
 	 * Constructor.
 	 * @param qupath the current QuPath instance
@@ -196,9 +187,6 @@ public class ProjectBrowser implements ChangeListener<ImageData<BufferedImage>>
 
 		qupath.imageDataProperty().addListener(this);
 		
-		// Get thumbnails in separate thread
-		executor = Executors.newSingleThreadExecutor(ThreadTools.createThreadFactory("thumbnail-loader", true));
-		
 		PathPrefs.maskImageNamesProperty().addListener((v, o, n) -> refreshTree(null));
 
 		panel = new BorderPane();
@@ -1220,7 +1208,7 @@ public class ProjectBrowser implements ChangeListener<ImageData<BufferedImage>>
 
 				try {
 					// Fetch the thumbnail or generate it if not present
-					BufferedImage img = entry.getThumbnail();
+					BufferedImage img = entry.getThumbnailPreview();
 					if (img != null) {
 						// If the cell contains the same object, no need to repaint the graphic
 						if (objectCell == item && getGraphic() != null)
@@ -1233,26 +1221,22 @@ public class ProjectBrowser implements ChangeListener<ImageData<BufferedImage>>
 						objectCell = item;
 						if (getGraphic() == null)
 							setGraphic(label);
-					} else if (!serversFailed.contains(item)) {
-						executor.submit(() -> {
-							final ProjectTreeRow objectTemp = getItem();
-							final ProjectImageEntry<BufferedImage> entryTemp = ProjectTreeRow.getEntry(objectTemp);
-							try {
-								if (entryTemp != null && objectCell != objectTemp && entryTemp.getThumbnail() == null) {
-									try (ImageServer<BufferedImage> server = entryTemp.getServerBuilder().build()) {
-										entryTemp.setThumbnail(ProjectCommands.getThumbnailRGB(server));
-										objectCell = objectTemp;
-										tree.refresh();
-									} catch (Exception ex) {
-										logger.warn("Error opening ImageServer (thumbnail generation): " + ex.getLocalizedMessage(), ex);
-										Platform.runLater(() -> setGraphic(IconFactory.createNode(15, 15, PathIcons.INACTIVE_SERVER)));
-										serversFailed.add(item);
-									}
-								}
-							} catch (IOException ex) {
-								logger.warn("Error getting thumbnail: " + ex.getLocalizedMessage());
-								Platform.runLater(() -> setGraphic(IconFactory.createNode(15, 15, PathIcons.INACTIVE_SERVER)));
+					} else if (!serversFailed.contains(item) && !entry.isThumbnailFailed()) {
+						ProjectCommands.requestThumbnail(entry).whenComplete((imgThumbnail, ex) -> {
+							// Only refresh if we have a thumbnail, otherwise it would just be requested again
+							if (ex == null && imgThumbnail != null) {
+								Platform.runLater(() -> tree.refresh());
+							} else {
+								if (ex == null)
+									logger.warn("No thumbnail available for {}", entry.getImageName());
+								else
+									logger.warn("Error generating thumbnail: " + ex.getLocalizedMessage(), ex);
+								entry.markThumbnailFailed();
 								serversFailed.add(item);
+								Platform.runLater(() -> {
+									if (getItem() == item)
+										setGraphic(IconFactory.createNode(15, 15, PathIcons.INACTIVE_SERVER));
+								});
 							}
 						});
 					} else
@@ -1260,6 +1244,7 @@ public class ProjectBrowser implements ChangeListener<ImageData<BufferedImage>>
 				} catch (Exception e) {
 					setGraphic(IconFactory.createNode(15, 15, PathIcons.INACTIVE_SERVER));
 					logger.warn("Unable to read thumbnail for {} ({})" + entry.getImageName(), e.getLocalizedMessage());
+					entry.markThumbnailFailed();
 					serversFailed.add(item);
 				}
 			}
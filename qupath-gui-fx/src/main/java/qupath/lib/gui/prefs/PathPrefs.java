@@ -59,6 +59,7 @@ import qupath.lib.common.Version;
 import qupath.lib.gui.QuPathGUI;
 import qupath.lib.gui.localization.QuPathResources;
 import qupath.lib.objects.classes.PathClass;
+import qupath.lib.projects.ImageDataAutosaver;
 import qupath.lib.projects.ProjectIO;
 
 /**
@@ -811,6 +812,20 @@ public class PathPrefs {
 	}
 
 	
+	private static IntegerProperty autosaveMinutes = PathPrefs.createPersistentPreference("autosaveMinutes",
+			(int)ImageDataAutosaver.DEFAULT_INTERVAL.toMinutes());
+
+	/**
+	 * The interval in minutes between autosaves of image data opened from a project.
+	 * If zero or negative, image data is not autosaved.
+	 * @return
+	 * @since v0.6.0
+	 */
+	public static IntegerProperty autosaveMinutesProperty() {
+		return autosaveMinutes;
+	}
+
+	
 	private static ObservableList<URI> recentScripts = createRecentScriptsList(8);
 	
 	private static ObservableList<URI> createRecentScriptsList(int nRecentScripts) {
@@ -220,7 +220,7 @@ public class MeasurementExporter {
 			try {
 				ImageData<?> imageData = entry.readImageData();
 				ObservableMeasurementTableData model = new ObservableMeasurementTableData();
-				Collection<PathObject> pathObjects = imageData == null ? Collections.emptyList() : imageData.getHierarchy().getObjects(null, type);
+				Collection<PathObject> pathObjects = imageData == null ? Collections.emptyList() : imageData.getHierarchy().snapshot().getObjects(type);
 				if (filter != null)
 					pathObjects = pathObjects.stream().filter(filter).toList();
 				